@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput and latency of lookups ({@link BlockList#contains(JID)}, {@link BlockList#filterBlocked}) and
+ * mutations ({@link BlockList#addAll(Map)}, {@link BlockList#removeAll}) of the block list, for various sizes of the
+ * block list.
+ *
+ * The block list is backed by a local (non-clustered) cache, so that results are not affected by Openfire's cache
+ * configuration. Run with a different amount of threads (eg: <tt>-t 4</tt>) to measure contention on the block list.
+ *
+ * Run with: <code>mvn -Pbenchmark test-compile exec:exec -Djmh.args="BlockListBenchmark"</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class BlockListBenchmark
+{
+    /**
+     * The amount of entries on the block list.
+     */
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    /**
+     * The amount of JIDs or hashes that are processed in one invocation of a batch operation.
+     */
+    public static final int BATCH_SIZE = 100;
+
+    private Cache<String, String> cache;
+
+    private BlockList blockList;
+
+    /**
+     * Full JIDs of which the bare JID is on the block list.
+     */
+    private JID[] blocked;
+
+    /**
+     * Full JIDs that are not on the block list.
+     */
+    private JID[] clean;
+
+    /**
+     * Batches of JIDs, of which 10% is on the block list.
+     */
+    private List<List<JID>> mixedBatches;
+
+    /**
+     * A batch of hashes that are already on the block list.
+     */
+    private Map<String, String> existing;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        cache = CacheFactory.createLocalCache("MUC RealTime Block List (benchmark)");
+        cache.setMaxCacheSize(-1L);
+        cache.setMaxLifetime(-1L);
+        cache.clear();
+        blockList = new BlockList(cache);
+
+        final Map<String, String> entries = new HashMap<>();
+        blocked = new JID[Math.min(size, 10_000)];
+        for (int i = 0; i < size; i++) {
+            final JID jid = new JID("spammer" + i, "example.org", "resource");
+            entries.put(StringUtils.hash(jid.toBareJID(), "SHA-256"), "benchmark");
+            if (i < blocked.length) {
+                blocked[i] = jid;
+            }
+        }
+        blockList.addAll(entries);
+
+        clean = new JID[10_000];
+        for (int i = 0; i < clean.length; i++) {
+            clean[i] = new JID("user" + i, "example.com", "resource");
+        }
+
+        mixedBatches = new ArrayList<>();
+        for (int b = 0; b < 100; b++) {
+            final List<JID> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add(i % 10 == 0 ? blocked[(b * BATCH_SIZE + i) % blocked.length] : clean[(b * BATCH_SIZE + i) % clean.length]);
+            }
+            mixedBatches.add(batch);
+        }
+
+        existing = new HashMap<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            existing.put(StringUtils.hash(blocked[i % blocked.length].toBareJID(), "SHA-256"), "benchmark");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Per-thread state, providing hashes that are not on the block list.
+     */
+    @State(Scope.Thread)
+    public static class Fresh
+    {
+        private final String prefix = String.format("%016x", ThreadLocalRandom.current().nextLong());
+        private long counter = 0;
+
+        Map<String, String> nextBatch()
+        {
+            final Map<String, String> result = new HashMap<>();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                result.put(prefix + String.format("%048x", counter++), "benchmark");
+            }
+            return result;
+        }
+    }
+
+    @Benchmark
+    public boolean containsBlocked()
+    {
+        return blockList.contains(blocked[ThreadLocalRandom.current().nextInt(blocked.length)]);
+    }
+
+    @Benchmark
+    public boolean containsClean()
+    {
+        return blockList.contains(clean[ThreadLocalRandom.current().nextInt(clean.length)]);
+    }
+
+    @Benchmark
+    public Set<JID> filterBlocked()
+    {
+        return blockList.filterBlocked(mixedBatches.get(ThreadLocalRandom.current().nextInt(mixedBatches.size())));
+    }
+
+    /**
+     * Adds a batch of hashes that are not on the block list, and removes them again (to keep the size of the block list
+     * stable).
+     */
+    @Benchmark
+    public int addAllThenRemoveAll(final Fresh fresh)
+    {
+        final Map<String, String> batch = fresh.nextBatch();
+        final int added = blockList.addAll(batch);
+        blockList.removeAll(batch.keySet());
+        return added;
+    }
+
+    /**
+     * Adds a batch of hashes that are all already on the block list (as happens when a full retrieval overlaps with the
+     * existing content).
+     */
+    @Benchmark
+    public int addAllExisting()
+    {
+        return blockList.addAll(new HashMap<>(existing));
+    }
+
+    /**
+     * Removes a batch of hashes that are not on the block list.
+     */
+    @Benchmark
+    public void removeAllAbsent(final Fresh fresh)
+    {
+        blockList.removeAll(fresh.nextBatch().keySet());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the duration of importing block list entries from a file into an empty block list.
+ *
+ * Run with: <code>mvn -Pbenchmark test-compile exec:exec -Djmh.args="BlockListImportBenchmark"</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BlockListImportBenchmark
+{
+    /**
+     * The amount of entries in the file.
+     */
+    @Param({"100000"})
+    public int amount;
+
+    /**
+     * The amount of entries that is added to the block list at once.
+     */
+    @Param({"10000"})
+    public int batchSize;
+
+    private Path file;
+
+    private Cache<String, String> cache;
+
+    private BlockList blockList;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException
+    {
+        file = Files.createTempFile("mucrtbl-import", ".txt");
+        try (final BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < amount; i++) {
+                writer.write(String.format("%064x", i));
+                if (i % 10 == 0) {
+                    writer.write(" Spam: benchmark entry");
+                }
+                writer.newLine();
+            }
+        }
+        cache = CacheFactory.createLocalCache("MUC RealTime Block List (benchmark)");
+        cache.setMaxCacheSize(-1L);
+        cache.setMaxLifetime(-1L);
+    }
+
+    @Setup(Level.Invocation)
+    public void createBlockList()
+    {
+        cache.clear();
+        blockList = new BlockList(cache);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException
+    {
+        cache.clear();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public BlockListImporter.Result importFile() throws IOException
+    {
+        return new BlockListImporter(blockList, batchSize).importFrom(file);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmpp.packet.JID;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of {@link BlockList#contains(JID)} for senders on deep domains, with and without matching of parent
+ * domains, and compares the cost of computing domain hash chains with that of looking them up in the cache.
+ *
+ * Run with: <code>mvn -Pbenchmark test-compile exec:exec -Djmh.args="DomainMatchingBenchmark"</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class DomainMatchingBenchmark
+{
+    /**
+     * Whether parent domains are matched.
+     */
+    @Param({"false", "true"})
+    public boolean parents;
+
+    private Cache<String, String> cache;
+
+    private BlockList blockList;
+
+    /**
+     * Senders on domains of two up to ten labels.
+     */
+    private JID[] senders;
+
+    private DomainHashChains chains;
+
+    private String deepest;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        senders = new JID[9];
+        for (int depth = 2; depth <= 10; depth++) {
+            final StringBuilder domain = new StringBuilder("example.net");
+            for (int i = 0; i < depth - 2; i++) {
+                domain.insert(0, "sub" + i + ".");
+            }
+            senders[depth - 2] = new JID("user", domain.toString(), "resource");
+        }
+        deepest = senders[senders.length - 1].getDomain();
+
+        cache = CacheFactory.createLocalCache("MUC RealTime Block List (benchmark)");
+        cache.setMaxCacheSize(-1L);
+        cache.setMaxLifetime(-1L);
+        cache.clear();
+        blockList = new BlockList(cache);
+        for (int i = 0; i < 10_000; i++) {
+            blockList.add(String.format("%064x", i), "");
+        }
+        blockList.setMatchParentDomains(parents);
+
+        chains = new DomainHashChains();
+        chains.get(deepest, parents);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        cache.clear();
+    }
+
+    @Benchmark
+    public boolean contains()
+    {
+        return blockList.contains(senders[ThreadLocalRandom.current().nextInt(senders.length)]);
+    }
+
+    @Benchmark
+    public String[] computeChain()
+    {
+        return DomainHashChains.compute(deepest);
+    }
+
+    @Benchmark
+    public String[] cachedChain()
+    {
+        return chains.get(deepest, parents);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.dom4j.Element;
+import org.jivesoftware.openfire.PacketRouter;
+import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-packet overhead of {@link StanzaBlocker#interceptPacket} and {@link PubSubHandler#processPacket} for
+ * various mixes of stanzas. Run with JMH's GC profiler (<tt>-prof gc</tt>) to report the allocation rate per scenario.
+ *
+ * Instead of mocking Openfire's MUC manager (which would make the cost of the mocks dominate the measurements), the
+ * stanza blocker resolves MUC services by domain, from a map.
+ *
+ * Run with: <code>mvn -Pbenchmark test-compile exec:exec -Djmh.args="InterceptorBenchmark -prof gc"</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark
+{
+    private static final String XMPP_DOMAIN = "example.org";
+    private static final JID PUBSUB_SERVICE = new JID("pubsub.rtbl.example.net");
+    private static final String NODE = "muc_bans_sha256";
+
+    /**
+     * The mix of stanzas that is processed:
+     * <ul>
+     *     <li>nonMuc: stanzas between users (not addressed to a MUC service);</li>
+     *     <li>mucClean: stanzas to MUC rooms, sent by users that are not on the block list;</li>
+     *     <li>mucFlood: stanzas to MUC rooms, sent by a small amount of users that are on the block list;</li>
+     *     <li>mixed: 80% nonMuc, 18% mucClean, 2% mucFlood.</li>
+     * </ul>
+     */
+    @Param({"nonMuc", "mucClean", "mucFlood", "mixed"})
+    public String scenario;
+
+    /**
+     * The amount of entries on the block list.
+     */
+    @Param({"10000"})
+    public int size;
+
+    private Cache<String, String> cache;
+    private AuditLog auditLog;
+    private StanzaBlocker stanzaBlocker;
+    private Packet[] stanzas;
+    private int next = 0;
+
+    private PubSubHandler pubSubHandler;
+    private Message[] events;
+    private Message foreignMessage;
+    private int nextEvent = 0;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        cache = CacheFactory.createLocalCache("MUC RealTime Block List (benchmark)");
+        cache.setMaxCacheSize(-1L);
+        cache.setMaxLifetime(-1L);
+        cache.clear();
+        final BlockList blockList = new BlockList(cache);
+        final Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            entries.put(StringUtils.hash("spammer" + i + "@" + XMPP_DOMAIN, "SHA-256"), "benchmark");
+        }
+        blockList.addAll(entries);
+
+        final Map<String, String> services = new HashMap<>();
+        services.put("conference." + XMPP_DOMAIN, "conference");
+        auditLog = new AuditLog(null, Duration.ofMinutes(1), 0, 0);
+        stanzaBlocker = new StanzaBlocker(blockList, () -> EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), auditLog) {
+            @Override
+            protected String getServiceName(final JID address) {
+                return services.get(address.getDomain());
+            }
+        };
+
+        final Random random = new Random(42);
+        stanzas = new Packet[10_000];
+        for (int i = 0; i < stanzas.length; i++) {
+            final String kind;
+            switch (scenario) {
+                case "mixed":
+                    final int r = random.nextInt(100);
+                    kind = r < 80 ? "nonMuc" : r < 98 ? "mucClean" : "mucFlood";
+                    break;
+                default:
+                    kind = scenario;
+            }
+            stanzas[i] = createStanza(kind, random);
+        }
+
+        final PacketRouter router = new PacketRouter() {
+            @Override public void route(Packet packet) {}
+            @Override public void route(IQ packet) {}
+            @Override public void route(Message packet) {}
+            @Override public void route(Presence packet) {}
+        };
+        pubSubHandler = new PubSubHandler(blockList, PUBSUB_SERVICE, NODE, new JID("mucrtbl." + XMPP_DOMAIN), router, 100, 3, 10, false);
+
+        // Alternate between publishing and retracting the same items, to keep the size of the block list stable.
+        events = new Message[200];
+        for (int i = 0; i < events.length; i += 2) {
+            final String hash = StringUtils.hash("new-spammer" + i + "@" + XMPP_DOMAIN, "SHA-256");
+            events[i] = createEvent(hash, false);
+            events[i + 1] = createEvent(hash, true);
+        }
+        foreignMessage = new Message();
+        foreignMessage.setFrom(new JID("user@" + XMPP_DOMAIN + "/resource"));
+        foreignMessage.setTo(new JID("mucrtbl." + XMPP_DOMAIN));
+        foreignMessage.setBody("Hello");
+    }
+
+    @Setup(Level.Iteration)
+    public void flushAuditLog()
+    {
+        auditLog.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        cache.clear();
+    }
+
+    private static Packet createStanza(final String kind, final Random random)
+    {
+        switch (kind) {
+            case "nonMuc": {
+                final Message message = new Message();
+                message.setType(Message.Type.chat);
+                message.setFrom(new JID("user" + random.nextInt(1000), XMPP_DOMAIN, "resource"));
+                message.setTo(new JID("contact" + random.nextInt(1000), XMPP_DOMAIN, null));
+                message.setBody("Hello");
+                return message;
+            }
+            case "mucClean": {
+                if (random.nextBoolean()) {
+                    final Presence presence = new Presence();
+                    presence.setFrom(new JID("user" + random.nextInt(1000), XMPP_DOMAIN, "resource"));
+                    presence.setTo(new JID("room" + random.nextInt(50), "conference." + XMPP_DOMAIN, "nickname"));
+                    return presence;
+                }
+                final Message message = new Message();
+                message.setType(Message.Type.groupchat);
+                message.setFrom(new JID("user" + random.nextInt(1000), XMPP_DOMAIN, "resource"));
+                message.setTo(new JID("room" + random.nextInt(50), "conference." + XMPP_DOMAIN, null));
+                message.setBody("Hello");
+                return message;
+            }
+            case "mucFlood": {
+                final Message message = new Message();
+                message.setType(Message.Type.groupchat);
+                message.setFrom(new JID("spammer" + random.nextInt(5), XMPP_DOMAIN, "resource"));
+                message.setTo(new JID("room" + random.nextInt(50), "conference." + XMPP_DOMAIN, null));
+                message.setBody("Spam");
+                return message;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + kind);
+        }
+    }
+
+    private static Message createEvent(final String hash, final boolean retract)
+    {
+        final Message message = new Message();
+        message.setFrom(PUBSUB_SERVICE);
+        message.setTo(new JID("mucrtbl." + XMPP_DOMAIN));
+        final Element itemsEl = message.addChildElement("event", "http://jabber.org/protocol/pubsub#event").addElement("items");
+        itemsEl.addAttribute("node", NODE);
+        if (retract) {
+            itemsEl.addElement("retract").addAttribute("id", hash);
+        } else {
+            itemsEl.addElement("item").addAttribute("id", hash).addElement("report", "urn:xmpp:reporting:1").addAttribute("reason", "urn:xmpp:reporting:spam");
+        }
+        return message;
+    }
+
+    /**
+     * Processes one stanza of the configured mix, as an incoming, unprocessed stanza.
+     *
+     * @return true if the stanza was rejected.
+     */
+    @Benchmark
+    public boolean stanzaBlocker()
+    {
+        final Packet stanza = stanzas[next++ % stanzas.length];
+        try {
+            stanzaBlocker.interceptPacket(stanza, null, true, false);
+            return false;
+        } catch (PacketRejectedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Processes a stanza that has already been processed (the interceptor is invoked twice for every stanza).
+     */
+    @Benchmark
+    public boolean stanzaBlockerProcessed() throws PacketRejectedException
+    {
+        stanzaBlocker.interceptPacket(stanzas[next++ % stanzas.length], null, true, true);
+        return true;
+    }
+
+    /**
+     * Processes a pub/sub event notification that publishes or retracts an item.
+     */
+    @Benchmark
+    public void pubSubHandlerEvent()
+    {
+        pubSubHandler.processPacket(events[nextEvent++ % events.length]);
+    }
+
+    /**
+     * Processes a message that is not sent by the pub/sub service.
+     */
+    @Benchmark
+    public void pubSubHandlerForeignMessage()
+    {
+        pubSubHandler.processPacket(foreignMessage);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.jivesoftware.openfire.PacketRouter;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of processing one page of a retrieval of all items of the node by
+ * {@link PubSubHandler#handlePageResult(IQ)}: extracting the hashes, adding them to an empty block list, and tracking
+ * the progress of the retrieval. Run with a GC profiler to observe the allocations per page, eg:
+ *
+ * <code>mvn -Pbenchmark test-compile exec:exec -Djmh.args="PubSubItemExtractionBenchmark -prof gc"</code>
+ *
+ * When 'rsm' is false, the response does not contain a Result Set Management element, like a response of a service
+ * that returns all items of the node at once. Such a response is applied in chunks of the page size that is configured
+ * for the handler ({@link #HANDLER_PAGE_SIZE}). To compare the peak heap usage of processing such a response with that
+ * of a response that is applied in one mutation, run a single shot per invocation with a fixed heap, and observe the
+ * maximum heap after collection, eg:
+ *
+ * <code>mvn -Pbenchmark test-compile exec:exec -Djmh.args="PubSubItemExtractionBenchmark -p items=100000 -bm ss -jvmArgsAppend '-Xms512m -Xmx512m -Xlog:gc' -prof gc"</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PubSubItemExtractionBenchmark
+{
+    private static final JID SERVICE = new JID("pubsub.example.org");
+    private static final String NODE = "muc_bans_sha256";
+    private static final JID SELF = new JID("mucrtbl.example.com");
+
+    /**
+     * The page size that is configured for the handler, which bounds the chunks in which a response without a Result
+     * Set Management element is applied.
+     */
+    private static final int HANDLER_PAGE_SIZE = 1000;
+
+    /**
+     * The amount of items in the response.
+     */
+    @Param({"100", "500", "1000", "100000"})
+    public int items;
+
+    /**
+     * Whether the response contains a Result Set Management element.
+     */
+    @Param({"true", "false"})
+    public boolean rsm;
+
+    private Cache<String, String> cache;
+
+    private PubSubHandler handler;
+
+    private IQ response;
+
+    /**
+     * Captures the last request that is sent by the handler.
+     */
+    private IQ request;
+
+    @Setup(Level.Trial)
+    public void createCache()
+    {
+        cache = CacheFactory.createLocalCache("MUC RealTime Block List (benchmark)");
+        cache.setMaxCacheSize(-1L);
+        cache.setMaxLifetime(-1L);
+    }
+
+    @Setup(Level.Invocation)
+    public void requestPage()
+    {
+        cache.clear();
+        final PacketRouter router = new PacketRouter() {
+            @Override
+            public void route(final Packet packet) {
+                if (packet instanceof IQ) {
+                    route((IQ) packet);
+                }
+            }
+
+            @Override
+            public void route(final IQ packet) {
+                request = packet;
+            }
+
+            @Override
+            public void route(final Message packet) {
+            }
+
+            @Override
+            public void route(final Presence packet) {
+            }
+        };
+        handler = new PubSubHandler(new BlockList(cache), SERVICE, NODE, SELF, router, HANDLER_PAGE_SIZE, 1, 0, false);
+        handler.requestAllItems(SERVICE, NODE);
+
+        response = IQ.createResultIQ(request);
+        final Element pubsubEl = response.setChildElement("pubsub", "http://jabber.org/protocol/pubsub");
+        final Element itemsEl = pubsubEl.addElement("items").addAttribute("node", NODE);
+        for (int i = 0; i < items; i++) {
+            final Element reportEl = itemsEl.addElement("item").addAttribute("id", String.format("%064x", i)).addElement(QName.get("report", "urn:xmpp:reporting:1"));
+            reportEl.addAttribute("reason", "urn:xmpp:reporting:spam");
+            reportEl.addElement("text").setText("Benchmark entry");
+        }
+        if (rsm) {
+            final Element setEl = pubsubEl.addElement(QName.get("set", PubSubHandler.RSM_NAMESPACE));
+            setEl.addElement("first").addAttribute("index", "0").setText(String.format("%064x", 0));
+            setEl.addElement("last").setText(String.format("%064x", items - 1));
+            setEl.addElement("count").setText(String.valueOf(items));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void clearCache()
+    {
+        cache.clear();
+    }
+
+    @Benchmark
+    public PubSubHandler handlePage()
+    {
+        handler.handlePageResult(response);
+        return handler;
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.TaskEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Records the blocking decisions that are made by {@link StanzaBlocker}, {@link RTBLMUCEventDelegate} and
+ * {@link OccupantRemover}.
+ *
+ * Decisions are not logged individually, as doing so during a flood of spam would flood the log, and would cost
+ * synchronous I/O on the threads that process stanzas. Instead, decisions are aggregated in memory (per kind of
+ * decision, per sender and per room, both by their bare JID), and the aggregates are periodically written, in one
+ * batch, to a local file, by a thread other than the one making the decision. The file is rolled over when it exceeds a
+ * maximum size.
+ *
+ * The first decision for a sender in each interval is logged (at level 'info'). All subsequent decisions for that
+ * sender in the same interval are only recorded in the audit file.
+ */
+public class AuditLog
+{
+    private static final Logger Log = LoggerFactory.getLogger(AuditLog.class);
+
+    /**
+     * The maximum amount of aggregates that is retained per interval. Decisions that do not fit are only counted.
+     */
+    public static final int MAX_AGGREGATES = 10_000;
+
+    /**
+     * An audit log that discards all decisions. It does not need to be started or stopped.
+     */
+    public static final AuditLog NONE = new AuditLog(null, Duration.ofMinutes(1), 0, 0, false);
+
+    /**
+     * The file to which aggregates are written, or null if aggregates are not written.
+     */
+    @Nullable
+    private final Path file;
+
+    private final Duration interval;
+
+    private final long maxFileSize;
+
+    private final int maxFiles;
+
+    /**
+     * Indicates if decisions are recorded. When false, all decisions are discarded.
+     */
+    private final boolean enabled;
+
+    /**
+     * The aggregates of the current interval.
+     */
+    private volatile ConcurrentMap<Key, LongAdder> aggregates = new ConcurrentHashMap<>();
+
+    /**
+     * The senders for which a decision has been logged in the current interval. Like {@link #aggregates}, this holds
+     * at most {@link #MAX_AGGREGATES} senders. Decisions for senders that do not fit are not logged.
+     */
+    private volatile Set<JID> loggedSenders = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The amount of decisions in the current interval that did not fit in {@link #aggregates}.
+     */
+    private volatile LongAdder overflow = new LongAdder();
+
+    private volatile Instant intervalStart = Instant.now();
+
+    /**
+     * Guards the replacement of the state of the current interval. Decisions are recorded while holding the (shared)
+     * read lock, the state is replaced while holding the write lock, which guarantees that no decision is recorded in
+     * the state of an interval that is being written.
+     */
+    private final ReadWriteLock intervalLock = new ReentrantReadWriteLock();
+
+    private final LongAdder totalDecisions = new LongAdder();
+
+    private final LongAdder totalRecordsWritten = new LongAdder();
+
+    private TimerTask flushTask;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param file The file to which aggregates are written, or null if aggregates are only used for rate-limited logging.
+     * @param interval The interval in which decisions are aggregated.
+     * @param maxFileSize The size (in bytes) of the file after which it is rolled over.
+     * @param maxFiles The amount of rolled over files that is retained.
+     */
+    public AuditLog(@Nullable final Path file, @Nonnull final Duration interval, final long maxFileSize, final int maxFiles)
+    {
+        this(file, interval, maxFileSize, maxFiles, true);
+    }
+
+    private AuditLog(@Nullable final Path file, @Nonnull final Duration interval, final long maxFileSize, final int maxFiles, final boolean enabled)
+    {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Argument 'interval' must be a positive duration, but was: " + interval);
+        }
+        this.file = file;
+        this.interval = interval;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(0, maxFiles);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts periodically writing the aggregated decisions.
+     */
+    public synchronized void start()
+    {
+        if (!enabled || flushTask != null) {
+            return;
+        }
+        flushTask = new TimerTask() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        TaskEngine.getInstance().schedule(flushTask, interval.toMillis(), interval.toMillis());
+    }
+
+    /**
+     * Stops periodically writing the aggregated decisions, and writes the decisions of the current interval.
+     */
+    public synchronized void stop()
+    {
+        if (flushTask != null) {
+            TaskEngine.getInstance().cancelScheduledTask(flushTask);
+            flushTask = null;
+        }
+        flush();
+    }
+
+    /**
+     * Records a blocking decision. This is cheap, and does not perform I/O other than (rate-limited) logging.
+     *
+     * @param kind The kind of decision.
+     * @param sender The entity that was blocked.
+     * @param room The MUC service or room with which the entity interacted.
+     */
+    public void record(@Nonnull final VerdictRecorder.Source kind, @Nonnull final JID sender, @Nonnull final JID room)
+    {
+        if (!enabled) {
+            return;
+        }
+        totalDecisions.increment();
+
+        final JID bareSender = sender.asBareJID();
+        final Key key = new Key(kind, bareSender, room.asBareJID());
+        final boolean firstForSender;
+        intervalLock.readLock().lock();
+        try {
+            final ConcurrentMap<Key, LongAdder> current = aggregates;
+            LongAdder counter = current.get(key);
+            if (counter == null) {
+                if (current.size() >= MAX_AGGREGATES) {
+                    overflow.increment();
+                } else {
+                    counter = current.computeIfAbsent(key, k -> new LongAdder());
+                }
+            }
+            if (counter != null) {
+                counter.increment();
+            }
+
+            final Set<JID> logged = loggedSenders;
+            firstForSender = logged.size() < MAX_AGGREGATES && logged.add(bareSender);
+        } finally {
+            intervalLock.readLock().unlock();
+        }
+
+        if (firstForSender) {
+            Log.info("Blocked {} from user {} for MUC entity {} as they are on the block list. Further blocks of this user are aggregated in the audit log for up to {}.", describe(kind), sender, room, interval);
+        }
+    }
+
+    /**
+     * Writes the aggregated decisions of the current interval, and starts a new interval.
+     */
+    public synchronized void flush()
+    {
+        final Map<Key, LongAdder> batch;
+        final LongAdder batchOverflow;
+        final Instant start;
+        final Instant end;
+        intervalLock.writeLock().lock();
+        try {
+            batch = aggregates;
+            batchOverflow = overflow;
+            start = intervalStart;
+            end = Instant.now();
+
+            aggregates = new ConcurrentHashMap<>();
+            overflow = new LongAdder();
+            loggedSenders = ConcurrentHashMap.newKeySet();
+            intervalStart = end;
+        } finally {
+            intervalLock.writeLock().unlock();
+        }
+
+        if (file == null || (batch.isEmpty() && batchOverflow.sum() == 0)) {
+            return;
+        }
+
+        try {
+            rollOverIfNeeded();
+            final Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (final BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (final Map.Entry<Key, LongAdder> entry : batch.entrySet()) {
+                    writer.write(start + "\t" + end + "\t" + entry.getKey().kind + "\t" + entry.getKey().sender + "\t" + entry.getKey().room + "\t" + entry.getValue().sum());
+                    writer.newLine();
+                }
+                if (batchOverflow.sum() > 0) {
+                    writer.write(start + "\t" + end + "\tOVERFLOW\t-\t-\t" + batchOverflow.sum());
+                    writer.newLine();
+                }
+            }
+            totalRecordsWritten.add(batch.size() + (batchOverflow.sum() > 0 ? 1 : 0));
+        } catch (IOException e) {
+            Log.warn("Unable to write {} aggregated blocking decisions to audit log file '{}'.", batch.size(), file, e);
+        }
+    }
+
+    /**
+     * Renames the audit file (and previously rolled over files) when it has grown beyond the maximum size.
+     */
+    private void rollOverIfNeeded() throws IOException
+    {
+        if (file == null || !Files.exists(file) || Files.size(file) < maxFileSize) {
+            return;
+        }
+        if (maxFiles == 0) {
+            Files.delete(file);
+            return;
+        }
+        Files.deleteIfExists(rolled(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            final Path source = rolled(i);
+            if (Files.exists(source)) {
+                Files.move(source, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rolled(final int index)
+    {
+        return Paths.get(file.toString() + "." + index);
+    }
+
+    private static String describe(final VerdictRecorder.Source kind)
+    {
+        switch (kind) {
+            case STANZA: return "a stanza";
+            case JOIN: return "joining a room";
+            case INVITATION: return "an invitation";
+            case OCCUPANT: return "an occupant (kicked)";
+            default: return kind.toString();
+        }
+    }
+
+    @Nullable
+    public Path getFile()
+    {
+        return file;
+    }
+
+    public Duration getInterval()
+    {
+        return interval;
+    }
+
+    public long getMaxFileSize()
+    {
+        return maxFileSize;
+    }
+
+    public int getMaxFiles()
+    {
+        return maxFiles;
+    }
+
+    /**
+     * Returns the amount of decisions that have been recorded.
+     *
+     * @return an amount of decisions.
+     */
+    public long getTotalDecisions()
+    {
+        return totalDecisions.sum();
+    }
+
+    /**
+     * Returns the amount of records that have been written to the audit file.
+     *
+     * @return an amount of records.
+     */
+    public long getTotalRecordsWritten()
+    {
+        return totalRecordsWritten.sum();
+    }
+
+    /**
+     * Returns the amount of distinct aggregates in the current interval.
+     *
+     * @return an amount of aggregates.
+     */
+    public int getPendingAggregates()
+    {
+        return aggregates.size();
+    }
+
+    /**
+     * Returns the amount of senders for which a decision has been logged in the current interval.
+     *
+     * @return an amount of senders.
+     */
+    int getLoggedSenderCount()
+    {
+        return loggedSenders.size();
+    }
+
+    /**
+     * The dimensions by which decisions are aggregated.
+     */
+    private static final class Key
+    {
+        private final VerdictRecorder.Source kind;
+        private final JID sender;
+        private final JID room;
+
+        private Key(final VerdictRecorder.Source kind, final JID sender, final JID room)
+        {
+            this.kind = kind;
+            this.sender = sender;
+            this.room = room;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return kind == key.kind && sender.equals(key.sender) && room.equals(key.room);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(kind, sender, room);
+        }
+    }
+}
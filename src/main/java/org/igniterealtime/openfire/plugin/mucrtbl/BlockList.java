@@ -18,6 +18,7 @@ package org.igniterealtime.openfire.plugin.mucrtbl;
 import org.jivesoftware.util.StringUtils;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.CacheSizes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
@@ -25,12 +26,31 @@ import org.xmpp.packet.JID;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 
 public class BlockList
 {
     private static final Logger Log = LoggerFactory.getLogger(BlockList.class);
 
+    /**
+     * Defines what happens to entries that are added to the block list when its cache is at capacity.
+     */
+    public enum OverflowStrategy
+    {
+        /**
+         * Entries that do not fit are not added (and are therefore not blocked).
+         */
+        REFUSE,
+
+        /**
+         * Entries that do not fit are added to a compact, node-local secondary store (see {@link SpillStore}).
+         */
+        SPILL
+    }
+
     private static final String CACHE_MUTEX = "mutex-for-blocklist-cache";
 
     /**
@@ -38,41 +58,368 @@ public class BlockList
      */
     private final Cache<String, String> blockedHashes;
 
-    private final Set<BlockListEventListener> eventListeners = new HashSet<>();
+    /**
+     * Event listeners. Listeners are registered and unregistered while changes are being dispatched by other threads,
+     * which is why a copy-on-write set is used: iterations operate on a snapshot, and are never affected by concurrent
+     * (un)registration.
+     */
+    private final Set<BlockListEventListener> eventListeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * Cached hashes of domains and their parent domains.
+     */
+    private final DomainHashChains domainHashChains = new DomainHashChains();
+
+    /**
+     * Precomputed hashes of the bare JIDs of entities that have a session on this server (can be null).
+     */
+    private volatile SessionDigests sessionDigests = null;
+
+    /**
+     * Indicates if a JID is also considered to be on the block list when any of the parent domains of its domain is.
+     */
+    private volatile boolean matchParentDomains = false;
+
+    /**
+     * The entities (bare JIDs or domains) that are never considered to be on the block list.
+     */
+    private volatile Set<JID> allowList = Collections.emptySet();
+
+    /**
+     * Hashes of the entities on {@link #allowList}.
+     */
+    private volatile Set<String> allowedHashes = Collections.emptySet();
+
+    /**
+     * Order-independent digest of all hashes on the block list, updated as hashes are added or removed. Guarded by the
+     * lock on {@link #CACHE_MUTEX}.
+     */
+    private final Digest.Accumulator digest = new Digest.Accumulator();
+
+    /**
+     * Hashes on the block list that were imported from a local file (see {@link BlockListImporter}), rather than
+     * obtained from the pub/sub node. Hashes that are (also) received from the node are not in this collection. Guarded
+     * by the lock on {@link #CACHE_MUTEX}.
+     */
+    private final Set<String> importedHashes = new HashSet<>();
+
+    /**
+     * Order-independent digest of the hashes in {@link #importedHashes}. Guarded by the lock on {@link #CACHE_MUTEX}.
+     */
+    private final Digest.Accumulator importedDigest = new Digest.Accumulator();
+
+    /**
+     * Metrics of the usage of this block list (and of the components that use it).
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * Traces the propagation of changes of this block list.
+     */
+    private volatile PropagationTracer tracer = new PropagationTracer(50);
+
+    /**
+     * Entries that did not fit in {@link #blockedHashes}, when the overflow strategy is {@link OverflowStrategy#SPILL}.
+     */
+    private final SpillStore spillStore = new SpillStore();
+
+    /**
+     * The estimated memory footprint of the entries in {@link #blockedHashes}, in bytes. Guarded by the lock on
+     * {@link #CACHE_MUTEX} (for writes).
+     */
+    private volatile long usedBytes = 0;
+
+    private volatile OverflowStrategy overflowStrategy = OverflowStrategy.SPILL;
+
+    /**
+     * The percentage of the capacity that, when used, causes a warning to be logged.
+     */
+    private volatile int capacityWarningPercentage = 80;
+
+    /**
+     * Indicates if the usage is currently above {@link #capacityWarningPercentage}.
+     */
+    private final AtomicBoolean capacityWarning = new AtomicBoolean(false);
+
+    /**
+     * The amount of entries that were not added, as the cache was at capacity.
+     */
+    private final LongAdder refusedCount = new LongAdder();
 
     public BlockList() {
-        blockedHashes = CacheFactory.createCache("MUC RealTime Block List");
-        blockedHashes.setMaxCacheSize(25L * 1024 * 1024);
-        blockedHashes.setMaxLifetime(-1L);
+        this(createCache());
+    }
+
+    /**
+     * Creates a block list that is backed by the provided cache. This is intended to be used to isolate the block list
+     * from the (clustered) caches of Openfire, for instance in benchmarks.
+     *
+     * @param blockedHashes The cache in which the hashes on the block list are stored.
+     */
+    public BlockList(final Cache<String, String> blockedHashes) {
+        this.blockedHashes = blockedHashes;
+
+        // The cache might already contain data (eg: when the plugin is reloaded, or when joining a cluster).
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            blockedHashes.forEach((hash, reason) -> {
+                digest.add(hash);
+                usedBytes += estimateEntrySize(hash, reason);
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Cache<String, String> createCache() {
+        final Cache<String, String> cache = CacheFactory.createCache("MUC RealTime Block List");
+        cache.setMaxCacheSize(25L * 1024 * 1024);
+        cache.setMaxLifetime(-1L);
+        return cache;
+    }
+
+    /**
+     * Configures if a JID is also considered to be on the block list when any of the parent domains of its domain is on
+     * the block list (eg: <tt>user@chat.spam.example.net</tt> is blocked when <tt>example.net</tt> is on the block
+     * list). Top-level domains are never matched.
+     *
+     * @param matchParentDomains true to match parent domains.
+     */
+    public void setMatchParentDomains(final boolean matchParentDomains) {
+        this.matchParentDomains = matchParentDomains;
+    }
+
+    public boolean isMatchParentDomains() {
+        return matchParentDomains;
+    }
+
+    /**
+     * Replaces the local allow-list: entities that are never considered to be on the block list, even if they are on it.
+     * This is intended to be used to override entries on the block list that are false positives.
+     *
+     * Each entry is either a bare JID, or a domain. An entry that is a domain allows all entities of that domain (and,
+     * when matching of parent domains is enabled, all entities of its subdomains). Resources are ignored.
+     *
+     * @param entities The entities to allow.
+     */
+    public void setAllowList(final Collection<JID> entities) {
+        final Set<JID> jids = new HashSet<>();
+        final Set<String> hashes = new HashSet<>();
+        for (final JID entity : entities) {
+            final JID bare = entity.asBareJID();
+            jids.add(bare);
+            hashes.add(StringUtils.hash(bare.toString(), "SHA-256"));
+        }
+        allowList = Collections.unmodifiableSet(jids);
+        allowedHashes = Collections.unmodifiableSet(hashes);
+    }
+
+    /**
+     * Returns the entities on the local allow-list.
+     *
+     * @return bare JIDs or domains (possibly empty).
+     */
+    public Set<JID> getAllowList() {
+        return allowList;
+    }
+
+    /**
+     * Returns the metrics of the usage of this block list, and of the components that use it.
+     *
+     * @return metrics.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the tracer that records the propagation of changes of this block list, from their arrival to the removal
+     * of occupants.
+     *
+     * @return a tracer.
+     */
+    public PropagationTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Replaces the tracer that records the propagation of changes of this block list. Traces that are in progress are
+     * not recorded by the new tracer.
+     *
+     * @param tracer The tracer to use.
+     */
+    public void setTracer(final PropagationTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Returns the cache of hashes of domains and their parent domains that is used by this instance.
+     *
+     * @return the domain hash cache.
+     */
+    public DomainHashChains getDomainHashChains() {
+        return domainHashChains;
+    }
+
+    /**
+     * Returns the precomputed hashes of the bare JIDs of entities that have a session on this server, if any.
+     *
+     * @return the session digests, or null.
+     */
+    public SessionDigests getSessionDigests() {
+        return sessionDigests;
+    }
+
+    /**
+     * Sets the precomputed hashes of the bare JIDs of entities that have a session on this server. These are used
+     * instead of computing the hash of a bare JID for every lookup.
+     *
+     * @param sessionDigests the session digests, or null to always compute hashes.
+     */
+    public void setSessionDigests(final SessionDigests sessionDigests) {
+        this.sessionDigests = sessionDigests;
+    }
+
+    /**
+     * Returns the hash of the bare JID of a JID, as used for lookups on the block list, using a precomputed hash when
+     * one is available.
+     *
+     * @param jid The JID for which to return the hash.
+     * @return The SHA-256 hash of the bare JID.
+     */
+    public String hashBareJid(final JID jid) {
+        final SessionDigests digests = sessionDigests;
+        if (digests != null) {
+            final String digest = digests.get(jid);
+            if (digest != null) {
+                return digest;
+            }
+        }
+        return StringUtils.hash(jid.toBareJID(), "SHA-256");
+    }
+
+    /**
+     * Checks if a hash is on the block list. Unlike {@link #contains(JID)}, this disregards the allow-list and parent
+     * domains, and is not recorded in the metrics.
+     *
+     * @param hash The hash to look up.
+     * @return true if the hash is on the block list, otherwise false.
+     */
+    public boolean containsHash(final String hash) {
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            return blockedHashes.containsKey(hash) || (!spillStore.isEmpty() && spillStore.contains(hash));
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Checks if a JID is on the block list.
      *
-     * This method will verify if the SHA-256 hash of the bare JID exists on the block list, returning 'true' when that
-     * is the case.
+     * This method will verify if the SHA-256 hash of the bare JID or of the domain-part of the JID (or, when enabled, of
+     * any of the parent domains of that domain) exists on the block list, returning 'true' when that is the case. When
+     * any of these hashes is on the local allow-list, 'false' is returned.
      *
      * @param jid The JID for which to check the block list
      * @return true if the JID is on the block list, otherwise false.
      */
     public boolean contains(final JID jid) {
-        final String bareJidHash = StringUtils.hash(jid.toBareJID(), "SHA-256");
-        final String domainHash = StringUtils.hash(jid.getDomain(), "SHA-256");
+        final boolean timed = metrics.sampleTiming();
+        final long start = timed ? System.nanoTime() : 0;
+        final boolean parents = matchParentDomains;
+        final String bareJidHash = hashBareJid(jid);
+        final String[] domainHashes = domainHashChains.get(jid.getDomain(), parents);
+        final int depth = parents ? domainHashes.length : 1;
+        if (timed) {
+            metrics.getHashingNanos().record(System.nanoTime() - start);
+        }
+        if (isAllowed(bareJidHash, domainHashes, depth)) {
+            metrics.recordLookup(false);
+            return false;
+        }
+
+        boolean result = false;
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        final long acquired = acquire(lock, timed);
+        try {
+            if (blockedHashes.containsKey(bareJidHash)) {
+                result = true;
+            } else {
+                for (int i = 0; i < depth; i++) {
+                    if (blockedHashes.containsKey(domainHashes[i])) {
+                        result = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            release(lock, acquired, timed);
+        }
+        if (!result && !spillStore.isEmpty()) {
+            result = spillStore.contains(bareJidHash);
+            for (int i = 0; !result && i < depth; i++) {
+                result = spillStore.contains(domainHashes[i]);
+            }
+        }
+        metrics.recordLookup(result);
+        return result;
+    }
+
+    /**
+     * Checks if a JID is on the block list, and explains why.
+     *
+     * Unlike {@link #contains(JID)}, this method is not intended to be used for blocking, but to answer questions of
+     * administrators. It is not optimized, and it is not reflected in the metrics.
+     *
+     * @param jid The JID for which to check the block list
+     * @return The outcome of the lookup.
+     */
+    public Lookup lookup(final JID jid) {
+        // The entities to check, in order: the bare JID, the domain, and (when enabled) its parent domains.
+        final Map<String, String> candidates = new LinkedHashMap<>();
+        candidates.put(StringUtils.hash(jid.toBareJID(), "SHA-256"), jid.toBareJID());
+        final boolean parents = matchParentDomains;
+        final String[] domainHashes = domainHashChains.get(jid.getDomain(), parents);
+        final int depth = parents ? domainHashes.length : 1;
+        String domain = jid.getDomain();
+        for (int i = 0; i < depth; i++) {
+            candidates.putIfAbsent(domainHashes[i], domain);
+            domain = domain.substring(domain.indexOf('.') + 1);
+        }
+
+        final Set<String> allowed = allowedHashes;
+        for (final Map.Entry<String, String> candidate : candidates.entrySet()) {
+            if (allowed.contains(candidate.getKey())) {
+                return new Lookup(jid, false, true, candidate.getValue(), candidate.getKey(), null, false);
+            }
+        }
 
         final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
         try {
             lock.lock();
-            return blockedHashes.containsKey(bareJidHash) || blockedHashes.containsKey(domainHash);
+            for (final Map.Entry<String, String> candidate : candidates.entrySet()) {
+                if (blockedHashes.containsKey(candidate.getKey())) {
+                    return new Lookup(jid, true, false, candidate.getValue(), candidate.getKey(), blockedHashes.get(candidate.getKey()), false);
+                }
+                if (spillStore.contains(candidate.getKey())) {
+                    return new Lookup(jid, true, false, candidate.getValue(), candidate.getKey(), null, true);
+                }
+            }
         } finally {
             lock.unlock();
         }
+        return new Lookup(jid, false, false, null, null, null, false);
     }
 
     /**
      * From a collection of JIDs, return only those that are on the block list.
      *
-     * This method will verify if the SHA-256 hash of the bare JID or the domain-part of the JID exists on the block
-     * list, returning the original JID in the result when that is the case.
+     * This method will verify if the SHA-256 hash of the bare JID or the domain-part of the JID (or, when enabled, of any
+     * of the parent domains of that domain) exists on the block list, returning the original JID in the result when that
+     * is the case. JIDs for which any of these hashes is on the local allow-list are never returned.
      *
      * @param jids The JIDs for which to check the block list
      * @return A collection with JIDs that are on the block list. Possibly empty, never null.
@@ -80,34 +427,117 @@ public class BlockList
     public Set<JID> filterBlocked(final Collection<JID> jids) {
         // First calculate all hashes, then check the cache. This is aimed to reduce the amount and total duration of
         // cache locks that are held.
+        final boolean parents = matchParentDomains;
+        final boolean timed = metrics.sampleTiming();
+        final long start = timed ? System.nanoTime() : 0;
         final ConcurrentMap<String, Set<JID>> hashes = new ConcurrentHashMap<>();
         for (final JID jid : jids) {
-            final String bareJidHash = StringUtils.hash(jid.toBareJID(), "SHA-256");
-            final String domainHash = StringUtils.hash(jid.getDomain(), "SHA-256");
+            final String bareJidHash = hashBareJid(jid);
+            final String[] domainHashes = domainHashChains.get(jid.getDomain(), parents);
+            final int depth = parents ? domainHashes.length : 1;
+            if (isAllowed(bareJidHash, domainHashes, depth)) {
+                continue;
+            }
             hashes.computeIfAbsent(bareJidHash, k -> new HashSet<>()).add(jid);
-            hashes.computeIfAbsent(domainHash, k -> new HashSet<>()).add(jid);
+            for (int i = 0; i < depth; i++) {
+                hashes.computeIfAbsent(domainHashes[i], k -> new HashSet<>()).add(jid);
+            }
+        }
+
+        if (timed) {
+            metrics.getHashingNanos().record(System.nanoTime() - start);
         }
 
         final Set<JID> result = new HashSet<>();
         if (hashes.isEmpty()) {
             // No need to obtain a lock.
+            metrics.recordLookups(jids.size(), 0);
             return result;
         }
 
         final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        final long acquired = acquire(lock, timed);
         try {
-            lock.lock();
             for (final Map.Entry<String, Set<JID>> entry : hashes.entrySet()) {
                 if (blockedHashes.containsKey(entry.getKey())) {
                     result.addAll(entry.getValue());
                 }
             }
-            return result;
         } finally {
-            lock.unlock();
+            release(lock, acquired, timed);
+        }
+        if (!spillStore.isEmpty()) {
+            for (final Map.Entry<String, Set<JID>> entry : hashes.entrySet()) {
+                if (spillStore.contains(entry.getKey())) {
+                    result.addAll(entry.getValue());
+                }
+            }
+        }
+        metrics.recordLookups(jids.size(), result.size());
+        return result;
+    }
+
+    /**
+     * Obtains a lock, recording the time spent waiting for it when timed.
+     *
+     * Lookups only time a sample of their lock usage (see {@link Metrics#sampleTiming()}), to not add the cost of
+     * reading the clock to every lookup. Mutations, which are far less frequent, are always timed.
+     *
+     * @param lock The lock to obtain.
+     * @param timed Whether to record the time spent waiting for the lock.
+     * @return The moment (in nanoseconds) at which the lock was obtained, to be passed to {@link #release(Lock, long, boolean)}.
+     */
+    private long acquire(final Lock lock, final boolean timed) {
+        if (!timed) {
+            lock.lock();
+            return 0;
+        }
+        final long start = System.nanoTime();
+        lock.lock();
+        final long acquired = System.nanoTime();
+        metrics.getLockWaitNanos().record(acquired - start);
+        return acquired;
+    }
+
+    /**
+     * Releases a lock that was obtained through {@link #acquire(Lock, boolean)}, recording the time for which it was
+     * held when timed.
+     *
+     * @param lock The lock to release.
+     * @param acquired The moment (in nanoseconds) at which the lock was obtained.
+     * @param timed Whether to record the time for which the lock was held.
+     */
+    private void release(final Lock lock, final long acquired, final boolean timed) {
+        lock.unlock();
+        if (timed) {
+            metrics.getLockHoldNanos().record(System.nanoTime() - acquired);
         }
     }
 
+    /**
+     * Checks if any of the provided hashes (that have been computed for a block list lookup) is on the allow-list.
+     *
+     * @param bareJidHash The hash of a bare JID.
+     * @param domainHashes The hashes of the domain of the JID, and its parent domains.
+     * @param depth The amount of domain hashes to check.
+     * @return true if the entity is allowed.
+     */
+    private boolean isAllowed(final String bareJidHash, final String[] domainHashes, final int depth) {
+        final Set<String> allowed = allowedHashes;
+        if (allowed.isEmpty()) {
+            return false;
+        }
+        if (allowed.contains(bareJidHash)) {
+            return true;
+        }
+        for (int i = 0; i < depth; i++) {
+            if (allowed.contains(domainHashes[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Adds a collection of hashes of a JIDs to the block list, with an optional human-readable reason for why the entry
      * was added to the block list.
@@ -116,36 +546,72 @@ public class BlockList
      * domain-part.
      *
      * @param hashes A map of hashes to be added, mapped to optional human-readible reasons for the hashes to be added.
+     * @return The amount of hashes that were added (excluding those that were already on the block list).
+     */
+    public int addAll(final Map<String, String> hashes) {
+        return addAll(hashes, false);
+    }
+
+    /**
+     * Adds a collection of hashes that are imported from a local file, rather than obtained from the pub/sub node.
+     *
+     * Imported hashes are retained when the block list is reconciled with the content of the node (see
+     * {@link #getImportedHashes()}), until they are received from the node, after which they are treated like any other
+     * hash that was obtained from the node.
+     *
+     * @param hashes A map of hashes to be added, mapped to optional human-readible reasons for the hashes to be added.
+     * @return The amount of hashes that were added (excluding those that were already on the block list).
      */
-    public void addAll(final Map<String, String> hashes) {
+    public int addImported(final Map<String, String> hashes) {
+        return addAll(hashes, true);
+    }
+
+    private int addAll(final Map<String, String> hashes, final boolean imported) {
         final Map<String, String> toAdd = new HashMap<>();
         for (final Map.Entry<String, String> hash : hashes.entrySet()) {
-            if (hash.getKey() != null && hash.getKey().matches("^[a-fA-F0-9]{64}$")) {
+            if (isValidHash(hash.getKey())) {
                 toAdd.put(hash.getKey(), hash.getValue());
             }
         }
 
+        final PropagationTracer tracer = this.tracer;
+        tracer.mutationStarted();
+        final Admission admission = new Admission();
         final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        final long acquired = acquire(lock, true);
         try {
-            lock.lock();
-            blockedHashes.keySet().forEach(toAdd::remove);
+            if (!imported && !importedHashes.isEmpty()) {
+                // These are now known to be on the node.
+                toAdd.keySet().forEach(this::unmarkImported);
+            }
+            toAdd.keySet().removeIf(hash -> blockedHashes.containsKey(hash) || spillStore.contains(hash));
+            admit(toAdd, admission);
             if (!toAdd.isEmpty()) {
                 blockedHashes.putAll(toAdd);
+                toAdd.keySet().forEach(digest::add);
+            }
+            if (imported) {
+                toAdd.keySet().forEach(this::markImported);
+                admission.spilled.forEach(this::markImported);
             }
         } finally {
-            lock.unlock();
+            release(lock, acquired, true);
         }
+        tracer.mutationApplied();
+        reportCapacity(admission);
 
-        if (!toAdd.isEmpty()) {
+        final Set<String> added = admission.added(toAdd.keySet());
+        if (!added.isEmpty()) {
             // Invoke event listeners
             for (final BlockListEventListener listener : eventListeners) {
                 try {
-                    listener.added(toAdd.keySet());
+                    listener.added(added);
                 } catch (Throwable t) {
                     Log.warn("After adding entries to the block list, an event listener threw the following.", t);
                 }
             }
         }
+        return added.size();
     }
 
     /**
@@ -165,18 +631,21 @@ public class BlockList
 
     public void removeAll(final Collection<String> hashes) {
         final Set<String> removed = new HashSet<>();
+        final PropagationTracer tracer = this.tracer;
+        tracer.mutationStarted();
         final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        final long acquired = acquire(lock, true);
         try {
-            lock.lock();
             for (final String hash : hashes) {
-                if (blockedHashes.containsKey(hash)) {
-                    blockedHashes.remove(hash);
+                if (removeEntry(hash)) {
                     removed.add(hash);
                 }
             }
         } finally {
-            lock.unlock();
+            release(lock, acquired, true);
         }
+        tracer.mutationApplied();
+        checkCapacityWarning();
 
         if (!removed.isEmpty()) {
             // Invoke event listeners
@@ -195,6 +664,106 @@ public class BlockList
         removeAll(Collections.singletonList(hash));
     }
 
+    /**
+     * Applies a set of additions and removals to the block list in one mutation, while holding the lock only once.
+     *
+     * Hashes that are in both collections are removed. Event listeners are invoked once for all removed hashes, and
+     * once for all added hashes.
+     *
+     * @param hashesToAdd A map of hashes to be added, mapped to optional human-readable reasons for the hashes to be added.
+     * @param hashesToRemove The hashes to be removed.
+     */
+    public void update(final Map<String, String> hashesToAdd, final Collection<String> hashesToRemove) {
+        final Map<String, String> toAdd = new HashMap<>();
+        for (final Map.Entry<String, String> hash : hashesToAdd.entrySet()) {
+            if (isValidHash(hash.getKey()) && !hashesToRemove.contains(hash.getKey())) {
+                toAdd.put(hash.getKey(), hash.getValue());
+            }
+        }
+
+        final Set<String> removed = new HashSet<>();
+        final PropagationTracer tracer = this.tracer;
+        tracer.mutationStarted();
+        final Admission admission = new Admission();
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        final long acquired = acquire(lock, true);
+        try {
+            for (final String hash : hashesToRemove) {
+                if (removeEntry(hash)) {
+                    removed.add(hash);
+                }
+            }
+            if (!importedHashes.isEmpty()) {
+                // These are now known to be on the node.
+                toAdd.keySet().forEach(this::unmarkImported);
+            }
+            toAdd.keySet().removeIf(hash -> blockedHashes.containsKey(hash) || spillStore.contains(hash));
+            admit(toAdd, admission);
+            if (!toAdd.isEmpty()) {
+                blockedHashes.putAll(toAdd);
+                toAdd.keySet().forEach(digest::add);
+            }
+        } finally {
+            release(lock, acquired, true);
+        }
+        tracer.mutationApplied();
+        reportCapacity(admission);
+        final Set<String> added = admission.added(toAdd.keySet());
+
+        // Invoke event listeners
+        for (final BlockListEventListener listener : eventListeners) {
+            if (!removed.isEmpty()) {
+                try {
+                    listener.removed(removed);
+                } catch (Throwable t) {
+                    Log.warn("After removing entries to the block list, an event listener threw the following.", t);
+                }
+            }
+            if (!added.isEmpty()) {
+                try {
+                    listener.added(added);
+                } catch (Throwable t) {
+                    Log.warn("After adding entries to the block list, an event listener threw the following.", t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of hashes on the block list.
+     *
+     * @return an amount of hashes.
+     */
+    public int size()
+    {
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            return blockedHashes.size() + spillStore.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all hashes from the block list.
+     */
+    public void clear()
+    {
+        removeAll(getAll().keySet());
+    }
+
+    /**
+     * Removes all hashes from the block list that were obtained from the pub/sub node, retaining those that were
+     * imported from a local file (see {@link #getImportedHashes()}).
+     */
+    public void clearNodeEntries()
+    {
+        final Set<String> hashes = new HashSet<>(Arrays.asList(getSortedHashes()));
+        hashes.removeAll(getImportedHashes());
+        removeAll(hashes);
+    }
+
     /**
      * Gets a defensive copy of all hashes on the block list, mapped to an optional human reason for the entry to exist
      * on the block list.
@@ -206,12 +775,396 @@ public class BlockList
         final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
         try {
             lock.lock();
-            return new HashMap<>(blockedHashes);
+            final Map<String, String> result = new HashMap<>(blockedHashes);
+            spillStore.getAll().forEach(hash -> result.put(hash, ""));
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns all hashes on the block list, sorted in their natural order. Unlike {@link #getAll()}, this does not copy
+     * the reasons for the hashes to be on the block list, which makes it suitable for bookkeeping that needs to be
+     * compact, such as tracking which hashes have been seen (eg: by their index in the returned array).
+     *
+     * @return A sorted array of all hashes on the block list.
+     */
+    public String[] getSortedHashes() {
+        final String[] result;
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            final List<String> hashes = new ArrayList<>(blockedHashes.keySet());
+            if (!spillStore.isEmpty()) {
+                hashes.addAll(spillStore.getAll());
+            }
+            result = hashes.toArray(new String[0]);
+        } finally {
+            lock.unlock();
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the hashes on the block list that were imported from a local file, and have not (yet) been received from
+     * the pub/sub node. As these are not expected to be on the node, these are not to be removed when reconciling the
+     * block list with the content of the node.
+     *
+     * Like {@link #getDigest()}, this reflects only the changes that are applied through this instance.
+     *
+     * @return A defensive copy of the imported hashes.
+     */
+    public Set<String> getImportedHashes() {
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            return new HashSet<>(importedHashes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an order-independent digest of all hashes on the block list.
+     *
+     * This digest is maintained as entries are added to, or removed from, this instance. Changes that are applied to the
+     * underlying (clustered) cache by other instances are not reflected. As a digest is typically used to determine if
+     * a (more expensive) synchronization is needed, such discrepancies cause unneeded synchronizations, rather than
+     * missed ones.
+     *
+     * @return A digest of the block list content.
+     */
+    public Digest getDigest() {
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            return digest.toDigest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an order-independent digest of the hashes on the block list that were obtained from the pub/sub node: all
+     * hashes, excluding those that were imported from a local file (see {@link #getImportedHashes()}). This is to be
+     * compared with the digest of the item IDs on the node.
+     *
+     * Like {@link #getDigest()}, this reflects only the changes that are applied through this instance.
+     *
+     * @return A digest of the block list content that was obtained from the node.
+     */
+    public Digest getNodeDigest() {
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            return digest.toDigest().minus(importedDigest.toDigest());
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Returns the capacity of the cache that holds the block list: 95% of the maximum size of the cache, as configured in
+     * Openfire. Openfire's caches start to evict entries before they are entirely full (at 97% of their maximum size),
+     * which is to be prevented, as an evicted entry is no longer blocked.
+     *
+     * @return an amount of bytes, or a non-positive value if the cache is not bounded.
+     */
+    public long getCapacity() {
+        final long maxCacheSize = blockedHashes.getMaxCacheSize();
+        return maxCacheSize <= 0 ? maxCacheSize : maxCacheSize / 100 * 95;
+    }
+
+    /**
+     * Returns the estimated memory footprint of the entries in the cache that holds the block list.
+     *
+     * The footprint is accounted for as entries are added to, or removed from, this instance, using the same estimation
+     * as Openfire's caches. Like {@link #getDigest()}, changes that are applied to the underlying (clustered) cache by
+     * other instances are not reflected.
+     *
+     * @return an amount of bytes.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the amount of memory that is available for entries before the cache is at capacity.
+     *
+     * @return an amount of bytes, or -1 if the cache is not bounded.
+     */
+    public long getHeadroom() {
+        final long capacity = getCapacity();
+        return capacity <= 0 ? -1 : Math.max(0, capacity - usedBytes);
+    }
+
+    /**
+     * Returns the percentage of the capacity of the cache that is used.
+     *
+     * @return a percentage, or 0 if the cache is not bounded.
+     */
+    public int getUsagePercentage() {
+        final long capacity = getCapacity();
+        return capacity <= 0 ? 0 : (int) Math.min(100, usedBytes * 100 / capacity);
+    }
+
+    /**
+     * Returns the amount of entries that were tracked by this instance, but no longer are in the cache, for instance
+     * because the cache evicted them. Entries that are removed by other cluster nodes are counted too.
+     *
+     * @return an amount of entries.
+     */
+    public long getMissingCount() {
+        final Lock lock = blockedHashes.getLock(CACHE_MUTEX);
+        try {
+            lock.lock();
+            return Math.max(0, digest.toDigest().getCount() - spillStore.size() - blockedHashes.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public OverflowStrategy getOverflowStrategy() {
+        return overflowStrategy;
+    }
+
+    /**
+     * Defines what happens to entries that are added when the cache is at capacity. Changing the strategy does not affect
+     * entries that were spilled before.
+     *
+     * @param overflowStrategy The strategy to apply.
+     */
+    public void setOverflowStrategy(final OverflowStrategy overflowStrategy) {
+        this.overflowStrategy = overflowStrategy;
+    }
+
+    public int getCapacityWarningPercentage() {
+        return capacityWarningPercentage;
+    }
+
+    /**
+     * Sets the percentage of the capacity that, when used, causes a warning to be logged.
+     *
+     * @param capacityWarningPercentage A percentage.
+     */
+    public void setCapacityWarningPercentage(final int capacityWarningPercentage) {
+        this.capacityWarningPercentage = capacityWarningPercentage;
+        checkCapacityWarning();
+    }
+
+    /**
+     * Checks if the usage of the cache is at, or above, the percentage of its capacity that causes a warning.
+     *
+     * @return true if the usage is at or above the warning level.
+     */
+    public boolean isCapacityWarning() {
+        return capacityWarning.get();
+    }
+
+    /**
+     * Returns the amount of entries that were not added, as the cache was at capacity and the overflow strategy was
+     * {@link OverflowStrategy#REFUSE}.
+     *
+     * @return an amount of entries.
+     */
+    public long getRefusedCount() {
+        return refusedCount.sum();
+    }
+
+    /**
+     * Returns the store that holds entries that did not fit in the cache.
+     *
+     * @return the spill store.
+     */
+    public SpillStore getSpillStore() {
+        return spillStore;
+    }
+
+    /**
+     * Estimates the memory footprint of an entry in the cache, in the same way as Openfire's caches do.
+     *
+     * @param hash The hash of the entry.
+     * @param reason The reason of the entry (can be null).
+     * @return an amount of bytes.
+     */
+    static long estimateEntrySize(final String hash, final String reason) {
+        return CacheSizes.sizeOfString(hash) + (reason == null ? 0 : CacheSizes.sizeOfString(reason));
+    }
+
+    /**
+     * Accounts for entries that are about to be added to the cache. Entries that do not fit are removed from the
+     * provided map, and are either refused or added to the spill store, depending on the overflow strategy.
+     *
+     * Must be invoked while holding the lock on {@link #CACHE_MUTEX}.
+     *
+     * @param toAdd The entries that are about to be added (modified by this method).
+     * @param admission Records the entries that did not fit.
+     */
+    private void admit(final Map<String, String> toAdd, final Admission admission) {
+        final long capacity = getCapacity();
+        final OverflowStrategy strategy = overflowStrategy;
+        final Iterator<Map.Entry<String, String>> iterator = toAdd.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, String> entry = iterator.next();
+            final long size = estimateEntrySize(entry.getKey(), entry.getValue());
+            if (capacity <= 0 || usedBytes + size <= capacity) {
+                usedBytes += size;
+                continue;
+            }
+            iterator.remove();
+            if (strategy == OverflowStrategy.SPILL) {
+                if (spillStore.add(entry.getKey())) {
+                    digest.add(entry.getKey());
+                    admission.spilled.add(entry.getKey());
+                }
+            } else {
+                admission.refused++;
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from the cache, or from the spill store.
+     *
+     * Must be invoked while holding the lock on {@link #CACHE_MUTEX}.
+     *
+     * @param hash The hash to remove.
+     * @return true if the entry was removed.
+     */
+    private boolean removeEntry(final String hash) {
+        unmarkImported(hash);
+        if (blockedHashes.containsKey(hash)) {
+            usedBytes = Math.max(0, usedBytes - estimateEntrySize(hash, blockedHashes.remove(hash)));
+            digest.remove(hash);
+            return true;
+        }
+        if (!spillStore.isEmpty() && spillStore.remove(hash)) {
+            digest.remove(hash);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registers a hash as having been imported from a local file.
+     *
+     * Must be invoked while holding the lock on {@link #CACHE_MUTEX}.
+     *
+     * @param hash The imported hash.
+     */
+    private void markImported(final String hash) {
+        if (importedHashes.add(hash)) {
+            importedDigest.add(hash);
+        }
+    }
+
+    /**
+     * Registers a hash as no longer being imported (as it is removed, or as it was received from the node).
+     *
+     * Must be invoked while holding the lock on {@link #CACHE_MUTEX}.
+     *
+     * @param hash The hash.
+     */
+    private void unmarkImported(final String hash) {
+        if (importedHashes.remove(hash)) {
+            importedDigest.remove(hash);
+        }
+    }
+
+    /**
+     * Logs the entries that did not fit in the cache, and updates the capacity warning.
+     *
+     * @param admission The entries that did not fit.
+     */
+    private void reportCapacity(final Admission admission) {
+        if (admission.refused > 0) {
+            refusedCount.add(admission.refused);
+            Log.warn("Refused to add {} entries to the block list, as its cache is at capacity ({} of {} bytes used). These entities are NOT blocked! Increase the size of cache '{}', or use a different overflow strategy.", admission.refused, usedBytes, getCapacity(), blockedHashes.getName());
+        }
+        if (!admission.spilled.isEmpty()) {
+            Log.warn("Added {} entries to the (node-local) spill store of the block list, as its cache is at capacity ({} of {} bytes used). Entries in the spill store: {}. Increase the size of cache '{}' to prevent this.", admission.spilled.size(), usedBytes, getCapacity(), spillStore.size(), blockedHashes.getName());
+        }
+        checkCapacityWarning();
+    }
+
+    /**
+     * Logs a warning when the usage of the cache reaches the warning level, and a message when it drops below it again.
+     */
+    private void checkCapacityWarning() {
+        final int percentage = getUsagePercentage();
+        if (getCapacity() > 0 && percentage >= capacityWarningPercentage) {
+            if (capacityWarning.compareAndSet(false, true)) {
+                Log.warn("The block list uses {}% of the capacity of its cache ({} of {} bytes). When the cache is at capacity, new entries are {}. Consider increasing the size of cache '{}'.", percentage, usedBytes, getCapacity(), overflowStrategy == OverflowStrategy.SPILL ? "spilled to a node-local store" : "refused", blockedHashes.getName());
+            }
+        } else if (capacityWarning.compareAndSet(true, false)) {
+            Log.info("The block list uses {}% of the capacity of its cache, which is below the warning level of {}%.", percentage, capacityWarningPercentage);
+        }
+    }
+
+    /**
+     * The entries of one mutation that did not fit in the cache.
+     */
+    private static final class Admission
+    {
+        private final Set<String> spilled = new HashSet<>();
+        private int refused = 0;
+
+        /**
+         * Returns all entries that were added by the mutation: those added to the cache, and those that were spilled.
+         *
+         * @param cached The entries that were added to the cache.
+         * @return All added entries.
+         */
+        Set<String> added(final Set<String> cached) {
+            if (spilled.isEmpty()) {
+                return cached;
+            }
+            final Set<String> result = new HashSet<>(cached);
+            result.addAll(spilled);
+            return result;
+        }
+    }
+
+    /**
+     * Checks if a value is a valid block list entry: a SHA-256 hash, represented as 64 hexadecimal characters.
+     *
+     * @param hash The value to check (can be null).
+     * @return true if the value is a valid hash, otherwise false.
+     */
+    public static boolean isValidHash(final String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < 64; i++) {
+            final char c = hash.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the normalized (lower-case) representation of a hash, if it is a valid block list entry.
+     *
+     * @param hash The value to normalize (can be null).
+     * @return The normalized hash, or null if the value is not a valid hash.
+     */
+    public static String normalizeHash(final String hash) {
+        if (!isValidHash(hash)) {
+            return null;
+        }
+        for (int i = 0; i < 64; i++) {
+            final char c = hash.charAt(i);
+            if (c >= 'A' && c <= 'F') {
+                return hash.toLowerCase(Locale.ROOT);
+            }
+        }
+        return hash;
+    }
+
     /**
      * Registers an event listener that will be invoked when changes occur.
      *
@@ -231,4 +1184,207 @@ public class BlockList
     public boolean unregister(final BlockListEventListener listener) {
         return eventListeners.remove(listener);
     }
+
+    /**
+     * The outcome of a lookup of a JID on the block list, as returned by {@link #lookup(JID)}.
+     */
+    public static final class Lookup
+    {
+        private final JID jid;
+        private final boolean blocked;
+        private final boolean allowed;
+        private final String matchedEntity;
+        private final String matchedHash;
+        private final String reason;
+        private final boolean spilled;
+
+        Lookup(final JID jid, final boolean blocked, final boolean allowed, final String matchedEntity, final String matchedHash, final String reason, final boolean spilled)
+        {
+            this.jid = jid;
+            this.blocked = blocked;
+            this.allowed = allowed;
+            this.matchedEntity = matchedEntity;
+            this.matchedHash = matchedHash;
+            this.reason = reason;
+            this.spilled = spilled;
+        }
+
+        public JID getJid()
+        {
+            return jid;
+        }
+
+        /**
+         * Indicates if the JID is on the block list.
+         *
+         * @return true if the JID is blocked.
+         */
+        public boolean isBlocked()
+        {
+            return blocked;
+        }
+
+        /**
+         * Indicates if the JID is on the local allow-list (in which case it is never blocked).
+         *
+         * @return true if the JID is allowed.
+         */
+        public boolean isAllowed()
+        {
+            return allowed;
+        }
+
+        /**
+         * Returns the entity that caused the JID to be blocked or allowed: its bare JID, its domain, or a parent domain.
+         *
+         * @return an entity, or null if the JID is neither blocked nor allowed.
+         */
+        public String getMatchedEntity()
+        {
+            return matchedEntity;
+        }
+
+        /**
+         * Returns the hash of the entity that caused the JID to be blocked or allowed.
+         *
+         * @return a hash, or null if the JID is neither blocked nor allowed.
+         */
+        public String getMatchedHash()
+        {
+            return matchedHash;
+        }
+
+        /**
+         * Returns the reason that was provided when the entity was added to the block list.
+         *
+         * @return a reason (possibly empty), or null if none is known.
+         */
+        public String getReason()
+        {
+            return reason;
+        }
+
+        /**
+         * Indicates if the entity that caused the JID to be blocked is in the spill store (see {@link SpillStore}).
+         *
+         * @return true if the matching entry was spilled.
+         */
+        public boolean isSpilled()
+        {
+            return spilled;
+        }
+    }
+
+    /**
+     * An order-independent digest of a collection of hashes, which allows for cheap comparison of two collections.
+     *
+     * As the entries of a block list are SHA-256 hashes themselves, the digest of an entry is simply the first 64 bits of
+     * the hash. The digest of a collection is the combination of the amount of entries, and both the XOR and the sum of
+     * the digests of all entries. This allows for the digest to be updated as entries are added or removed, without
+     * iterating over the entire collection.
+     */
+    public static final class Digest
+    {
+        private final long count;
+        private final long xor;
+        private final long sum;
+
+        Digest(final long count, final long xor, final long sum)
+        {
+            this.count = count;
+            this.xor = xor;
+            this.sum = sum;
+        }
+
+        /**
+         * Calculates the digest of a collection of hashes. Values that are not valid hashes are ignored.
+         *
+         * @param hashes The hashes for which to calculate a digest.
+         * @return The digest.
+         */
+        public static Digest of(final Collection<String> hashes)
+        {
+            final Accumulator accumulator = new Accumulator();
+            for (final String hash : hashes) {
+                if (isValidHash(hash)) {
+                    accumulator.add(hash);
+                }
+            }
+            return accumulator.toDigest();
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Returns the digest of a collection from which the entries of another collection (that is a subset of it) are
+         * removed.
+         *
+         * @param subset The digest of the entries to remove.
+         * @return The digest of the remaining entries.
+         */
+        Digest minus(final Digest subset)
+        {
+            return new Digest(count - subset.count, xor ^ subset.xor, sum - subset.sum);
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Digest digest = (Digest) o;
+            return count == digest.count && xor == digest.xor && sum == digest.sum;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(count, xor, sum);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Digest{count=" + count + ", xor=" + Long.toHexString(xor) + ", sum=" + Long.toHexString(sum) + '}';
+        }
+
+        /**
+         * A mutable digest, to which entries can be added, and from which entries can be removed. Not thread-safe.
+         */
+        static final class Accumulator
+        {
+            private long count;
+            private long xor;
+            private long sum;
+
+            void add(final String hash)
+            {
+                final long value = entryDigest(hash);
+                count++;
+                xor ^= value;
+                sum += value;
+            }
+
+            void remove(final String hash)
+            {
+                final long value = entryDigest(hash);
+                count--;
+                xor ^= value;
+                sum -= value;
+            }
+
+            Digest toDigest()
+            {
+                return new Digest(count, xor, sum);
+            }
+
+            private static long entryDigest(final String hash)
+            {
+                return Long.parseUnsignedLong(hash.substring(0, 16), 16);
+            }
+        }
+    }
 }
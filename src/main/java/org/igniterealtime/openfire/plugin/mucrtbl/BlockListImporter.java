@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adds entries to a block list from a local file.
+ *
+ * The file is expected to contain one entry per line: a SHA-256 hash (64 hexadecimal characters), optionally followed
+ * by whitespace and a human-readable reason. Empty lines and lines that start with '#' are ignored, as are lines that
+ * do not start with a valid hash.
+ *
+ * The file is read line by line, and entries are added to the block list in batches, causing one event to be dispatched
+ * per batch. Imported entries are not removed when the block list is reconciled with the content of the Pub/Sub node
+ * (see {@link BlockList#addImported(Map)}). They are removed when they are retracted from the node, or when the block
+ * list is cleared (eg: when a different node is configured).
+ */
+public class BlockListImporter
+{
+    private static final Logger Log = LoggerFactory.getLogger(BlockListImporter.class);
+
+    /**
+     * The default amount of entries that is added to the block list at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private final BlockList blockList;
+
+    private final int batchSize;
+
+    public BlockListImporter(final BlockList blockList)
+    {
+        this(blockList, DEFAULT_BATCH_SIZE);
+    }
+
+    public BlockListImporter(final BlockList blockList, final int batchSize)
+    {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Argument 'batchSize' must be a positive number, but was: " + batchSize);
+        }
+        this.blockList = blockList;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Adds all entries in a file to the block list.
+     *
+     * @param file The file to read.
+     * @return A summary of the import.
+     * @throws IOException When the file cannot be read.
+     */
+    public Result importFrom(final Path file) throws IOException
+    {
+        Log.info("Importing block list entries from '{}'.", file);
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            final Result result = importFrom(reader);
+            Log.info("Imported block list entries from '{}': {}", file, result);
+            return result;
+        }
+    }
+
+    /**
+     * Adds all entries that are read from a reader to the block list.
+     *
+     * @param reader The source of entries, one per line.
+     * @return A summary of the import.
+     * @throws IOException When reading fails.
+     */
+    public Result importFrom(final BufferedReader reader) throws IOException
+    {
+        final long start = System.nanoTime();
+        final Map<String, String> batch = new HashMap<>();
+        long lines = 0;
+        long entries = 0;
+        long invalid = 0;
+        long added = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int separator = indexOfWhitespace(line);
+            final String hash = BlockList.normalizeHash(separator < 0 ? line : line.substring(0, separator));
+            if (hash == null) {
+                invalid++;
+                Log.debug("Ignoring line {} that does not start with a valid hash.", lines);
+                continue;
+            }
+            batch.put(hash, separator < 0 ? "" : line.substring(separator + 1).trim());
+            entries++;
+            if (batch.size() >= batchSize) {
+                added += blockList.addImported(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            added += blockList.addImported(batch);
+        }
+        return new Result(lines, entries, invalid, added, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private static int indexOfWhitespace(final String value)
+    {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isWhitespace(value.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A summary of an import.
+     */
+    public static final class Result
+    {
+        private final long lines;
+        private final long entries;
+        private final long invalid;
+        private final long added;
+        private final Duration duration;
+
+        Result(final long lines, final long entries, final long invalid, final long added, final Duration duration)
+        {
+            this.lines = lines;
+            this.entries = entries;
+            this.invalid = invalid;
+            this.added = added;
+            this.duration = duration;
+        }
+
+        /**
+         * @return The amount of lines that were read.
+         */
+        public long getLines()
+        {
+            return lines;
+        }
+
+        /**
+         * @return The amount of lines that contained a valid hash.
+         */
+        public long getEntries()
+        {
+            return entries;
+        }
+
+        /**
+         * @return The amount of lines (excluding empty lines and comments) that did not contain a valid hash.
+         */
+        public long getInvalid()
+        {
+            return invalid;
+        }
+
+        /**
+         * @return The amount of entries that were added to the block list (excluding entries that already were on it).
+         */
+        public long getAdded()
+        {
+            return added;
+        }
+
+        public Duration getDuration()
+        {
+            return duration;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Result{lines=" + lines + ", entries=" + entries + ", invalid=" + invalid + ", added=" + added + ", duration=" + duration + '}';
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.interceptor.PacketInterceptor;
+import org.jivesoftware.openfire.muc.MUCEventDelegate;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.muc.spi.MultiUserChatServiceImpl;
+import org.jivesoftware.openfire.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adds the delegate to MUC services that were created after the plugin was started.
+ *
+ * Openfire does not announce the creation of MUC services. Instead, the delegate is installed on a service when the
+ * first stanza addressed to it (or to one of its rooms) is intercepted, before that stanza is processed by the service.
+ * As a room cannot be joined without sending a stanza to it, no occupant can enter a room of a new service before the
+ * delegate is in place.
+ *
+ * Services that have been seen are remembered, so that for all but the first stanza, this costs one lookup. A delegate
+ * that was installed by others is not replaced. Services that no longer exist are forgotten when a new service is seen.
+ */
+public class DelegateInstaller implements PacketInterceptor
+{
+    private static final Logger Log = LoggerFactory.getLogger(DelegateInstaller.class);
+
+    private final RTBLMUCEventDelegate delegate;
+
+    /**
+     * The MUC services that have been seen. The services are compared by identity, so that a service that is removed
+     * and created again is seen as a new service.
+     */
+    private final Set<MultiUserChatService> seen = ConcurrentHashMap.newKeySet();
+
+    public DelegateInstaller(@Nonnull final RTBLMUCEventDelegate delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void interceptPacket(final Packet stanza, final Session session, final boolean incoming, final boolean processed)
+    {
+        if (stanza == null || stanza.getTo() == null || !incoming || processed) {
+            return;
+        }
+        final MultiUserChatService service = getMultiUserChatService(stanza.getTo());
+        if (service != null && !seen.contains(service)) {
+            install(service);
+        }
+    }
+
+    /**
+     * Adds the delegate to a MUC service, unless the service already has a delegate, and records that the service has
+     * been seen.
+     *
+     * @param service The MUC service.
+     */
+    void install(@Nonnull final MultiUserChatService service)
+    {
+        if (service instanceof MultiUserChatServiceImpl) {
+            final MultiUserChatServiceImpl impl = (MultiUserChatServiceImpl) service;
+            synchronized (impl) {
+                final MUCEventDelegate installed = impl.getMUCDelegate();
+                if (installed == null) {
+                    impl.setMUCDelegate(delegate);
+                    Log.info("Added delegate to MUC service '{}' that was created after the plugin was started.", service.getServiceName());
+                } else if (installed != delegate) {
+                    Log.debug("Not adding delegate to MUC service '{}', as it already has a different delegate: {}", service.getServiceName(), installed);
+                }
+            }
+        }
+        prune();
+        seen.add(service);
+    }
+
+    /**
+     * Forgets the MUC services that have been seen, but that no longer exist.
+     */
+    private void prune()
+    {
+        final List<MultiUserChatService> services = getMultiUserChatServices();
+        if (seen.retainAll(services)) {
+            Log.debug("Forgot MUC services that no longer exist. Services that are remembered: {}", seen.size());
+        }
+    }
+
+    /**
+     * Records that a MUC service has been seen, without installing the delegate on it (eg: as it was installed already).
+     *
+     * @param service The MUC service.
+     */
+    void markSeen(@Nonnull final MultiUserChatService service)
+    {
+        seen.add(service);
+    }
+
+    /**
+     * Returns the MUC service that an address belongs to.
+     *
+     * @param address The address to resolve.
+     * @return The MUC service, or null if the address does not belong to a MUC service.
+     */
+    protected MultiUserChatService getMultiUserChatService(@Nonnull final JID address)
+    {
+        return XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatService(address);
+    }
+
+    /**
+     * Returns all MUC services that exist.
+     *
+     * @return MUC services.
+     */
+    protected List<MultiUserChatService> getMultiUserChatServices()
+    {
+        return XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatServices();
+    }
+
+    /**
+     * Returns the amount of MUC services that are remembered as having been seen.
+     *
+     * @return an amount of services.
+     */
+    int getSeenCount()
+    {
+        return seen.size();
+    }
+}
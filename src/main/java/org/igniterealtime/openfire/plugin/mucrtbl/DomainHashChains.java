@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes, and caches, the SHA-256 hashes of a domain and each of its parent domains.
+ *
+ * For a domain like <tt>chat.spam.example.net</tt>, the chain consists of the hashes of <tt>chat.spam.example.net</tt>,
+ * <tt>spam.example.net</tt> and <tt>example.net</tt>, in that order. Top-level domains (and other single-label domains)
+ * are never part of a chain, unless the domain itself consists of a single label.
+ *
+ * The hashes of parent domains are only computed when they are asked for: when matching of parent domains is disabled,
+ * only the hash of the domain itself is computed (and cached).
+ *
+ * As the same domains tend to be checked repeatedly, the chain of a domain is computed only once. The cache is bounded:
+ * it evicts the least recently used domains. To limit contention between the threads that look up domains, the cache is
+ * split in segments (by the hash code of the domain), each of which is a bounded, access-ordered map guarded by its own
+ * lock.
+ */
+public class DomainHashChains
+{
+    /**
+     * The default maximum amount of domains for which a chain is cached.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    private static final int SEGMENTS = 16;
+
+    private final int maxSize;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public DomainHashChains()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public DomainHashChains(final int maxSize)
+    {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Argument 'maxSize' must be a positive number, but was: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        final int segmentCount = Math.min(SEGMENTS, maxSize);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // Distribute the capacity over the segments, so that their total never exceeds the maximum size.
+            segments[i] = new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the hashes of a domain and its parent domains, starting with the hash of the domain itself. The returned
+     * array must not be modified.
+     *
+     * @param domain A (normalized) domain name.
+     * @return The hashes of the domain and its parent domains (never empty).
+     */
+    public String[] get(final String domain)
+    {
+        return get(domain, true);
+    }
+
+    /**
+     * Returns the hash of a domain, optionally followed by the hashes of its parent domains. The returned array must not
+     * be modified.
+     *
+     * When parent domains are not requested, the returned array might still contain their hashes (when these have been
+     * computed before), but only the first element is guaranteed to be present.
+     *
+     * @param domain A (normalized) domain name.
+     * @param parents true to include the hashes of the parent domains.
+     * @return The hash of the domain, possibly followed by those of its parent domains (never empty).
+     */
+    public String[] get(final String domain, final boolean parents)
+    {
+        final Segment segment = segments[(domain.hashCode() & 0x7fffffff) % segments.length];
+        final Chain cached;
+        synchronized (segment) {
+            cached = segment.get(domain);
+        }
+        if (cached != null && (cached.complete || !parents)) {
+            hits.increment();
+            return cached.hashes;
+        }
+        misses.increment();
+        final Chain chain = parents ? new Chain(compute(domain), true) : new Chain(new String[] { StringUtils.hash(domain, "SHA-256") }, false);
+        synchronized (segment) {
+            segment.put(domain, chain);
+        }
+        return chain.hashes;
+    }
+
+    /**
+     * Computes the hashes of a domain and its parent domains, without using the cache.
+     *
+     * @param domain A (normalized) domain name.
+     * @return The hashes of the domain and its parent domains (never empty).
+     */
+    static String[] compute(final String domain)
+    {
+        final List<String> result = new ArrayList<>();
+        result.add(StringUtils.hash(domain, "SHA-256"));
+        if (!isIpLiteral(domain)) {
+            int dot = domain.indexOf('.');
+            while (dot >= 0 && domain.indexOf('.', dot + 1) >= 0) {
+                result.add(StringUtils.hash(domain.substring(dot + 1), "SHA-256"));
+                dot = domain.indexOf('.', dot + 1);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static boolean isIpLiteral(final String domain)
+    {
+        if (domain.startsWith("[")) {
+            return true;
+        }
+        for (int i = 0; i < domain.length(); i++) {
+            final char c = domain.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size()
+    {
+        int result = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                result += segment.size();
+            }
+        }
+        return result;
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * The hashes of a domain, and whether these include the hashes of all of its parent domains.
+     */
+    private static final class Chain
+    {
+        private final String[] hashes;
+        private final boolean complete;
+
+        private Chain(final String[] hashes, final boolean complete)
+        {
+            this.hashes = hashes;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * A part of the cache, that evicts its least recently used entry when it grows beyond its capacity. Instances are
+     * guarded by their own monitor.
+     */
+    private static final class Segment extends LinkedHashMap<String, Chain>
+    {
+        private final int capacity;
+
+        private Segment(final int capacity)
+        {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Chain> eldest)
+        {
+            return size() > capacity;
+        }
+    }
+}
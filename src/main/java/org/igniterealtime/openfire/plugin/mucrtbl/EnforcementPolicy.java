@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable table that defines, per MUC service and per MUC room, how the block list is enforced.
+ *
+ * A lookup consists of at most three map lookups, and is intended to be performed before any other block list related
+ * processing, so that services and rooms for which enforcement is disabled do not incur the cost of hashing JIDs.
+ *
+ * A room-specific mode takes precedence over a service-specific mode, which takes precedence over the default mode.
+ */
+public final class EnforcementPolicy
+{
+    private static final Logger Log = LoggerFactory.getLogger(EnforcementPolicy.class);
+
+    /**
+     * The ways in which the block list can be applied.
+     */
+    public enum Mode
+    {
+        /**
+         * Entities on the block list are prevented from interacting with rooms.
+         */
+        ENFORCE,
+
+        /**
+         * Entities on the block list are detected, but are not prevented from interacting with rooms.
+         */
+        MONITOR,
+
+        /**
+         * The block list is not used.
+         */
+        OFF
+    }
+
+    /**
+     * A policy that enforces the block list on all services and rooms.
+     */
+    public static final EnforcementPolicy ENFORCE_ALL = new EnforcementPolicy(Mode.ENFORCE, Collections.emptyMap(), Collections.emptyMap());
+
+    private final Mode defaultMode;
+
+    /**
+     * Modes by service name.
+     */
+    private final Map<String, Mode> serviceModes;
+
+    /**
+     * Modes by room name, by service name.
+     */
+    private final Map<String, Map<String, Mode>> roomModes;
+
+    /**
+     * Names of services for which no room can have any other mode than {@link Mode#OFF}.
+     */
+    private final Set<String> disabledServices;
+
+    /**
+     * Creates a new policy.
+     *
+     * @param defaultMode The mode that applies to services and rooms for which no specific mode is defined.
+     * @param serviceModes Modes by (case-insensitive) service name.
+     * @param roomModes Modes by (case-insensitive) room name, by (case-insensitive) service name.
+     */
+    public EnforcementPolicy(@Nonnull final Mode defaultMode, @Nonnull final Map<String, Mode> serviceModes, @Nonnull final Map<String, Map<String, Mode>> roomModes)
+    {
+        this.defaultMode = defaultMode;
+
+        final Map<String, Mode> services = new HashMap<>();
+        serviceModes.forEach((service, mode) -> services.put(service.toLowerCase(Locale.ROOT), mode));
+        this.serviceModes = Collections.unmodifiableMap(services);
+
+        final Map<String, Map<String, Mode>> rooms = new HashMap<>();
+        roomModes.forEach((service, modes) -> {
+            final Map<String, Mode> byRoom = rooms.computeIfAbsent(service.toLowerCase(Locale.ROOT), k -> new HashMap<>());
+            modes.forEach((room, mode) -> byRoom.put(room.toLowerCase(Locale.ROOT), mode));
+        });
+        rooms.replaceAll((service, modes) -> Collections.unmodifiableMap(modes));
+        this.roomModes = Collections.unmodifiableMap(rooms);
+
+        final Set<String> disabled = new HashSet<>();
+        final Set<String> names = new HashSet<>(this.serviceModes.keySet());
+        names.addAll(this.roomModes.keySet());
+        for (final String name : names) {
+            if (getMode(name) == Mode.OFF && this.roomModes.getOrDefault(name, Collections.emptyMap()).values().stream().allMatch(mode -> mode == Mode.OFF)) {
+                disabled.add(name);
+            }
+        }
+        this.disabledServices = Collections.unmodifiableSet(disabled);
+    }
+
+    /**
+     * Returns the mode that applies to a MUC service (disregarding room-specific modes).
+     *
+     * @param serviceName The (case-insensitive) name of the service (e.g. 'conference').
+     * @return the applicable mode.
+     */
+    @Nonnull
+    public Mode getMode(@Nonnull final String serviceName)
+    {
+        if (serviceModes.isEmpty()) {
+            return defaultMode;
+        }
+        return serviceModes.getOrDefault(serviceName.toLowerCase(Locale.ROOT), defaultMode);
+    }
+
+    /**
+     * Returns the mode that applies to a room of a MUC service.
+     *
+     * @param serviceName The (case-insensitive) name of the service (e.g. 'conference').
+     * @param roomName The (case-insensitive) name of the room, or null when the service itself is addressed.
+     * @return the applicable mode.
+     */
+    @Nonnull
+    public Mode getMode(@Nonnull final String serviceName, @Nullable final String roomName)
+    {
+        if (roomName != null && !roomModes.isEmpty()) {
+            final Map<String, Mode> byRoom = roomModes.get(serviceName.toLowerCase(Locale.ROOT));
+            if (byRoom != null) {
+                final Mode mode = byRoom.get(roomName.toLowerCase(Locale.ROOT));
+                if (mode != null) {
+                    return mode;
+                }
+            }
+        }
+        return getMode(serviceName);
+    }
+
+    /**
+     * Checks if the block list is not used for any of the rooms of a service.
+     *
+     * @param serviceName The (case-insensitive) name of the service (e.g. 'conference').
+     * @return true if the mode of the service, and of all of its rooms, is {@link Mode#OFF}.
+     */
+    public boolean isDisabled(@Nonnull final String serviceName)
+    {
+        final String name = serviceName.toLowerCase(Locale.ROOT);
+        if (serviceModes.containsKey(name) || roomModes.containsKey(name)) {
+            return disabledServices.contains(name);
+        }
+        return defaultMode == Mode.OFF;
+    }
+
+    /**
+     * Returns a policy that is equal to this one, apart from the block list being monitored (instead of enforced) for
+     * all services and rooms for which this policy enforces the block list. Services and rooms for which the block list
+     * is disabled remain disabled.
+     *
+     * @return A 'shadow' version of this policy.
+     */
+    @Nonnull
+    public EnforcementPolicy asShadow()
+    {
+        final Map<String, Mode> services = new HashMap<>(serviceModes);
+        services.replaceAll((service, mode) -> shadow(mode));
+        final Map<String, Map<String, Mode>> rooms = new HashMap<>();
+        roomModes.forEach((service, modes) -> {
+            final Map<String, Mode> byRoom = new HashMap<>(modes);
+            byRoom.replaceAll((room, mode) -> shadow(mode));
+            rooms.put(service, byRoom);
+        });
+        return new EnforcementPolicy(shadow(defaultMode), services, rooms);
+    }
+
+    private static Mode shadow(final Mode mode)
+    {
+        return mode == Mode.ENFORCE ? Mode.MONITOR : mode;
+    }
+
+    public Mode getDefaultMode()
+    {
+        return defaultMode;
+    }
+
+    public Map<String, Mode> getServiceModes()
+    {
+        return serviceModes;
+    }
+
+    public Map<String, Map<String, Mode>> getRoomModes()
+    {
+        return roomModes;
+    }
+
+    /**
+     * Parses a policy definition, which is a comma- or whitespace-separated list of entries of the form
+     * <tt>service=mode</tt> or <tt>room@service=mode</tt>, where 'service' is the name of a MUC service (e.g.
+     * 'conference') and 'mode' is one of 'enforce', 'monitor' or 'off'. Invalid entries are logged and ignored.
+     *
+     * @param defaultMode The mode that applies to services and rooms that are not part of the definition.
+     * @param definition The definition to parse (can be null).
+     * @return The policy.
+     */
+    @Nonnull
+    public static EnforcementPolicy parse(@Nonnull final Mode defaultMode, @Nullable final String definition)
+    {
+        final Map<String, Mode> services = new HashMap<>();
+        final Map<String, Map<String, Mode>> rooms = new HashMap<>();
+        if (definition != null) {
+            for (final String entry : definition.split("[,\\s]+")) {
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                final int separator = entry.indexOf('=');
+                if (separator < 1) {
+                    Log.warn("Ignoring invalid enforcement policy entry '{}' (expected 'service=mode' or 'room@service=mode').", entry);
+                    continue;
+                }
+                final String name = entry.substring(0, separator).toLowerCase(Locale.ROOT);
+                final Mode mode;
+                try {
+                    mode = Mode.valueOf(entry.substring(separator + 1).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    Log.warn("Ignoring enforcement policy entry '{}' that has an unrecognized mode.", entry);
+                    continue;
+                }
+                final int at = name.indexOf('@');
+                if (at < 0) {
+                    services.put(name, mode);
+                } else if (at == 0 || at == name.length() - 1) {
+                    Log.warn("Ignoring invalid enforcement policy entry '{}' (expected 'service=mode' or 'room@service=mode').", entry);
+                } else {
+                    rooms.computeIfAbsent(name.substring(at + 1), k -> new HashMap<>()).put(name.substring(0, at), mode);
+                }
+            }
+        }
+        return new EnforcementPolicy(defaultMode, services, rooms);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "EnforcementPolicy{" +
+            "defaultMode=" + defaultMode +
+            ", serviceModes=" + serviceModes +
+            ", roomModes=" + roomModes +
+            '}';
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.TaskEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies changes to the block list, that are received as pub/sub events, asynchronously.
+ *
+ * Events are queued, rather than applied on the thread that receives them. A task that is executed by the
+ * {@link TaskEngine} takes all events that are queued (up to a maximum batch size), cancels out opposing operations on
+ * the same item (a retraction followed by a publication of the same item, or vice versa), and applies the net result
+ * to the block list in one mutation. At most one such task is scheduled at any time.
+ *
+ * The queue is bounded. When it is full, the thread that submits an event waits until space becomes available. Events
+ * are never dropped, and are applied in the order in which they were submitted: all events are applied while holding
+ * the same lock, after all events that were queued before them have been applied. This includes events that are
+ * applied directly, after the queue has been stopped, or when the submitting thread is interrupted.
+ */
+public class EventIngestQueue
+{
+    private static final Logger Log = LoggerFactory.getLogger(EventIngestQueue.class);
+
+    /**
+     * Duration for which a submission waits for space in the queue, before it is registered as being subject to
+     * backpressure (after which it waits indefinitely).
+     */
+    private static final Duration OFFER_TIMEOUT = Duration.ofMillis(50);
+
+    private final BlockList blockList;
+
+    private final BlockingQueue<Event> queue;
+
+    private final int capacity;
+
+    private final int maxBatchSize;
+
+    private final AtomicLong eventsSubmitted = new AtomicLong();
+    private final AtomicLong operationsSubmitted = new AtomicLong();
+    private final AtomicLong operationsCoalesced = new AtomicLong();
+    private final AtomicLong batchesApplied = new AtomicLong();
+    private final AtomicLong backpressureEvents = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    /**
+     * Held while events are applied to the block list, to guarantee that these are applied in order.
+     */
+    private final Object applyLock = new Object();
+
+    /**
+     * Indicates that a task that applies queued events has been scheduled, and has not yet finished.
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private final Runnable drainTask = this::drain;
+
+    private volatile boolean started = false;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a new queue, that applies changes to the provided block list.
+     *
+     * @param blockList The block list to which to apply changes.
+     * @param capacity The maximum amount of events that can be queued.
+     * @param maxBatchSize The maximum amount of events that are applied as one mutation.
+     */
+    public EventIngestQueue(final BlockList blockList, final int capacity, final int maxBatchSize)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Argument 'capacity' must be a positive number, but was: " + capacity);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Argument 'maxBatchSize' must be a positive number, but was: " + maxBatchSize);
+        }
+        this.blockList = blockList;
+        this.capacity = capacity;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Starts applying queued events to the block list asynchronously.
+     */
+    public synchronized void start()
+    {
+        if (started || stopped) {
+            return;
+        }
+        started = true;
+        if (!queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Stops applying queued events asynchronously. Events that are still queued are applied on the invoking thread,
+     * after any batch that is being applied asynchronously has been applied. Events that are submitted after this
+     * method has been invoked are applied directly, on the submitting thread.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        flush();
+    }
+
+    /**
+     * Queues the changes of a pub/sub event, to be applied to the block list.
+     *
+     * When the queue is full, this method blocks until space becomes available.
+     *
+     * @param retracted Hashes that are to be removed from the block list.
+     * @param published Hashes that are to be added to the block list, mapped to an optional human-readable reason.
+     */
+    public void submit(final Collection<String> retracted, final Map<String, String> published)
+    {
+        submit(retracted, published, null);
+    }
+
+    /**
+     * Queues the changes of a pub/sub event, to be applied to the block list, while tracing their propagation.
+     *
+     * When the queue is full, this method blocks until space becomes available.
+     *
+     * @param retracted Hashes that are to be removed from the block list.
+     * @param published Hashes that are to be added to the block list, mapped to an optional human-readable reason.
+     * @param trace The trace of the changes (can be null).
+     */
+    public void submit(final Collection<String> retracted, final Map<String, String> published, @Nullable final PropagationTracer.Trace trace)
+    {
+        if (retracted.isEmpty() && published.isEmpty()) {
+            return;
+        }
+        final Event event = new Event(retracted, published, trace);
+        eventsSubmitted.incrementAndGet();
+        operationsSubmitted.addAndGet(retracted.size() + published.size());
+        if (stopped) {
+            applyDirectly(event);
+            return;
+        }
+        try {
+            if (!queue.offer(event, OFFER_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                backpressureEvents.incrementAndGet();
+                Log.debug("The queue of block list events is full ({} events). Waiting for space to become available.", queue.size());
+                queue.put(event);
+            }
+        } catch (InterruptedException e) {
+            // Do not lose the event.
+            Log.debug("Interrupted while waiting for space in the queue of block list events. Applying the event directly, after all queued events.");
+            Thread.currentThread().interrupt();
+            applyDirectly(event);
+            return;
+        }
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        if (stopped) {
+            // The queue was stopped while this event was being queued. Do not leave it behind.
+            flush();
+        } else if (started) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Applies all events that are queued, on the invoking thread.
+     */
+    public void flush()
+    {
+        synchronized (applyLock) {
+            drainQueue();
+        }
+    }
+
+    /**
+     * Applies an event on the invoking thread, after all events that are queued.
+     *
+     * @param event The event to apply.
+     */
+    private void applyDirectly(final Event event)
+    {
+        synchronized (applyLock) {
+            drainQueue();
+            apply(Collections.singletonList(event));
+        }
+    }
+
+    /**
+     * Schedules a task that applies all queued events, unless such a task is already scheduled.
+     */
+    private void scheduleDrain()
+    {
+        if (drainScheduled.compareAndSet(false, true)) {
+            TaskEngine.getInstance().submit(drainTask);
+        }
+    }
+
+    private void drain()
+    {
+        try {
+            synchronized (applyLock) {
+                drainQueue();
+            }
+        } catch (Throwable t) {
+            Log.warn("An unexpected exception occurred while applying events to the block list.", t);
+        } finally {
+            drainScheduled.set(false);
+        }
+
+        // Events that were queued after the queue was found to be empty, but before the flag was cleared, did not schedule a task.
+        if (!stopped && !queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Applies all queued events, in batches. The caller must hold {@link #applyLock}.
+     */
+    private void drainQueue()
+    {
+        final List<Event> batch = new ArrayList<>();
+        while (queue.drainTo(batch, maxBatchSize) > 0) {
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Applies the net result of a batch of events to the block list, in one mutation.
+     *
+     * @param batch The events to apply, in order of submission.
+     */
+    void apply(final List<Event> batch)
+    {
+        // For each item, only the last operation in the batch matters.
+        final Map<String, String> toAdd = new HashMap<>();
+        final Set<String> toRemove = new HashSet<>();
+        final List<PropagationTracer.Trace> traces = new ArrayList<>();
+        int operations = 0;
+        for (final Event event : batch) {
+            if (event.trace != null) {
+                traces.add(event.trace);
+            }
+            for (final String hash : event.retracted) {
+                toAdd.remove(hash);
+                toRemove.add(hash);
+                operations++;
+            }
+            for (final Map.Entry<String, String> entry : event.published.entrySet()) {
+                toRemove.remove(entry.getKey());
+                toAdd.put(entry.getKey(), entry.getValue());
+                operations++;
+            }
+        }
+        operationsCoalesced.addAndGet(operations - toAdd.size() - toRemove.size());
+
+        Log.trace("Applying {} block list event(s): adding {} and removing {} hash(es).", batch.size(), toAdd.size(), toRemove.size());
+        final PropagationTracer tracer = blockList.getTracer();
+        tracer.attach(traces);
+        try {
+            blockList.update(toAdd, toRemove);
+        } finally {
+            tracer.complete();
+        }
+        batchesApplied.incrementAndGet();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns the amount of events that are queued, but have not yet been applied.
+     *
+     * @return an amount of events.
+     */
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Returns the largest amount of events that has been queued at the same time.
+     *
+     * @return an amount of events.
+     */
+    public long getMaxQueueDepth()
+    {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the amount of events that have been submitted.
+     *
+     * @return an amount of events.
+     */
+    public long getEventsSubmitted()
+    {
+        return eventsSubmitted.get();
+    }
+
+    /**
+     * Returns the amount of individual additions and removals that have been submitted.
+     *
+     * @return an amount of operations.
+     */
+    public long getOperationsSubmitted()
+    {
+        return operationsSubmitted.get();
+    }
+
+    /**
+     * Returns the amount of additions and removals that were not applied, as they were superseded by a later operation
+     * on the same item in the same batch.
+     *
+     * @return an amount of operations.
+     */
+    public long getOperationsCoalesced()
+    {
+        return operationsCoalesced.get();
+    }
+
+    /**
+     * Returns the amount of mutations that have been applied to the block list.
+     *
+     * @return an amount of batches.
+     */
+    public long getBatchesApplied()
+    {
+        return batchesApplied.get();
+    }
+
+    /**
+     * Returns the amount of events for which the submitting thread had to wait for space to become available in the queue.
+     *
+     * @return an amount of events.
+     */
+    public long getBackpressureEvents()
+    {
+        return backpressureEvents.get();
+    }
+
+    /**
+     * The changes of one pub/sub event.
+     */
+    static final class Event
+    {
+        final Collection<String> retracted;
+        final Map<String, String> published;
+        @Nullable
+        final PropagationTracer.Trace trace;
+
+        Event(final Collection<String> retracted, final Map<String, String> published, @Nullable final PropagationTracer.Trace trace)
+        {
+            this.retracted = retracted;
+            this.published = published;
+            this.trace = trace;
+        }
+    }
+}
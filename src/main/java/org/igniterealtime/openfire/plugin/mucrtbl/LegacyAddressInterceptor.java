@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.interceptor.PacketInterceptor;
+import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.openfire.session.Session;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+/**
+ * Passes stanzas that are addressed to the address that was used by earlier versions of this plugin (and that is still
+ * used by default) to a {@link PubSubHandler}. That address is not routed to a component, which is why all traffic is inspected to find those
+ * stanzas. The address is compared before anything else, to keep the cost for unrelated traffic to a minimum.
+ *
+ * Responses and messages are processed by the handler. Requests are rejected. All stanzas addressed to the address are
+ * prevented from being processed any further.
+ */
+public class LegacyAddressInterceptor implements PacketInterceptor
+{
+    /**
+     * The handler to which stanzas addressed to {@link #address} are passed.
+     */
+    private final PubSubHandler handler;
+
+    /**
+     * The address for which stanzas are passed to {@link #handler}.
+     */
+    private final JID address;
+
+    /**
+     * Creates a new instance that passes stanzas addressed to the address of the provided handler to that handler.
+     *
+     * @param handler The handler to pass stanzas to.
+     */
+    public LegacyAddressInterceptor(final PubSubHandler handler)
+    {
+        this.handler = handler;
+        this.address = handler.getSelfAddress();
+    }
+
+    /**
+     * Returns the address that was used by earlier versions of this plugin to interact with the pub/sub service, which is
+     * still used when the component is not enabled.
+     *
+     * @return an address.
+     */
+    public static JID getLegacyAddress()
+    {
+        return XMPPServer.getInstance().createJID(null, "mucrtbl");
+    }
+
+    @Override
+    public void interceptPacket(final Packet stanza, final Session session, final boolean incoming, final boolean processed) throws PacketRejectedException
+    {
+        if (!incoming || processed || !address.equals(stanza.getTo()) || session instanceof ClientSession) {
+            return;
+        }
+
+        if (stanza instanceof IQ && !((IQ) stanza).isResponse()) {
+            // This address does not offer any functionality.
+            throw new PacketRejectedException(); // Will generate an error for requests, which is appropriate.
+        }
+
+        handler.processPacket(stanza);
+
+        // This stanza is addressed to 'us'. Prevent further processing of this stanza.
+        throw new PacketRejectedException(); // A message rejected without a rejection message will not generate an error response that's sent back to the sender.
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of the work that is performed on the hot paths of the plugin: block list lookups, blocking
+ * decisions, removal of occupants and synchronization with the pub/sub node.
+ *
+ * All values are recorded with striped, lock-free primitives ({@link LongAdder}, {@link LongAccumulator}), so that
+ * recording does not add contention between the threads that are being measured. Counters are always updated, but the
+ * durations of block list lookups are only measured for a sample of the lookups (see {@link #sampleTiming()}), as
+ * reading the clock costs more than the lookup itself.
+ *
+ * An instance is owned by each {@link BlockList}, and is exposed through JMX (see {@link MetricsMXBean}) and the admin
+ * console.
+ */
+public class Metrics implements MetricsMXBean
+{
+    /**
+     * The default value of the rate at which the durations of block list lookups are measured: one in this many.
+     */
+    public static final int DEFAULT_TIMING_SAMPLE_RATE = 64;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder blockedStanzas = new LongAdder();
+    private final LongAdder rejectedJoins = new LongAdder();
+    private final LongAdder rejectedInvitations = new LongAdder();
+    private final LongAdder kicks = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+
+    private final Histogram hashingNanos = new Histogram();
+    private final Histogram lockWaitNanos = new Histogram();
+    private final Histogram lockHoldNanos = new Histogram();
+    private final Histogram sweepNanos = new Histogram();
+    private final Histogram syncItems = new Histogram();
+    private final Histogram syncNanos = new Histogram();
+
+    private volatile int timingSampleRate = DEFAULT_TIMING_SAMPLE_RATE;
+
+    /**
+     * Decides if the duration of a block list lookup is to be measured. One in {@link #getTimingSampleRate()} lookups is
+     * measured, chosen at random.
+     *
+     * @return true if the lookup is to be timed.
+     */
+    public boolean sampleTiming()
+    {
+        final int rate = timingSampleRate;
+        return rate <= 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    public int getTimingSampleRate()
+    {
+        return timingSampleRate;
+    }
+
+    /**
+     * Configures the rate at which the durations of block list lookups are measured.
+     *
+     * @param timingSampleRate One in how many lookups is measured (1 measures every lookup).
+     */
+    public void setTimingSampleRate(final int timingSampleRate)
+    {
+        if (timingSampleRate < 1) {
+            throw new IllegalArgumentException("Argument 'timingSampleRate' must be a positive number, but was: " + timingSampleRate);
+        }
+        this.timingSampleRate = timingSampleRate;
+    }
+
+    /**
+     * Records the lookup of one JID on the block list.
+     *
+     * @param hit true if the JID was found to be on the block list.
+     */
+    public void recordLookup(final boolean hit)
+    {
+        lookups.increment();
+        if (hit) {
+            hits.increment();
+        }
+    }
+
+    /**
+     * Records the lookup of a number of JIDs on the block list.
+     *
+     * @param amount the amount of JIDs that were looked up.
+     * @param hitCount the amount of JIDs that were found to be on the block list.
+     */
+    public void recordLookups(final int amount, final int hitCount)
+    {
+        lookups.add(amount);
+        hits.add(hitCount);
+    }
+
+    public void recordBlockedStanza()
+    {
+        blockedStanzas.increment();
+    }
+
+    public void recordRejectedJoin()
+    {
+        rejectedJoins.increment();
+    }
+
+    public void recordRejectedInvitation()
+    {
+        rejectedInvitations.increment();
+    }
+
+    public void recordKick()
+    {
+        kicks.increment();
+    }
+
+    /**
+     * Records a synchronization with the pub/sub node (a page, event or other response that was processed).
+     *
+     * @param items the amount of items that were processed.
+     * @param nanos the time it took to process the items.
+     */
+    public void recordSync(final int items, final long nanos)
+    {
+        syncs.increment();
+        syncItems.record(items);
+        syncNanos.record(nanos);
+    }
+
+    public Histogram getHashingNanos()
+    {
+        return hashingNanos;
+    }
+
+    public Histogram getLockWaitNanos()
+    {
+        return lockWaitNanos;
+    }
+
+    public Histogram getLockHoldNanos()
+    {
+        return lockHoldNanos;
+    }
+
+    public Histogram getSweepNanos()
+    {
+        return sweepNanos;
+    }
+
+    public Histogram getSyncItems()
+    {
+        return syncItems;
+    }
+
+    public Histogram getSyncNanos()
+    {
+        return syncNanos;
+    }
+
+    @Override
+    public long getLookups()
+    {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    @Override
+    public long getBlockedStanzas()
+    {
+        return blockedStanzas.sum();
+    }
+
+    @Override
+    public long getRejectedJoins()
+    {
+        return rejectedJoins.sum();
+    }
+
+    @Override
+    public long getRejectedInvitations()
+    {
+        return rejectedInvitations.sum();
+    }
+
+    @Override
+    public long getKicks()
+    {
+        return kicks.sum();
+    }
+
+    @Override
+    public long getSyncs()
+    {
+        return syncs.sum();
+    }
+
+    /**
+     * Returns all histograms, by name.
+     *
+     * @return histograms, in a stable order.
+     */
+    public Map<String, Histogram> getHistograms()
+    {
+        final Map<String, Histogram> result = new LinkedHashMap<>();
+        result.put("hashingNanos", hashingNanos);
+        result.put("lockWaitNanos", lockWaitNanos);
+        result.put("lockHoldNanos", lockHoldNanos);
+        result.put("sweepNanos", sweepNanos);
+        result.put("syncItems", syncItems);
+        result.put("syncNanos", syncNanos);
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getHistogramSummaries()
+    {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        getHistograms().forEach((name, histogram) -> {
+            result.put(name + ".count", histogram.getCount());
+            result.put(name + ".mean", histogram.getMean());
+            result.put(name + ".p50", histogram.getPercentile(50));
+            result.put(name + ".p99", histogram.getPercentile(99));
+            result.put(name + ".max", histogram.getMax());
+        });
+        return result;
+    }
+
+    @Override
+    public void reset()
+    {
+        lookups.reset();
+        hits.reset();
+        blockedStanzas.reset();
+        rejectedJoins.reset();
+        rejectedInvitations.reset();
+        kicks.reset();
+        syncs.reset();
+        getHistograms().values().forEach(Histogram::reset);
+    }
+
+    /**
+     * A histogram of non-negative values, with buckets that are powers of two. Percentiles are approximated by the upper
+     * bound of the bucket that they fall in (so are overestimated by less than a factor of two).
+     */
+    public static class Histogram
+    {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public Histogram()
+        {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a value. Negative values are recorded as zero.
+         *
+         * @param value The value to record.
+         */
+        public void record(final long value)
+        {
+            final long v = Math.max(0, value);
+            buckets[64 - Long.numberOfLeadingZeros(v)].increment();
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        public long getMean()
+        {
+            final long c = count.sum();
+            return c == 0 ? 0 : sum.sum() / c;
+        }
+
+        public long getMax()
+        {
+            return max.get();
+        }
+
+        /**
+         * Returns an approximation of a percentile of the recorded values.
+         *
+         * @param percentile a value between 0 and 100.
+         * @return the (approximated) value, or 0 if no values were recorded.
+         */
+        public long getPercentile(final double percentile)
+        {
+            final long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(percentile / 100.0 * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    // Bucket i holds values in [2^(i-1), 2^i - 1]. Never report more than the maximum that was recorded.
+                    return Math.min(i == 0 ? 0 : i == 63 ? Long.MAX_VALUE : (1L << i) - 1, getMax());
+                }
+            }
+            return getMax();
+        }
+
+        public void reset()
+        {
+            for (final LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+}
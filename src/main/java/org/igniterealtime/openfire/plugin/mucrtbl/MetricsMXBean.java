@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import java.util.Map;
+
+/**
+ * The JMX management interface of {@link Metrics}.
+ */
+public interface MetricsMXBean
+{
+    /**
+     * The name under which the metrics are registered in the platform MBean server.
+     */
+    String OBJECT_NAME = "org.igniterealtime.openfire.plugin.mucrtbl:type=Metrics";
+
+    /**
+     * @return The amount of JIDs that were looked up on the block list.
+     */
+    long getLookups();
+
+    /**
+     * @return The amount of JIDs that were found to be on the block list.
+     */
+    long getHits();
+
+    /**
+     * @return The amount of stanzas that were blocked.
+     */
+    long getBlockedStanzas();
+
+    /**
+     * @return The amount of attempts to join a room that were rejected.
+     */
+    long getRejectedJoins();
+
+    /**
+     * @return The amount of invitations that were rejected.
+     */
+    long getRejectedInvitations();
+
+    /**
+     * @return The amount of occupants that were removed from a room.
+     */
+    long getKicks();
+
+    /**
+     * @return The amount of pages, events and other responses from the pub/sub service that were processed.
+     */
+    long getSyncs();
+
+    /**
+     * Returns the count, mean, 50th and 99th percentile and maximum of each histogram, keyed by histogram name and
+     * statistic (eg: 'lockWaitNanos.p99').
+     *
+     * @return histogram statistics.
+     */
+    Map<String, Long> getHistogramSummaries();
+
+    /**
+     * Resets all counters and histograms.
+     */
+    void reset();
+}
@@ -15,24 +15,44 @@
  */
 package org.igniterealtime.openfire.plugin.mucrtbl;
 
+import org.jivesoftware.openfire.SessionManager;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
 import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.component.InternalComponentManager;
 import org.jivesoftware.openfire.container.Plugin;
 import org.jivesoftware.openfire.container.PluginManager;
+import org.jivesoftware.openfire.event.ServerSessionEventDispatcher;
+import org.jivesoftware.openfire.event.SessionEventDispatcher;
 import org.jivesoftware.openfire.interceptor.InterceptorManager;
 import org.jivesoftware.openfire.muc.MUCEventDelegate;
 import org.jivesoftware.openfire.muc.spi.MultiUserChatServiceImpl;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.openfire.session.IncomingServerSession;
+import org.jivesoftware.openfire.session.LocalClientSession;
+import org.jivesoftware.openfire.session.LocalIncomingServerSession;
+import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.TaskEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xmpp.component.ComponentException;
 import org.xmpp.packet.JID;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.function.Consumer;
 
 public class MucRealTimeBlockListPlugin implements Plugin
 {
@@ -42,14 +62,59 @@ public class MucRealTimeBlockListPlugin implements Plugin
 
     private RTBLMUCEventDelegate rtblmucEventDelegate;
 
-    private PubSubHandler pubSubHandler;
+    private volatile PubSubHandler pubSubHandler;
+
+    /**
+     * The subdomain under which {@link #pubSubHandler} is registered as a component, or null if it is not registered as
+     * a component.
+     */
+    private String componentSubdomain;
+
+    /**
+     * Passes stanzas addressed to the legacy address to {@link #pubSubHandler}, when it is not registered as a component.
+     */
+    private LegacyAddressInterceptor legacyAddressInterceptor;
+
+    private EventIngestQueue eventIngestQueue;
 
     private StanzaBlocker stanzaBlocker;
 
     private OccupantRemover occupantRemover;
 
+    private SessionDigests sessionDigests;
+
     private RefreshTask refreshTask;
 
+    private DelegateInstaller delegateInstaller;
+
+    /**
+     * Defines for what MUC services and rooms the block list is enforced.
+     */
+    private volatile EnforcementPolicy enforcementPolicy = EnforcementPolicy.ENFORCE_ALL;
+
+    /**
+     * Records verdicts that are not acted upon, as the block list is only monitored.
+     */
+    private VerdictRecorder verdictRecorder;
+
+    /**
+     * Records the decisions to block entities.
+     */
+    private AuditLog auditLog;
+
+    /**
+     * The pub/sub service with which the block list is currently synchronized.
+     */
+    private JID activeService;
+
+    /**
+     * The pub/sub node with which the block list is currently synchronized.
+     */
+    private String activeNode;
+
+    /**
+     * When false, changes to the configuration are not applied to the running plugin.
+     */
     public static boolean reinitOnConfigChange = true;
 
     public static final SystemProperty<JID> BLOCKLIST_SERVICE_JID = SystemProperty.Builder.ofType(JID.class)
@@ -57,7 +122,7 @@ public class MucRealTimeBlockListPlugin implements Plugin
         .setPlugin("MUC Real-Time Block List")
         .setDefaultValue(new JID("xmppbl.org"))
         .setDynamic(true)
-        .addListener(o -> reInit())
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyServiceConfiguration))
         .build();
 
     public static final SystemProperty<String> BLOCKLIST_SERVICE_NODE = SystemProperty.Builder.ofType(String.class)
@@ -65,7 +130,29 @@ public class MucRealTimeBlockListPlugin implements Plugin
         .setPlugin("MUC Real-Time Block List")
         .setDefaultValue("muc_bans_sha256")
         .setDynamic(true)
-        .addListener(o -> reInit())
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyServiceConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_COMPONENT_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.component.enabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyComponentConfiguration))
+        .build();
+
+    public static final SystemProperty<String> BLOCKLIST_COMPONENT_SUBDOMAIN = SystemProperty.Builder.ofType(String.class)
+        .setKey("plugin.mucrtbl.component.subdomain")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue("mucrtbl")
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyComponentConfiguration))
+        .build();
+
+    public static final SystemProperty<JID> BLOCKLIST_SUBSCRIBER_ADDRESS = SystemProperty.Builder.ofType(JID.class)
+        .setKey("plugin.mucrtbl.subscriber.address")
+        .setPlugin("MUC Real-Time Block List")
+        .setDynamic(true)
         .build();
 
     public static final SystemProperty<Boolean> BLOCKLIST_STANZABLOCKER_DISABLED = SystemProperty.Builder.ofType(Boolean.class)
@@ -73,7 +160,7 @@ public class MucRealTimeBlockListPlugin implements Plugin
         .setPlugin("MUC Real-Time Block List")
         .setDefaultValue(false)
         .setDynamic(true)
-        .addListener(o -> reInit())
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyStanzaBlockerConfiguration))
         .build();
 
     public static final SystemProperty<Boolean> BLOCKLIST_OCCUPANTREMOVER_DISABLED = SystemProperty.Builder.ofType(Boolean.class)
@@ -81,7 +168,41 @@ public class MucRealTimeBlockListPlugin implements Plugin
         .setPlugin("MUC Real-Time Block List")
         .setDefaultValue(false)
         .setDynamic(true)
-        .addListener(o -> reInit())
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyOccupantRemoverConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_OCCUPANTREMOVER_INDEXED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.blocklist.occupantremover.indexed")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyOccupantRemoverConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> BLOCKLIST_OCCUPANTREMOVER_THREADS = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.blocklist.occupantremover.threads")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(4)
+        .setMinValue(1)
+        .setMaxValue(64)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyOccupantRemoverConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_S2S_CLOSE = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.blocklist.s2s.close")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyOccupantRemoverConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_SESSIONDIGESTS_DISABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.blocklist.sessiondigests.disabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applySessionDigestsConfiguration))
         .build();
 
     public static final SystemProperty<Boolean> BLOCKLIST_REFRESHTASK_DISABLED = SystemProperty.Builder.ofType(Boolean.class)
@@ -89,7 +210,7 @@ public class MucRealTimeBlockListPlugin implements Plugin
         .setPlugin("MUC Real-Time Block List")
         .setDefaultValue(false)
         .setDynamic(true)
-        .addListener(o -> reInit())
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyRefreshTaskConfiguration))
         .build();
 
     public static final SystemProperty<Duration> BLOCKLIST_REFRESHTASK_INTERVAL = SystemProperty.Builder.ofType(Duration.class)
@@ -99,20 +220,337 @@ public class MucRealTimeBlockListPlugin implements Plugin
         .setMinValue(Duration.ofSeconds(10))
         .setChronoUnit(ChronoUnit.SECONDS)
         .setDynamic(true)
-        .addListener(o -> reInit())
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyRefreshTaskConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> BLOCKLIST_FETCH_PAGESIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.blocklist.fetch.pagesize")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(500)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> BLOCKLIST_FETCH_MAXPAGESINFLIGHT = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.blocklist.fetch.maxpagesinflight")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(3)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_REFRESHTASK_INCREMENTAL_DISABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.blocklist.refreshtask.incremental.disabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> BLOCKLIST_REFRESHTASK_INCREMENTAL_MAXITEMS = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.blocklist.refreshtask.incremental.maxitems")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(100)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_REFRESHTASK_DIGESTCHECK_DISABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.blocklist.refreshtask.digestcheck.disabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Duration> BLOCKLIST_REQUEST_TIMEOUT = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("plugin.mucrtbl.blocklist.request.timeout")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(Duration.ofSeconds(30))
+        .setMinValue(Duration.ofSeconds(1))
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Duration> BLOCKLIST_RETRY_INITIALDELAY = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("plugin.mucrtbl.blocklist.retry.initialdelay")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(Duration.ofSeconds(10))
+        .setMinValue(Duration.ofSeconds(1))
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Duration> BLOCKLIST_RETRY_MAXDELAY = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("plugin.mucrtbl.blocklist.retry.maxdelay")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(Duration.ofMinutes(15))
+        .setMinValue(Duration.ofSeconds(1))
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyPubSubHandlerConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_INGEST_DISABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.blocklist.ingest.disabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyIngestConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> BLOCKLIST_INGEST_CAPACITY = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.blocklist.ingest.capacity")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(10000)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyIngestConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> BLOCKLIST_INGEST_BATCHSIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.blocklist.ingest.batchsize")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(1000)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyIngestConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> DIAGNOSTICS_HISTORY_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.diagnostics.history.size")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(50)
+        .setMinValue(0)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyDiagnosticsConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> DIAGNOSTICS_CAPTURE_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.diagnostics.capture.enabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyDiagnosticsConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> DIAGNOSTICS_CAPTURE_MAXLENGTH = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.diagnostics.capture.maxlength")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(4096)
+        .setMinValue(0)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyDiagnosticsConfiguration))
+        .build();
+
+    public static final SystemProperty<BlockList.OverflowStrategy> BLOCKLIST_OVERFLOW_STRATEGY = SystemProperty.Builder.ofType(BlockList.OverflowStrategy.class)
+        .setKey("plugin.mucrtbl.blocklist.overflow.strategy")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(BlockList.OverflowStrategy.SPILL)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyCapacityConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> BLOCKLIST_CAPACITY_WARNING = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.blocklist.capacity.warning")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(80)
+        .setMinValue(1)
+        .setMaxValue(100)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyCapacityConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> METRICS_TIMING_SAMPLE_RATE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.metrics.timing.sample.rate")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(Metrics.DEFAULT_TIMING_SAMPLE_RATE)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyMetricsConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> TRACING_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.tracing.enabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyTracingConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> TRACING_HISTORY_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.tracing.history.size")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(50)
+        .setMinValue(0)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyTracingConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> BLOCKLIST_MATCH_PARENTDOMAINS = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.blocklist.match.parentdomains")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyMatchingConfiguration))
+        .build();
+
+    public static final SystemProperty<String> BLOCKLIST_ALLOWLIST = SystemProperty.Builder.ofType(String.class)
+        .setKey("plugin.mucrtbl.blocklist.allowlist")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue("")
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyMatchingConfiguration))
+        .build();
+
+    public static final SystemProperty<EnforcementPolicy.Mode> ENFORCEMENT_DEFAULT = SystemProperty.Builder.ofType(EnforcementPolicy.Mode.class)
+        .setKey("plugin.mucrtbl.enforcement.default")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(EnforcementPolicy.Mode.ENFORCE)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyEnforcementConfiguration))
+        .build();
+
+    public static final SystemProperty<String> ENFORCEMENT_POLICIES = SystemProperty.Builder.ofType(String.class)
+        .setKey("plugin.mucrtbl.enforcement.policies")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue("")
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyEnforcementConfiguration))
+        .build();
+
+    public static final SystemProperty<Boolean> SHADOW_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.shadow.enabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyEnforcementConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> SHADOW_SAMPLE_RATE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.shadow.sample.rate")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(100)
+        .setMinValue(1)
+        .setDynamic(true)
+        .addListener(o -> reconfigure(MucRealTimeBlockListPlugin::applyEnforcementConfiguration))
+        .build();
+
+    public static final SystemProperty<Integer> SHADOW_SAMPLE_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.shadow.sample.size")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(100)
+        .setMinValue(0)
+        .setDynamic(false)
+        .build();
+
+    public static final SystemProperty<Boolean> AUDIT_FILE_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("plugin.mucrtbl.audit.file.enabled")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(true)
+        .setDynamic(false)
+        .build();
+
+    public static final SystemProperty<String> AUDIT_FILE = SystemProperty.Builder.ofType(String.class)
+        .setKey("plugin.mucrtbl.audit.file")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue("")
+        .setDynamic(false)
+        .build();
+
+    public static final SystemProperty<Duration> AUDIT_INTERVAL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("plugin.mucrtbl.audit.interval")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(Duration.ofMinutes(1))
+        .setMinValue(Duration.ofSeconds(1))
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setDynamic(false)
         .build();
 
+    public static final SystemProperty<Long> AUDIT_FILE_MAXSIZE = SystemProperty.Builder.ofType(Long.class)
+        .setKey("plugin.mucrtbl.audit.file.maxsize")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(10L * 1024 * 1024)
+        .setMinValue(1024L)
+        .setDynamic(false)
+        .build();
+
+    public static final SystemProperty<Integer> AUDIT_FILE_MAXFILES = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("plugin.mucrtbl.audit.file.maxfiles")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue(5)
+        .setMinValue(0)
+        .setDynamic(false)
+        .build();
+
+    public static final SystemProperty<String> BLOCKLIST_IMPORT_FILE = SystemProperty.Builder.ofType(String.class)
+        .setKey("plugin.mucrtbl.blocklist.import.file")
+        .setPlugin("MUC Real-Time Block List")
+        .setDefaultValue("")
+        .setDynamic(false)
+        .build();
+
+    /**
+     * Restarts the plugin, which discards the block list, and retrieves all of its content again.
+     */
     public static void reInit() {
         final MucRealTimeBlockListPlugin plugin = (MucRealTimeBlockListPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName("MUC Real-Time Block List")
             .orElseThrow(IllegalStateException::new);
-        if (reinitOnConfigChange) {
+        synchronized (plugin) {
             plugin.destroyPlugin();
             plugin.initializePlugin(null, null);
         }
     }
 
+    /**
+     * Applies the current configuration to the running plugin. Only the parts of the plugin that are affected by
+     * configuration changes are restarted. This can be used to apply several configuration changes at once, after
+     * making these while {@link #reinitOnConfigChange} was false.
+     */
+    public static void applyConfiguration() {
+        reconfigure(plugin -> {
+            plugin.applyServiceConfiguration();
+            plugin.applyComponentConfiguration();
+            plugin.applyPubSubHandlerConfiguration();
+            plugin.applyStanzaBlockerConfiguration();
+            plugin.applyOccupantRemoverConfiguration();
+            plugin.applySessionDigestsConfiguration();
+            plugin.applyRefreshTaskConfiguration();
+            plugin.applyIngestConfiguration();
+            plugin.applyDiagnosticsConfiguration();
+            plugin.applyMetricsConfiguration();
+            plugin.applyTracingConfiguration();
+            plugin.applyCapacityConfiguration();
+            plugin.applyMatchingConfiguration();
+            plugin.applyEnforcementConfiguration();
+        });
+    }
+
+    /**
+     * Applies a configuration change to the running plugin, unless {@link #reinitOnConfigChange} is false.
+     *
+     * @param action The change to apply.
+     */
+    private static void reconfigure(final Consumer<MucRealTimeBlockListPlugin> action) {
+        if (!reinitOnConfigChange) {
+            return;
+        }
+        XMPPServer.getInstance().getPluginManager().getPluginByName("MUC Real-Time Block List")
+            .map(MucRealTimeBlockListPlugin.class::cast)
+            .ifPresent(plugin -> {
+                synchronized (plugin) {
+                    action.accept(plugin);
+                }
+            });
+    }
+
     @Override
-    public void initializePlugin(final PluginManager manager, final File pluginDirectory)
+    public synchronized void initializePlugin(final PluginManager manager, final File pluginDirectory)
     {
         if (BLOCKLIST_SERVICE_JID.getValue() == null || BLOCKLIST_SERVICE_NODE.getValue() == null) {
             Log.warn("Unable to start: system properties '{}' and/or '{}' do not have a value.", BLOCKLIST_SERVICE_NODE.getKey(), BLOCKLIST_SERVICE_JID.getKey());
@@ -121,36 +559,40 @@ public class MucRealTimeBlockListPlugin implements Plugin
 
         Log.info("Starting...");
         blockList = new BlockList();
-        rtblmucEventDelegate = new RTBLMUCEventDelegate(blockList);
+        registerMetrics(blockList.getMetrics());
+        applyMetricsConfiguration();
+        applyTracingConfiguration();
+        applyCapacityConfiguration();
+        applyMatchingConfiguration();
+        verdictRecorder = new VerdictRecorder(SHADOW_SAMPLE_SIZE.getValue(), SHADOW_SAMPLE_RATE.getValue());
+        applyEnforcementConfiguration();
+        auditLog = new AuditLog(getAuditFile(), AUDIT_INTERVAL.getValue(), AUDIT_FILE_MAXSIZE.getValue(), AUDIT_FILE_MAXFILES.getValue());
+        auditLog.start();
+        rtblmucEventDelegate = new RTBLMUCEventDelegate(blockList, this::getEnforcementPolicy, verdictRecorder, auditLog);
         addToAllServices(rtblmucEventDelegate);
-        if (!BLOCKLIST_STANZABLOCKER_DISABLED.getValue()) {
-            stanzaBlocker = new StanzaBlocker(blockList);
-            InterceptorManager.getInstance().addInterceptor(stanzaBlocker);
-        }
-        if (!BLOCKLIST_OCCUPANTREMOVER_DISABLED.getValue()) {
-            occupantRemover = new OccupantRemover(blockList);
-            blockList.register(occupantRemover);
-        }
-
-        pubSubHandler = new PubSubHandler(blockList, BLOCKLIST_SERVICE_JID.getValue(), BLOCKLIST_SERVICE_NODE.getValue());
-        try {
-            InterceptorManager.getInstance().addInterceptor(pubSubHandler);
-            pubSubHandler.attemptUnsubscribe(BLOCKLIST_SERVICE_JID.getValue(), BLOCKLIST_SERVICE_NODE.getValue());
-            pubSubHandler.attemptSubscribe(BLOCKLIST_SERVICE_JID.getValue(), BLOCKLIST_SERVICE_NODE.getValue());
-            pubSubHandler.requestAllItems(BLOCKLIST_SERVICE_JID.getValue(), BLOCKLIST_SERVICE_NODE.getValue());
-        } catch (UnauthorizedException e) {
-            throw new RuntimeException(e);
-        }
-
-        if (!BLOCKLIST_REFRESHTASK_DISABLED.getValue()) {
-            refreshTask = new RefreshTask();
-            TaskEngine.getInstance().schedule(refreshTask, BLOCKLIST_REFRESHTASK_INTERVAL.getValue().toMillis(), BLOCKLIST_REFRESHTASK_INTERVAL.getValue().toMillis());
+        delegateInstaller = new DelegateInstaller(rtblmucEventDelegate);
+        XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatServices().forEach(delegateInstaller::markSeen);
+        InterceptorManager.getInstance().addInterceptor(delegateInstaller);
+        applyStanzaBlockerConfiguration();
+        applyOccupantRemoverConfiguration();
+        applySessionDigestsConfiguration();
+        applyIngestConfiguration();
+        final String importFile = BLOCKLIST_IMPORT_FILE.getValue();
+        if (importFile != null && !importFile.trim().isEmpty()) {
+            // Import before retrieving items from the node, so that imported entries are known when reconciling.
+            try {
+                new BlockListImporter(blockList).importFrom(Paths.get(importFile.trim()));
+            } catch (IOException | RuntimeException e) {
+                Log.warn("Unable to import block list entries from file '{}', as configured by system property '{}'.", importFile, BLOCKLIST_IMPORT_FILE.getKey(), e);
+            }
         }
+        startPubSub(true);
+        applyRefreshTaskConfiguration();
         Log.debug("Started.");
     }
 
     @Override
-    public void destroyPlugin()
+    public synchronized void destroyPlugin()
     {
         Log.info("Stopping...");
         if (refreshTask != null) {
@@ -158,33 +600,527 @@ public class MucRealTimeBlockListPlugin implements Plugin
             refreshTask = null;
         }
 
-        if (occupantRemover != null) {
-            blockList.unregister(occupantRemover);
-            occupantRemover = null;
+        if (delegateInstaller != null) {
+            InterceptorManager.getInstance().removeInterceptor(delegateInstaller);
+            delegateInstaller = null;
         }
 
+        stopOccupantRemover();
+
         if (stanzaBlocker != null) {
             InterceptorManager.getInstance().removeInterceptor(stanzaBlocker);
             stanzaBlocker = null;
         }
 
-        if (pubSubHandler != null) {
-            InterceptorManager.getInstance().removeInterceptor(pubSubHandler);
-            pubSubHandler = null;
+        if (sessionDigests != null) {
+            SessionEventDispatcher.removeListener(sessionDigests);
+            ServerSessionEventDispatcher.removeListener(sessionDigests.getServerSessionListener());
+            sessionDigests = null;
+        }
+
+        stopPubSub(false);
+
+        if (eventIngestQueue != null) {
+            eventIngestQueue.stop();
+            eventIngestQueue = null;
         }
 
         if (rtblmucEventDelegate != null) {
             removeFromAllServices(rtblmucEventDelegate);
             rtblmucEventDelegate = null;
         }
+        if (auditLog != null) {
+            auditLog.stop();
+            auditLog = null;
+        }
+        verdictRecorder = null;
+        unregisterMetrics();
         blockList = null;
         Log.debug("Stopped.");
     }
 
-    // TODO add delegate to a service that is being created after the plugin is already running.
+    /**
+     * Returns the address that is used to interact with the pub/sub service, as configured: either that of a component
+     * on a dedicated subdomain, or the address that was used by versions of this plugin prior to 1.2.0.
+     *
+     * @return an address.
+     */
+    static JID getSubscriberAddress()
+    {
+        if (BLOCKLIST_COMPONENT_ENABLED.getValue()) {
+            return new JID(null, BLOCKLIST_COMPONENT_SUBDOMAIN.getValue() + "." + XMPPServer.getInstance().getServerInfo().getXMPPDomain(), null);
+        }
+        return LegacyAddressInterceptor.getLegacyAddress();
+    }
 
     /**
-     * Adds the delegate to all MUC services that exist in the server.
+     * Creates and registers the handler that interacts with the pub/sub service, and subscribes to the node.
+     *
+     * @param retrieveAll true if all items are to be retrieved, false if a (possibly skipped) refresh suffices.
+     */
+    private void startPubSub(final boolean retrieveAll)
+    {
+        final JID service = BLOCKLIST_SERVICE_JID.getValue();
+        final String node = BLOCKLIST_SERVICE_NODE.getValue();
+        final JID selfAddress = getSubscriberAddress();
+        pubSubHandler = new PubSubHandler(blockList, service, node, selfAddress, BLOCKLIST_FETCH_PAGESIZE.getValue(), BLOCKLIST_FETCH_MAXPAGESINFLIGHT.getValue(), BLOCKLIST_REFRESHTASK_INCREMENTAL_DISABLED.getValue() ? 0 : BLOCKLIST_REFRESHTASK_INCREMENTAL_MAXITEMS.getValue(), !BLOCKLIST_REFRESHTASK_DIGESTCHECK_DISABLED.getValue());
+        pubSubHandler.setRequestTimeout(BLOCKLIST_REQUEST_TIMEOUT.getValue());
+        pubSubHandler.setRetryDelays(BLOCKLIST_RETRY_INITIALDELAY.getValue(), BLOCKLIST_RETRY_MAXDELAY.getValue());
+        final SyncDiagnostics diagnostics = new SyncDiagnostics(DIAGNOSTICS_HISTORY_SIZE.getValue());
+        diagnostics.setCapture(DIAGNOSTICS_CAPTURE_ENABLED.getValue(), DIAGNOSTICS_CAPTURE_MAXLENGTH.getValue());
+        pubSubHandler.setDiagnostics(diagnostics);
+        pubSubHandler.setEventIngestQueue(eventIngestQueue);
+        try {
+            if (BLOCKLIST_COMPONENT_ENABLED.getValue()) {
+                componentSubdomain = BLOCKLIST_COMPONENT_SUBDOMAIN.getValue();
+                InternalComponentManager.getInstance().addComponent(componentSubdomain, pubSubHandler);
+            } else {
+                pubSubHandler.start();
+                legacyAddressInterceptor = new LegacyAddressInterceptor(pubSubHandler);
+                InterceptorManager.getInstance().addInterceptor(legacyAddressInterceptor);
+            }
+            activeService = service;
+            activeNode = node;
+
+            removePreviousSubscription(service, node, selfAddress);
+            pubSubHandler.attemptUnsubscribe(service, node);
+            pubSubHandler.attemptSubscribe(service, node);
+            if (retrieveAll) {
+                pubSubHandler.requestAllItems(service, node);
+            } else {
+                final PubSubHandler handler = pubSubHandler;
+                if (handler != null) {
+                    handler.refresh();
+                }
+            }
+        } catch (UnauthorizedException | ComponentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Removes the subscription of the address that was previously used to subscribe to the node, when that differs
+     * from the address that is used now. This is done only once after the address changes: the address that is used
+     * is recorded. Versions of this plugin prior to 1.2.0 did not record the address, but always used the legacy
+     * address.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node from which to unsubscribe.
+     * @param selfAddress The address that is used now.
+     */
+    private void removePreviousSubscription(final JID service, final String node, final JID selfAddress) throws UnauthorizedException
+    {
+        final JID recorded = BLOCKLIST_SUBSCRIBER_ADDRESS.getValue();
+        final JID previous = recorded == null ? LegacyAddressInterceptor.getLegacyAddress() : recorded;
+        if (!previous.equals(selfAddress)) {
+            Log.info("The address used to subscribe to node '{}' on service '{}' changed from '{}' to '{}'. Removing the subscription of the previous address.", node, service, previous, selfAddress);
+            pubSubHandler.attemptUnsubscribe(service, node, previous);
+        }
+        if (!selfAddress.equals(recorded)) {
+            BLOCKLIST_SUBSCRIBER_ADDRESS.setValue(selfAddress);
+        }
+    }
+
+    /**
+     * Unregisters the handler that interacts with the pub/sub service.
+     *
+     * @param unsubscribe true if the subscription to the node is to be removed.
+     */
+    private void stopPubSub(final boolean unsubscribe)
+    {
+        if (pubSubHandler == null) {
+            return;
+        }
+        if (unsubscribe) {
+            try {
+                pubSubHandler.attemptUnsubscribe(activeService, activeNode);
+            } catch (UnauthorizedException e) {
+                Log.warn("Unable to unsubscribe from node '{}' on service '{}'.", activeNode, activeService, e);
+            }
+        }
+        if (componentSubdomain != null) {
+            InternalComponentManager.getInstance().removeComponent(componentSubdomain);
+            componentSubdomain = null;
+        }
+        if (legacyAddressInterceptor != null) {
+            InterceptorManager.getInstance().removeInterceptor(legacyAddressInterceptor);
+            legacyAddressInterceptor = null;
+            pubSubHandler.shutdown();
+        }
+        pubSubHandler = null;
+        activeService = null;
+        activeNode = null;
+    }
+
+    /**
+     * Applies a change of the pub/sub service or node. As the content of the block list relates to the node, the block
+     * list is cleared, after which all items of the new node are retrieved. This does nothing if neither changed.
+     */
+    void applyServiceConfiguration()
+    {
+        if (blockList == null) {
+            // The plugin did not start, possibly because the service or node was not configured.
+            initializePlugin(null, null);
+            return;
+        }
+        final JID service = BLOCKLIST_SERVICE_JID.getValue();
+        final String node = BLOCKLIST_SERVICE_NODE.getValue();
+        if (service == null || node == null) {
+            Log.warn("Ignoring configuration change: system properties '{}' and/or '{}' do not have a value.", BLOCKLIST_SERVICE_NODE.getKey(), BLOCKLIST_SERVICE_JID.getKey());
+            return;
+        }
+        if (service.equals(activeService) && node.equals(activeNode)) {
+            return;
+        }
+        Log.info("The block list is now maintained on node '{}' of service '{}'. Replacing the block list content (retaining imported entries).", node, service);
+        stopPubSub(true);
+        blockList.clearNodeEntries();
+        startPubSub(true);
+    }
+
+    /**
+     * Applies a change of the address that is used to interact with the pub/sub service (by enabling or disabling the
+     * component, or changing its subdomain), by re-registering the handler under the new address. The block list
+     * content is retained.
+     */
+    void applyComponentConfiguration()
+    {
+        if (pubSubHandler == null) {
+            return;
+        }
+        final JID selfAddress = getSubscriberAddress();
+        if (selfAddress.equals(pubSubHandler.getSelfAddress())) {
+            return;
+        }
+        Log.info("Re-registering the handler that interacts with the pub/sub service as '{}'.", selfAddress);
+        stopPubSub(true);
+        // The subscription of the previous address was removed above. Prevent that from being attempted again.
+        BLOCKLIST_SUBSCRIBER_ADDRESS.setValue(selfAddress);
+        startPubSub(false);
+    }
+
+    /**
+     * Applies changes of the settings that affect how the block list is retrieved from the pub/sub service.
+     */
+    void applyPubSubHandlerConfiguration()
+    {
+        if (pubSubHandler == null) {
+            return;
+        }
+        pubSubHandler.setPageSize(BLOCKLIST_FETCH_PAGESIZE.getValue());
+        pubSubHandler.setMaxPagesInFlight(BLOCKLIST_FETCH_MAXPAGESINFLIGHT.getValue());
+        pubSubHandler.setIncrementalMaxItems(BLOCKLIST_REFRESHTASK_INCREMENTAL_DISABLED.getValue() ? 0 : BLOCKLIST_REFRESHTASK_INCREMENTAL_MAXITEMS.getValue());
+        pubSubHandler.setDigestCheck(!BLOCKLIST_REFRESHTASK_DIGESTCHECK_DISABLED.getValue());
+        pubSubHandler.setRequestTimeout(BLOCKLIST_REQUEST_TIMEOUT.getValue());
+        pubSubHandler.setRetryDelays(BLOCKLIST_RETRY_INITIALDELAY.getValue(), BLOCKLIST_RETRY_MAXDELAY.getValue());
+    }
+
+    /**
+     * Adds or removes the interceptor that blocks stanzas, as configured.
+     */
+    void applyStanzaBlockerConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        if (!BLOCKLIST_STANZABLOCKER_DISABLED.getValue() && stanzaBlocker == null) {
+            stanzaBlocker = new StanzaBlocker(blockList, this::getEnforcementPolicy, verdictRecorder, auditLog);
+            InterceptorManager.getInstance().addInterceptor(stanzaBlocker);
+        } else if (BLOCKLIST_STANZABLOCKER_DISABLED.getValue() && stanzaBlocker != null) {
+            InterceptorManager.getInstance().removeInterceptor(stanzaBlocker);
+            stanzaBlocker = null;
+        }
+    }
+
+    /**
+     * Registers or unregisters the listener that removes occupants that are added to the block list, as configured.
+     * Unless disabled, occupants are found through an index, in which case other entities that are affected by changes
+     * of the block list (such as server-to-server sessions) are also acted upon.
+     */
+    void applyOccupantRemoverConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        final boolean enabled = !BLOCKLIST_OCCUPANTREMOVER_DISABLED.getValue();
+        final boolean indexed = BLOCKLIST_OCCUPANTREMOVER_INDEXED.getValue();
+        if (occupantRemover != null) {
+            final boolean wasIndexed = occupantRemover instanceof RetroactiveEnforcer;
+            if (!enabled || indexed != wasIndexed || (wasIndexed && ((RetroactiveEnforcer) occupantRemover).getThreads() != BLOCKLIST_OCCUPANTREMOVER_THREADS.getValue())) {
+                stopOccupantRemover();
+            }
+        }
+        if (enabled && occupantRemover == null) {
+            if (indexed) {
+                final RetroactiveEnforcer enforcer = new RetroactiveEnforcer(blockList, this::getEnforcementPolicy, verdictRecorder, auditLog, BLOCKLIST_OCCUPANTREMOVER_THREADS.getValue(), BLOCKLIST_S2S_CLOSE.getValue());
+                enforcer.start();
+                occupantRemover = enforcer;
+            } else {
+                occupantRemover = new OccupantRemover(blockList, this::getEnforcementPolicy, verdictRecorder, auditLog);
+            }
+            blockList.register(occupantRemover);
+        }
+        if (occupantRemover instanceof RetroactiveEnforcer) {
+            ((RetroactiveEnforcer) occupantRemover).setCloseServerSessions(BLOCKLIST_S2S_CLOSE.getValue());
+        }
+    }
+
+    /**
+     * Unregisters the listener that removes occupants that are added to the block list, if any.
+     */
+    private void stopOccupantRemover()
+    {
+        if (occupantRemover == null) {
+            return;
+        }
+        blockList.unregister(occupantRemover);
+        if (occupantRemover instanceof RetroactiveEnforcer) {
+            ((RetroactiveEnforcer) occupantRemover).stop();
+        }
+        occupantRemover = null;
+    }
+
+    /**
+     * Starts or stops precomputing the hashes of the bare JIDs of local sessions, as configured.
+     */
+    void applySessionDigestsConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        if (!BLOCKLIST_SESSIONDIGESTS_DISABLED.getValue() && sessionDigests == null) {
+            sessionDigests = new SessionDigests(blockList.getDomainHashChains());
+            SessionEventDispatcher.addListener(sessionDigests);
+            ServerSessionEventDispatcher.addListener(sessionDigests.getServerSessionListener());
+
+            // Sessions that were created before the listeners were registered. A session that was also recorded by a listener is counted once.
+            final SessionManager sessionManager = XMPPServer.getInstance().getSessionManager();
+            for (final ClientSession session : sessionManager.getSessions()) {
+                if (session instanceof LocalClientSession) {
+                    sessionDigests.sessionCreated(session);
+                }
+            }
+            for (final String domain : sessionManager.getIncomingServers()) {
+                for (final IncomingServerSession session : sessionManager.getIncomingServerSessions(domain)) {
+                    if (session instanceof LocalIncomingServerSession) {
+                        sessionDigests.getServerSessionListener().sessionCreated(session);
+                    }
+                }
+            }
+            blockList.setSessionDigests(sessionDigests);
+        } else if (BLOCKLIST_SESSIONDIGESTS_DISABLED.getValue() && sessionDigests != null) {
+            blockList.setSessionDigests(null);
+            SessionEventDispatcher.removeListener(sessionDigests);
+            ServerSessionEventDispatcher.removeListener(sessionDigests.getServerSessionListener());
+            sessionDigests = null;
+        }
+    }
+
+    /**
+     * (Re)schedules or cancels the periodic refresh of the block list, as configured.
+     */
+    void applyRefreshTaskConfiguration()
+    {
+        final Duration interval = blockList == null || BLOCKLIST_REFRESHTASK_DISABLED.getValue() ? null : BLOCKLIST_REFRESHTASK_INTERVAL.getValue();
+        if (refreshTask != null && refreshTask.interval.equals(interval)) {
+            return;
+        }
+        if (refreshTask != null) {
+            TaskEngine.getInstance().cancelScheduledTask(refreshTask);
+            refreshTask = null;
+        }
+        if (interval != null) {
+            refreshTask = new RefreshTask(interval);
+            TaskEngine.getInstance().schedule(refreshTask, interval.toMillis(), interval.toMillis());
+        }
+    }
+
+    /**
+     * Replaces, creates or removes the queue through which pub/sub events are applied, as configured. Events that were
+     * queued in a queue that is replaced or removed are applied before that queue is discarded.
+     */
+    void applyIngestConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        final EventIngestQueue previous = eventIngestQueue;
+        if (BLOCKLIST_INGEST_DISABLED.getValue() ? previous == null : previous != null && previous.getCapacity() == BLOCKLIST_INGEST_CAPACITY.getValue() && previous.getMaxBatchSize() == BLOCKLIST_INGEST_BATCHSIZE.getValue()) {
+            return;
+        }
+        if (previous != null) {
+            // Apply the events that are queued before installing a replacement. Events that are submitted to the previous queue in the meantime are applied directly, after these.
+            previous.stop();
+        }
+        if (BLOCKLIST_INGEST_DISABLED.getValue()) {
+            eventIngestQueue = null;
+        } else {
+            eventIngestQueue = new EventIngestQueue(blockList, BLOCKLIST_INGEST_CAPACITY.getValue(), BLOCKLIST_INGEST_BATCHSIZE.getValue());
+            eventIngestQueue.start();
+        }
+        if (pubSubHandler != null) {
+            pubSubHandler.setEventIngestQueue(eventIngestQueue);
+        }
+    }
+
+    /**
+     * Applies changes of the settings that define what JIDs are considered to be on the block list.
+     */
+    void applyMatchingConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        blockList.setMatchParentDomains(BLOCKLIST_MATCH_PARENTDOMAINS.getValue());
+        blockList.setAllowList(parseAllowList(BLOCKLIST_ALLOWLIST.getValue()));
+    }
+
+    /**
+     * Parses the value of {@link #BLOCKLIST_ALLOWLIST}: bare JIDs and/or domains, separated by commas or whitespace.
+     * Invalid values are logged and ignored.
+     *
+     * @param value The value to parse (can be null).
+     * @return The parsed entities.
+     */
+    static Set<JID> parseAllowList(final String value)
+    {
+        final Set<JID> result = new HashSet<>();
+        if (value == null) {
+            return result;
+        }
+        for (final String entry : value.split("[,\\s]+")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            try {
+                result.add(new JID(entry).asBareJID());
+            } catch (IllegalArgumentException e) {
+                Log.warn("Ignoring invalid value '{}' in system property '{}'.", entry, BLOCKLIST_ALLOWLIST.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies changes of the settings that define for what MUC services and rooms the block list is enforced. When
+     * shadow mode is enabled, the block list is monitored wherever it otherwise would have been enforced.
+     */
+    void applyEnforcementConfiguration()
+    {
+        final EnforcementPolicy policy = EnforcementPolicy.parse(ENFORCEMENT_DEFAULT.getValue(), ENFORCEMENT_POLICIES.getValue());
+        enforcementPolicy = SHADOW_ENABLED.getValue() ? policy.asShadow() : policy;
+        Log.debug("Applied enforcement policy: {}", enforcementPolicy);
+        if (verdictRecorder != null) {
+            verdictRecorder.setSampleRate(SHADOW_SAMPLE_RATE.getValue());
+        }
+    }
+
+    /**
+     * Registers metrics with the platform MBean server, replacing any metrics that were registered before.
+     *
+     * @param metrics The metrics to register.
+     */
+    private static void registerMetrics(final Metrics metrics)
+    {
+        unregisterMetrics();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(MetricsMXBean.OBJECT_NAME));
+        } catch (JMException e) {
+            Log.warn("Unable to register metrics with JMX.", e);
+        }
+    }
+
+    /**
+     * Removes metrics from the platform MBean server, if any were registered.
+     */
+    private static void unregisterMetrics()
+    {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(MetricsMXBean.OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            Log.warn("Unable to unregister metrics from JMX.", e);
+        }
+    }
+
+    /**
+     * Returns the file to which the audit log is written, as configured.
+     *
+     * @return A path, or null if the audit log is not to be written to a file.
+     */
+    static Path getAuditFile()
+    {
+        if (!AUDIT_FILE_ENABLED.getValue()) {
+            return null;
+        }
+        final String configured = AUDIT_FILE.getValue();
+        if (configured != null && !configured.trim().isEmpty()) {
+            return Paths.get(configured.trim());
+        }
+        return Paths.get(JiveGlobals.getHomeDirectory(), "logs", "mucrtbl-audit.log");
+    }
+
+    /**
+     * Applies changes of the settings of the diagnostics that are recorded for pub/sub traffic.
+     */
+    void applyDiagnosticsConfiguration()
+    {
+        if (pubSubHandler == null) {
+            return;
+        }
+        SyncDiagnostics diagnostics = pubSubHandler.getDiagnostics();
+        if (diagnostics.getHistorySize() != DIAGNOSTICS_HISTORY_SIZE.getValue()) {
+            diagnostics = new SyncDiagnostics(DIAGNOSTICS_HISTORY_SIZE.getValue());
+        }
+        diagnostics.setCapture(DIAGNOSTICS_CAPTURE_ENABLED.getValue(), DIAGNOSTICS_CAPTURE_MAXLENGTH.getValue());
+        pubSubHandler.setDiagnostics(diagnostics);
+    }
+
+    /**
+     * Applies changes of the settings that define how the block list behaves when its cache is at capacity.
+     */
+    void applyCapacityConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        blockList.setOverflowStrategy(BLOCKLIST_OVERFLOW_STRATEGY.getValue());
+        blockList.setCapacityWarningPercentage(BLOCKLIST_CAPACITY_WARNING.getValue());
+    }
+
+    /**
+     * Applies changes of the settings of the metrics of the block list.
+     */
+    void applyMetricsConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        blockList.getMetrics().setTimingSampleRate(METRICS_TIMING_SAMPLE_RATE.getValue());
+    }
+
+    /**
+     * Applies changes of the settings of the tracing of the propagation of changes of the block list.
+     */
+    void applyTracingConfiguration()
+    {
+        if (blockList == null) {
+            return;
+        }
+        PropagationTracer tracer = blockList.getTracer();
+        if (tracer.getHistorySize() != TRACING_HISTORY_SIZE.getValue()) {
+            tracer = new PropagationTracer(TRACING_HISTORY_SIZE.getValue());
+        }
+        tracer.setEnabled(TRACING_ENABLED.getValue());
+        blockList.setTracer(tracer);
+    }
+
+    /**
+     * Adds the delegate to all MUC services that exist in the server. Services that are created later are picked up by
+     * {@link DelegateInstaller}.
      *
      * Warning: this can replace a pre-existing delegate.
      *
@@ -229,16 +1165,63 @@ public class MucRealTimeBlockListPlugin implements Plugin
     }
 
     /**
-     * A task that refreshes the block list content, by requesting all items from the configured service.
+     * Adds all entries in a local file to the block list.
+     *
+     * @param file The file to import (see {@link BlockListImporter} for its format).
+     * @return A summary of the import.
+     * @throws IOException When the file cannot be read.
+     * @throws IllegalStateException When the plugin is not running.
+     */
+    public BlockListImporter.Result importFile(final Path file) throws IOException {
+        final BlockList target = blockList;
+        if (target == null) {
+            throw new IllegalStateException("The plugin is not running.");
+        }
+        return new BlockListImporter(target).importFrom(file);
+    }
+
+    public PubSubHandler getPubSubHandler() {
+        return pubSubHandler;
+    }
+
+    public EventIngestQueue getEventIngestQueue() {
+        return eventIngestQueue;
+    }
+
+    public EnforcementPolicy getEnforcementPolicy() {
+        return enforcementPolicy;
+    }
+
+    public VerdictRecorder getVerdictRecorder() {
+        return verdictRecorder;
+    }
+
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * A task that refreshes the block list content, by requesting the most recent (or, when changes might have been
+     * missed, all) items from the configured service.
      */
     public class RefreshTask extends TimerTask
     {
+        private final Duration interval;
+
+        public RefreshTask(final Duration interval)
+        {
+            this.interval = interval;
+        }
+
         @Override
         public void run()
         {
             if (ClusterManager.isSeniorClusterMember()) {
                 Log.info("Starting periodic refresh of the block list.");
-                pubSubHandler.requestAllItems(BLOCKLIST_SERVICE_JID.getValue(), BLOCKLIST_SERVICE_NODE.getValue());
+                final PubSubHandler handler = pubSubHandler;
+                if (handler != null) {
+                    handler.refresh();
+                }
             }
         }
     }
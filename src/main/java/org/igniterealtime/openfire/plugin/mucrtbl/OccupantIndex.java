@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.cluster.NodeID;
+import org.jivesoftware.openfire.muc.MUCEventListener;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.muc.spi.OccupantManager;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index of the occupants of MUC rooms, by the hashes that are used to look them up on the block list: the hash of
+ * their bare JID, the hash of their domain and the hashes of the parent domains of that domain.
+ *
+ * This allows the occupants that are affected by hashes that are added to the block list to be found without iterating
+ * over all occupants of all rooms. The index is populated once from the occupants of existing MUC services, after
+ * which it is kept up to date by MUC events.
+ *
+ * MUC events are dispatched only on the cluster node to which the occupant is connected. To prevent the index from
+ * retaining occupants of which no events are received, it is populated only with the occupants that are connected to
+ * the local cluster node.
+ */
+public class OccupantIndex implements MUCEventListener
+{
+    private final BlockList blockList;
+
+    /**
+     * The hashes and rooms of each occupant (by real, full JID). Changes for an occupant are serialized by the
+     * atomicity of the compute methods of this map.
+     */
+    private final ConcurrentMap<JID, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Occupants, by the hash of their bare JID and by the hash of their domain.
+     */
+    private final ConcurrentMap<String, Set<JID>> byHash = new ConcurrentHashMap<>();
+
+    /**
+     * Occupants, by the hashes of the parent domains of their domain.
+     */
+    private final ConcurrentMap<String, Set<JID>> byParentDomainHash = new ConcurrentHashMap<>();
+
+    /**
+     * Occupants, by room.
+     */
+    private final ConcurrentMap<JID, Set<JID>> byRoom = new ConcurrentHashMap<>();
+
+    public OccupantIndex(@Nonnull final BlockList blockList)
+    {
+        this.blockList = blockList;
+    }
+
+    /**
+     * Adds all occupants of the rooms of MUC services that are connected to the local cluster node to the index.
+     *
+     * @param services The MUC services of which to index the occupants.
+     * @param localNode The ID of the local cluster node.
+     */
+    public void populate(@Nonnull final Collection<MultiUserChatService> services, @Nonnull final NodeID localNode)
+    {
+        for (final MultiUserChatService service : services) {
+            for (final Map.Entry<OccupantManager.Occupant, Set<NodeID>> entry : service.getOccupantManager().getNodesByOccupant().entrySet()) {
+                if (!entry.getValue().contains(localNode)) {
+                    continue;
+                }
+                final OccupantManager.Occupant occupant = entry.getKey();
+                add(new JID(occupant.getRoomName(), service.getServiceDomain(), null), occupant.getRealJID(), occupant.getNickname());
+            }
+        }
+    }
+
+    /**
+     * Records that an entity is an occupant of a room (replacing the nickname of the occupant, if it already was).
+     *
+     * @param roomJID The JID of the room.
+     * @param realJID The real JID of the occupant.
+     * @param nickname The nickname of the occupant in the room.
+     */
+    public void add(@Nonnull final JID roomJID, @Nonnull final JID realJID, @Nonnull final String nickname)
+    {
+        entries.compute(realJID, (jid, entry) -> {
+            if (entry == null) {
+                final String[] domainHashes = blockList.getDomainHashChains().get(jid.getDomain());
+                entry = new Entry(blockList.hashBareJid(jid), domainHashes);
+                index(byHash, entry.bareJidHash, jid);
+                index(byHash, domainHashes[0], jid);
+                for (int i = 1; i < domainHashes.length; i++) {
+                    index(byParentDomainHash, domainHashes[i], jid);
+                }
+            }
+            entry.nicknames.put(roomJID, nickname);
+            return entry;
+        });
+        byRoom.compute(roomJID, (room, occupants) -> {
+            final Set<JID> result = occupants == null ? ConcurrentHashMap.newKeySet() : occupants;
+            result.add(realJID);
+            return result;
+        });
+    }
+
+    /**
+     * Records that an entity is no longer an occupant of a room.
+     *
+     * @param roomJID The JID of the room.
+     * @param realJID The real JID of the occupant.
+     */
+    public void remove(@Nonnull final JID roomJID, @Nonnull final JID realJID)
+    {
+        entries.computeIfPresent(realJID, (jid, entry) -> {
+            entry.nicknames.remove(roomJID);
+            if (!entry.nicknames.isEmpty()) {
+                return entry;
+            }
+            unindex(byHash, entry.bareJidHash, jid);
+            unindex(byHash, entry.domainHashes[0], jid);
+            for (int i = 1; i < entry.domainHashes.length; i++) {
+                unindex(byParentDomainHash, entry.domainHashes[i], jid);
+            }
+            return null;
+        });
+        byRoom.computeIfPresent(roomJID, (room, occupants) -> {
+            occupants.remove(realJID);
+            return occupants.isEmpty() ? null : occupants;
+        });
+    }
+
+    /**
+     * Finds the occupants that are affected by hashes, and the rooms (mapped to their nicknames) that they are in.
+     *
+     * @param hashes The hashes (of bare JIDs or domains).
+     * @param matchParentDomains true if occupants of which the hash of a parent domain of their domain is provided are affected.
+     * @return Rooms (mapped to nicknames), by real JID of the occupant.
+     */
+    public Map<JID, Map<JID, String>> find(@Nonnull final Collection<String> hashes, final boolean matchParentDomains)
+    {
+        final Set<JID> occupants = new HashSet<>();
+        for (final String hash : hashes) {
+            occupants.addAll(byHash.getOrDefault(hash, Collections.emptySet()));
+            if (matchParentDomains) {
+                occupants.addAll(byParentDomainHash.getOrDefault(hash, Collections.emptySet()));
+            }
+        }
+        final Map<JID, Map<JID, String>> result = new HashMap<>();
+        for (final JID occupant : occupants) {
+            final Entry entry = entries.get(occupant);
+            if (entry != null) {
+                result.put(occupant, new HashMap<>(entry.nicknames));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the amount of occupants (unique real JIDs) in the index.
+     *
+     * @return an amount of occupants.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public void clear()
+    {
+        entries.clear();
+        byHash.clear();
+        byParentDomainHash.clear();
+        byRoom.clear();
+    }
+
+    private static void index(final ConcurrentMap<String, Set<JID>> index, final String hash, final JID jid)
+    {
+        index.compute(hash, (key, jids) -> {
+            final Set<JID> result = jids == null ? ConcurrentHashMap.newKeySet() : jids;
+            result.add(jid);
+            return result;
+        });
+    }
+
+    private static void unindex(final ConcurrentMap<String, Set<JID>> index, final String hash, final JID jid)
+    {
+        index.computeIfPresent(hash, (key, jids) -> {
+            jids.remove(jid);
+            return jids.isEmpty() ? null : jids;
+        });
+    }
+
+    @Override
+    public void roomCreated(final JID roomJID)
+    {
+    }
+
+    @Override
+    public void roomDestroyed(final JID roomJID)
+    {
+        final Set<JID> occupants = byRoom.remove(roomJID);
+        if (occupants != null) {
+            occupants.forEach(occupant -> remove(roomJID, occupant));
+        }
+    }
+
+    @Override
+    public void occupantJoined(final JID roomJID, final JID user, final String nickname)
+    {
+        add(roomJID, user, nickname);
+    }
+
+    @Override
+    public void occupantLeft(final JID roomJID, final JID user, final String nickname)
+    {
+        remove(roomJID, user);
+    }
+
+    @Override
+    public void occupantNickKicked(final JID roomJID, final String nickname)
+    {
+        for (final JID occupant : byRoom.getOrDefault(roomJID, Collections.emptySet())) {
+            final Entry entry = entries.get(occupant);
+            if (entry != null && Objects.equals(nickname, entry.nicknames.get(roomJID))) {
+                remove(roomJID, occupant);
+            }
+        }
+    }
+
+    @Override
+    public void nicknameChanged(final JID roomJID, final JID user, final String oldNickname, final String newNickname)
+    {
+        add(roomJID, user, newNickname);
+    }
+
+    @Override
+    public void messageReceived(final JID roomJID, final JID user, final String nickname, final Message message)
+    {
+    }
+
+    @Override
+    public void privateMessageRecieved(final JID toJID, final JID fromJID, final Message message)
+    {
+    }
+
+    @Override
+    public void roomSubjectChanged(final JID roomJID, final JID user, final String newSubject)
+    {
+    }
+
+    /**
+     * The hashes of an occupant, and the nicknames that it uses, by room.
+     */
+    private static final class Entry
+    {
+        private final String bareJidHash;
+        private final String[] domainHashes;
+        private final Map<JID, String> nicknames = new ConcurrentHashMap<>();
+
+        private Entry(final String bareJidHash, final String[] domainHashes)
+        {
+            this.bareJidHash = bareJidHash;
+            this.domainHashes = domainHashes;
+        }
+    }
+}
@@ -25,10 +25,12 @@ import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
 import javax.annotation.Nonnull;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -45,24 +47,66 @@ public class OccupantRemover implements BlockListEventListener
      */
     protected final BlockList blockList;
 
+    /**
+     * Provides the policy that defines for what MUC services and rooms the block list is enforced.
+     */
+    protected final Supplier<EnforcementPolicy> policy;
+
+    /**
+     * Records verdicts that are not acted upon, as the block list is only monitored.
+     */
+    protected final VerdictRecorder verdictRecorder;
+
+    /**
+     * Records the decisions to block entities.
+     */
+    protected final AuditLog auditLog;
+
     /**
      * Creates a new instance that, when invoked, will remove entities that are added to the provided block list.
      *
      * @param blockList The block list representation
      */
     public OccupantRemover(final BlockList blockList)
+    {
+        this(blockList, () -> EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), AuditLog.NONE);
+    }
+
+    /**
+     * Creates a new instance that, when invoked, will remove entities that are added to the provided block list from
+     * rooms for which the policy enforces the block list.
+     *
+     * @param blockList The block list representation
+     * @param policy Provides the policy that defines for what MUC services and rooms the block list is enforced.
+     * @param verdictRecorder Records verdicts that are not acted upon, as the block list is only monitored.
+     * @param auditLog Records the decisions to block entities.
+     */
+    public OccupantRemover(final BlockList blockList, final Supplier<EnforcementPolicy> policy, final VerdictRecorder verdictRecorder, final AuditLog auditLog)
     {
         this.blockList = blockList;
+        this.policy = policy;
+        this.verdictRecorder = verdictRecorder;
+        this.auditLog = auditLog;
     }
 
     @Override
     public void added(final Set<String> hashes)
     {
-        final List<MultiUserChatService> multiUserChatServices = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatServices();
-        for (MultiUserChatService service : multiUserChatServices)
+        final long start = System.nanoTime();
+        final PropagationTracer tracer = blockList.getTracer();
+        tracer.sweepStarted();
+        int kicks = 0;
+        final EnforcementPolicy policy = this.policy.get();
+        for (MultiUserChatService service : getMultiUserChatServices())
         {
-            // Use the JIDs of all occupants of MUC rooms of the service
+            final String serviceName = service.getServiceName();
+            if (policy.isDisabled(serviceName)) {
+                continue;
+            }
+
+            // Use the JIDs of all occupants of MUC rooms of the service (for which the block list is not disabled).
             final Map<JID, Set<OccupantManager.Occupant>> occupantsByJID = service.getOccupantManager().getNodesByOccupant().keySet().stream()
+                .filter(occupant -> policy.getMode(serviceName, occupant.getRoomName()) != EnforcementPolicy.Mode.OFF)
                 .collect(Collectors.groupingBy(OccupantManager.Occupant::getRealJID, Collectors.toSet()));
 
             // Determine which of these JIDs are on the blocklist (if any). Note that this operates on the entire block
@@ -71,17 +115,35 @@ public class OccupantRemover implements BlockListEventListener
             final Set<JID> blockedJids = blockList.filterBlocked(occupantsByJID.keySet());
 
             // Remove all occupants that are blocked from all rooms that they're in.
+            final Map<String, JID> monitoredRooms = new HashMap<>();
             for (final JID blockedJid : blockedJids) {
                 try {
                     final Set<OccupantManager.Occupant> blockedOccupants = occupantsByJID.get(blockedJid);
                     for (final OccupantManager.Occupant blockedOccupant : blockedOccupants) {
-                        removeOccupantFromRoom(service, blockedOccupant);
+                        if (policy.getMode(serviceName, blockedOccupant.getRoomName()) == EnforcementPolicy.Mode.MONITOR) {
+                            final JID roomJID = monitoredRooms.computeIfAbsent(blockedOccupant.getRoomName(), roomName -> {
+                                final MUCRoom room = service.getChatRoom(roomName);
+                                return room == null ? null : room.getJID();
+                            });
+                            if (roomJID == null) {
+                                // Room no longer exists. A different thread/cluster-node might have beaten us to the punch.
+                                continue;
+                            }
+                            verdictRecorder.record(VerdictRecorder.Source.OCCUPANT, serviceName, blockedOccupant.getRealJID(), roomJID);
+                            Log.debug("Not removing occupant {} ({}) that was added to the block list from room {}, as the block list is only monitored for that room.", blockedOccupant.getRealJID(), blockedOccupant.getNickname(), blockedOccupant.getRoomName());
+                            continue;
+                        }
+                        if (removeOccupantFromRoom(service, blockedOccupant)) {
+                            kicks++;
+                        }
                     }
                 } catch (Throwable t) {
                     Log.warn("Unable to remove occupant ({}) that was added to the block list from rooms.", blockedJid, t);
                 }
             }
         }
+        blockList.getMetrics().getSweepNanos().record(System.nanoTime() - start);
+        tracer.sweepFinished(kicks);
     }
 
     @Override
@@ -90,31 +152,53 @@ public class OccupantRemover implements BlockListEventListener
         // Unused
     }
 
-    // Inspired by org.jivesoftware.openfire.muc.spi.MultiUserChatServiceImpl#tryRemoveOccupantFromRoom
-    private void removeOccupantFromRoom(@Nonnull final MultiUserChatService service, @Nonnull final OccupantManager.Occupant occupant)
+    /**
+     * Returns the MUC services from which occupants are removed.
+     *
+     * @return all MUC services of the server.
+     */
+    protected List<MultiUserChatService> getMultiUserChatServices()
+    {
+        return XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatServices();
+    }
+
+    /**
+     * Removes an occupant from a room, if it still is in that room.
+     *
+     * Inspired by org.jivesoftware.openfire.muc.spi.MultiUserChatServiceImpl#tryRemoveOccupantFromRoom
+     *
+     * @param service The MUC service that hosts the room.
+     * @param occupant The occupant to remove.
+     * @return true if the occupant was kicked from the room, false if it was not in the room, or could not be kicked.
+     */
+    protected boolean removeOccupantFromRoom(@Nonnull final MultiUserChatService service, @Nonnull final OccupantManager.Occupant occupant)
     {
         final Lock lock = service.getChatRoomLock(occupant.getRoomName());
         lock.lock();
         try {
             final MUCRoom room = service.getChatRoom(occupant.getRoomName());
             if (room == null) {
-                return;
+                return false;
             }
 
             if (!room.hasOccupant(occupant.getRealJID())) {
                 // Occupant no longer in room? A different thread/cluster-node might have beaten us to the punch.
-                return;
+                return false;
             }
 
             // Kick the user from the room that he/she had previously joined.
-            Log.info("Removing occupant {} ({}) from room {} as they were added to the block list.", occupant.getRealJID(), occupant.getNickname(), room.getJID());
+            Log.debug("Removing occupant {} ({}) from room {} as they were added to the block list.", occupant.getRealJID(), occupant.getNickname(), room.getJID());
             room.kickOccupant(occupant.getRealJID(), null, null, "You are forbidden to be in this chatroom.");
+            blockList.getMetrics().recordKick();
+            auditLog.record(VerdictRecorder.Source.OCCUPANT, occupant.getRealJID(), room.getJID());
 
             // Ensure that other cluster nodes see any changes that might have been applied.
             service.syncChatRoom(room);
+            return true;
         } catch (final NotAllowedException e) {
             // Do nothing since we cannot kick owners or admins
             Log.debug("Skip removing {}, because it's not allowed (this user likely is an owner of admin of the room).", occupant, e);
+            return false;
         } finally {
             lock.unlock();
         }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Traces the propagation of changes of the block list, from the arrival of a pub/sub event to the removal of occupants
+ * that were added to the block list.
+ *
+ * A trace is started when an event is received by {@link PubSubHandler}, and is timestamped as it passes through the
+ * stages that are defined by {@link Stage}. As events can be queued (see {@link EventIngestQueue}) and applied on a
+ * different thread, a trace is explicitly handed over: the thread that applies changes to the block list attaches the
+ * traces of the changes, after which the block list and its event listeners timestamp all traces that are attached to
+ * the current thread. Changes that are not part of a trace (eg: pages of a full retrieval) are not traced.
+ *
+ * The duration of each stage is recorded in a histogram. The most recently completed traces are retained in a ring
+ * buffer of fixed size.
+ */
+public class PropagationTracer
+{
+    /**
+     * The stages through which a change of the block list propagates.
+     */
+    public enum Stage
+    {
+        /**
+         * From the arrival of the event to the hand-over of its changes to the block list or the event ingest queue.
+         */
+        PARSE,
+
+        /**
+         * From the hand-over of the changes to the start of the mutation of the block list (including time spent in the
+         * event ingest queue).
+         */
+        QUEUE,
+
+        /**
+         * The mutation of the block list, including the time waiting for its lock.
+         */
+        MUTATION,
+
+        /**
+         * From the end of the mutation to the first event listener that processes the change.
+         */
+        DISPATCH,
+
+        /**
+         * The processing of rooms by event listeners, removing occupants that were added to the block list.
+         */
+        SWEEP,
+
+        /**
+         * From the arrival of the event to the moment that all of its changes have been processed.
+         */
+        TOTAL
+    }
+
+    private final Map<Stage, Metrics.Histogram> histograms = new EnumMap<>(Stage.class);
+
+    private final AtomicReferenceArray<Trace> history;
+
+    /**
+     * The total amount of traces that have been completed (used to determine the position in the ring buffer).
+     */
+    private final AtomicLong completed = new AtomicLong();
+
+    private final ThreadLocal<Collection<Trace>> current = new ThreadLocal<>();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param historySize The maximum amount of completed traces that is retained.
+     */
+    public PropagationTracer(final int historySize)
+    {
+        if (historySize < 0) {
+            throw new IllegalArgumentException("Argument 'historySize' cannot be a negative number, but was: " + historySize);
+        }
+        for (final Stage stage : Stage.values()) {
+            histograms.put(stage, new Metrics.Histogram());
+        }
+        this.history = new AtomicReferenceArray<>(historySize);
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public int getHistorySize()
+    {
+        return history.length();
+    }
+
+    /**
+     * Starts a trace, for a change that has arrived.
+     *
+     * @param arrival The moment (as obtained from {@link System#nanoTime()}) at which the change arrived.
+     * @param additions The amount of hashes that are added by the change.
+     * @param retractions The amount of hashes that are removed by the change.
+     * @return A trace, or null if tracing is disabled.
+     */
+    @Nullable
+    public Trace begin(final long arrival, final int additions, final int retractions)
+    {
+        if (!enabled) {
+            return null;
+        }
+        return new Trace(arrival, additions, retractions);
+    }
+
+    /**
+     * Records that the changes of a trace have been handed over to be applied to the block list.
+     *
+     * @param trace The trace (can be null).
+     */
+    public void submitted(@Nullable final Trace trace)
+    {
+        if (trace != null) {
+            trace.submitted = System.nanoTime();
+        }
+    }
+
+    /**
+     * Attaches traces to the current thread, after which stages that are marked on this thread are recorded in these
+     * traces. Invocations of this method must be followed by an invocation of {@link #complete()} on the same thread.
+     *
+     * @param traces The traces of the changes that are about to be applied (possibly empty).
+     */
+    public void attach(@Nonnull final Collection<Trace> traces)
+    {
+        current.set(traces.isEmpty() ? null : traces);
+    }
+
+    /**
+     * Records that the mutation of the block list, for the traces that are attached to the current thread, has started.
+     */
+    public void mutationStarted()
+    {
+        final Collection<Trace> traces = current.get();
+        if (traces != null) {
+            final long now = System.nanoTime();
+            traces.forEach(trace -> { if (trace.mutationStarted == 0) trace.mutationStarted = now; });
+        }
+    }
+
+    /**
+     * Records that the mutation of the block list, for the traces that are attached to the current thread, has been
+     * applied.
+     */
+    public void mutationApplied()
+    {
+        final Collection<Trace> traces = current.get();
+        if (traces != null) {
+            final long now = System.nanoTime();
+            traces.forEach(trace -> trace.mutationApplied = now);
+        }
+    }
+
+    /**
+     * Records that an event listener started to process the changes of the traces that are attached to the current
+     * thread.
+     */
+    public void sweepStarted()
+    {
+        final Collection<Trace> traces = current.get();
+        if (traces != null) {
+            final long now = System.nanoTime();
+            traces.forEach(trace -> { if (trace.sweepStarted == 0) trace.sweepStarted = now; });
+        }
+    }
+
+    /**
+     * Records that an event listener finished processing the changes of the traces that are attached to the current
+     * thread.
+     *
+     * @param kicks The amount of occupants that were to be removed from rooms.
+     */
+    public void sweepFinished(final int kicks)
+    {
+        final Collection<Trace> traces = current.get();
+        if (traces != null) {
+            final long now = System.nanoTime();
+            traces.forEach(trace -> { trace.sweepFinished = now; trace.kicks += kicks; });
+        }
+    }
+
+    /**
+     * Completes all traces that are attached to the current thread, and detaches them.
+     */
+    public void complete()
+    {
+        final Collection<Trace> traces = current.get();
+        current.remove();
+        if (traces == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        for (final Trace trace : traces) {
+            trace.completed = now;
+            for (final Stage stage : Stage.values()) {
+                final Duration duration = trace.getDuration(stage);
+                if (duration != null) {
+                    histograms.get(stage).record(duration.toNanos());
+                }
+            }
+            if (history.length() > 0) {
+                history.set((int) (completed.getAndIncrement() % history.length()), trace);
+            }
+        }
+    }
+
+    /**
+     * Returns the distribution of the duration of a stage, in nanoseconds.
+     *
+     * @param stage The stage.
+     * @return A histogram.
+     */
+    public Metrics.Histogram getHistogram(@Nonnull final Stage stage)
+    {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Returns the distributions of the durations of all stages, in nanoseconds.
+     *
+     * @return Histograms, by stage.
+     */
+    public Map<Stage, Metrics.Histogram> getHistograms()
+    {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * Returns the slowest of the traces that were most recently completed.
+     *
+     * @param limit The maximum amount of traces to return.
+     * @return Traces, slowest first.
+     */
+    public List<Trace> getSlowest(final int limit)
+    {
+        final List<Trace> result = new ArrayList<>();
+        for (int i = 0; i < history.length(); i++) {
+            final Trace trace = history.get(i);
+            if (trace != null) {
+                result.add(trace);
+            }
+        }
+        result.sort(Comparator.comparing((Trace trace) -> trace.getDuration(Stage.TOTAL)).reversed());
+        return Collections.unmodifiableList(result.subList(0, Math.min(limit, result.size())));
+    }
+
+    /**
+     * The timestamps of one change, as it propagates through the stages.
+     */
+    public static final class Trace
+    {
+        private final Instant received = Instant.now();
+        private final long start;
+        private final int additions;
+        private final int retractions;
+
+        private volatile long submitted;
+        private volatile long mutationStarted;
+        private volatile long mutationApplied;
+        private volatile long sweepStarted;
+        private volatile long sweepFinished;
+        private volatile long completed;
+        private volatile int kicks;
+
+        Trace(final long start, final int additions, final int retractions)
+        {
+            this.start = start;
+            this.additions = additions;
+            this.retractions = retractions;
+        }
+
+        public Instant getReceived()
+        {
+            return received;
+        }
+
+        public int getAdditions()
+        {
+            return additions;
+        }
+
+        public int getRetractions()
+        {
+            return retractions;
+        }
+
+        public int getKicks()
+        {
+            return kicks;
+        }
+
+        /**
+         * Returns the duration of a stage.
+         *
+         * @param stage The stage.
+         * @return The duration, or null if the change did not (yet) pass through the stage.
+         */
+        @Nullable
+        public Duration getDuration(@Nonnull final Stage stage)
+        {
+            switch (stage) {
+                case PARSE:    return between(start, submitted);
+                case QUEUE:    return between(submitted, mutationStarted);
+                case MUTATION: return between(mutationStarted, mutationApplied);
+                case DISPATCH: return between(mutationApplied, sweepStarted);
+                case SWEEP:    return between(sweepStarted, sweepFinished);
+                case TOTAL:    return between(start, completed);
+                default:       throw new IllegalArgumentException("Unknown stage: " + stage);
+            }
+        }
+
+        /**
+         * Returns the durations of all stages through which the change passed.
+         *
+         * @return Durations, by stage.
+         */
+        public Map<Stage, Duration> getDurations()
+        {
+            final Map<Stage, Duration> result = new EnumMap<>(Stage.class);
+            for (final Stage stage : Stage.values()) {
+                final Duration duration = getDuration(stage);
+                if (duration != null) {
+                    result.put(stage, duration);
+                }
+            }
+            return result;
+        }
+
+        @Nullable
+        private static Duration between(final long from, final long to)
+        {
+            if (from == 0 || to == 0) {
+                return null;
+            }
+            return Duration.ofNanos(Math.max(0, to - from));
+        }
+    }
+}
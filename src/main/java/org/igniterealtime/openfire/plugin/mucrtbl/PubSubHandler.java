@@ -17,30 +17,94 @@ package org.igniterealtime.openfire.plugin.mucrtbl;
 
 import org.dom4j.Element;
 import org.dom4j.QName;
+import org.jivesoftware.openfire.PacketRouter;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
-import org.jivesoftware.openfire.interceptor.PacketInterceptor;
-import org.jivesoftware.openfire.interceptor.PacketRejectedException;
-import org.jivesoftware.openfire.session.ClientSession;
-import org.jivesoftware.openfire.session.Session;
+import org.jivesoftware.util.TaskEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xmpp.component.Component;
+import org.xmpp.component.ComponentManager;
 import org.xmpp.packet.IQ;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
+import org.xmpp.packet.PacketError;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Interacts with the Pub/Sub service and node (XEP-0060) on which the block list is maintained.
  *
+ * By default, the address that was used by earlier versions of this plugin is used to interact with the pub/sub
+ * service. Stanzas sent to that address are passed to this instance by a {@link LegacyAddressInterceptor}. Optionally,
+ * this class is registered as an internal component, that is addressed by a dedicated subdomain. This causes all
+ * stanzas sent by the pub/sub service (responses and events) to be routed to this instance, without needing to inspect
+ * any other traffic. That requires the pub/sub service to be able to reach that subdomain.
+ *
+ * XEP-0060 does not define the order in which a service returns items. Incremental refreshes assume that items are
+ * returned most recent first (as is the case for common implementations), and that the items of events are in order
+ * of publication. This assumption is never relied upon without validation: the result of an incremental refresh is
+ * only accepted when the items that are returned after the last item that was seen are all known, and when the
+ * digest of the block list matches that of the item IDs on the node afterwards. In all other cases (including when
+ * the last item that was seen is no longer on the node, and when items were retracted while events were not
+ * received), all items are retrieved instead.
+ *
  * @author Guus der Kinderen, guus@goodbytes.nl
  */
-public class PubSubHandler implements PacketInterceptor
+public class PubSubHandler implements Component
 {
     private static final Logger Log = LoggerFactory.getLogger(PubSubHandler.class);
 
+    /**
+     * The namespace of Result Set Management (XEP-0059), which is used to retrieve items from the node in pages.
+     */
+    public static final String RSM_NAMESPACE = "http://jabber.org/protocol/rsm";
+
+    /**
+     * The types of requests that are sent to the pub/sub service.
+     */
+    enum RequestType
+    {
+        SUBSCRIBE,
+        UNSUBSCRIBE,
+        ITEM_IDS,
+        RECENT_ITEMS,
+        PAGE
+    }
+
+    /**
+     * The maximum amount of characters of a stanza that is logged, when trace logging is enabled.
+     */
+    private static final int TRACE_MAX_LENGTH = 16 * 1024;
+
+    /**
+     * The health of the synchronization of the local block list representation with the pub/sub node.
+     */
+    public enum SyncState
+    {
+        /**
+         * The subscription to the node and/or the retrieval of all items is in progress.
+         */
+        SYNCING,
+
+        /**
+         * The subscription to the node is confirmed, and all items have been retrieved.
+         */
+        SUBSCRIBED,
+
+        /**
+         * The subscription to the node, or the retrieval of its items, failed. A retry is pending.
+         */
+        STALE
+    }
+
     /**
      * The address of the pub/sub service that contains the node on which the block list is maintained.
      */
@@ -61,6 +125,157 @@ public class PubSubHandler implements PacketInterceptor
      */
     private final BlockList blockList;
 
+    /**
+     * The router used to send stanzas to the pub/sub service.
+     */
+    private final PacketRouter router;
+
+    /**
+     * The maximum amount of items that is requested in one page (XEP-0059), when retrieving all items from the node.
+     */
+    private volatile int pageSize;
+
+    /**
+     * The maximum amount of page requests that can be outstanding at any given time, when retrieving all items from the
+     * node.
+     */
+    private volatile int maxPagesInFlight;
+
+    /**
+     * The maximum amount of most recent items that is requested when refreshing the block list incrementally. When
+     * zero, incremental refreshes are not used.
+     */
+    private volatile int incrementalMaxItems;
+
+    /**
+     * Indicates if a refresh is preceded by a comparison of the digest of the item IDs on the node with that of the
+     * local block list representation, to skip the refresh when these are equal.
+     */
+    private volatile boolean digestCheck;
+
+    /**
+     * The duration after which a request for which no response has been received is considered to have failed.
+     */
+    private volatile Duration requestTimeout = Duration.ofSeconds(30);
+
+    /**
+     * The delay before the first retry of a failed subscription or retrieval. Every subsequent retry doubles the delay.
+     */
+    private volatile Duration retryInitialDelay = Duration.ofSeconds(10);
+
+    /**
+     * The maximum delay between retries of a failed subscription or retrieval.
+     */
+    private volatile Duration retryMaxDelay = Duration.ofMinutes(15);
+
+    /**
+     * Records summaries of the traffic that is processed.
+     */
+    private volatile SyncDiagnostics diagnostics = new SyncDiagnostics(50);
+
+    /**
+     * The queue through which changes received as pub/sub events are applied to the block list. When null, these
+     * changes are applied directly.
+     */
+    private volatile EventIngestQueue ingestQueue;
+
+    /**
+     * Requests that have been sent to the pub/sub service, for which no response has been received, by stanza ID.
+     */
+    private final ConcurrentMap<String, OutstandingRequest> outstandingRequests = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of refreshes that were skipped, as the local block list representation was found to be in sync.
+     */
+    private final AtomicLong skippedRefreshes = new AtomicLong();
+
+    /**
+     * The amount of refreshes that were executed.
+     */
+    private final AtomicLong executedRefreshes = new AtomicLong();
+
+    /**
+     * The retrieval of all items from the node that is currently in progress (or the last one that was started).
+     */
+    private PagedRetrieval retrieval;
+
+    /**
+     * The retrieval of the IDs of all items on the node that is currently in progress (or null). Guarded by 'this'.
+     */
+    private ItemIdsRetrieval itemIdsRetrieval;
+
+    /**
+     * The digest of the item IDs on the node, against which the result of the incremental refresh that is in progress
+     * is validated (or null). Guarded by 'this'.
+     */
+    private BlockList.Digest expectedDigest;
+
+    /**
+     * The ID of the most recent item on the node that is known to have been processed, after which the local block list
+     * representation is known to have been complete. Null when no such item is known.
+     */
+    private volatile String lastSeenItemId;
+
+    /**
+     * The moment at which {@link #lastSeenItemId} was last updated. Null when no such item is known.
+     */
+    private volatile Instant lastSeenItemTimestamp;
+
+    /**
+     * Indicates if the subscription to the node has been confirmed by the pub/sub service. Guarded by 'this'.
+     */
+    private boolean subscribed = false;
+
+    /**
+     * The amount of consecutive failed attempts to subscribe to the node. Guarded by 'this'.
+     */
+    private int failedSubscribeAttempts = 0;
+
+    /**
+     * The amount of consecutive failed attempts to retrieve all items from the node. Guarded by 'this'.
+     */
+    private int failedRetrievalAttempts = 0;
+
+    /**
+     * The health of the synchronization with the node. Guarded by 'this'.
+     */
+    private SyncState syncState = SyncState.SYNCING;
+
+    /**
+     * The moment at which {@link #syncState} last changed. Guarded by 'this'.
+     */
+    private Instant syncStateSince = Instant.now();
+
+    /**
+     * The moment at which the last refresh or retrieval of all items completed successfully. Guarded by 'this'.
+     */
+    private Instant lastSuccessfulSync;
+
+    /**
+     * The duration of the last period during which the synchronization was {@link SyncState#STALE}. Guarded by 'this'.
+     */
+    private Duration lastStaleDuration;
+
+    /**
+     * Indicates if a retrieval of all items from the node is in progress. Guarded by 'this'.
+     */
+    private boolean retrievalInProgress = false;
+
+    /**
+     * Task that periodically checks for requests that have timed out. Guarded by 'this'.
+     */
+    private TimerTask timeoutTask;
+
+    /**
+     * Task that retries a failed subscription attempt. Guarded by 'this'.
+     */
+    private TimerTask subscribeRetryTask;
+
+    /**
+     * Task that retries a failed retrieval of all items. Guarded by 'this'.
+     */
+    private TimerTask retrievalRetryTask;
+
     /**
      * Creates a new instance that populates the provided block list representation, using data obtained from the
      * provided pub/sub node on the provided service.
@@ -68,226 +283,1816 @@ public class PubSubHandler implements PacketInterceptor
      * @param blockList Block list representation to represent data on the pub/sub node.
      * @param service The address of the pub/sub service that contains the node on which the block list is maintained.
      * @param node The pub/sub node (on service) on which the block list is maintained.
+     * @param selfAddress The address that is used to interact with the pub/sub service.
+     * @param pageSize The maximum amount of items to request per page when retrieving all items from the node.
+     * @param maxPagesInFlight The maximum amount of page requests that are outstanding at the same time.
+     * @param incrementalMaxItems The maximum amount of most recent items to request when refreshing incrementally (zero to always retrieve all items).
+     * @param digestCheck Whether to skip a refresh when the item IDs on the node match the local block list representation.
      */
-    public PubSubHandler(final BlockList blockList, final JID service, final String node) {
+    public PubSubHandler(final BlockList blockList, final JID service, final String node, final JID selfAddress, final int pageSize, final int maxPagesInFlight, final int incrementalMaxItems, final boolean digestCheck) {
+        this(blockList, service, node, selfAddress, XMPPServer.getInstance().getPacketRouter(), pageSize, maxPagesInFlight, incrementalMaxItems, digestCheck);
+    }
+
+    PubSubHandler(final BlockList blockList, final JID service, final String node, final JID selfAddress, final PacketRouter router, final int pageSize, final int maxPagesInFlight, final int incrementalMaxItems, final boolean digestCheck) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Argument 'pageSize' must be a positive number, but was: " + pageSize);
+        }
+        if (maxPagesInFlight < 1) {
+            throw new IllegalArgumentException("Argument 'maxPagesInFlight' must be a positive number, but was: " + maxPagesInFlight);
+        }
+        if (incrementalMaxItems < 0) {
+            throw new IllegalArgumentException("Argument 'incrementalMaxItems' cannot be a negative number, but was: " + incrementalMaxItems);
+        }
         this.blockList = blockList;
         this.service = service;
         this.node = node;
-        this.selfAddress = XMPPServer.getInstance().createJID(null, "mucrtbl");
+        this.selfAddress = selfAddress;
+        this.router = router;
+        this.pageSize = pageSize;
+        this.maxPagesInFlight = maxPagesInFlight;
+        this.incrementalMaxItems = incrementalMaxItems;
+        this.digestCheck = digestCheck;
     }
 
-    @Override
-    public void interceptPacket(final Packet stanza, final Session session, final boolean incoming, final boolean processed) throws PacketRejectedException
+    /**
+     * Configures the maximum amount of items to request per page, when retrieving all items from the node. A change
+     * applies to pages that are requested after this method is invoked.
+     *
+     * @param pageSize A positive number.
+     */
+    public void setPageSize(final int pageSize)
     {
-        if (!incoming || processed || session instanceof ClientSession) {
-            return;
-        }
-
-        if (!service.equals(stanza.getFrom())) {
-            return;
-        }
-
-        if (!selfAddress.equals(stanza.getTo())) {
-            return;
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Argument 'pageSize' must be a positive number, but was: " + pageSize);
         }
+        this.pageSize = pageSize;
+    }
 
-        if (stanza instanceof IQ) {
-            if (((IQ) stanza).isResponse()) {
-                handleIQResult((IQ) stanza);
-            }
-            // This stanza is addressed to 'us'. Prevent further processing of this stanza.
-            throw new PacketRejectedException(); // Will generate an error for requests, which is appropriate.
+    /**
+     * Configures the maximum amount of page requests that are outstanding at the same time, when retrieving all items
+     * from the node.
+     *
+     * @param maxPagesInFlight A positive number.
+     */
+    public void setMaxPagesInFlight(final int maxPagesInFlight)
+    {
+        if (maxPagesInFlight < 1) {
+            throw new IllegalArgumentException("Argument 'maxPagesInFlight' must be a positive number, but was: " + maxPagesInFlight);
         }
-        if (stanza instanceof Message) {
-            handleMessage((Message) stanza);
+        this.maxPagesInFlight = maxPagesInFlight;
+    }
 
-            // This stanza is addressed to 'us'. Prevent further processing of this stanza.
-            throw new PacketRejectedException(); // A message rejected without a rejection message will not generate an error response that's sent back to the sender.
+    /**
+     * Configures the maximum amount of most recent items to request when refreshing incrementally.
+     *
+     * @param incrementalMaxItems A positive number, or zero to always retrieve all items.
+     */
+    public void setIncrementalMaxItems(final int incrementalMaxItems)
+    {
+        if (incrementalMaxItems < 0) {
+            throw new IllegalArgumentException("Argument 'incrementalMaxItems' cannot be a negative number, but was: " + incrementalMaxItems);
         }
+        this.incrementalMaxItems = incrementalMaxItems;
     }
 
     /**
-     * Attempts to remove any subscription to a pub/sub node.
-     *
-     * This method sends a stanza that represents a subscription removal, but does not verify if there is a pre-existing
-     * subscription, nor if the request is successful.
+     * Configures whether a refresh is skipped when the item IDs on the node match the local block list representation.
      *
-     * @param service the pub/sub service that contains the node.
-     * @param node The node from which to unsubscribe.
+     * @param digestCheck true to compare item IDs before refreshing.
      */
-    public void attemptUnsubscribe(final JID service, final String node) throws UnauthorizedException
+    public void setDigestCheck(final boolean digestCheck)
     {
-        Log.debug("Attempting to be unsubscribed from node '{}' on service '{}'", node, service);
-        final IQ stanza = new IQ(IQ.Type.set);
-        stanza.setTo(service);
-        stanza.setFrom(selfAddress);
-        final Element subEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("unsubscribe");
-        subEl.addAttribute("node", node);
-        subEl.addAttribute("jid", selfAddress.toString());
-
-        XMPPServer.getInstance().getIQRouter().route(stanza);
+        this.digestCheck = digestCheck;
     }
 
     /**
-     * Attempts to create a subscription to a pub/sub node.
+     * Configures the duration after which a request for which no response has been received is considered to have
+     * failed.
      *
-     * This method sends a stanza that represents a subscription request, but does not verify if the request is successful.
-     *
-     * @param service the pub/sub service that contains the node.
-     * @param node The node to which to subscribe.
+     * @param requestTimeout The timeout of requests.
      */
-    public void attemptSubscribe(final JID service, final String node) throws UnauthorizedException
+    public void setRequestTimeout(final Duration requestTimeout)
     {
-        Log.debug("Attempting to subscribe to node '{}' on service '{}'", node, service);
-        final IQ stanza = new IQ(IQ.Type.set);
-        stanza.setTo(service);
-        stanza.setFrom(selfAddress);
-        final Element subEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("subscribe");
-        subEl.addAttribute("node", node);
-        subEl.addAttribute("jid", selfAddress.toString());
-
-        XMPPServer.getInstance().getIQRouter().route(stanza);
+        this.requestTimeout = requestTimeout;
     }
 
     /**
-     * Sends a request to retrieve all items from a pub/sub node.
+     * Configures the delays between retries of failed subscription attempts and retrievals of all items. The delay
+     * doubles after each consecutive failure, starting at the initial delay, until the maximum delay is reached.
      *
-     * This method sends a stanza that represents the request, but does not verify if the request is successful.
-     *
-     * @param service the pub/sub service that contains the node.
-     * @param node The node from which to unsubscribe.
+     * @param initialDelay The delay before the first retry.
+     * @param maxDelay The maximum delay between two retries.
      */
-    public void requestAllItems(final JID service, final String node)
+    public void setRetryDelays(final Duration initialDelay, final Duration maxDelay)
     {
-        Log.debug("Attempting to retrieve all hashes from node '{}' on service '{}'", node, service);
-        final IQ stanza = new IQ(IQ.Type.get);
-        stanza.setTo(service);
-        stanza.setFrom(selfAddress);
-        final Element subEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("items");
-        subEl.addAttribute("node", node);
+        this.retryInitialDelay = initialDelay;
+        this.retryMaxDelay = maxDelay;
+    }
 
-        XMPPServer.getInstance().getIQRouter().route(stanza);
+    /**
+     * Configures the queue through which changes that are received as pub/sub events are applied to the block list.
+     * When not set (or set to null), these changes are applied on the thread that processes the event.
+     *
+     * @param ingestQueue The queue to use, or null.
+     */
+    public void setEventIngestQueue(final EventIngestQueue ingestQueue)
+    {
+        this.ingestQueue = ingestQueue;
     }
 
     /**
-     * Processes an IQ response, that is assumed to be generated by the pub/sub service (that contains the node that is
-     * used to maintain the block list) and is addressed to this component.
+     * Configures the instance that records summaries of the traffic that is processed.
      *
-     * This method only acts on results that contain listings of items on a pub/sub node, which are assumed to relate
-     * to the block list. These items are added to the block list representation that is maintained in Openfire.
+     * @param diagnostics The instance to use.
+     */
+    public void setDiagnostics(final SyncDiagnostics diagnostics)
+    {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Returns the instance that records summaries of the traffic that is processed.
      *
-     * @param iq An IQ response
+     * @return diagnostics.
      */
-    protected void handleIQResult(final IQ iq)
+    public SyncDiagnostics getDiagnostics()
     {
-        if (!iq.isResponse()) {
-            throw new IllegalArgumentException("Argument is expected to be an IQ response, but was not.");
-        }
-        Log.trace("Handling IQ result: {}", iq.toXML());
+        return diagnostics;
+    }
 
-        final Element childElement = iq.getChildElement();
-        if (childElement == null || !"pubsub".equals(childElement.getName()) || !"http://jabber.org/protocol/pubsub".equals(childElement.getNamespaceURI())) {
-            // Ignore results that are not pubsub listings
-            return;
-        }
-        final Element itemsEl = childElement.element("items");
-        if (itemsEl == null || !node.equals(itemsEl.attributeValue("node"))) {
-            // Ignore results from another node.
-            return;
-        }
+    @Override
+    public String getName()
+    {
+        return "MUC Real-Time Block List";
+    }
 
-        // Received new to-be-banned nodes.
-        final Map<String, String> hashes = extractHashesFromPubsubItems(itemsEl);
+    @Override
+    public String getDescription()
+    {
+        return "Receives updates from the Pub/Sub node on which the MUC Real-Time Block List is maintained.";
+    }
 
-        Log.debug("Received a list of hashes from the block list. List size: {}", hashes.size());
-        if (!hashes.isEmpty()) {
-            blockList.addAll(hashes);
+    @Override
+    public void initialize(final JID jid, final ComponentManager componentManager)
+    {
+        if (!selfAddress.equals(jid)) {
+            Log.warn("Component is registered as '{}', while it uses '{}' as its address.", jid, selfAddress);
         }
+    }
 
-        // TODO: Was this a partial result? Request the next page! Prosody's pubsub implementation currently doesn't
-        //       support RSM, so pagination is unlikely to become a relevant feature anytime soon.
+    @Override
+    public synchronized void start()
+    {
+        timeoutTask = new TimerTask() {
+            @Override
+            public void run() {
+                checkTimeouts(Instant.now());
+            }
+        };
+        TaskEngine.getInstance().schedule(timeoutTask, 1000, 1000);
     }
 
-    /**
-     * Processes message stanza, that is assumed to be a pub/sub event generated by the pub/sub service (that contains
-     * the node that is used to maintain the block list) and is addressed to this component.
-     *
-     * This method item addition as well as retraction events. Corresponding changes will be applied to the block list
-     * representation that is maintained in Openfire.
-     *
-     * @param message Message stanza (presumed to be a pubsub event)
-     */
-    protected void handleMessage(final Message message)
+    @Override
+    public synchronized void shutdown()
     {
-        Log.trace("Handling message: {}", message.toXML());
-        final Element eventEl = message.getChildElement("event", "http://jabber.org/protocol/pubsub#event");
-        if (eventEl == null) {
-            // Ignore results that are not pubsub events
-            return;
-        }
-        final Element itemsEl = eventEl.element("items");
-        if (itemsEl == null || !node.equals(itemsEl.attributeValue("node"))) {
-            // Ignore non-items, or items from a different node.
-            return;
+        for (final TimerTask task : Arrays.asList(timeoutTask, subscribeRetryTask, retrievalRetryTask)) {
+            if (task != null) {
+                TaskEngine.getInstance().cancelScheduledTask(task);
+            }
         }
+        timeoutTask = null;
+        subscribeRetryTask = null;
+        retrievalRetryTask = null;
+        outstandingRequests.clear();
+    }
 
-        // Remove items that are retracted from the blocklist.
-        final Set<String> hashesRetracted = new HashSet<>();
-        for (final Element itemEl : itemsEl.elements("retract")) {
-            final String id = itemEl.attributeValue("id");
-            if (id != null) {
-                hashesRetracted.add(id);
+    @Override
+    public void processPacket(final Packet stanza)
+    {
+        if (stanza instanceof IQ) {
+            final IQ iq = (IQ) stanza;
+            if (!iq.isResponse()) {
+                handleIQRequest(iq);
+                return;
             }
+            final OutstandingRequest request = service.equals(iq.getFrom()) && iq.getID() != null ? outstandingRequests.remove(iq.getID()) : null;
+            if (request == null) {
+                Log.debug("Ignoring IQ response from '{}' that does not correlate to any request that is outstanding: {}", iq.getFrom(), iq.getID());
+                return;
+            }
+            Log.trace("Received response to {} request '{}' after {}", request.type, iq.getID(), Duration.between(request.sent, Instant.now()));
+            handleIQResult(iq, request.type);
+            return;
         }
-
-        if (!hashesRetracted.isEmpty()) {
-            Log.debug("Received hash(es) from the pubsub service that are removed from the block list. List size: {}", hashesRetracted.size());
-            blockList.removeAll(hashesRetracted);
+        if (stanza instanceof Message && service.equals(stanza.getFrom())) {
+            handleMessage((Message) stanza);
         }
+    }
 
-        // Add new items to the blocklist.
-        final Map<String, String> hashesAdded = extractHashesFromPubsubItems(itemsEl);
-
-        if (!hashesAdded.isEmpty()) {
-            Log.debug("Received hash(es) from the pubsub service that are added to the block list. List size: {}", hashesAdded.size());
-            blockList.addAll(hashesAdded);
-        }
+    /**
+     * Returns the address that is used to interact with the pub/sub service.
+     *
+     * @return an address.
+     */
+    public JID getSelfAddress()
+    {
+        return selfAddress;
     }
 
-    static Map<String, String> extractHashesFromPubsubItems(final Element itemsEl)
+    /**
+     * Returns the amount of requests that were sent to the pub/sub service, for which no response has been received.
+     *
+     * @return an amount of requests.
+     */
+    public int getOutstandingRequestCount()
     {
-        final Map<String, String> results = new HashMap<>();
-        final List<Element> items = itemsEl.elements("item");
-        for (final Element item : items) {
-            final String itemId = item.attributeValue("id");
+        return outstandingRequests.size();
+    }
 
-            // Best-effort parsing of a reason, from the item payload that presumably is XEP-0377.
-            String reason = "";
-            try {
-                final Element report = item.element(QName.get("report", "urn:xmpp:reporting:1"));
-                if (report != null) {
-                    final String reasonValue = report.attributeValue("reason");
-                    if ("urn:xmpp:reporting:spam".equals(reasonValue)) {
-                        reason = "Spam";
+    /**
+     * Returns the health of the synchronization of the local block list representation with the pub/sub node.
+     *
+     * @return the synchronization state.
+     */
+    public synchronized SyncState getSyncState()
+    {
+        return syncState;
+    }
+
+    /**
+     * Returns the moment at which the synchronization state last changed.
+     *
+     * @return a timestamp.
+     */
+    public synchronized Instant getSyncStateSince()
+    {
+        return syncStateSince;
+    }
+
+    /**
+     * Returns the moment at which the last refresh, or retrieval of all items, completed successfully.
+     *
+     * @return a timestamp, or null if no synchronization completed successfully.
+     */
+    public synchronized Instant getLastSuccessfulSync()
+    {
+        return lastSuccessfulSync;
+    }
+
+    /**
+     * Returns the duration of the last period during which the synchronization was stale (the time it took to recover
+     * from the last failure).
+     *
+     * @return a duration, or null if the synchronization never recovered from a failure.
+     */
+    public synchronized Duration getLastStaleDuration()
+    {
+        return lastStaleDuration;
+    }
+
+    /**
+     * Sends a request to the pub/sub service, registering it as being outstanding.
+     *
+     * @param stanza The request to send.
+     * @param type The type of the request.
+     */
+    protected void send(final IQ stanza, final RequestType type)
+    {
+        outstandingRequests.put(stanza.getID(), new OutstandingRequest(type, Instant.now()));
+        router.route(stanza);
+    }
+
+    /**
+     * Processes all outstanding requests that have been sent before the configured timeout, as if an error response
+     * was received for them.
+     *
+     * @param now The current moment.
+     */
+    void checkTimeouts(final Instant now)
+    {
+        final Instant threshold = now.minus(requestTimeout);
+        for (final Map.Entry<String, OutstandingRequest> entry : outstandingRequests.entrySet()) {
+            if (entry.getValue().sent.isBefore(threshold) && outstandingRequests.remove(entry.getKey(), entry.getValue())) {
+                Log.info("No response was received within {} to {} request '{}' sent to service '{}'.", requestTimeout, entry.getValue().type, entry.getKey(), service);
+                handleFailure(entry.getKey(), entry.getValue().type);
+            }
+        }
+    }
+
+    /**
+     * Responds to an IQ request addressed to this component. Apart from service discovery information requests, all
+     * requests are rejected.
+     *
+     * @param iq An IQ request.
+     */
+    protected void handleIQRequest(final IQ iq)
+    {
+        final IQ response = IQ.createResultIQ(iq);
+        final Element childElement = iq.getChildElement();
+        if (iq.getType() == IQ.Type.get && childElement != null && "http://jabber.org/protocol/disco#info".equals(childElement.getNamespaceURI())) {
+            final Element queryEl = response.setChildElement("query", "http://jabber.org/protocol/disco#info");
+            queryEl.addElement("identity")
+                .addAttribute("category", "component")
+                .addAttribute("type", "generic")
+                .addAttribute("name", getName());
+            queryEl.addElement("feature").addAttribute("var", "http://jabber.org/protocol/disco#info");
+        } else {
+            if (childElement != null) {
+                response.setChildElement(childElement.createCopy());
+            }
+            response.setType(IQ.Type.error);
+            response.setError(PacketError.Condition.service_unavailable);
+        }
+        router.route(response);
+    }
+
+    /**
+     * Attempts to remove any subscription to a pub/sub node.
+     *
+     * This method sends a stanza that represents a subscription removal, but does not verify if there is a pre-existing
+     * subscription. A failure to unsubscribe is logged, but otherwise ignored.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node from which to unsubscribe.
+     */
+    public void attemptUnsubscribe(final JID service, final String node) throws UnauthorizedException
+    {
+        attemptUnsubscribe(service, node, selfAddress);
+    }
+
+    /**
+     * Attempts to remove any subscription of a particular entity to a pub/sub node.
+     *
+     * This method sends a stanza, from the address of the subscriber, that represents a subscription removal, but does
+     * not verify if there is a pre-existing subscription. When the subscriber is not the address of this component, the
+     * response will not be received by this instance.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node from which to unsubscribe.
+     * @param subscriber The entity to unsubscribe.
+     */
+    public void attemptUnsubscribe(final JID service, final String node, final JID subscriber) throws UnauthorizedException
+    {
+        Log.debug("Attempting to unsubscribe '{}' from node '{}' on service '{}'", subscriber, node, service);
+        final IQ stanza = new IQ(IQ.Type.set);
+        stanza.setTo(service);
+        stanza.setFrom(subscriber);
+        final Element subEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("unsubscribe");
+        subEl.addAttribute("node", node);
+        subEl.addAttribute("jid", subscriber.toString());
+
+        if (subscriber.equals(selfAddress)) {
+            synchronized (this) {
+                subscribed = false;
+            }
+            send(stanza, RequestType.UNSUBSCRIBE);
+        } else {
+            router.route(stanza);
+        }
+    }
+
+    /**
+     * Attempts to create a subscription to a pub/sub node.
+     *
+     * This method sends a stanza that represents a subscription request. When the request fails (or is not responded
+     * to in time), it is retried after a delay.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node to which to subscribe.
+     */
+    public void attemptSubscribe(final JID service, final String node) throws UnauthorizedException
+    {
+        Log.debug("Attempting to subscribe to node '{}' on service '{}'", node, service);
+        final IQ stanza = new IQ(IQ.Type.set);
+        stanza.setTo(service);
+        stanza.setFrom(selfAddress);
+        final Element subEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("subscribe");
+        subEl.addAttribute("node", node);
+        subEl.addAttribute("jid", selfAddress.toString());
+
+        send(stanza, RequestType.SUBSCRIBE);
+    }
+
+    /**
+     * Refreshes the block list content.
+     *
+     * When enabled, the IDs of all items on the node are requested first (which is considerably cheaper than requesting
+     * the items themselves). The refresh is skipped when the digest of these IDs equals that of the local block list
+     * representation.
+     *
+     * When an item is known after which the local block list representation was complete, and incremental refreshes
+     * are enabled, only the most recent items of the node are requested. As the result of an incremental refresh is
+     * validated against the IDs of all items on the node, these are requested first, even when the comparison of
+     * digests is disabled. All items are retrieved (and reconciled with the local block list representation) when an
+     * incremental refresh is not possible, or when its result cannot be validated (which indicates that changes might
+     * have been missed).
+     */
+    public void refresh()
+    {
+        if (digestCheck || (incrementalMaxItems > 0 && lastSeenItemId != null)) {
+            requestItemIds(service, node);
+        } else {
+            executeRefresh(null);
+        }
+    }
+
+    /**
+     * Starts the retrieval of the IDs of all items on a pub/sub node, using service discovery (XEP-0030) items requests.
+     *
+     * The IDs are requested in pages, using Result Set Management (XEP-0059), one after the other. Services that do not
+     * support Result Set Management are expected to return all item IDs in one response. The IDs are not retained: only
+     * their digest is calculated.
+     *
+     * Any retrieval of item IDs that was still in progress is abandoned. When a request fails, a refresh is executed.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node for which to retrieve item IDs.
+     */
+    public void requestItemIds(final JID service, final String node)
+    {
+        Log.debug("Attempting to retrieve the IDs of all items from node '{}' on service '{}'", node, service);
+        final ItemIdsRetrieval newRetrieval = new ItemIdsRetrieval();
+        final IQ stanza = createItemIdsRequest(service, node, null);
+        synchronized (this) {
+            newRetrieval.requestId = stanza.getID();
+            itemIdsRetrieval = newRetrieval;
+        }
+        send(stanza, RequestType.ITEM_IDS);
+    }
+
+    /**
+     * Creates a request for a page of item IDs of a pub/sub node.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node for which to retrieve item IDs.
+     * @param after The ID of the item after which the page should start (can be null).
+     * @return The request.
+     */
+    private IQ createItemIdsRequest(final JID service, final String node, final String after)
+    {
+        final IQ stanza = new IQ(IQ.Type.get);
+        stanza.setTo(service);
+        stanza.setFrom(selfAddress);
+        final Element queryEl = stanza.setChildElement("query", "http://jabber.org/protocol/disco#items");
+        queryEl.addAttribute("node", node);
+        final Element setEl = queryEl.addElement(QName.get("set", RSM_NAMESPACE));
+        setEl.addElement("max").setText(String.valueOf(pageSize));
+        if (after != null) {
+            setEl.addElement("after").setText(after);
+        }
+        return stanza;
+    }
+
+    /**
+     * Returns the amount of refreshes that were skipped, as the local block list representation was in sync with the node.
+     *
+     * @return an amount of refreshes.
+     */
+    public long getSkippedRefreshes()
+    {
+        return skippedRefreshes.get();
+    }
+
+    /**
+     * Returns the amount of refreshes that were executed (which excludes the initial retrieval of all items).
+     *
+     * @return an amount of refreshes.
+     */
+    public long getExecutedRefreshes()
+    {
+        return executedRefreshes.get();
+    }
+
+    /**
+     * Executes a refresh: incremental when possible, otherwise by retrieving all items.
+     *
+     * @param remote The digest of the item IDs on the node, that is used to validate an incremental refresh (null if unknown, which prevents an incremental refresh).
+     */
+    private void executeRefresh(final BlockList.Digest remote)
+    {
+        executedRefreshes.incrementAndGet();
+        if (incrementalMaxItems > 0 && lastSeenItemId != null && remote != null) {
+            synchronized (this) {
+                expectedDigest = remote;
+            }
+            requestRecentItems(service, node, incrementalMaxItems);
+        } else {
+            requestAllItems(service, node, remote == null ? -1 : remote.getCount());
+        }
+    }
+
+    /**
+     * Sends a request to retrieve the most recent items from a pub/sub node.
+     *
+     * This method sends a stanza that represents the request. When the request fails, all items are retrieved instead.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node from which to retrieve items.
+     * @param maxItems The maximum amount of items to retrieve.
+     */
+    public void requestRecentItems(final JID service, final String node, final int maxItems)
+    {
+        Log.debug("Attempting to retrieve the {} most recent hashes from node '{}' on service '{}'", maxItems, node, service);
+        final IQ stanza = new IQ(IQ.Type.get);
+        stanza.setTo(service);
+        stanza.setFrom(selfAddress);
+        final Element subEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("items");
+        subEl.addAttribute("node", node);
+        subEl.addAttribute("max_items", String.valueOf(maxItems));
+
+        send(stanza, RequestType.RECENT_ITEMS);
+    }
+
+    /**
+     * Returns the ID of the most recent item on the node that is known to have been processed, after which the local
+     * block list representation is known to have been complete.
+     *
+     * @return An item ID, or null if no such item is known.
+     */
+    public String getLastSeenItemId()
+    {
+        return lastSeenItemId;
+    }
+
+    /**
+     * Returns the moment at which the value of {@link #getLastSeenItemId()} was last updated.
+     *
+     * @return A timestamp, or null if no item has been seen.
+     */
+    public Instant getLastSeenItemTimestamp()
+    {
+        return lastSeenItemTimestamp;
+    }
+
+    private void setLastSeenItemId(final String itemId)
+    {
+        lastSeenItemId = itemId;
+        lastSeenItemTimestamp = itemId == null ? null : Instant.now();
+    }
+
+    /**
+     * Starts the retrieval of all items from a pub/sub node.
+     *
+     * The items are requested in pages, using Result Set Management (XEP-0059). When the service reports the total
+     * amount of items, several pages are requested concurrently (bound by the configured maximum amount of pages in
+     * flight). Otherwise, pages are requested one after the other. When the service does not support Result Set
+     * Management, the first response is expected to contain all items.
+     *
+     * Any retrieval that was still in progress is abandoned: responses to its requests will no longer be processed.
+     *
+     * When the retrieval fails (or a request is not responded to in time), it is retried after a delay.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node from which to retrieve all items.
+     */
+    public void requestAllItems(final JID service, final String node)
+    {
+        requestAllItems(service, node, -1);
+    }
+
+    /**
+     * Sends a request to retrieve all items from a pub/sub node, of which the amount of items is known (from the
+     * retrieval of the IDs of all items). When the service does not support Result Set Management, a response that
+     * contains less items than that is not used to remove entries from the block list.
+     *
+     * @param service the pub/sub service that contains the node.
+     * @param node The node from which to retrieve all items.
+     * @param expectedCount The amount of items on the node, or -1 if unknown.
+     */
+    private void requestAllItems(final JID service, final String node, final long expectedCount)
+    {
+        Log.debug("Attempting to retrieve all hashes from node '{}' on service '{}'", node, service);
+        final PagedRetrieval previous;
+        synchronized (this) {
+            previous = retrieval;
+        }
+        // Abandon the previous retrieval before taking the snapshot of the block list, so that none of its pages can be applied after that.
+        abandon(previous);
+        final PagedRetrieval newRetrieval = new PagedRetrieval(service, node, blockList.getSortedHashes(), expectedCount);
+        final PagedRetrieval replaced;
+        synchronized (this) {
+            replaced = retrieval;
+            retrieval = newRetrieval;
+            retrievalInProgress = true;
+            updateSyncState();
+        }
+        if (replaced != previous) {
+            // Another retrieval was started concurrently.
+            abandon(replaced);
+        }
+        final IQ request;
+        synchronized (newRetrieval) {
+            request = newRetrieval.createPageRequest(null, null);
+        }
+        send(request, RequestType.PAGE);
+    }
+
+    /**
+     * Abandons a retrieval of all items: responses to its outstanding requests will no longer be processed, and these
+     * requests are no longer tracked.
+     *
+     * @param abandoned The retrieval to abandon (can be null).
+     */
+    private void abandon(final PagedRetrieval abandoned)
+    {
+        if (abandoned == null) {
+            return;
+        }
+        final Collection<String> requestIds;
+        synchronized (abandoned) {
+            requestIds = abandoned.abandon();
+        }
+        forgetRequests(requestIds);
+    }
+
+    /**
+     * Stops tracking requests, for which responses are no longer relevant. Responses that are received for these are
+     * ignored, and no timeout is applied to them.
+     *
+     * @param requestIds The IDs of the requests.
+     */
+    private void forgetRequests(final Collection<String> requestIds)
+    {
+        requestIds.forEach(outstandingRequests::remove);
+    }
+
+    /**
+     * Processes an IQ response, that is generated by the pub/sub service (that contains the node that is used to
+     * maintain the block list) in response to a request that was sent by this instance.
+     *
+     * @param iq An IQ response
+     * @param type The type of the request to which the IQ is a response.
+     */
+    protected void handleIQResult(final IQ iq, final RequestType type)
+    {
+        if (!iq.isResponse()) {
+            throw new IllegalArgumentException("Argument is expected to be an IQ response, but was not.");
+        }
+        if (Log.isTraceEnabled()) {
+            Log.trace("Handling IQ result: {}", SyncDiagnostics.serialize(iq, TRACE_MAX_LENGTH));
+        }
+
+        if (iq.getType() == IQ.Type.error) {
+            Log.info("A {} request sent to service '{}' for node '{}' failed: {}", type, service, node, iq.getError());
+            handleFailure(iq.getID(), type);
+            return;
+        }
+
+        switch (type) {
+            case SUBSCRIBE:
+                subscriptionSucceeded();
+                break;
+            case UNSUBSCRIBE:
+                Log.debug("Unsubscribed from node '{}' on service '{}'.", node, service);
+                break;
+            case ITEM_IDS:
+                handleItemIdsResult(iq);
+                break;
+            case RECENT_ITEMS:
+                handleRecentItemsResult(iq);
+                break;
+            case PAGE:
+                handlePageResult(iq);
+                break;
+        }
+    }
+
+    /**
+     * Processes the failure of a request, either because an error was returned, or because no response was received in
+     * time.
+     *
+     * @param requestId The ID of the request that failed.
+     * @param type The type of the request that failed.
+     */
+    protected void handleFailure(final String requestId, final RequestType type)
+    {
+        switch (type) {
+            case SUBSCRIBE:
+                subscriptionFailed();
+                break;
+            case UNSUBSCRIBE:
+                // Typically, this means that there was no subscription. That's fine.
+                break;
+            case ITEM_IDS:
+                synchronized (this) {
+                    if (itemIdsRetrieval == null || !itemIdsRetrieval.requestId.equals(requestId)) {
+                        // Failure of a request of a retrieval that has been superseded.
+                        return;
+                    }
+                    itemIdsRetrieval = null;
+                }
+                Log.debug("Unable to retrieve the IDs of all items from node '{}' on service '{}'. Refreshing without comparing.", node, service);
+                executeRefresh(null);
+                break;
+            case RECENT_ITEMS:
+                synchronized (this) {
+                    expectedDigest = null;
+                }
+                Log.info("Retrieval of the most recent items from node '{}' on service '{}' failed. Retrieving all items instead.", node, service);
+                requestAllItems(service, node);
+                break;
+            case PAGE:
+                final PagedRetrieval currentRetrieval;
+                synchronized (this) {
+                    currentRetrieval = retrieval;
+                }
+                if (currentRetrieval == null) {
+                    return;
+                }
+                final List<IQ> followUps;
+                final boolean failed;
+                final Collection<String> abandoned;
+                synchronized (currentRetrieval) {
+                    followUps = currentRetrieval.pageFailed(requestId);
+                    failed = currentRetrieval.isFailed();
+                    abandoned = currentRetrieval.takeAbandonedRequestIds();
+                }
+                forgetRequests(abandoned);
+                followUps.forEach(request -> send(request, RequestType.PAGE));
+                if (failed) {
+                    retrievalFailed(currentRetrieval);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Processes a page of item IDs that is part of the retrieval of the IDs of all items on the node. When all pages have
+     * been received, a refresh is executed, unless the IDs match the entries of the local block list representation
+     * that were obtained from the node (entries that were imported from a local file are not expected to be on it).
+     *
+     * @param iq The response to a request sent by {@link #requestItemIds(JID, String)}
+     */
+    protected void handleItemIdsResult(final IQ iq)
+    {
+        final Element queryEl = iq.getChildElement();
+        if (queryEl == null || !"http://jabber.org/protocol/disco#items".equals(queryEl.getNamespaceURI())) {
+            handleFailure(iq.getID(), RequestType.ITEM_IDS);
+            return;
+        }
+
+        final ItemIdsRetrieval currentRetrieval;
+        synchronized (this) {
+            currentRetrieval = itemIdsRetrieval;
+        }
+        if (currentRetrieval == null || !currentRetrieval.requestId.equals(iq.getID())) {
+            // Response to a request of a retrieval that has been superseded.
+            return;
+        }
+
+        final long start = System.nanoTime();
+        int itemCount = 0;
+        long estimatedSize = 0;
+        final Iterator<Element> items = queryEl.elementIterator("item");
+        while (items.hasNext()) {
+            final String name = items.next().attributeValue("name");
+            itemCount++;
+            if (name != null) {
+                estimatedSize += name.length();
+                if (BlockList.isValidHash(name)) {
+                    currentRetrieval.digest.add(name);
+                }
+            }
+        }
+        recordDiagnostics(SyncDiagnostics.Kind.ITEM_IDS, itemCount, 0, estimatedSize, Duration.ofNanos(System.nanoTime() - start), iq);
+
+        final Element setEl = queryEl.element(QName.get("set", RSM_NAMESPACE));
+        if (setEl != null && itemCount > 0) {
+            final String last = setEl.elementTextTrim("last");
+            final int count = parseCount(setEl.elementTextTrim("count"));
+            currentRetrieval.received += itemCount;
+            if (last != null && (count < 0 || currentRetrieval.received < count)) {
+                final IQ next = createItemIdsRequest(service, node, last);
+                synchronized (this) {
+                    if (itemIdsRetrieval != currentRetrieval) {
+                        return;
                     }
-                    if ("urn:xmpp:reporting:abuse".equals(reasonValue)) {
-                        reason = "Abuse";
+                    currentRetrieval.requestId = next.getID();
+                }
+                send(next, RequestType.ITEM_IDS);
+                return;
+            }
+        }
+        synchronized (this) {
+            if (itemIdsRetrieval != currentRetrieval) {
+                return;
+            }
+            itemIdsRetrieval = null;
+        }
+
+        final BlockList.Digest remote = currentRetrieval.digest.toDigest();
+        final BlockList.Digest local = blockList.getNodeDigest();
+        if (digestCheck && remote.equals(local)) {
+            Log.debug("The block list is in sync with node '{}' on service '{}' ({} items). Skipping refresh.", node, service, remote.getCount());
+            skippedRefreshes.incrementAndGet();
+            synchronized (this) {
+                lastSuccessfulSync = Instant.now();
+            }
+        } else {
+            Log.debug("The block list ({} items) is not in sync with node '{}' on service '{}' ({} items). Refreshing.", local.getCount(), node, service, remote.getCount());
+            executeRefresh(remote);
+        }
+    }
+
+    /**
+     * Processes the response to a request for the most recent items on the node. These are added to the block list,
+     * after which the result is validated (see the documentation of this class for the assumed order of items). When
+     * the result cannot be validated, all items are retrieved.
+     *
+     * @param iq The response to a request sent by {@link #requestRecentItems(JID, String, int)}
+     */
+    protected void handleRecentItemsResult(final IQ iq)
+    {
+        final BlockList.Digest expected;
+        synchronized (this) {
+            expected = expectedDigest;
+            expectedDigest = null;
+        }
+
+        final Element itemsEl = getItemsElement(iq);
+        if (itemsEl == null) {
+            handleFailure(iq.getID(), RequestType.RECENT_ITEMS);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final Map<String, String> hashes = extractHashesFromPubsubItems(itemsEl);
+        recordDiagnostics(SyncDiagnostics.Kind.RECENT_ITEMS, hashes.size(), 0, estimateSize(hashes), Duration.ofNanos(System.nanoTime() - start), iq);
+        final String lastSeen = lastSeenItemId;
+        if (lastSeen == null || !hashes.containsKey(lastSeen)) {
+            // The last item that was seen is no longer among the most recent items. Changes might have been missed.
+            Log.info("The {} most recent items of node '{}' on service '{}' do not include the last item that was seen ({}). Retrieving all items.", hashes.size(), node, service, lastSeen);
+            requestAllItems(service, node, expected == null ? -1 : expected.getCount());
+            return;
+        }
+
+        // Items that are returned after the last item that was seen are assumed to have been published before it, which means that these must be known already.
+        boolean afterLastSeen = false;
+        for (final String itemId : hashes.keySet()) {
+            if (afterLastSeen && !blockList.containsHash(itemId)) {
+                Log.info("The most recent items of node '{}' on service '{}' are not returned in the expected order (most recent first). Retrieving all items.", node, service);
+                requestAllItems(service, node, expected == null ? -1 : expected.getCount());
+                return;
+            }
+            afterLastSeen = afterLastSeen || itemId.equals(lastSeen);
+        }
+
+        Log.debug("Received a list of the most recent hashes from the block list. List size: {}", hashes.size());
+        blockList.addAll(hashes);
+
+        if (expected == null || !expected.equals(blockList.getNodeDigest())) {
+            // Eg: items were retracted while no events were received, or more items were published than were requested.
+            Log.info("After applying the most recent items of node '{}' on service '{}', the block list is not in sync with it. Retrieving all items.", node, service);
+            requestAllItems(service, node, expected == null ? -1 : expected.getCount());
+            return;
+        }
+
+        setLastSeenItemId(hashes.keySet().iterator().next());
+        synchronized (this) {
+            lastSuccessfulSync = Instant.now();
+        }
+    }
+
+    /**
+     * Processes a page of items that is part of the retrieval of all items from the node. These items are added to the
+     * block list representation that is maintained in Openfire in one mutation (causing event listeners to be invoked
+     * once per page), after which the next page(s) are requested.
+     *
+     * A response of a service that does not support Result Set Management contains all items of the node. Its items
+     * are added in chunks of at most the page size, so that the memory that is used in addition to that of the response
+     * itself does not depend on the amount of items on the node.
+     *
+     * Pages that are not (or no longer) expected by the current retrieval are ignored, as applying these could re-add
+     * items that have been retracted after the page was requested.
+     *
+     * @param iq The response to a page request.
+     */
+    protected void handlePageResult(final IQ iq)
+    {
+        final PagedRetrieval currentRetrieval;
+        synchronized (this) {
+            currentRetrieval = retrieval;
+        }
+
+        final Element itemsEl = getItemsElement(iq);
+        if (itemsEl == null) {
+            handleFailure(iq.getID(), RequestType.PAGE);
+            return;
+        }
+
+        if (currentRetrieval == null) {
+            return;
+        }
+        final List<IQ> followUps;
+        final boolean completed;
+        final Collection<String> abandoned;
+        synchronized (currentRetrieval) {
+            if (!currentRetrieval.isOutstanding(iq.getID())) {
+                // Response to a request of a retrieval that has been superseded, or that is no longer relevant.
+                Log.debug("Ignoring a page that is not expected by the current retrieval: {}", iq.getID());
+                return;
+            }
+
+            // Received new to-be-banned nodes. The size of a page is bounded by the configured page size, unless the service does not support Result Set Management.
+            final long start = System.nanoTime();
+            final Element setEl = iq.getChildElement().element(QName.get("set", RSM_NAMESPACE));
+            final long[] estimatedSize = {0};
+            final int itemCount = forEachHashChunk(itemsEl, setEl == null ? pageSize : Integer.MAX_VALUE, chunk -> {
+                blockList.addAll(chunk);
+                currentRetrieval.registerItems(chunk.keySet());
+                estimatedSize[0] += estimateSize(chunk);
+            });
+            Log.debug("Received a list of hashes from the block list. List size: {}", itemCount);
+            final Duration processingTime = Duration.ofNanos(System.nanoTime() - start);
+            recordDiagnostics(SyncDiagnostics.Kind.PAGE, itemCount, 0, estimatedSize[0], processingTime, iq);
+
+            followUps = currentRetrieval.pageReceived(iq.getID(), itemCount, setEl);
+            currentRetrieval.pageProcessed(estimatedSize[0], processingTime);
+            completed = currentRetrieval.isComplete() && !currentRetrieval.isFailed();
+            if (completed) {
+                setLastSeenItemId(currentRetrieval.getFirstItemId());
+                recordDiagnostics(SyncDiagnostics.Kind.FULL_RETRIEVAL, currentRetrieval.getItemsReceivedCount(), 0, currentRetrieval.getEstimatedSize(), currentRetrieval.getProcessingTime(), null);
+            }
+
+            // Reconcile while holding the lock, to prevent concurrently processed events from being undone.
+            final Set<String> stale = currentRetrieval.takeStaleHashes();
+            if (stale != null) {
+                reconcile(stale);
+            }
+            abandoned = currentRetrieval.takeAbandonedRequestIds();
+        }
+        forgetRequests(abandoned);
+        followUps.forEach(request -> send(request, RequestType.PAGE));
+        if (completed) {
+            retrievalSucceeded(currentRetrieval);
+        }
+    }
+
+    /**
+     * Returns the 'items' element of a pub/sub response, if it relates to the node that is used to maintain the block list.
+     *
+     * @param iq A response
+     * @return The 'items' element, or null.
+     */
+    private Element getItemsElement(final IQ iq)
+    {
+        final Element childElement = iq.getChildElement();
+        if (childElement == null || !"pubsub".equals(childElement.getName()) || !"http://jabber.org/protocol/pubsub".equals(childElement.getNamespaceURI())) {
+            return null;
+        }
+        final Element itemsEl = childElement.element("items");
+        if (itemsEl == null || !node.equals(itemsEl.attributeValue("node"))) {
+            return null;
+        }
+        return itemsEl;
+    }
+
+    /**
+     * Removes hashes from the block list representation that were found to no longer be on the node, by a retrieval of
+     * all items of the node. Hashes that were imported from a local file are retained.
+     *
+     * @param stale The hashes that are no longer on the node (this collection is modified by this method).
+     */
+    protected void reconcile(final Set<String> stale)
+    {
+        stale.removeAll(blockList.getImportedHashes());
+        if (!stale.isEmpty()) {
+            Log.info("Removing {} hash(es) from the block list that are no longer on node '{}' on service '{}'.", stale.size(), node, service);
+            blockList.removeAll(stale);
+        }
+    }
+
+    private void subscriptionSucceeded()
+    {
+        Log.debug("Subscribed to node '{}' on service '{}'.", node, service);
+        final boolean recovered;
+        synchronized (this) {
+            recovered = failedSubscribeAttempts > 0;
+            subscribed = true;
+            failedSubscribeAttempts = 0;
+            updateSyncState();
+        }
+        if (recovered) {
+            // Events might have been missed while there was no subscription.
+            Log.info("Subscription to node '{}' on service '{}' was restored. Retrieving all items.", node, service);
+            setLastSeenItemId(null);
+            requestAllItems(service, node);
+        }
+    }
+
+    private synchronized void subscriptionFailed()
+    {
+        subscribed = false;
+        failedSubscribeAttempts++;
+        setLastSeenItemId(null); // Events might be missed while there's no subscription.
+        final Duration delay = backoff(failedSubscribeAttempts);
+        Log.warn("Unable to subscribe to node '{}' on service '{}' ({} consecutive failure(s)). Retrying in {}.", node, service, failedSubscribeAttempts, delay);
+        if (subscribeRetryTask != null) {
+            TaskEngine.getInstance().cancelScheduledTask(subscribeRetryTask);
+        }
+        subscribeRetryTask = new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    attemptSubscribe(service, node);
+                } catch (UnauthorizedException e) {
+                    Log.warn("Unable to retry subscribing to node '{}' on service '{}'.", node, service, e);
+                }
+            }
+        };
+        TaskEngine.getInstance().schedule(subscribeRetryTask, delay.toMillis());
+        updateSyncState();
+    }
+
+    private synchronized void retrievalSucceeded(final PagedRetrieval completed)
+    {
+        if (completed != retrieval) {
+            return;
+        }
+        retrievalInProgress = false;
+        failedRetrievalAttempts = 0;
+        lastSuccessfulSync = Instant.now();
+        updateSyncState();
+    }
+
+    private synchronized void retrievalFailed(final PagedRetrieval failed)
+    {
+        if (failed != retrieval) {
+            return;
+        }
+        retrievalInProgress = false;
+        failedRetrievalAttempts++;
+        final Duration delay = backoff(failedRetrievalAttempts);
+        Log.warn("Unable to retrieve all items from node '{}' on service '{}' ({} consecutive failure(s)). Retrying in {}.", node, service, failedRetrievalAttempts, delay);
+        if (retrievalRetryTask != null) {
+            TaskEngine.getInstance().cancelScheduledTask(retrievalRetryTask);
+        }
+        retrievalRetryTask = new TimerTask() {
+            @Override
+            public void run() {
+                requestAllItems(service, node);
+            }
+        };
+        TaskEngine.getInstance().schedule(retrievalRetryTask, delay.toMillis());
+        updateSyncState();
+    }
+
+    /**
+     * Calculates the delay before the next retry, doubling the initial delay for every consecutive failure.
+     *
+     * @param failures The amount of consecutive failures.
+     * @return the delay before the next retry.
+     */
+    Duration backoff(final int failures)
+    {
+        Duration delay = retryInitialDelay;
+        for (int i = 1; i < failures && delay.compareTo(retryMaxDelay) < 0; i++) {
+            delay = delay.multipliedBy(2);
+        }
+        return delay.compareTo(retryMaxDelay) > 0 ? retryMaxDelay : delay;
+    }
+
+    /**
+     * Recalculates the synchronization state. Must be invoked while holding the lock on 'this'.
+     */
+    private void updateSyncState()
+    {
+        final SyncState newState;
+        if (failedSubscribeAttempts > 0 || failedRetrievalAttempts > 0) {
+            newState = SyncState.STALE;
+        } else if (subscribed && lastSuccessfulSync != null && !retrievalInProgress) {
+            newState = SyncState.SUBSCRIBED;
+        } else {
+            newState = SyncState.SYNCING;
+        }
+
+        if (newState != syncState) {
+            final Instant now = Instant.now();
+            if (syncState == SyncState.STALE) {
+                lastStaleDuration = Duration.between(syncStateSince, now);
+                Log.info("Synchronization with node '{}' on service '{}' recovered after {}.", node, service, lastStaleDuration);
+            }
+            Log.debug("Synchronization state with node '{}' on service '{}' changed from {} to {}.", node, service, syncState, newState);
+            syncState = newState;
+            syncStateSince = now;
+        }
+    }
+
+    /**
+     * Records a summary of processed traffic in the diagnostics, and in the metrics of the block list.
+     *
+     * @param kind The kind of traffic.
+     * @param items The amount of items (or item IDs) that were processed.
+     * @param retractions The amount of retractions that were processed.
+     * @param estimatedSize The estimated size of the payload, in characters.
+     * @param processingTime The time it took to process the traffic.
+     * @param stanza The stanza that was processed (can be null).
+     */
+    private void recordDiagnostics(final SyncDiagnostics.Kind kind, final int items, final int retractions, final long estimatedSize, final Duration processingTime, final Packet stanza)
+    {
+        diagnostics.record(kind, items, retractions, estimatedSize, processingTime, stanza);
+        if (kind != SyncDiagnostics.Kind.FULL_RETRIEVAL) {
+            // A full retrieval aggregates pages that have already been recorded.
+            blockList.getMetrics().recordSync(items + retractions, processingTime.toNanos());
+        }
+    }
+
+    /**
+     * Processes message stanza, that is assumed to be a pub/sub event generated by the pub/sub service (that contains
+     * the node that is used to maintain the block list) and is addressed to this component.
+     *
+     * This method item addition as well as retraction events. Corresponding changes will be applied to the block list
+     * representation that is maintained in Openfire.
+     *
+     * @param message Message stanza (presumed to be a pubsub event)
+     */
+    protected void handleMessage(final Message message)
+    {
+        if (Log.isTraceEnabled()) {
+            Log.trace("Handling message: {}", SyncDiagnostics.serialize(message, TRACE_MAX_LENGTH));
+        }
+        final long start = System.nanoTime();
+        final Element eventEl = message.getChildElement("event", "http://jabber.org/protocol/pubsub#event");
+        if (eventEl == null) {
+            // Ignore results that are not pubsub events
+            return;
+        }
+        final Element itemsEl = eventEl.element("items");
+        if (itemsEl == null || !node.equals(itemsEl.attributeValue("node"))) {
+            // Ignore non-items, or items from a different node.
+            return;
+        }
+
+        // Remove items that are retracted from the blocklist.
+        final Set<String> hashesRetracted = new HashSet<>();
+        for (final Element itemEl : itemsEl.elements("retract")) {
+            final String id = BlockList.normalizeHash(itemEl.attributeValue("id"));
+            if (id != null) {
+                hashesRetracted.add(id);
+            }
+        }
+        final Map<String, String> hashesAdded = extractHashesFromPubsubItems(itemsEl);
+
+        // Make sure that a retrieval of all items that is in progress does not undo the changes of this event.
+        final PagedRetrieval currentRetrieval;
+        synchronized (this) {
+            currentRetrieval = retrieval;
+        }
+        if (currentRetrieval != null) {
+            synchronized (currentRetrieval) {
+                currentRetrieval.eventReceived(hashesRetracted, hashesAdded.keySet());
+            }
+        }
+
+        // Trace the propagation of the changes from the moment that the event was received.
+        final PropagationTracer tracer = blockList.getTracer();
+        final PropagationTracer.Trace trace = hashesAdded.isEmpty() && hashesRetracted.isEmpty() ? null : tracer.begin(start, hashesAdded.size(), hashesRetracted.size());
+        tracer.submitted(trace);
+
+        final EventIngestQueue queue = ingestQueue;
+        if (queue != null) {
+            Log.debug("Received hash(es) from the pubsub service that are queued to be removed from ({}) or added to ({}) the block list.", hashesRetracted.size(), hashesAdded.size());
+            queue.submit(hashesRetracted, hashesAdded, trace);
+        } else {
+            tracer.attach(trace == null ? Collections.emptyList() : Collections.singletonList(trace));
+            try {
+                if (!hashesRetracted.isEmpty()) {
+                    Log.debug("Received hash(es) from the pubsub service that are removed from the block list. List size: {}", hashesRetracted.size());
+                    blockList.removeAll(hashesRetracted);
+                }
+
+                // Add new items to the blocklist.
+                if (!hashesAdded.isEmpty()) {
+                    Log.debug("Received hash(es) from the pubsub service that are added to the block list. List size: {}", hashesAdded.size());
+                    blockList.addAll(hashesAdded);
+                }
+            } finally {
+                tracer.complete();
+            }
+        }
+
+        // Only advance the last seen item if nothing was missed before this event. The items of an event are assumed to
+        // be in order of publication (see the documentation of this class).
+        if (!hashesAdded.isEmpty() && lastSeenItemId != null) {
+            String mostRecent = null;
+            for (final String itemId : hashesAdded.keySet()) {
+                mostRecent = itemId;
+            }
+            setLastSeenItemId(mostRecent);
+        }
+
+        recordDiagnostics(SyncDiagnostics.Kind.EVENT, hashesAdded.size(), hashesRetracted.size(), estimateSize(hashesAdded) + 64L * hashesRetracted.size(), Duration.ofNanos(System.nanoTime() - start), message);
+    }
+
+    /**
+     * Estimates the size of the payload from which hashes were extracted, as the total amount of characters of the
+     * hashes and their reasons.
+     *
+     * @param hashes Hashes, mapped to their reasons.
+     * @return An estimated size, in characters.
+     */
+    static long estimateSize(final Map<String, String> hashes)
+    {
+        long result = 0;
+        for (final Map.Entry<String, String> entry : hashes.entrySet()) {
+            result += entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length());
+        }
+        return result;
+    }
+
+    /**
+     * Collects the hashes of all items in a pub/sub 'items' element, mapped to the (optional) reason for the hash to be
+     * on the block list. Items that do not have a valid hash as their ID are ignored. Hashes are normalized to
+     * lower-case.
+     *
+     * @param itemsEl The 'items' element
+     * @return All hashes, in document order.
+     */
+    static Map<String, String> extractHashesFromPubsubItems(final Element itemsEl)
+    {
+        final Map<String, String> results = new LinkedHashMap<>();
+        forEachHashChunk(itemsEl, Integer.MAX_VALUE, results::putAll);
+        return results;
+    }
+
+    /**
+     * Iterates over the items in a pub/sub 'items' element, passing their hashes (mapped to the optional reason for the
+     * hash to be on the block list) to a consumer in chunks of at most the provided size. Items that do not have a valid
+     * hash as their ID are ignored. Hashes are normalized to lower-case.
+     *
+     * The map that is passed to the consumer is reused for the next chunk, and should not be retained.
+     *
+     * @param itemsEl The 'items' element
+     * @param chunkSize The maximum amount of hashes passed to the consumer at once.
+     * @param consumer Receives the hashes, in document order.
+     * @return The amount of hashes that were passed to the consumer.
+     */
+    static int forEachHashChunk(final Element itemsEl, final int chunkSize, final Consumer<Map<String, String>> consumer)
+    {
+        final Map<String, String> chunk = new LinkedHashMap<>();
+        int total = 0;
+        final Iterator<Element> items = itemsEl.elementIterator("item");
+        while (items.hasNext()) {
+            final Element item = items.next();
+            final String itemId = BlockList.normalizeHash(item.attributeValue("id"));
+            if (itemId == null) {
+                Log.trace("Ignoring item that does not have a valid hash as its ID: {}", item.attributeValue("id"));
+                continue;
+            }
+            chunk.put(itemId, parseReason(itemId, item));
+            total++;
+            if (chunk.size() >= chunkSize) {
+                consumer.accept(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            consumer.accept(chunk);
+        }
+        return total;
+    }
+
+    /**
+     * Best-effort parsing of a reason, from the item payload that presumably is XEP-0377.
+     *
+     * @param itemId The ID of the item.
+     * @param item The item.
+     * @return A human-readable reason, possibly empty.
+     */
+    private static String parseReason(final String itemId, final Element item)
+    {
+        String reason = "";
+        try {
+            final Element report = item.element(QName.get("report", "urn:xmpp:reporting:1"));
+            if (report != null) {
+                final String reasonValue = report.attributeValue("reason");
+                if ("urn:xmpp:reporting:spam".equals(reasonValue)) {
+                    reason = "Spam";
+                }
+                if ("urn:xmpp:reporting:abuse".equals(reasonValue)) {
+                    reason = "Abuse";
+                }
+                final String text = report.elementTextTrim("text");
+                if (text != null && !text.isEmpty()) {
+                    if (!reason.isEmpty()) {
+                        reason += ": ";
                     }
-                    final String text = report.elementTextTrim("text");
-                    if (text != null && !text.isEmpty()) {
-                        if (!reason.isEmpty()) {
-                            reason += ": ";
-                        }
-                        reason += text;
+                    reason += text;
+                }
+            }
+            Log.trace("Identified for item '{}' reason: {}", itemId, reason);
+        } catch (Exception e) {
+            Log.warn("Unable to parse reason from item with ID {}", itemId, e);
+        }
+        return reason;
+    }
+
+    /**
+     * Tracks the state of a retrieval of all items from the node, which can span multiple pages of results (XEP-0059).
+     *
+     * The first page is always requested without an offset. When the response to that request includes the total
+     * amount of items on the node, the remaining pages are requested by index, which allows for several requests to be
+     * in flight concurrently. When the total is not known (or when the service fails to process a request by index, or
+     * returns a page of which the index of the first item, as reported by the service, is not the index that was
+     * requested), pages are requested one after the other, each starting after the last item of the previous page. As requesting
+     * pages by index is not reliable when the node is modified while the retrieval is in progress, the retrieval falls
+     * back to requesting pages one after the other when an event is received before all pages requested by index have
+     * been received.
+     *
+     * To determine which entries of the block list are no longer on the node, without retaining the IDs of all items
+     * that are received, the hashes that were on the block list when the retrieval started are kept in a sorted array.
+     * Received items are marked as seen by their index in that array. Items that are not in that array do not need to
+     * be tracked, as these were added by this retrieval (or by events received during it).
+     *
+     * Instances of this class are not thread-safe. Callers are expected to synchronize on the instance.
+     */
+    class PagedRetrieval
+    {
+        private final JID service;
+        private final String node;
+
+        /**
+         * IDs of page requests that have been sent, but for which no response has been received yet, mapped to the
+         * index of the first item that was requested (null when the page was not requested by index).
+         */
+        private final Map<String, Integer> outstanding = new HashMap<>();
+
+        /**
+         * IDs of page requests that were outstanding when they were abandoned, which are no longer to be tracked by the
+         * enclosing instance.
+         */
+        private final Set<String> abandoned = new HashSet<>();
+
+        /**
+         * Indicates if the response to the first page request has been received.
+         */
+        private boolean firstPageReceived = false;
+
+        /**
+         * Indicates that pages are requested one after the other, rather than by index.
+         */
+        private boolean sequential = false;
+
+        /**
+         * The total amount of items on the node, as reported by the service (-1 if unknown).
+         */
+        private int count = -1;
+
+        /**
+         * The amount of items that the service returns per page, as observed in the response to the first page request.
+         */
+        private int stride = 0;
+
+        /**
+         * The index of the first item of the next page that is to be requested by index.
+         */
+        private int nextIndex = 0;
+
+        /**
+         * The ID of the last item of the first page, used as a starting point when falling back to sequential requests.
+         */
+        private String firstPageLast;
+
+        /**
+         * The amount of items received in the pages requested by index (including the first page).
+         */
+        private int indexedItemsReceived = 0;
+
+        /**
+         * The amount of page requests that have been sent.
+         */
+        private int pagesRequested = 0;
+
+        /**
+         * The amount of items that have been received (including items that have been received more than once).
+         */
+        private int itemsReceived = 0;
+
+        /**
+         * The hashes that were on the block list when this retrieval started, in their natural order.
+         */
+        private final String[] known;
+
+        /**
+         * The indices (in {@link #known}) of the hashes that have been found to be on the node.
+         */
+        private final BitSet seen;
+
+        /**
+         * The IDs of items that were retracted while this retrieval was in progress (and not published again).
+         */
+        private final Set<String> retracted = new HashSet<>();
+
+        /**
+         * Indicates that the node was modified while pages were being requested by index.
+         */
+        private boolean modified = false;
+
+        /**
+         * The ID of the first item of the first page.
+         */
+        private String firstItemId;
+
+        /**
+         * The amount of items on the node, as determined before this retrieval started (-1 if unknown).
+         */
+        private final long expectedCount;
+
+        /**
+         * Indicates that all items of the node are known to have been received.
+         */
+        private boolean verifiedComplete = false;
+
+        /**
+         * The estimated size of all pages that have been processed, in characters.
+         */
+        private long estimatedSize = 0;
+
+        /**
+         * The time spent processing all pages that have been processed.
+         */
+        private Duration processingTime = Duration.ZERO;
+
+        /**
+         * Indicates that this retrieval has been abandoned, as a page could not be retrieved.
+         */
+        private boolean failed = false;
+
+        /**
+         * Indicates that the received items have been handed out for reconciliation.
+         */
+        private boolean reconciled = false;
+
+        PagedRetrieval(final JID service, final String node, final String[] known, final long expectedCount)
+        {
+            this.service = service;
+            this.node = node;
+            this.known = known;
+            this.expectedCount = expectedCount;
+            this.seen = new BitSet(known.length);
+        }
+
+        boolean isOutstanding(final String requestId)
+        {
+            return requestId != null && outstanding.containsKey(requestId);
+        }
+
+        /**
+         * Abandons this retrieval, as it is superseded by another: responses to outstanding requests will no longer be
+         * processed, and the received items will not be reconciled.
+         *
+         * @return The IDs of the requests that were outstanding.
+         */
+        Collection<String> abandon()
+        {
+            reconciled = true;
+            abandonOutstanding();
+            return takeAbandonedRequestIds();
+        }
+
+        /**
+         * Returns (once) the IDs of the page requests that were outstanding when they were abandoned.
+         *
+         * @return Request IDs (possibly empty).
+         */
+        Collection<String> takeAbandonedRequestIds()
+        {
+            if (abandoned.isEmpty()) {
+                return Collections.emptySet();
+            }
+            final Set<String> result = new HashSet<>(abandoned);
+            abandoned.clear();
+            return result;
+        }
+
+        private void abandonOutstanding()
+        {
+            abandoned.addAll(outstanding.keySet());
+            outstanding.clear();
+        }
+
+        boolean isComplete()
+        {
+            return firstPageReceived && outstanding.isEmpty();
+        }
+
+        boolean isFailed()
+        {
+            return failed;
+        }
+
+        int getItemsReceivedCount()
+        {
+            return itemsReceived;
+        }
+
+        long getEstimatedSize()
+        {
+            return estimatedSize;
+        }
+
+        Duration getProcessingTime()
+        {
+            return processingTime;
+        }
+
+        void pageProcessed(final long estimatedSize, final Duration processingTime)
+        {
+            this.estimatedSize += estimatedSize;
+            this.processingTime = this.processingTime.plus(processingTime);
+        }
+
+        int getPagesRequested()
+        {
+            return pagesRequested;
+        }
+
+        /**
+         * Returns the ID of the first item of the first page, which is assumed to be the most recent item of the node
+         * (see the documentation of the enclosing class). This assumption is validated when the ID is used.
+         *
+         * @return An item ID, or null.
+         */
+        String getFirstItemId()
+        {
+            return firstItemId;
+        }
+
+        /**
+         * Registers changes to the node that were received as events while this retrieval was in progress, so that
+         * these are reflected in the reconciliation.
+         *
+         * @param retracted IDs of items that were retracted.
+         * @param published IDs of items that were published.
+         */
+        void eventReceived(final Collection<String> retracted, final Collection<String> published)
+        {
+            if (reconciled) {
+                return;
+            }
+            if (firstPageReceived && !sequential && (!retracted.isEmpty() || !published.isEmpty())) {
+                modified = true;
+            }
+            for (final String itemId : retracted) {
+                this.retracted.add(itemId);
+                final int index = Arrays.binarySearch(known, itemId);
+                if (index >= 0) {
+                    seen.clear(index);
+                }
+            }
+            for (final String itemId : published) {
+                this.retracted.remove(itemId);
+                markSeen(itemId);
+            }
+        }
+
+        private void markSeen(final String itemId)
+        {
+            final int index = Arrays.binarySearch(known, itemId);
+            if (index >= 0) {
+                seen.set(index);
+            }
+        }
+
+        /**
+         * Returns the hashes that are no longer on the node, once, when this retrieval has completed, and all items on
+         * the node are known to have been received. These are the hashes that were on the block list when this
+         * retrieval started that have not been received, and those that were retracted while it was in progress.
+         *
+         * @return The hashes that are no longer on the node, or null.
+         */
+        Set<String> takeStaleHashes()
+        {
+            if (!isComplete() || !verifiedComplete || reconciled) {
+                return null;
+            }
+            reconciled = true;
+            final Set<String> result = new HashSet<>(retracted);
+            for (int i = seen.nextClearBit(0); i < known.length; i = seen.nextClearBit(i + 1)) {
+                result.add(known[i]);
+            }
+            return result;
+        }
+
+        /**
+         * Creates a request for a page of items, and registers it as being outstanding.
+         *
+         * @param after The ID of the item after which the page should start (can be null).
+         * @param index The index of the first item of the page (can be null).
+         * @return The request.
+         */
+        IQ createPageRequest(final String after, final Integer index)
+        {
+            final IQ stanza = new IQ(IQ.Type.get);
+            stanza.setTo(service);
+            stanza.setFrom(selfAddress);
+            final Element pubsubEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub");
+            pubsubEl.addElement("items").addAttribute("node", node);
+            final Element setEl = pubsubEl.addElement(QName.get("set", RSM_NAMESPACE));
+            setEl.addElement("max").setText(String.valueOf(pageSize));
+            if (after != null) {
+                setEl.addElement("after").setText(after);
+            }
+            if (index != null) {
+                setEl.addElement("index").setText(String.valueOf(index));
+            }
+            outstanding.put(stanza.getID(), index);
+            pagesRequested++;
+            return stanza;
+        }
+
+        /**
+         * Registers items of a page that was received. This can be invoked more than once per page, before the page is
+         * processed by {@link #pageReceived(String, int, Element)}.
+         *
+         * @param itemIds The IDs of (some of) the items in the page.
+         */
+        void registerItems(final Collection<String> itemIds)
+        {
+            if (!firstPageReceived && firstItemId == null && !itemIds.isEmpty()) {
+                firstItemId = itemIds.iterator().next();
+            }
+            itemsReceived += itemIds.size();
+            if (known.length > 0) {
+                itemIds.forEach(this::markSeen);
+            }
+        }
+
+        /**
+         * Processes a page of items that was received, and determines what page(s) are to be requested next.
+         *
+         * @param requestId The ID of the request to which the page is a response.
+         * @param itemCount The amount of items in the page.
+         * @param setEl The Result Set Management element of the response (possibly null).
+         * @return The page requests to be sent (possibly empty).
+         */
+        List<IQ> pageReceived(final String requestId, final int itemCount, final Element setEl)
+        {
+            if (!outstanding.containsKey(requestId)) {
+                return Collections.emptyList();
+            }
+            final Integer requestedIndex = outstanding.remove(requestId);
+
+            final String last = setEl == null ? null : setEl.elementTextTrim("last");
+            if (!firstPageReceived) {
+                firstPageReceived = true;
+                if (setEl == null) {
+                    // Without Result Set Management, the service is expected to return all items. Unless it returned less items than the node was found to contain, the response can be used to reconcile.
+                    verifiedComplete = expectedCount < 0 || itemCount >= expectedCount;
+                    if (verifiedComplete) {
+                        Log.debug("Service '{}' does not support Result Set Management. All {} items of node '{}' have been received in one response.", service, itemCount, node);
+                    } else {
+                        Log.info("Service '{}' does not support Result Set Management, and returned {} items of node '{}', which was found to contain {}. Not removing entries that were not returned.", service, itemCount, node, expectedCount);
                     }
+                    return Collections.emptyList();
+                }
+                if (itemCount == 0 || last == null) {
+                    Log.debug("Retrieved all {} items of node '{}' on service '{}' in one page.", itemCount, node, service);
+                    verifiedComplete = true;
+                    return Collections.emptyList();
+                }
+                firstPageLast = last;
+                count = parseCount(setEl.elementTextTrim("count"));
+                if (count < 0) {
+                    // Without knowing the total amount of items, pages can only be requested one after the other.
+                    sequential = true;
+                    return Collections.singletonList(createPageRequest(last, null));
+                }
+                stride = itemCount;
+                nextIndex = itemCount;
+                indexedItemsReceived = itemCount;
+                final List<IQ> result = fillPipeline();
+                if (result.isEmpty()) {
+                    // All items fit in the first page.
+                    Log.debug("Retrieved all {} items of node '{}' on service '{}' in one page.", itemCount, node, service);
+                    verifiedComplete = itemCount >= count;
+                }
+                return result;
+            }
+
+            if (sequential) {
+                if (itemCount == 0 || last == null) {
+                    Log.debug("Retrieved all items of node '{}' on service '{}' using {} page requests.", node, service, pagesRequested);
+                    verifiedComplete = true;
+                    return Collections.emptyList();
                 }
-                Log.trace("Identified for item '{}' reason: {}", itemId, reason);
-            } catch (Exception e) {
-                Log.warn("Unable to parse reason from item with ID {}", itemId, e);
+                return Collections.singletonList(createPageRequest(last, null));
             }
 
-            results.put(itemId, reason);
+            final Element firstEl = setEl == null ? null : setEl.element("first");
+            final int index = parseCount(firstEl == null ? null : firstEl.attributeValue("index"));
+            if (requestedIndex != null && index != requestedIndex) {
+                // The service did not return the requested page (or did not report what page it returned). Continue one page after the other. Responses to any other outstanding requests by index are ignored.
+                Log.debug("Service '{}' returned a page starting at index {}, while a page starting at index {} was requested. Retrieving remaining pages sequentially.", service, index, requestedIndex);
+                abandonOutstanding();
+                sequential = true;
+                return Collections.singletonList(createPageRequest(firstPageLast, null));
+            }
+            indexedItemsReceived += itemCount;
+            final List<IQ> result = fillPipeline();
+            if (result.isEmpty() && outstanding.isEmpty()) {
+                if (indexedItemsReceived < count || modified) {
+                    // The service returned less items than expected, or items might have shifted between pages. Continue one page after the other, which will re-retrieve some items, but none will be missed.
+                    Log.debug("Retrieved {} items by index from node '{}' on service '{}', which reported to contain {} (modified during retrieval: {}). Retrieving remaining pages sequentially.", indexedItemsReceived, node, service, count, modified);
+                    sequential = true;
+                    return Collections.singletonList(createPageRequest(firstPageLast, null));
+                }
+                Log.debug("Retrieved all {} items of node '{}' on service '{}' using {} page requests.", indexedItemsReceived, node, service, pagesRequested);
+                verifiedComplete = true;
+            }
+            return result;
+        }
+
+        /**
+         * Processes an error that was received in response to a page request, and determines what page(s) are to be
+         * requested next.
+         *
+         * @param requestId The ID of the request to which the error is a response.
+         * @return The page requests to be sent (possibly empty).
+         */
+        List<IQ> pageFailed(final String requestId)
+        {
+            if (!outstanding.containsKey(requestId)) {
+                return Collections.emptyList();
+            }
+            outstanding.remove(requestId);
+            if (!firstPageReceived || sequential) {
+                // Nothing to fall back to. Abandon this retrieval.
+                firstPageReceived = true;
+                verifiedComplete = false;
+                failed = true;
+                abandonOutstanding();
+                return Collections.emptyList();
+            }
+
+            // The service likely does not support requesting pages by index. Continue one page after the other. Responses to any other outstanding requests by index are ignored.
+            Log.debug("Service '{}' failed to return a page requested by index. Retrieving remaining pages sequentially.", service);
+            abandonOutstanding();
+            sequential = true;
+            return Collections.singletonList(createPageRequest(firstPageLast, null));
+        }
+
+        private List<IQ> fillPipeline()
+        {
+            final List<IQ> result = new ArrayList<>();
+            while (outstanding.size() < maxPagesInFlight && nextIndex < count) {
+                result.add(createPageRequest(null, nextIndex));
+                nextIndex += stride;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Tracks the state of a retrieval of the IDs of all items on the node, which can span multiple pages of results
+     * (XEP-0059). Only the digest of the IDs is retained.
+     *
+     * The fields are only accessed by the thread that processes the response to the (single) outstanding request, or
+     * while holding the lock on the enclosing instance.
+     */
+    static final class ItemIdsRetrieval
+    {
+        /**
+         * The ID of the request for the page that is outstanding.
+         */
+        String requestId;
+
+        /**
+         * The digest of the item IDs that have been received.
+         */
+        final BlockList.Digest.Accumulator digest = new BlockList.Digest.Accumulator();
+
+        /**
+         * The amount of item IDs that have been received.
+         */
+        int received = 0;
+    }
+
+    /**
+     * A request that has been sent to the pub/sub service, for which no response has been received yet.
+     */
+    static final class OutstandingRequest
+    {
+        final RequestType type;
+        final Instant sent;
+
+        OutstandingRequest(final RequestType type, final Instant sent)
+        {
+            this.type = type;
+            this.sent = sent;
+        }
+    }
+
+    private static int parseCount(final String value)
+    {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.debug("Unable to parse Result Set Management numeric value '{}'", value);
+            return -1;
         }
-        return results;
     }
 }
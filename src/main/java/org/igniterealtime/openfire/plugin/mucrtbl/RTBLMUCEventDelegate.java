@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Openfire MUCEventDelegate that is used to prevent entities on the block list from joining a room. This implementation
@@ -38,6 +39,21 @@ public class RTBLMUCEventDelegate extends MUCEventDelegate
      */
     protected final BlockList blockList;
 
+    /**
+     * Provides the policy that defines for what MUC services and rooms the block list is enforced.
+     */
+    protected final Supplier<EnforcementPolicy> policy;
+
+    /**
+     * Records verdicts that are not acted upon, as the block list is only monitored.
+     */
+    protected final VerdictRecorder verdictRecorder;
+
+    /**
+     * Records the decisions to block entities.
+     */
+    protected final AuditLog auditLog;
+
     /**
      * Creates as new instance that uses the provided block list instance when deciding which entities are allowed to
      * interact with MUC rooms.
@@ -45,23 +61,77 @@ public class RTBLMUCEventDelegate extends MUCEventDelegate
      * @param blockList the block list that contains entities that are to be prevented from joining MUC rooms.
      */
     public RTBLMUCEventDelegate(final BlockList blockList)
+    {
+        this(blockList, () -> EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), AuditLog.NONE);
+    }
+
+    /**
+     * Creates as new instance that uses the provided block list instance when deciding which entities are allowed to
+     * interact with MUC rooms, for MUC services and rooms for which the policy enforces the block list.
+     *
+     * @param blockList the block list that contains entities that are to be prevented from joining MUC rooms.
+     * @param policy Provides the policy that defines for what MUC services and rooms the block list is enforced.
+     * @param verdictRecorder Records verdicts that are not acted upon, as the block list is only monitored.
+     * @param auditLog Records the decisions to block entities.
+     */
+    public RTBLMUCEventDelegate(final BlockList blockList, final Supplier<EnforcementPolicy> policy, final VerdictRecorder verdictRecorder, final AuditLog auditLog)
     {
         this.blockList = blockList;
+        this.policy = policy;
+        this.verdictRecorder = verdictRecorder;
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Returns the mode in which the block list is applied to a room.
+     *
+     * @param room The room.
+     * @return The mode that applies to the room.
+     */
+    protected EnforcementPolicy.Mode getMode(final MUCRoom room)
+    {
+        return policy.get().getMode(room.getMUCService().getServiceName(), room.getName());
     }
 
     @Override
     public boolean joiningRoom(MUCRoom room, JID userjid)
     {
+        final EnforcementPolicy.Mode mode = getMode(room);
+        if (mode == EnforcementPolicy.Mode.OFF) {
+            return true;
+        }
         final boolean blocked = blockList.contains(userjid);
         Log.trace("Entity '{}' (that is joining room '{}') {} on the block list.", userjid, room.getJID(), blocked ? "is" : "is not");
+        if (blocked && mode == EnforcementPolicy.Mode.MONITOR) {
+            verdictRecorder.record(VerdictRecorder.Source.JOIN, room.getMUCService().getServiceName(), userjid, room.getJID());
+            Log.debug("Not preventing entity '{}' that is on the block list from joining room '{}', as the block list is only monitored for that room.", userjid, room.getJID());
+            return true;
+        }
+        if (blocked) {
+            blockList.getMetrics().recordRejectedJoin();
+            auditLog.record(VerdictRecorder.Source.JOIN, userjid, room.getJID());
+        }
         return !blocked; // return 'true' if the user can join the room.
     }
 
     @Override
     public InvitationResult sendingInvitation(MUCRoom room, JID inviteeJID, JID inviterJID, String inviteMessage)
     {
-        if (blockList.contains(inviteeJID) || blockList.contains(inviterJID)) {
-            Log.trace("Rejecting invitation sent by '{}' to '{}' (for room '{}') as one of both is on the block list.", inviterJID, inviterJID, room.getJID());
+        final EnforcementPolicy.Mode mode = getMode(room);
+        if (mode == EnforcementPolicy.Mode.OFF) {
+            return InvitationResult.HANDLED_BY_OPENFIRE;
+        }
+        // Look up each entity at most once: the entity that is blocked is recorded, preferring the inviter.
+        final JID blocked = blockList.contains(inviterJID) ? inviterJID : blockList.contains(inviteeJID) ? inviteeJID : null;
+        if (blocked != null) {
+            if (mode == EnforcementPolicy.Mode.MONITOR) {
+                verdictRecorder.record(VerdictRecorder.Source.INVITATION, room.getMUCService().getServiceName(), blocked, room.getJID());
+                Log.debug("Not rejecting invitation sent by '{}' to '{}' (for room '{}') of which one of both is on the block list, as the block list is only monitored for that room.", inviterJID, inviteeJID, room.getJID());
+                return InvitationResult.HANDLED_BY_OPENFIRE;
+            }
+            Log.trace("Rejecting invitation sent by '{}' to '{}' (for room '{}') as one of both is on the block list.", inviterJID, inviteeJID, room.getJID());
+            blockList.getMetrics().recordRejectedInvitation();
+            auditLog.record(VerdictRecorder.Source.INVITATION, blocked, room.getJID());
             return InvitationResult.REJECTED;
         }
         return InvitationResult.HANDLED_BY_OPENFIRE;
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.event.ServerSessionEventDispatcher;
+import org.jivesoftware.openfire.event.ServerSessionEventListener;
+import org.jivesoftware.openfire.muc.MUCEventDispatcher;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.muc.spi.OccupantManager;
+import org.jivesoftware.openfire.session.IncomingServerSession;
+import org.jivesoftware.openfire.session.LocalIncomingServerSession;
+import org.jivesoftware.openfire.session.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * An event listener that, when hashes are added to the block list, re-evaluates only the entities that are affected by
+ * these hashes, rather than all occupants of all rooms (as {@link OccupantRemover} does).
+ *
+ * Affected occupants are found through an {@link OccupantIndex}, and are removed from the rooms that they are in (or,
+ * for rooms in which the block list is only monitored, a would-be block is recorded). Affected server-to-server
+ * sessions are found through an index of the remote domains of incoming server sessions, and are closed, if
+ * configured. Stanzas that are sent to MUC services by entities on the block list are dropped by {@link StanzaBlocker},
+ * which evaluates every stanza against the current block list, and therefore needs no re-evaluation.
+ *
+ * Actions are executed by a bounded pool of threads: one task per room, and one per remote domain. The invoking thread
+ * waits for all tasks to finish. When the queue of the pool is full, tasks are executed by the invoking thread.
+ *
+ * The indexes are node-local: in a cluster, every node acts on the occupants that are connected to it, and on its own
+ * server-to-server sessions. Occupants that are connected to other cluster nodes are not indexed, as the MUC events that
+ * would keep them up to date are only dispatched on the node that they are connected to.
+ */
+public class RetroactiveEnforcer extends OccupantRemover
+{
+    private static final Logger Log = LoggerFactory.getLogger(RetroactiveEnforcer.class);
+
+    private final OccupantIndex occupantIndex;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The remote domains of incoming server-to-server sessions, by the hashes of these domains and of their parent
+     * domains.
+     */
+    private final ConcurrentMap<String, Set<String>> remoteDomainsByHash = new ConcurrentHashMap<>();
+
+    /**
+     * Keeps {@link #remoteDomainsByHash} up to date.
+     */
+    private final ServerSessionEventListener serverSessionListener = new ServerSessionEventListener()
+    {
+        @Override
+        public void sessionCreated(final Session session)
+        {
+            if (session instanceof IncomingServerSession) {
+                ((IncomingServerSession) session).getValidatedDomains().forEach(RetroactiveEnforcer.this::addRemoteDomain);
+            }
+        }
+
+        @Override
+        public void sessionDestroyed(final Session session)
+        {
+            if (session instanceof IncomingServerSession) {
+                remoteSessionDestroyed((IncomingServerSession) session);
+            }
+        }
+    };
+
+    private volatile boolean closeServerSessions;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param blockList The block list representation
+     * @param policy Provides the policy that defines for what MUC services and rooms the block list is enforced.
+     * @param verdictRecorder Records verdicts that are not acted upon, as the block list is only monitored.
+     * @param auditLog Records the decisions to block entities.
+     * @param threads The maximum amount of actions that is executed in parallel.
+     * @param closeServerSessions true if incoming server-to-server sessions from domains on the block list are closed.
+     */
+    public RetroactiveEnforcer(final BlockList blockList, final Supplier<EnforcementPolicy> policy, final VerdictRecorder verdictRecorder, final AuditLog auditLog, final int threads, final boolean closeServerSessions)
+    {
+        super(blockList, policy, verdictRecorder, auditLog);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Argument 'threads' must be a positive number, but was: " + threads);
+        }
+        this.occupantIndex = new OccupantIndex(blockList);
+        this.closeServerSessions = closeServerSessions;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 64), runnable -> {
+            final Thread thread = new Thread(runnable, "mucrtbl-retroactive-enforcer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, pool) -> runnable.run()); // Also when shut down, as the invoking thread waits for every task.
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Populates the indexes from existing MUC occupants and server-to-server sessions, and starts keeping them up to
+     * date.
+     */
+    public void start()
+    {
+        MUCEventDispatcher.addListener(occupantIndex);
+        ServerSessionEventDispatcher.addListener(serverSessionListener);
+        occupantIndex.populate(getMultiUserChatServices(), XMPPServer.getInstance().getNodeID());
+        XMPPServer.getInstance().getSessionManager().getIncomingServers().forEach(this::addRemoteDomain);
+    }
+
+    /**
+     * Stops keeping the indexes up to date, and stops the threads that execute actions.
+     */
+    public void stop()
+    {
+        MUCEventDispatcher.removeListener(occupantIndex);
+        ServerSessionEventDispatcher.removeListener(serverSessionListener);
+        executor.shutdown();
+        occupantIndex.clear();
+        remoteDomainsByHash.clear();
+    }
+
+    public OccupantIndex getOccupantIndex()
+    {
+        return occupantIndex;
+    }
+
+    /**
+     * Returns the maximum amount of actions that is executed in parallel.
+     *
+     * @return an amount of threads.
+     */
+    public int getThreads()
+    {
+        return executor.getMaximumPoolSize();
+    }
+
+    public boolean isCloseServerSessions()
+    {
+        return closeServerSessions;
+    }
+
+    public void setCloseServerSessions(final boolean closeServerSessions)
+    {
+        this.closeServerSessions = closeServerSessions;
+    }
+
+    /**
+     * Adds a remote domain of an incoming server-to-server session to the index.
+     *
+     * @param domain The remote domain.
+     */
+    void addRemoteDomain(@Nonnull final String domain)
+    {
+        for (final String hash : blockList.getDomainHashChains().get(domain)) {
+            remoteDomainsByHash.compute(hash, (h, domains) -> {
+                final Set<String> result = domains == null ? ConcurrentHashMap.newKeySet() : domains;
+                result.add(domain);
+                return result;
+            });
+        }
+    }
+
+    /**
+     * Removes a remote domain from the index.
+     *
+     * @param domain The remote domain.
+     */
+    void removeRemoteDomain(@Nonnull final String domain)
+    {
+        for (final String hash : blockList.getDomainHashChains().get(domain)) {
+            remoteDomainsByHash.computeIfPresent(hash, (h, domains) -> { domains.remove(domain); return domains.isEmpty() ? null : domains; });
+        }
+    }
+
+    /**
+     * Removes the remote domains of an incoming server-to-server session that is destroyed from the index, unless other
+     * incoming sessions exist for them.
+     *
+     * @param session The session that is destroyed.
+     */
+    void remoteSessionDestroyed(@Nonnull final IncomingServerSession session)
+    {
+        for (final String domain : session.getValidatedDomains()) {
+            final boolean remaining = getIncomingServerSessions(domain).stream()
+                .anyMatch(other -> other != session && (session.getStreamID() == null || !session.getStreamID().equals(other.getStreamID())));
+            if (!remaining) {
+                removeRemoteDomain(domain);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a remote domain is in the index.
+     *
+     * @param domain The remote domain.
+     * @return true if the domain is in the index.
+     */
+    boolean hasRemoteDomain(@Nonnull final String domain)
+    {
+        return remoteDomainsByHash.getOrDefault(blockList.getDomainHashChains().get(domain)[0], Collections.emptySet()).contains(domain);
+    }
+
+    @Override
+    public void added(final Set<String> hashes)
+    {
+        final long start = System.nanoTime();
+        final PropagationTracer tracer = blockList.getTracer();
+        tracer.sweepStarted();
+        final boolean matchParentDomains = blockList.isMatchParentDomains();
+        final List<Future<Integer>> results = new ArrayList<>();
+
+        // Occupants that are affected by the hashes, if they are (still) blocked (eg: not on the allow-list).
+        final Map<JID, Map<JID, String>> affected = occupantIndex.find(hashes, matchParentDomains);
+        if (!affected.isEmpty()) {
+            final Set<JID> blocked = blockList.filterBlocked(affected.keySet());
+            final Map<JID, Map<JID, String>> occupantsByRoom = new HashMap<>();
+            for (final JID occupant : blocked) {
+                affected.get(occupant).forEach((room, nickname) -> occupantsByRoom.computeIfAbsent(room, r -> new HashMap<>()).put(occupant, nickname));
+            }
+            occupantsByRoom.forEach((room, occupants) -> results.add(executor.submit(() -> removeFromRoom(room, occupants))));
+        }
+
+        // Remote domains of server-to-server sessions that are affected by the hashes.
+        if (closeServerSessions) {
+            final Set<String> domains = new HashSet<>();
+            for (final String hash : hashes) {
+                final Set<String> candidates = remoteDomainsByHash.getOrDefault(hash, Collections.emptySet());
+                for (final String domain : candidates) {
+                    if (matchParentDomains || blockList.getDomainHashChains().get(domain)[0].equals(hash)) {
+                        domains.add(domain);
+                    }
+                }
+            }
+            for (final String domain : domains) {
+                if (blockList.contains(new JID(domain))) {
+                    results.add(executor.submit(() -> { closeServerSessions(domain); return 0; }));
+                }
+            }
+        }
+
+        int kicks = 0;
+        for (final Future<Integer> result : results) {
+            try {
+                kicks += result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.warn("Unable to apply an action to an entity that was added to the block list.", e.getCause());
+            }
+        }
+        blockList.getMetrics().getSweepNanos().record(System.nanoTime() - start);
+        tracer.sweepFinished(kicks);
+    }
+
+    /**
+     * Removes occupants that are blocked from a room, unless the block list is only monitored (or disabled) for the room.
+     *
+     * @param roomJID The room.
+     * @param occupants The nicknames of the occupants that are blocked, by real JID.
+     * @return The amount of occupants that were removed.
+     */
+    protected int removeFromRoom(@Nonnull final JID roomJID, @Nonnull final Map<JID, String> occupants)
+    {
+        final MultiUserChatService service = getMultiUserChatService(roomJID);
+        if (service == null) {
+            return 0;
+        }
+        final String serviceName = service.getServiceName();
+        final EnforcementPolicy.Mode mode = policy.get().getMode(serviceName, roomJID.getNode());
+        if (mode == EnforcementPolicy.Mode.OFF) {
+            return 0;
+        }
+        int kicks = 0;
+        for (final Map.Entry<JID, String> occupant : occupants.entrySet()) {
+            if (mode == EnforcementPolicy.Mode.MONITOR) {
+                verdictRecorder.record(VerdictRecorder.Source.OCCUPANT, serviceName, occupant.getKey(), roomJID);
+                Log.debug("Not removing occupant {} ({}) that was added to the block list from room {}, as the block list is only monitored for that room.", occupant.getKey(), occupant.getValue(), roomJID);
+                continue;
+            }
+            try {
+                if (removeOccupantFromRoom(service, new OccupantManager.Occupant(roomJID.getNode(), occupant.getValue(), occupant.getKey()))) {
+                    kicks++;
+                }
+            } catch (Throwable t) {
+                Log.warn("Unable to remove occupant ({}) that was added to the block list from room {}.", occupant.getKey(), roomJID, t);
+            }
+        }
+        return kicks;
+    }
+
+    /**
+     * Closes all incoming server-to-server sessions from a remote domain.
+     *
+     * @param domain The remote domain.
+     */
+    protected void closeServerSessions(@Nonnull final String domain)
+    {
+        final Collection<IncomingServerSession> sessions = getIncomingServerSessions(domain);
+        if (sessions.isEmpty()) {
+            // The domain no longer has sessions.
+            removeRemoteDomain(domain);
+            return;
+        }
+        for (final IncomingServerSession session : sessions) {
+            if (!(session instanceof LocalIncomingServerSession)) {
+                continue; // Closed by the cluster node that hosts the session.
+            }
+            Log.info("Closing incoming server-to-server session from {} ({}), as the domain was added to the block list.", domain, session.getStreamID());
+            session.close();
+        }
+    }
+
+    /**
+     * Returns the incoming server-to-server sessions from a remote domain.
+     *
+     * @param domain The remote domain.
+     * @return The sessions (possibly empty).
+     */
+    protected Collection<IncomingServerSession> getIncomingServerSessions(@Nonnull final String domain)
+    {
+        return XMPPServer.getInstance().getSessionManager().getIncomingServerSessions(domain);
+    }
+
+    /**
+     * Returns the MUC service that hosts a room.
+     *
+     * @param roomJID The JID of the room.
+     * @return The MUC service, or null if no such service exists.
+     */
+    protected MultiUserChatService getMultiUserChatService(@Nonnull final JID roomJID)
+    {
+        for (final MultiUserChatService service : getMultiUserChatServices()) {
+            if (service.getServiceDomain().equals(roomJID.getDomain())) {
+                return service;
+            }
+        }
+        return null;
+    }
+}
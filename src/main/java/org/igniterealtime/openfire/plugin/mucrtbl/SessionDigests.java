@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.StreamID;
+import org.jivesoftware.openfire.event.ServerSessionEventListener;
+import org.jivesoftware.openfire.event.SessionEventListener;
+import org.jivesoftware.openfire.session.IncomingServerSession;
+import org.jivesoftware.openfire.session.Session;
+import org.jivesoftware.util.StringUtils;
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the SHA-256 hashes of the bare JIDs of the clients that have a session on this server, computed once, when the
+ * session is created, rather than every time that a client sends a stanza.
+ *
+ * Hashes are retained for as long as at least one session exists for the bare JID. For JIDs without a local session
+ * (eg: users of remote domains, or users that are connected to another cluster node), no hash is available, and the
+ * block list computes it on demand.
+ *
+ * Server-to-server sessions are tracked in the same way: the hash of each remote domain of the session is retained for
+ * as long as at least one server-to-server session exists for that domain, so that stanzas that are sent by the remote
+ * domain itself need no hashing. The hashes of the remote domain and its parent domains are also computed in the
+ * {@link DomainHashChains} of the block list, which is used for the domain-part of every lookup.
+ *
+ * As the hash of a bare JID never changes, a hash that is returned by this class is always correct, even if session
+ * events are missed.
+ *
+ * Sessions are recorded by the ID of their stream. Recording the creation of a session that already has been recorded
+ * has no effect, which allows sessions that already existed when the listeners were registered to be recorded without
+ * risking to count a session twice.
+ */
+public class SessionDigests implements SessionEventListener
+{
+    private final ConcurrentMap<String, Digest> digests = new ConcurrentHashMap<>();
+
+    /**
+     * The IDs of the streams of the sessions that have been recorded (and not yet destroyed).
+     */
+    private final Set<StreamID> recorded = ConcurrentHashMap.newKeySet();
+
+    private final DomainHashChains domainHashChains;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Records the hashes of remote domains, as server-to-server sessions are established and destroyed.
+     */
+    private final ServerSessionEventListener serverSessionListener = new ServerSessionEventListener()
+    {
+        @Override
+        public void sessionCreated(final Session session)
+        {
+            if (!record(session)) {
+                return;
+            }
+            for (final String domain : getRemoteDomains(session)) {
+                add(new JID(null, domain, null));
+                domainHashChains.get(domain);
+            }
+        }
+
+        @Override
+        public void sessionDestroyed(final Session session)
+        {
+            if (!forget(session)) {
+                return;
+            }
+            // Cached domain hash chains are evicted by the cache itself.
+            for (final String domain : getRemoteDomains(session)) {
+                remove(new JID(null, domain, null));
+            }
+        }
+    };
+
+    /**
+     * Creates a new instance.
+     *
+     * @param domainHashChains The cache in which the hash chains of the domains of server-to-server sessions are computed.
+     */
+    public SessionDigests(@Nonnull final DomainHashChains domainHashChains)
+    {
+        this.domainHashChains = domainHashChains;
+    }
+
+    /**
+     * Returns the listener that is to be registered for events of server-to-server sessions.
+     *
+     * @return a listener.
+     */
+    public ServerSessionEventListener getServerSessionListener()
+    {
+        return serverSessionListener;
+    }
+
+    /**
+     * Returns the SHA-256 hash of the bare JID of an entity that has a session on this server (or, for a domain, that
+     * has a server-to-server session with this server).
+     *
+     * @param jid The JID of an entity.
+     * @return The hash of the bare JID, or null if the entity has no session on this server.
+     */
+    @Nullable
+    public String get(@Nonnull final JID jid)
+    {
+        final Digest digest = digests.get(jid.toBareJID());
+        if (digest == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return digest.hash;
+    }
+
+    /**
+     * Records that a session for a JID was created, computing the hash of its bare JID if it was not yet known.
+     *
+     * @param jid The JID of the session.
+     */
+    public void add(@Nonnull final JID jid)
+    {
+        digests.compute(jid.toBareJID(), (bareJid, digest) -> {
+            if (digest == null) {
+                return new Digest(StringUtils.hash(bareJid, "SHA-256"));
+            }
+            digest.sessions++;
+            return digest;
+        });
+    }
+
+    /**
+     * Records that a session for a JID was destroyed, discarding the hash of its bare JID if no sessions remain.
+     *
+     * @param jid The JID of the session.
+     */
+    public void remove(@Nonnull final JID jid)
+    {
+        digests.computeIfPresent(jid.toBareJID(), (bareJid, digest) -> --digest.sessions <= 0 ? null : digest);
+    }
+
+    public int size()
+    {
+        return digests.size();
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the remote domains of a server-to-server session.
+     *
+     * @param session A server-to-server session.
+     * @return The remote domains (possibly empty).
+     */
+    private static Collection<String> getRemoteDomains(final Session session)
+    {
+        if (session instanceof IncomingServerSession) {
+            return ((IncomingServerSession) session).getValidatedDomains();
+        }
+        return session.getAddress() == null ? Collections.emptySet() : Collections.singleton(session.getAddress().getDomain());
+    }
+
+    /**
+     * Records that a session exists.
+     *
+     * @param session A session.
+     * @return false if the session was already recorded, otherwise true.
+     */
+    private boolean record(final Session session)
+    {
+        final StreamID streamID = session.getStreamID();
+        return streamID == null || recorded.add(streamID);
+    }
+
+    /**
+     * Records that a session no longer exists.
+     *
+     * @param session A session.
+     * @return false if the session was not recorded, otherwise true.
+     */
+    private boolean forget(final Session session)
+    {
+        final StreamID streamID = session.getStreamID();
+        return streamID == null || recorded.remove(streamID);
+    }
+
+    public void clear()
+    {
+        digests.clear();
+        recorded.clear();
+    }
+
+    @Override
+    public void sessionCreated(final Session session)
+    {
+        if (session.getAddress() != null && record(session)) {
+            add(session.getAddress());
+        }
+    }
+
+    @Override
+    public void sessionDestroyed(final Session session)
+    {
+        if (session.getAddress() != null && forget(session)) {
+            remove(session.getAddress());
+        }
+    }
+
+    @Override
+    public void anonymousSessionCreated(final Session session)
+    {
+        sessionCreated(session);
+    }
+
+    @Override
+    public void anonymousSessionDestroyed(final Session session)
+    {
+        sessionDestroyed(session);
+    }
+
+    @Override
+    public void resourceBound(final Session session)
+    {
+        // The bare JID of a session does not change when a resource is bound.
+    }
+
+    /**
+     * The hash of a bare JID, and the amount of sessions that exist for it. The amount of sessions is guarded by the
+     * atomicity of the compute methods of the map in which the digest is stored.
+     */
+    private static final class Digest
+    {
+        private final String hash;
+        private int sessions = 1;
+
+        private Digest(final String hash)
+        {
+            this.hash = hash;
+        }
+    }
+}
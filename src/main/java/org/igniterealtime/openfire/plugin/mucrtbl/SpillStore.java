@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact, node-local store of block list entries that did not fit in the (capacity-bounded) cache of the block list.
+ *
+ * Entries are stored as the 256 bits of their SHA-256 hash (four longs), rather than as strings of 64 characters, and
+ * without a reason. This takes roughly a third of the memory of an entry in the cache. The store is not bounded, and is
+ * not shared with other cluster nodes.
+ */
+public class SpillStore
+{
+    /**
+     * The estimated footprint of one entry, in bytes: the entry object (header and four longs) and its share of the
+     * table of the backing map.
+     */
+    public static final int ENTRY_SIZE = 48 + 48;
+
+    private final Set<Entry> entries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Adds a hash.
+     *
+     * @param hash A valid hash (see {@link BlockList#isValidHash(String)}).
+     * @return true if the hash was not already in the store.
+     */
+    public boolean add(final String hash)
+    {
+        return entries.add(Entry.of(hash));
+    }
+
+    /**
+     * Removes a hash.
+     *
+     * @param hash A hash.
+     * @return true if the hash was in the store.
+     */
+    public boolean remove(final String hash)
+    {
+        return BlockList.isValidHash(hash) && entries.remove(Entry.of(hash));
+    }
+
+    /**
+     * Checks if a hash is in the store.
+     *
+     * @param hash A hash.
+     * @return true if the hash is in the store.
+     */
+    public boolean contains(final String hash)
+    {
+        return !entries.isEmpty() && BlockList.isValidHash(hash) && entries.contains(Entry.of(hash));
+    }
+
+    public boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated memory footprint of the store.
+     *
+     * @return an amount of bytes.
+     */
+    public long getEstimatedSize()
+    {
+        return (long) entries.size() * ENTRY_SIZE;
+    }
+
+    /**
+     * Returns all hashes in the store (in their normalized, lower-case representation).
+     *
+     * @return a copy of the hashes.
+     */
+    public Set<String> getAll()
+    {
+        final Set<String> result = new HashSet<>();
+        entries.forEach(entry -> result.add(entry.toString()));
+        return result;
+    }
+
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * The 256 bits of a SHA-256 hash.
+     */
+    private static final class Entry
+    {
+        private final long a;
+        private final long b;
+        private final long c;
+        private final long d;
+
+        private Entry(final long a, final long b, final long c, final long d)
+        {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        static Entry of(final String hash)
+        {
+            return new Entry(
+                Long.parseUnsignedLong(hash.substring(0, 16), 16),
+                Long.parseUnsignedLong(hash.substring(16, 32), 16),
+                Long.parseUnsignedLong(hash.substring(32, 48), 16),
+                Long.parseUnsignedLong(hash.substring(48, 64), 16));
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Entry entry = (Entry) o;
+            return a == entry.a && b == entry.b && c == entry.c && d == entry.d;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            // The bits of a SHA-256 hash are uniformly distributed.
+            return (int) a;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%016x%016x%016x%016x", a, b, c, d);
+        }
+    }
+}
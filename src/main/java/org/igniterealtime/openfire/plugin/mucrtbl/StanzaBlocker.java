@@ -18,11 +18,15 @@ package org.igniterealtime.openfire.plugin.mucrtbl;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.interceptor.PacketInterceptor;
 import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
 import org.jivesoftware.openfire.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
+import java.util.function.Supplier;
+
 /**
  * Blocks stanzas sent from entities that are on a block list to a MUC service or MUC room.
  *
@@ -37,14 +41,46 @@ public class StanzaBlocker implements PacketInterceptor
      */
     protected final BlockList blockList;
 
+    /**
+     * Provides the policy that defines for what MUC services and rooms the block list is enforced.
+     */
+    protected final Supplier<EnforcementPolicy> policy;
+
+    /**
+     * Records verdicts that are not acted upon, as the block list is only monitored.
+     */
+    protected final VerdictRecorder verdictRecorder;
+
+    /**
+     * Records the decisions to block entities.
+     */
+    protected final AuditLog auditLog;
+
     /**
      * Creates a new instance that blocks all stanzas from entities that are on the provided block list.
      *
      * @param blockList Representation of a list of blocked entities.
      */
     public StanzaBlocker(final BlockList blockList)
+    {
+        this(blockList, () -> EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), AuditLog.NONE);
+    }
+
+    /**
+     * Creates a new instance that blocks stanzas from entities that are on the provided block list, for MUC services and
+     * rooms for which the policy enforces the block list.
+     *
+     * @param blockList Representation of a list of blocked entities.
+     * @param policy Provides the policy that defines for what MUC services and rooms the block list is enforced.
+     * @param verdictRecorder Records verdicts that are not acted upon, as the block list is only monitored.
+     * @param auditLog Records the decisions to block entities.
+     */
+    public StanzaBlocker(final BlockList blockList, final Supplier<EnforcementPolicy> policy, final VerdictRecorder verdictRecorder, final AuditLog auditLog)
     {
         this.blockList = blockList;
+        this.policy = policy;
+        this.verdictRecorder = verdictRecorder;
+        this.auditLog = auditLog;
     }
 
     @Override
@@ -54,14 +90,39 @@ public class StanzaBlocker implements PacketInterceptor
             return;
         }
 
-        final boolean addressedToMUC = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatService(stanza.getTo()) != null;
-        if (!addressedToMUC) {
+        final String serviceName = getServiceName(stanza.getTo());
+        if (serviceName == null) {
+            return;
+        }
+
+        // Consult the policy before the block list, to avoid the cost of hashing for services and rooms that have it disabled.
+        final EnforcementPolicy.Mode mode = policy.get().getMode(serviceName, stanza.getTo().getNode());
+        if (mode == EnforcementPolicy.Mode.OFF) {
             return;
         }
 
         if (blockList.contains(stanza.getFrom())) {
-            Log.info("Blocking stanza from user {} sent to a MUC entity {} as they are on to the block list.", stanza.getFrom(), stanza.getTo() );
+            if (mode == EnforcementPolicy.Mode.MONITOR) {
+                verdictRecorder.record(VerdictRecorder.Source.STANZA, serviceName, stanza.getFrom(), stanza.getTo());
+                Log.debug("Not blocking stanza from user {} sent to a MUC entity {} that is on the block list, as the block list is only monitored for that entity.", stanza.getFrom(), stanza.getTo());
+                return;
+            }
+            blockList.getMetrics().recordBlockedStanza();
+            auditLog.record(VerdictRecorder.Source.STANZA, stanza.getFrom(), stanza.getTo());
             throw new PacketRejectedException("You are forbidden to interact with chat rooms.");
         }
     }
+
+    /**
+     * Returns the name of the MUC service that an address belongs to (the address can be that of the service itself, or
+     * that of a room or occupant of the service).
+     *
+     * @param address The address to resolve.
+     * @return The name of the MUC service (eg: 'conference'), or null if the address does not belong to a MUC service.
+     */
+    protected String getServiceName(final JID address)
+    {
+        final MultiUserChatService service = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatService(address);
+        return service == null ? null : service.getServiceName();
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.xmpp.packet.JID;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves the state of the plugin as JSON, so that it can be polled cheaply (without copying the block list).
+ *
+ * Without parameters, live counts, the synchronization state and metrics are returned. With a 'jid' parameter, the JID
+ * is looked up on the block list, and the outcome is returned, explaining why the JID is (or is not) blocked.
+ *
+ * This servlet is mapped in the web.xml file of the plugin, and is protected by the authentication of the admin console.
+ */
+public class StatsServlet extends HttpServlet
+{
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException
+    {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+
+        final MucRealTimeBlockListPlugin plugin = (MucRealTimeBlockListPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName("MUC Real-Time Block List").orElse(null);
+        final BlockList blockList = plugin == null ? null : plugin.getBlockList();
+        if (blockList == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.getWriter().write(toJson(singleton("error", "The plugin is not running.")));
+            return;
+        }
+
+        final String jid = request.getParameter("jid");
+        if (jid != null) {
+            final JID target;
+            try {
+                target = new JID(jid.trim());
+            } catch (IllegalArgumentException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().write(toJson(singleton("error", "Invalid JID: " + jid)));
+                return;
+            }
+            response.getWriter().write(toJson(describe(blockList.lookup(target))));
+            return;
+        }
+
+        response.getWriter().write(toJson(describe(plugin, blockList)));
+    }
+
+    static Map<String, Object> describe(final BlockList.Lookup lookup)
+    {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("jid", lookup.getJid().toString());
+        result.put("blocked", lookup.isBlocked());
+        result.put("allowed", lookup.isAllowed());
+        result.put("matchedEntity", lookup.getMatchedEntity());
+        result.put("matchedHash", lookup.getMatchedHash());
+        result.put("reason", lookup.getReason());
+        result.put("spilled", lookup.isSpilled());
+        return result;
+    }
+
+    static Map<String, Object> describe(final MucRealTimeBlockListPlugin plugin, final BlockList blockList)
+    {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", blockList.size());
+
+        final Map<String, Object> capacity = new LinkedHashMap<>();
+        capacity.put("usedBytes", blockList.getUsedBytes());
+        capacity.put("capacity", blockList.getCapacity());
+        capacity.put("usagePercentage", blockList.getUsagePercentage());
+        capacity.put("warning", blockList.isCapacityWarning());
+        capacity.put("overflowStrategy", blockList.getOverflowStrategy());
+        capacity.put("spilled", blockList.getSpillStore().size());
+        capacity.put("refused", blockList.getRefusedCount());
+        result.put("capacity", capacity);
+
+        final PubSubHandler pubSubHandler = plugin.getPubSubHandler();
+        if (pubSubHandler != null) {
+            final Map<String, Object> sync = new LinkedHashMap<>();
+            sync.put("state", pubSubHandler.getSyncState());
+            sync.put("since", pubSubHandler.getSyncStateSince());
+            sync.put("lastSuccessfulSync", pubSubHandler.getLastSuccessfulSync());
+            sync.put("lastStaleDuration", pubSubHandler.getLastStaleDuration());
+            sync.put("executedRefreshes", pubSubHandler.getExecutedRefreshes());
+            sync.put("skippedRefreshes", pubSubHandler.getSkippedRefreshes());
+            result.put("sync", sync);
+        }
+
+        final EventIngestQueue queue = plugin.getEventIngestQueue();
+        if (queue != null) {
+            final Map<String, Object> ingest = new LinkedHashMap<>();
+            ingest.put("queueDepth", queue.getQueueDepth());
+            ingest.put("maxQueueDepth", queue.getMaxQueueDepth());
+            ingest.put("eventsSubmitted", queue.getEventsSubmitted());
+            ingest.put("batchesApplied", queue.getBatchesApplied());
+            ingest.put("operationsCoalesced", queue.getOperationsCoalesced());
+            ingest.put("backpressureEvents", queue.getBackpressureEvents());
+            result.put("ingest", ingest);
+        }
+
+        final Metrics metrics = blockList.getMetrics();
+        final Map<String, Object> counters = new LinkedHashMap<>();
+        counters.put("lookups", metrics.getLookups());
+        counters.put("hits", metrics.getHits());
+        counters.put("blockedStanzas", metrics.getBlockedStanzas());
+        counters.put("rejectedJoins", metrics.getRejectedJoins());
+        counters.put("rejectedInvitations", metrics.getRejectedInvitations());
+        counters.put("kicks", metrics.getKicks());
+        counters.put("syncs", metrics.getSyncs());
+        counters.put("histograms", metrics.getHistogramSummaries());
+        result.put("metrics", counters);
+
+        final Map<String, Object> tracing = new LinkedHashMap<>();
+        blockList.getTracer().getHistograms().forEach((stage, histogram) -> {
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", histogram.getCount());
+            summary.put("mean", histogram.getMean());
+            summary.put("p50", histogram.getPercentile(50));
+            summary.put("p99", histogram.getPercentile(99));
+            summary.put("max", histogram.getMax());
+            tracing.put(stage.name(), summary);
+        });
+        result.put("tracing", tracing);
+        return result;
+    }
+
+    private static Map<String, Object> singleton(final String key, final Object value)
+    {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put(key, value);
+        return result;
+    }
+
+    /**
+     * Serializes maps, collections, strings, numbers and booleans as JSON. Other values are serialized as strings.
+     *
+     * @param value The value to serialize (can be null).
+     * @return A JSON representation of the value.
+     */
+    static String toJson(final Object value)
+    {
+        final StringBuilder sb = new StringBuilder();
+        appendJson(sb, value);
+        return sb.toString();
+    }
+
+    private static void appendJson(final StringBuilder sb, final Object value)
+    {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Map) {
+            sb.append('{');
+            final Iterator<? extends Map.Entry<?, ?>> iterator = ((Map<?, ?>) value).entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<?, ?> entry = iterator.next();
+                appendString(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                appendJson(sb, entry.getValue());
+                if (iterator.hasNext()) {
+                    sb.append(',');
+                }
+            }
+            sb.append('}');
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            final Iterator<?> iterator = ((Collection<?>) value).iterator();
+            while (iterator.hasNext()) {
+                appendJson(sb, iterator.next());
+                if (iterator.hasNext()) {
+                    sb.append(',');
+                }
+            }
+            sb.append(']');
+        } else {
+            appendString(sb, value.toString());
+        }
+    }
+
+    private static void appendString(final StringBuilder sb, final String value)
+    {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c == '<' || c == '>' || c == '&') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
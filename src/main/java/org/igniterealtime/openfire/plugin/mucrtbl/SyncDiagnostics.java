@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Packet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records summaries of the traffic that is processed to synchronize the block list with the pub/sub node.
+ *
+ * A summary (amount of items, estimated payload size, processing time) is recorded for every response or event that is
+ * processed. This is cheap, and always enabled. A bounded amount of the most recent summaries is retained.
+ *
+ * Optionally, a summary can include the raw XML of the stanza that was processed. As stanzas can be large, this is
+ * disabled by default. When enabled, no more than a configurable amount of characters is serialized.
+ */
+public class SyncDiagnostics
+{
+    private static final Logger Log = LoggerFactory.getLogger(SyncDiagnostics.class);
+
+    /**
+     * The kind of traffic that is summarized.
+     */
+    public enum Kind
+    {
+        /**
+         * A page of items, that is part of the retrieval of all items.
+         */
+        PAGE,
+
+        /**
+         * A completed retrieval of all items (which aggregates all of its pages).
+         */
+        FULL_RETRIEVAL,
+
+        /**
+         * The most recent items, retrieved for an incremental refresh.
+         */
+        RECENT_ITEMS,
+
+        /**
+         * The IDs of all items, retrieved to determine if a refresh is needed.
+         */
+        ITEM_IDS,
+
+        /**
+         * A notification of published and/or retracted items.
+         */
+        EVENT
+    }
+
+    private final int historySize;
+
+    /**
+     * The most recent summaries, the most recent one first. Guarded by 'this'.
+     */
+    private final Deque<Summary> history;
+
+    private final LongAdder totalItems = new LongAdder();
+    private final LongAdder totalRetractions = new LongAdder();
+    private final LongAdder totalEstimatedSize = new LongAdder();
+    private final LongAdder totalProcessingNanos = new LongAdder();
+
+    private volatile boolean captureEnabled = false;
+
+    private volatile int captureMaxLength = 4096;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param historySize The maximum amount of summaries that is retained.
+     */
+    public SyncDiagnostics(final int historySize)
+    {
+        if (historySize < 0) {
+            throw new IllegalArgumentException("Argument 'historySize' cannot be a negative number, but was: " + historySize);
+        }
+        this.historySize = historySize;
+        this.history = new ArrayDeque<>(historySize);
+    }
+
+    /**
+     * Configures the capturing of the raw XML of processed stanzas.
+     *
+     * @param enabled Whether raw XML is captured.
+     * @param maxLength The maximum amount of characters that is captured per stanza.
+     */
+    public void setCapture(final boolean enabled, final int maxLength)
+    {
+        this.captureMaxLength = Math.max(0, maxLength);
+        this.captureEnabled = enabled;
+    }
+
+    public int getHistorySize()
+    {
+        return historySize;
+    }
+
+    public boolean isCaptureEnabled()
+    {
+        return captureEnabled;
+    }
+
+    /**
+     * Records a summary of processed traffic.
+     *
+     * @param kind The kind of traffic.
+     * @param items The amount of items (or item IDs) that were processed.
+     * @param retractions The amount of retractions that were processed.
+     * @param estimatedSize The estimated size of the payload, in characters.
+     * @param processingTime The time it took to process the traffic.
+     * @param stanza The stanza that was processed, to be captured when that is enabled (can be null).
+     */
+    public void record(final Kind kind, final int items, final int retractions, final long estimatedSize, final Duration processingTime, final Packet stanza)
+    {
+        totalItems.add(items);
+        totalRetractions.add(retractions);
+        totalEstimatedSize.add(estimatedSize);
+        totalProcessingNanos.add(processingTime.toNanos());
+
+        final String capture = captureEnabled && stanza != null ? serialize(stanza, captureMaxLength) : null;
+        final Summary summary = new Summary(kind, Instant.now(), items, retractions, estimatedSize, processingTime, capture);
+        Log.debug("{}", summary);
+        if (historySize == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (history.size() >= historySize) {
+                history.removeLast();
+            }
+            history.addFirst(summary);
+        }
+    }
+
+    /**
+     * Returns the most recent summaries, the most recent one first.
+     *
+     * @return summaries (possibly empty).
+     */
+    public synchronized List<Summary> getHistory()
+    {
+        return new ArrayList<>(history);
+    }
+
+    public long getTotalItems()
+    {
+        return totalItems.sum();
+    }
+
+    public long getTotalRetractions()
+    {
+        return totalRetractions.sum();
+    }
+
+    public long getTotalEstimatedSize()
+    {
+        return totalEstimatedSize.sum();
+    }
+
+    public Duration getTotalProcessingTime()
+    {
+        return Duration.ofNanos(totalProcessingNanos.sum());
+    }
+
+    /**
+     * Serializes a stanza to XML, stopping after the provided amount of characters. Unlike {@link Packet#toXML()}, this
+     * does not serialize the entire stanza first.
+     *
+     * @param stanza The stanza to serialize.
+     * @param maxLength The maximum amount of characters to serialize.
+     * @return The (possibly truncated) XML representation of the stanza.
+     */
+    public static String serialize(final Packet stanza, final int maxLength)
+    {
+        final BoundedWriter writer = new BoundedWriter(maxLength);
+        try {
+            stanza.getElement().write(writer);
+        } catch (LimitReachedException e) {
+            return writer.toString() + "... (truncated)";
+        } catch (IOException e) {
+            Log.debug("Unable to serialize stanza.", e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * A summary of processed traffic.
+     */
+    public static final class Summary
+    {
+        private final Kind kind;
+        private final Instant timestamp;
+        private final int items;
+        private final int retractions;
+        private final long estimatedSize;
+        private final Duration processingTime;
+        private final String capture;
+
+        Summary(final Kind kind, final Instant timestamp, final int items, final int retractions, final long estimatedSize, final Duration processingTime, final String capture)
+        {
+            this.kind = kind;
+            this.timestamp = timestamp;
+            this.items = items;
+            this.retractions = retractions;
+            this.estimatedSize = estimatedSize;
+            this.processingTime = processingTime;
+            this.capture = capture;
+        }
+
+        public Kind getKind()
+        {
+            return kind;
+        }
+
+        public Instant getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public int getItems()
+        {
+            return items;
+        }
+
+        public int getRetractions()
+        {
+            return retractions;
+        }
+
+        public long getEstimatedSize()
+        {
+            return estimatedSize;
+        }
+
+        public Duration getProcessingTime()
+        {
+            return processingTime;
+        }
+
+        /**
+         * Returns the (possibly truncated) raw XML of the stanza that was processed.
+         *
+         * @return XML, or null if no stanza was captured.
+         */
+        public String getCapture()
+        {
+            return capture;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Summary{kind=" + kind + ", items=" + items + ", retractions=" + retractions + ", estimatedSize=" + estimatedSize + ", processingTime=" + processingTime + '}';
+        }
+    }
+
+    /**
+     * A writer that refuses to write more than a fixed amount of characters.
+     */
+    static final class BoundedWriter extends Writer
+    {
+        private final StringBuilder buffer = new StringBuilder();
+        private final int maxLength;
+
+        BoundedWriter(final int maxLength)
+        {
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException
+        {
+            final int remaining = maxLength - buffer.length();
+            if (len > remaining) {
+                buffer.append(cbuf, off, remaining);
+                throw new LimitReachedException();
+            }
+            buffer.append(cbuf, off, len);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return buffer.toString();
+        }
+    }
+
+    private static final class LimitReachedException extends IOException
+    {
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.xmpp.packet.JID;
+
+import javax.annotation.Nonnull;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records 'would-be blocks': verdicts that an entity is on the block list, that were not acted upon because the block
+ * list is only monitored (see {@link EnforcementPolicy.Mode#MONITOR}), for instance because shadow mode is enabled.
+ *
+ * Every verdict is counted, per MUC service. Counting does not allocate (other than the first time that a service is
+ * counted) and does not contend. Details of verdicts are recorded for a random sample of verdicts only, in a ring
+ * buffer of fixed size that overwrites the oldest sample.
+ */
+public class VerdictRecorder
+{
+    /**
+     * The component that produced a verdict.
+     */
+    public enum Source
+    {
+        /**
+         * A stanza sent to a MUC service or room (see {@link StanzaBlocker}).
+         */
+        STANZA,
+
+        /**
+         * An attempt to join a room (see {@link RTBLMUCEventDelegate}).
+         */
+        JOIN,
+
+        /**
+         * An invitation to a room (see {@link RTBLMUCEventDelegate}).
+         */
+        INVITATION,
+
+        /**
+         * An occupant of a room that was added to the block list (see {@link OccupantRemover}).
+         */
+        OCCUPANT
+    }
+
+    private final ConcurrentMap<String, LongAdder> countsByService = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<Sample> samples;
+
+    /**
+     * The total amount of samples that have been recorded (used to determine the position in the ring buffer).
+     */
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    /**
+     * One out of how many verdicts is sampled.
+     */
+    private volatile int sampleRate;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param sampleSize The maximum amount of samples that is retained.
+     * @param sampleRate One out of how many verdicts is sampled (1 samples every verdict).
+     */
+    public VerdictRecorder(final int sampleSize, final int sampleRate)
+    {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("Argument 'sampleSize' cannot be a negative number, but was: " + sampleSize);
+        }
+        this.samples = new AtomicReferenceArray<>(sampleSize);
+        setSampleRate(sampleRate);
+    }
+
+    public void setSampleRate(final int sampleRate)
+    {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Argument 'sampleRate' must be a positive number, but was: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    public int getSampleSize()
+    {
+        return samples.length();
+    }
+
+    /**
+     * Records a would-be block.
+     *
+     * @param source The component that produced the verdict.
+     * @param serviceName The name of the MUC service to which the verdict applies.
+     * @param entity The entity that is on the block list.
+     * @param target The MUC service or room with which the entity interacted.
+     */
+    public void record(@Nonnull final Source source, @Nonnull final String serviceName, @Nonnull final JID entity, @Nonnull final JID target)
+    {
+        LongAdder counter = countsByService.get(serviceName);
+        if (counter == null) {
+            counter = countsByService.computeIfAbsent(serviceName, k -> new LongAdder());
+        }
+        counter.increment();
+
+        final int rate = sampleRate;
+        if (samples.length() > 0 && (rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0)) {
+            final long index = sampleCount.getAndIncrement();
+            samples.set((int) (index % samples.length()), new Sample(Instant.now(), source, serviceName, entity, target));
+        }
+    }
+
+    /**
+     * Returns the amount of would-be blocks, per MUC service.
+     *
+     * @return Amounts by service name, ordered by service name.
+     */
+    public Map<String, Long> getCounts()
+    {
+        final Map<String, Long> result = new TreeMap<>();
+        countsByService.forEach((service, counter) -> result.put(service, counter.sum()));
+        return result;
+    }
+
+    /**
+     * Returns the total amount of would-be blocks.
+     *
+     * @return an amount of verdicts.
+     */
+    public long getTotal()
+    {
+        long result = 0;
+        for (final LongAdder counter : countsByService.values()) {
+            result += counter.sum();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the retained samples.
+     *
+     * @return samples, the most recent one first.
+     */
+    public List<Sample> getSamples()
+    {
+        final List<Sample> result = new ArrayList<>(samples.length());
+        for (int i = 0; i < samples.length(); i++) {
+            final Sample sample = samples.get(i);
+            if (sample != null) {
+                result.add(sample);
+            }
+        }
+        result.sort((a, b) -> b.getTimestamp().compareTo(a.getTimestamp()));
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Discards all counts and samples.
+     */
+    public void reset()
+    {
+        countsByService.clear();
+        for (int i = 0; i < samples.length(); i++) {
+            samples.set(i, null);
+        }
+    }
+
+    /**
+     * The details of a sampled would-be block.
+     */
+    public static class Sample
+    {
+        private final Instant timestamp;
+        private final Source source;
+        private final String serviceName;
+        private final JID entity;
+        private final JID target;
+
+        public Sample(final Instant timestamp, final Source source, final String serviceName, final JID entity, final JID target)
+        {
+            this.timestamp = timestamp;
+            this.source = source;
+            this.serviceName = serviceName;
+            this.entity = entity;
+            this.target = target;
+        }
+
+        public Instant getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public Source getSource()
+        {
+            return source;
+        }
+
+        public String getServiceName()
+        {
+            return serviceName;
+        }
+
+        public JID getEntity()
+        {
+            return entity;
+        }
+
+        public JID getTarget()
+        {
+            return target;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Sample{" +
+                "timestamp=" + timestamp +
+                ", source=" + source +
+                ", serviceName='" + serviceName + '\'' +
+                ", entity=" + entity +
+                ", target=" + target +
+                '}';
+        }
+    }
+}
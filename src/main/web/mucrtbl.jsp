@@ -21,6 +21,10 @@
 <%@ page import="org.jivesoftware.util.ParamUtils" %>
 <%@ page import="org.jivesoftware.util.StringUtils" %>
 <%@ page import="org.xmpp.packet.JID" %>
+<%@ page import="org.igniterealtime.openfire.plugin.mucrtbl.BlockListImporter" %>
+<%@ page import="java.io.IOException" %>
+<%@ page import="java.nio.file.InvalidPathException" %>
+<%@ page import="java.nio.file.Paths" %>
 <%@ page import="java.util.Collections" %>
 <%@ taglib uri="admin" prefix="admin"%>
 <%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c"%>
@@ -32,6 +36,8 @@
     final MucRealTimeBlockListPlugin plugin = (MucRealTimeBlockListPlugin) XMPPServer.getInstance().getPluginManager().getPluginByName( "MUC Real-Time Block List" ).orElseThrow(IllegalStateException::new);
     String success = request.getParameter("success");
     boolean update = request.getParameter("update") != null;
+    boolean importEntries = request.getParameter("import") != null;
+    BlockListImporter.Result importResult = null;
 
     String error = null;
 
@@ -59,6 +65,7 @@
             }
             final boolean stanzaBlockerEnabled = ParamUtils.getBooleanParameter(request, "stanzaBlockerEnabled");
             final boolean occupantRemoverEnabled = ParamUtils.getBooleanParameter(request, "occupantRemoverEnabled");
+            final boolean componentEnabled = ParamUtils.getBooleanParameter(request, "componentEnabled");
 
             if (error == null) {
                 // Change property values based on the parsed values.
@@ -67,15 +74,40 @@
                 MucRealTimeBlockListPlugin.BLOCKLIST_SERVICE_NODE.setValue(serviceNode);
                 MucRealTimeBlockListPlugin.BLOCKLIST_STANZABLOCKER_DISABLED.setValue(!stanzaBlockerEnabled);
                 MucRealTimeBlockListPlugin.BLOCKLIST_OCCUPANTREMOVER_DISABLED.setValue(!occupantRemoverEnabled);
+                MucRealTimeBlockListPlugin.BLOCKLIST_COMPONENT_ENABLED.setValue(componentEnabled);
                 MucRealTimeBlockListPlugin.reinitOnConfigChange = true;
-                MucRealTimeBlockListPlugin.reInit(); // prevent each change to restart the plugin. Instead, do it just once.
+                MucRealTimeBlockListPlugin.applyConfiguration(); // Apply all changes at once. Only affected parts of the plugin are restarted.
 
-                webManager.logEvent("MUC RTBL settings have been updated.", "service JID: " + serviceJID + "\nservice node: " + serviceNode + "\nstanza blocker enabled: " + stanzaBlockerEnabled + "\noccupant remover enabled: " + occupantRemoverEnabled);
+                webManager.logEvent("MUC RTBL settings have been updated.", "service JID: " + serviceJID + "\nservice node: " + serviceNode + "\nstanza blocker enabled: " + stanzaBlockerEnabled + "\noccupant remover enabled: " + occupantRemoverEnabled + "\ncomponent enabled: " + componentEnabled);
                 response.sendRedirect("mucrtbl.jsp?success=true");
                 return;
             }
         }
     }
+    if (importEntries)
+    {
+        if ( csrfCookie == null || csrfParam == null || !csrfCookie.getValue().equals( csrfParam ) )
+        {
+            error = "csrf";
+        }
+        else
+        {
+            final String importFile = request.getParameter("importFile");
+            if (importFile == null || importFile.trim().isEmpty()) {
+                error = "invalid file";
+            } else {
+                try {
+                    importResult = plugin.importFile(Paths.get(importFile.trim()));
+                    webManager.logEvent("MUC RTBL entries have been imported.", "file: " + importFile + "\nresult: " + importResult);
+                } catch (IOException | InvalidPathException | IllegalStateException e) {
+                    error = "unable to import file: " + e.getMessage();
+                }
+            }
+        }
+    }
+    pageContext.setAttribute( "importResult", importResult );
+    pageContext.setAttribute( "error", error );
+
     csrfParam = StringUtils.randomString( 15 );
     CookieUtils.setCookie(request, response, "csrf", csrfParam, -1);
     pageContext.setAttribute( "csrf", csrfParam) ;
@@ -84,7 +116,22 @@
     pageContext.setAttribute( "serviceNode", MucRealTimeBlockListPlugin.BLOCKLIST_SERVICE_NODE.getValue() );
     pageContext.setAttribute( "stanzaBlockerEnabled", !MucRealTimeBlockListPlugin.BLOCKLIST_STANZABLOCKER_DISABLED.getValue() );
     pageContext.setAttribute( "occupantRemoverEnabled", !MucRealTimeBlockListPlugin.BLOCKLIST_OCCUPANTREMOVER_DISABLED.getValue() );
-    pageContext.setAttribute( "hashes", plugin.getBlockList() == null ? Collections.emptyMap() : plugin.getBlockList().getAll() );
+    pageContext.setAttribute( "componentEnabled", MucRealTimeBlockListPlugin.BLOCKLIST_COMPONENT_ENABLED.getValue() );
+    pageContext.setAttribute( "componentAddress", MucRealTimeBlockListPlugin.BLOCKLIST_COMPONENT_SUBDOMAIN.getValue() + "." + XMPPServer.getInstance().getServerInfo().getXMPPDomain() );
+    // Only copy the content of the block list when it is small enough to be listed.
+    final int blockListSize = plugin.getBlockList() == null ? 0 : plugin.getBlockList().size();
+    pageContext.setAttribute( "blockListSize", blockListSize );
+    pageContext.setAttribute( "hashes", blockListSize == 0 || blockListSize >= 50 ? Collections.emptyMap() : plugin.getBlockList().getAll() );
+    pageContext.setAttribute( "pubSubHandler", plugin.getPubSubHandler() );
+    pageContext.setAttribute( "enforcementPolicy", plugin.getEnforcementPolicy() );
+    pageContext.setAttribute( "allowList", plugin.getBlockList() == null ? Collections.emptySet() : plugin.getBlockList().getAllowList() );
+    pageContext.setAttribute( "eventIngestQueue", plugin.getEventIngestQueue() );
+    pageContext.setAttribute( "blockList", plugin.getBlockList() );
+    pageContext.setAttribute( "verdictRecorder", plugin.getVerdictRecorder() );
+    pageContext.setAttribute( "auditLog", plugin.getAuditLog() );
+    pageContext.setAttribute( "metrics", plugin.getBlockList() == null ? null : plugin.getBlockList().getMetrics() );
+    pageContext.setAttribute( "shadowEnabled", MucRealTimeBlockListPlugin.SHADOW_ENABLED.getValue() );
+    pageContext.setAttribute( "tracer", plugin.getBlockList() == null ? null : plugin.getBlockList().getTracer() );
 %>
 <html>
 <head>
@@ -103,7 +150,7 @@
                 <% if ( "csrf".equalsIgnoreCase( error )  ) { %>
                 <fmt:message key="global.csrf.failed" />
                 <% } else { %>
-                <fmt:message key="admin.error" />: <c:out value="error"></c:out>
+                <fmt:message key="admin.error" />: <c:out value="${error}"></c:out>
                 <% } %>
             </td></tr>
         </tbody>
@@ -113,6 +160,19 @@
 <%  } %>
 
 
+<c:if test="${not empty importResult}">
+<div class="jive-info">
+    <table cellpadding="0" cellspacing="0" border="0">
+        <tbody>
+        <tr><td class="jive-icon"><img src="/images/info-16x16.gif" width="16" height="16" border="0" alt=""></td>
+            <td class="jive-info-text">
+                <fmt:message key="mucrtbl.page.import.success"><fmt:param value="${importResult.entries}"/><fmt:param value="${importResult.added}"/><fmt:param value="${importResult.lines}"/><fmt:param value="${importResult.duration}"/><fmt:param value="${importResult.invalid}"/></fmt:message>
+            </td></tr>
+        </tbody>
+    </table>
+</div><br>
+</c:if>
+
 <%  if (success != null) { %>
 
 <div class="jive-info">
@@ -171,6 +231,12 @@
                     <label for="occupantRemoverEnabled"><fmt:message key="mucrtbl.page.config.occupantremover.enabled.label" /></label>
                 </td>
             </tr>
+            <tr>
+                <td colspan="2">
+                    <input type="checkbox" name="componentEnabled" id="componentEnabled" ${componentEnabled ? "checked" : ""}>
+                    <label for="componentEnabled"><fmt:message key="mucrtbl.page.config.component.enabled.label"><fmt:param value="${admin:escapeHTMLTags(componentAddress)}"/></fmt:message></label>
+                </td>
+            </tr>
             <tr>
                 <td width="1%"></td>
                 <td width="99%">
@@ -182,12 +248,88 @@
 
 </div>
 
+<div class="jive-contentBoxHeader"><fmt:message key="mucrtbl.page.import.header" /></div>
+<div class="jive-contentBox">
+
+    <p><fmt:message key="mucrtbl.page.import.description" /></p>
+
+    <form method="post">
+        <input type="hidden" name="csrf" value="${csrf}">
+
+        <table width="80%" cellpadding="3" cellspacing="0" border="0">
+            <tr>
+                <td style="white-space: nowrap;">
+                    <label for="importFile"><fmt:message key="mucrtbl.page.import.file.label" /></label>
+                </td>
+                <td>
+                    <input type="text" name="importFile" id="importFile" size="75" maxlength="4096">
+                </td>
+            </tr>
+            <tr>
+                <td width="1%"></td>
+                <td width="99%">
+                    <input type="submit" name="import" value="<fmt:message key="mucrtbl.page.import.submit" />">
+                </td>
+            </tr>
+        </table>
+    </form>
+
+</div>
+
 <div class="jive-contentBoxHeader"><fmt:message key="mucrtbl.page.content.header" /></div>
 <div class="jive-contentBox">
 
-    <p><fmt:message key="mucrtbl.page.content.description"><fmt:param value="${hashes.size()}"/></fmt:message></p>
+    <p><fmt:message key="mucrtbl.page.content.description"><fmt:param value="${blockListSize}"/></fmt:message></p>
 
-    <c:if test="${hashes.size() < 50 && hashes.size() > 0}">
+    <c:if test="${not empty pubSubHandler}">
+        <p><fmt:message key="mucrtbl.page.content.syncstate"><fmt:param><fmt:message key="mucrtbl.page.content.syncstate.${pubSubHandler.syncState}"/></fmt:param><fmt:param value="${pubSubHandler.syncStateSince}"/></fmt:message></p>
+        <c:if test="${not empty pubSubHandler.lastSuccessfulSync}">
+            <p><fmt:message key="mucrtbl.page.content.lastsync"><fmt:param value="${pubSubHandler.lastSuccessfulSync}"/></fmt:message></p>
+        </c:if>
+        <c:if test="${not empty pubSubHandler.lastStaleDuration}">
+            <p><fmt:message key="mucrtbl.page.content.laststale"><fmt:param value="${pubSubHandler.lastStaleDuration}"/></fmt:message></p>
+        </c:if>
+        <p><fmt:message key="mucrtbl.page.content.refreshes"><fmt:param value="${pubSubHandler.executedRefreshes}"/><fmt:param value="${pubSubHandler.skippedRefreshes}"/></fmt:message></p>
+    </c:if>
+    <c:if test="${not empty eventIngestQueue}">
+        <p><fmt:message key="mucrtbl.page.content.ingest"><fmt:param value="${eventIngestQueue.queueDepth}"/><fmt:param value="${eventIngestQueue.maxQueueDepth}"/><fmt:param value="${eventIngestQueue.eventsSubmitted}"/><fmt:param value="${eventIngestQueue.batchesApplied}"/><fmt:param value="${eventIngestQueue.operationsCoalesced}"/><fmt:param value="${eventIngestQueue.backpressureEvents}"/></fmt:message></p>
+    </c:if>
+
+    <c:if test="${not empty blockList}">
+        <c:set var="missing" value="${blockList.missingCount}"/>
+        <c:if test="${blockList.capacityWarning or blockList.refusedCount > 0 or missing > 0}">
+            <div class="jive-warning">
+                <table cellpadding="0" cellspacing="0" border="0">
+                    <tbody>
+                    <tr><td class="jive-icon"><img src="/images/warning-16x16.gif" width="16" height="16" border="0" alt=""></td>
+                        <td class="jive-icon-label">
+                            <fmt:message key="mucrtbl.page.content.capacity.warning"><fmt:param value="${blockList.usagePercentage}"/><fmt:param value="${blockList.refusedCount}"/><fmt:param value="${missing}"/></fmt:message>
+                        </td></tr>
+                    </tbody>
+                </table>
+            </div><br>
+        </c:if>
+        <p><fmt:message key="mucrtbl.page.content.capacity"><fmt:param value="${blockList.usedBytes}"/><fmt:param value="${blockList.capacity > 0 ? blockList.capacity : '-'}"/><fmt:param value="${blockList.usagePercentage}"/><fmt:param value="${blockList.overflowStrategy}"/><fmt:param value="${blockList.spillStore.size()}"/><fmt:param value="${blockList.spillStore.estimatedSize}"/><fmt:param value="${blockList.refusedCount}"/></fmt:message></p>
+    </c:if>
+
+    <c:if test="${not empty auditLog}">
+        <p><fmt:message key="mucrtbl.page.content.audit"><fmt:param value="${auditLog.totalDecisions}"/><fmt:param value="${auditLog.totalRecordsWritten}"/><fmt:param value="${empty auditLog.file ? '-' : auditLog.file}"/></fmt:message></p>
+    </c:if>
+
+    <c:if test="${not empty enforcementPolicy.serviceModes or not empty enforcementPolicy.roomModes or enforcementPolicy.defaultMode ne 'ENFORCE'}">
+        <p><fmt:message key="mucrtbl.page.content.enforcement"><fmt:param value="${enforcementPolicy.defaultMode}"/><fmt:param value="${enforcementPolicy.serviceModes}"/><fmt:param value="${enforcementPolicy.roomModes}"/></fmt:message></p>
+    </c:if>
+
+    <c:if test="${not empty allowList}">
+        <p><fmt:message key="mucrtbl.page.content.allowlist"/></p>
+        <ul style="margin: 1em; list-style: initial">
+            <c:forEach items="${allowList}" var="entry">
+                <li style="list-style: initial"><c:out value="${entry}"/></li>
+            </c:forEach>
+        </ul>
+    </c:if>
+
+    <c:if test="${not empty hashes}">
         <p><fmt:message key="mucrtbl.page.content.hashes"/></p>
         <ul style="margin: 1em; list-style: initial">
             <c:forEach items="${hashes}" var="entry">
@@ -196,5 +338,226 @@
         </ul>
     </c:if>
 </div>
+
+<c:if test="${not empty blockList}">
+<div class="jive-contentBoxHeader"><fmt:message key="mucrtbl.page.lookup.header" /></div>
+<div class="jive-contentBox">
+    <p><fmt:message key="mucrtbl.page.lookup.description" /></p>
+    <form onsubmit="return mucrtblLookup();">
+        <label for="lookupJID"><fmt:message key="mucrtbl.page.lookup.jid.label" /></label>
+        <input type="text" id="lookupJID" size="50" maxlength="3071">
+        <input type="submit" value="<fmt:message key="mucrtbl.page.lookup.submit" />">
+    </form>
+    <p id="lookupResult"></p>
+    <script>
+        function mucrtblLookup() {
+            const result = document.getElementById('lookupResult');
+            fetch('mucrtbl-stats?jid=' + encodeURIComponent(document.getElementById('lookupJID').value), { credentials: 'same-origin' })
+                .then(response => response.json())
+                .then(data => {
+                    if (data.error) {
+                        result.textContent = data.error;
+                    } else if (data.allowed) {
+                        result.textContent = '<fmt:message key="mucrtbl.page.lookup.allowed" />'.replace('{0}', data.jid).replace('{1}', data.matchedEntity);
+                    } else if (data.blocked) {
+                        result.textContent = '<fmt:message key="mucrtbl.page.lookup.blocked" />'.replace('{0}', data.jid).replace('{1}', data.matchedEntity).replace('{2}', data.matchedHash).replace('{3}', data.reason || '-');
+                    } else {
+                        result.textContent = '<fmt:message key="mucrtbl.page.lookup.clean" />'.replace('{0}', data.jid);
+                    }
+                })
+                .catch(error => result.textContent = error);
+            return false;
+        }
+    </script>
+</div>
+</c:if>
+
+<c:if test="${not empty metrics}">
+<div class="jive-contentBoxHeader"><fmt:message key="mucrtbl.page.metrics.header" /></div>
+<div class="jive-contentBox">
+    <p><fmt:message key="mucrtbl.page.metrics.description"><fmt:param value="${metrics.lookups}"/><fmt:param value="${metrics.hits}"/><fmt:param value="${metrics.blockedStanzas}"/><fmt:param value="${metrics.rejectedJoins}"/><fmt:param value="${metrics.rejectedInvitations}"/><fmt:param value="${metrics.kicks}"/><fmt:param value="${metrics.syncs}"/><fmt:param value="org.igniterealtime.openfire.plugin.mucrtbl:type=Metrics"/></fmt:message></p>
+    <table class="jive-table" cellpadding="0" cellspacing="0" border="0" width="100%">
+        <thead>
+        <tr>
+            <th><fmt:message key="mucrtbl.page.metrics.name" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.count" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.mean" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.p50" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.p99" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.max" /></th>
+        </tr>
+        </thead>
+        <tbody>
+        <c:forEach items="${metrics.histograms}" var="entry">
+            <tr>
+                <td><fmt:message key="mucrtbl.page.metrics.${entry.key}" /></td>
+                <td><c:out value="${entry.value.count}"/></td>
+                <td><c:out value="${entry.value.mean}"/></td>
+                <td><c:out value="${entry.value.getPercentile(50)}"/></td>
+                <td><c:out value="${entry.value.getPercentile(99)}"/></td>
+                <td><c:out value="${entry.value.max}"/></td>
+            </tr>
+        </c:forEach>
+        </tbody>
+    </table>
+</div>
+</c:if>
+
+<c:if test="${not empty tracer and tracer.enabled}">
+<div class="jive-contentBoxHeader"><fmt:message key="mucrtbl.page.tracing.header" /></div>
+<div class="jive-contentBox">
+    <p><fmt:message key="mucrtbl.page.tracing.description" /></p>
+    <table class="jive-table" cellpadding="0" cellspacing="0" border="0" width="100%">
+        <thead>
+        <tr>
+            <th><fmt:message key="mucrtbl.page.tracing.stage" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.count" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.mean" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.p50" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.p99" /></th>
+            <th><fmt:message key="mucrtbl.page.metrics.max" /></th>
+        </tr>
+        </thead>
+        <tbody>
+        <c:forEach items="${tracer.histograms}" var="entry">
+            <tr>
+                <td><fmt:message key="mucrtbl.page.tracing.stage.${entry.key}" /></td>
+                <td><c:out value="${entry.value.count}"/></td>
+                <td><c:out value="${entry.value.mean}"/></td>
+                <td><c:out value="${entry.value.getPercentile(50)}"/></td>
+                <td><c:out value="${entry.value.getPercentile(99)}"/></td>
+                <td><c:out value="${entry.value.max}"/></td>
+            </tr>
+        </c:forEach>
+        </tbody>
+    </table>
+    <c:set var="slowest" value="${tracer.getSlowest(10)}"/>
+    <c:if test="${not empty slowest}">
+        <p><fmt:message key="mucrtbl.page.tracing.slowest"><fmt:param value="${tracer.historySize}"/></fmt:message></p>
+        <table class="jive-table" cellpadding="0" cellspacing="0" border="0" width="100%">
+            <thead>
+            <tr>
+                <th><fmt:message key="mucrtbl.page.tracing.received" /></th>
+                <th><fmt:message key="mucrtbl.page.tracing.changes" /></th>
+                <th><fmt:message key="mucrtbl.page.tracing.kicks" /></th>
+                <c:forEach items="${tracer.histograms}" var="entry">
+                    <th><fmt:message key="mucrtbl.page.tracing.stage.${entry.key}" /></th>
+                </c:forEach>
+            </tr>
+            </thead>
+            <tbody>
+            <c:forEach items="${slowest}" var="trace">
+                <tr>
+                    <td><c:out value="${trace.received}"/></td>
+                    <td>+<c:out value="${trace.additions}"/> / -<c:out value="${trace.retractions}"/></td>
+                    <td><c:out value="${trace.kicks}"/></td>
+                    <c:set var="durations" value="${trace.durations}"/>
+                    <c:forEach items="${tracer.histograms}" var="entry">
+                        <td><c:out value="${durations[entry.key]}" default="-"/></td>
+                    </c:forEach>
+                </tr>
+            </c:forEach>
+            </tbody>
+        </table>
+    </c:if>
+</div>
+</c:if>
+
+<c:if test="${not empty verdictRecorder and (shadowEnabled or verdictRecorder.total > 0)}">
+<div class="jive-contentBoxHeader"><fmt:message key="mucrtbl.page.shadow.header" /></div>
+<div class="jive-contentBox">
+    <c:if test="${shadowEnabled}">
+        <p><b><fmt:message key="mucrtbl.page.shadow.enabled" /></b></p>
+    </c:if>
+    <p><fmt:message key="mucrtbl.page.shadow.description"><fmt:param value="${verdictRecorder.sampleRate}"/></fmt:message></p>
+    <c:choose>
+        <c:when test="${verdictRecorder.total == 0}">
+            <p><i><fmt:message key="mucrtbl.page.shadow.none" /></i></p>
+        </c:when>
+        <c:otherwise>
+            <table class="jive-table" cellpadding="0" cellspacing="0" border="0" width="100%">
+                <thead>
+                <tr>
+                    <th><fmt:message key="mucrtbl.page.shadow.service" /></th>
+                    <th><fmt:message key="mucrtbl.page.shadow.count" /></th>
+                </tr>
+                </thead>
+                <tbody>
+                <c:forEach items="${verdictRecorder.counts}" var="entry">
+                    <tr>
+                        <td><c:out value="${entry.key}"/></td>
+                        <td><c:out value="${entry.value}"/></td>
+                    </tr>
+                </c:forEach>
+                </tbody>
+            </table>
+            <br/>
+            <table class="jive-table" cellpadding="0" cellspacing="0" border="0" width="100%">
+                <thead>
+                <tr>
+                    <th><fmt:message key="mucrtbl.page.shadow.timestamp" /></th>
+                    <th><fmt:message key="mucrtbl.page.shadow.source" /></th>
+                    <th><fmt:message key="mucrtbl.page.shadow.entity" /></th>
+                    <th><fmt:message key="mucrtbl.page.shadow.target" /></th>
+                </tr>
+                </thead>
+                <tbody>
+                <c:forEach items="${verdictRecorder.samples}" var="sample">
+                    <tr>
+                        <td><c:out value="${sample.timestamp}"/></td>
+                        <td><c:out value="${sample.source}"/></td>
+                        <td><c:out value="${sample.entity}"/></td>
+                        <td><c:out value="${sample.target}"/></td>
+                    </tr>
+                </c:forEach>
+                </tbody>
+            </table>
+        </c:otherwise>
+    </c:choose>
+</div>
+</c:if>
+
+<c:if test="${not empty pubSubHandler}">
+<div class="jive-contentBoxHeader"><fmt:message key="mucrtbl.page.diagnostics.header" /></div>
+<div class="jive-contentBox">
+    <p><fmt:message key="mucrtbl.page.diagnostics.description" /></p>
+    <c:choose>
+        <c:when test="${empty pubSubHandler.diagnostics.history}">
+            <p><i><fmt:message key="mucrtbl.page.diagnostics.none" /></i></p>
+        </c:when>
+        <c:otherwise>
+            <table class="jive-table" cellpadding="0" cellspacing="0" border="0" width="100%">
+                <thead>
+                <tr>
+                    <th><fmt:message key="mucrtbl.page.diagnostics.timestamp" /></th>
+                    <th><fmt:message key="mucrtbl.page.diagnostics.kind" /></th>
+                    <th><fmt:message key="mucrtbl.page.diagnostics.items" /></th>
+                    <th><fmt:message key="mucrtbl.page.diagnostics.retractions" /></th>
+                    <th><fmt:message key="mucrtbl.page.diagnostics.size" /></th>
+                    <th><fmt:message key="mucrtbl.page.diagnostics.processingtime" /></th>
+                </tr>
+                </thead>
+                <tbody>
+                <c:forEach items="${pubSubHandler.diagnostics.history}" var="summary">
+                    <tr>
+                        <td><c:out value="${summary.timestamp}"/></td>
+                        <td><c:out value="${summary.kind}"/></td>
+                        <td><c:out value="${summary.items}"/></td>
+                        <td><c:out value="${summary.retractions}"/></td>
+                        <td><c:out value="${summary.estimatedSize}"/></td>
+                        <td><c:out value="${summary.processingTime}"/></td>
+                    </tr>
+                    <c:if test="${not empty summary.capture}">
+                        <tr>
+                            <td colspan="6"><code style="word-break: break-all"><c:out value="${summary.capture}"/></code></td>
+                        </tr>
+                    </c:if>
+                </c:forEach>
+                </tbody>
+            </table>
+        </c:otherwise>
+    </c:choose>
+</div>
+</c:if>
 </body>
 </html>
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xmpp.packet.JID;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link AuditLog}
+ */
+public class AuditLogTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Verifies that repeated decisions for the same sender and room (regardless of the resources of their addresses)
+     * are written as one aggregated record.
+     */
+    @Test
+    public void testDecisionsAreAggregated() throws Exception
+    {
+        // Setup test fixture.
+        final Path file = folder.getRoot().toPath().resolve("audit.log");
+        final AuditLog auditLog = new AuditLog(file, Duration.ofMinutes(1), 1024 * 1024, 2);
+        final JID spammer = new JID("spammer@example.org/resource");
+        final JID room = new JID("room@conference.example.com");
+        for (int i = 0; i < 100; i++) {
+            auditLog.record(VerdictRecorder.Source.STANZA, new JID(spammer.getNode(), spammer.getDomain(), "resource" + (i % 3)), new JID(room.getNode(), room.getDomain(), "nick" + (i % 2)));
+        }
+        auditLog.record(VerdictRecorder.Source.JOIN, spammer, room);
+
+        // Execute system under test.
+        auditLog.flush();
+
+        // Verify results.
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.stream().anyMatch(line -> line.endsWith("\tSTANZA\t" + spammer.asBareJID() + "\t" + room + "\t100")));
+        assertTrue(lines.stream().anyMatch(line -> line.endsWith("\tJOIN\t" + spammer.asBareJID() + "\t" + room + "\t1")));
+        assertEquals(1, auditLog.getLoggedSenderCount());
+        assertEquals(101, auditLog.getTotalDecisions());
+        assertEquals(2, auditLog.getTotalRecordsWritten());
+        assertEquals(0, auditLog.getPendingAggregates());
+    }
+
+    /**
+     * Verifies that no decisions are lost when they are recorded while the aggregates are being written.
+     */
+    @Test
+    public void testConcurrentFlushLosesNoDecisions() throws Exception
+    {
+        // Setup test fixture.
+        final Path file = folder.getRoot().toPath().resolve("audit.log");
+        final AuditLog auditLog = new AuditLog(file, Duration.ofMinutes(1), Long.MAX_VALUE, 0);
+        final JID spammer = new JID("spammer@example.org");
+        final JID room = new JID("room@conference.example.com");
+        final int decisions = 200_000;
+        final Thread recorder = new Thread(() -> {
+            for (int i = 0; i < decisions; i++) {
+                auditLog.record(VerdictRecorder.Source.STANZA, spammer, room);
+            }
+        });
+
+        // Execute system under test.
+        recorder.start();
+        while (recorder.isAlive()) {
+            auditLog.flush();
+        }
+        recorder.join();
+        auditLog.flush();
+
+        // Verify results.
+        final long written = Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+            .mapToLong(line -> Long.parseLong(line.substring(line.lastIndexOf('\t') + 1)))
+            .sum();
+        assertEquals(decisions, written);
+    }
+
+    /**
+     * Verifies that nothing is written when no decisions were made in an interval.
+     */
+    @Test
+    public void testEmptyIntervalNotWritten() throws Exception
+    {
+        // Setup test fixture.
+        final Path file = folder.getRoot().toPath().resolve("audit.log");
+        final AuditLog auditLog = new AuditLog(file, Duration.ofMinutes(1), 1024 * 1024, 2);
+
+        // Execute system under test.
+        auditLog.flush();
+
+        // Verify results.
+        assertFalse(Files.exists(file));
+    }
+
+    /**
+     * Verifies that the file is rolled over when it exceeds its maximum size, retaining no more than the configured
+     * amount of rolled over files.
+     */
+    @Test
+    public void testRollOver() throws Exception
+    {
+        // Setup test fixture.
+        final Path file = folder.getRoot().toPath().resolve("audit.log");
+        final AuditLog auditLog = new AuditLog(file, Duration.ofMinutes(1), 1, 2);
+        final JID room = new JID("room@conference.example.com");
+
+        // Execute system under test.
+        for (int i = 0; i < 4; i++) {
+            auditLog.record(VerdictRecorder.Source.STANZA, new JID("spammer" + i + "@example.org"), room);
+            auditLog.flush();
+        }
+
+        // Verify results.
+        assertTrue(Files.exists(file));
+        assertTrue(Files.exists(Paths.get(file + ".1")));
+        assertTrue(Files.exists(Paths.get(file + ".2")));
+        assertFalse(Files.exists(Paths.get(file + ".3")));
+        assertTrue(Files.readAllLines(file, StandardCharsets.UTF_8).get(0).contains("spammer3@example.org"));
+        assertTrue(Files.readAllLines(Paths.get(file + ".2"), StandardCharsets.UTF_8).get(0).contains("spammer1@example.org"));
+    }
+
+    /**
+     * Verifies that the amount of senders that is tracked for logging purposes is bounded, like the aggregates are.
+     */
+    @Test
+    public void testLoggedSendersAreBounded() throws Exception
+    {
+        // Setup test fixture.
+        final AuditLog auditLog = new AuditLog(null, Duration.ofMinutes(1), 0, 0);
+        final JID room = new JID("room@conference.example.com");
+
+        // Execute system under test.
+        for (int i = 0; i < AuditLog.MAX_AGGREGATES + 100; i++) {
+            auditLog.record(VerdictRecorder.Source.STANZA, new JID("spammer" + i + "@example.org"), room);
+        }
+
+        // Verify results.
+        assertEquals(AuditLog.MAX_AGGREGATES, auditLog.getLoggedSenderCount());
+        assertEquals(AuditLog.MAX_AGGREGATES, auditLog.getPendingAggregates());
+        assertEquals(AuditLog.MAX_AGGREGATES + 100, auditLog.getTotalDecisions());
+    }
+
+    /**
+     * Verifies that the no-op audit log discards all decisions.
+     */
+    @Test
+    public void testNoneDiscardsDecisions() throws Exception
+    {
+        // Setup test fixture.
+        final JID spammer = new JID("spammer@example.org/resource");
+        final JID room = new JID("room@conference.example.com");
+
+        // Execute system under test.
+        AuditLog.NONE.record(VerdictRecorder.Source.STANZA, spammer, room);
+
+        // Verify results.
+        assertEquals(0, AuditLog.NONE.getTotalDecisions());
+        assertEquals(0, AuditLog.NONE.getPendingAggregates());
+    }
+}
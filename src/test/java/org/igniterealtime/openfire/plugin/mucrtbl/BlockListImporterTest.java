@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link BlockListImporter}
+ */
+public class BlockListImporterTest
+{
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    /**
+     * Verifies that valid entries are imported (with their reason), and that comments, empty lines and invalid entries
+     * are ignored.
+     */
+    @Test
+    public void testImport() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final String input = "# Comment\n"
+            + "\n"
+            + "BD42AD42BF32B98A903F3C3EB5206D9BB318DF597DB9DF7167ED6659DB4B3F7D Spam: unit test\n"
+            + "bfabc37432958b063360d3ad6461c9c4735ae7f8edd46592a5e0f01452b2e4b5\n"
+            + "not-a-hash reason\n"
+            + "7d8fb65cd03bbb40033ff79454b2ef8c95d654e8eff8fa5e2770492d9aa31e5\n";
+
+        // Execute system under test
+        final BlockListImporter.Result result = new BlockListImporter(bl).importFrom(new BufferedReader(new StringReader(input)));
+
+        // Verify results
+        assertEquals(6, result.getLines());
+        assertEquals(2, result.getEntries());
+        assertEquals(2, result.getInvalid());
+        assertEquals(2, result.getAdded());
+        assertEquals("Spam: unit test", bl.getAll().get("bd42ad42bf32b98a903f3c3eb5206d9bb318df597db9df7167ed6659db4b3f7d"));
+        assertEquals("", bl.getAll().get("bfabc37432958b063360d3ad6461c9c4735ae7f8edd46592a5e0f01452b2e4b5"));
+    }
+
+    /**
+     * Verifies that entries are added in batches, dispatching one event per batch.
+     */
+    @Test
+    public void testImportInBatches() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final List<Integer> events = new ArrayList<>();
+        bl.register(new BlockListEventListener() {
+            @Override
+            public void added(final Set<String> hashes) {
+                events.add(hashes.size());
+            }
+
+            @Override
+            public void removed(final Set<String> hashes) {}
+        });
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 250; i++) {
+            input.append(String.format("%064x", i)).append('\n');
+        }
+
+        // Execute system under test
+        final BlockListImporter.Result result = new BlockListImporter(bl, 100).importFrom(new BufferedReader(new StringReader(input.toString())));
+
+        // Verify results
+        assertEquals(250, result.getAdded());
+        assertEquals(250, bl.getAll().size());
+        assertEquals(3, events.size());
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests that verify that {@link BlockList} and the dispatching of its events to listeners behave correctly when
+ * used by many threads at the same time.
+ *
+ * Writer threads each own a distinct set of entities, that they add to and remove from the block list (in batches, by
+ * using addAll, removeAll and update). As only the owner of an entity changes it, the outcome of every change of that
+ * entity is known, and is verified after every change by its owner (read-your-writes). Reader threads concurrently look
+ * up entities that are on the block list for the entire duration of the test, and entities that never are. Other
+ * threads register and unregister event listeners while changes are being dispatched. A listener that is registered
+ * throughout verifies that every change is delivered exactly once, and in order.
+ *
+ * By default, every test runs for a short time. To find races that only show under sustained load, run the tests for a
+ * longer time, with more threads, eg: <code>mvn test -Dtest=BlockListStressTest -Dmucrtbl.stress.seconds=300 -Dmucrtbl.stress.threads=16</code>
+ */
+public class BlockListStressTest
+{
+    private static final long DURATION_SECONDS = Long.getLong("mucrtbl.stress.seconds", 2);
+    private static final int THREADS = Integer.getInteger("mucrtbl.stress.threads", 4);
+    private static final int ENTITIES_PER_WRITER = 64;
+    private static final int PERMANENT_ENTITIES = 32;
+
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    private static JID entity(final String name)
+    {
+        return new JID(name + "@stress.example.org");
+    }
+
+    private static String hash(final JID entity)
+    {
+        return StringUtils.hash(entity.toBareJID(), "SHA-256");
+    }
+
+    /**
+     * Verifies that changes by concurrent writers are immediately visible to the writer that made them, that entities
+     * that are not changed are consistently found (or not found) by concurrent readers, that listeners receive every
+     * change exactly once, and that the size and digest of the block list are consistent afterwards.
+     */
+    @Test
+    public void testConcurrentMutationsLookupsAndListeners() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final List<JID> permanent = new ArrayList<>();
+        final List<JID> absent = new ArrayList<>();
+        final Map<String, String> initial = new HashMap<>();
+        for (int i = 0; i < PERMANENT_ENTITIES; i++) {
+            permanent.add(entity("permanent-" + i));
+            absent.add(entity("absent-" + i));
+            initial.put(hash(permanent.get(i)), "permanent");
+        }
+        bl.addAll(initial);
+
+        final Queue<String> failures = new ConcurrentLinkedQueue<>();
+        final DeliveryVerifier verifier = new DeliveryVerifier(failures);
+        bl.register(verifier);
+
+        final JID[][] owned = new JID[THREADS][ENTITIES_PER_WRITER];
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < ENTITIES_PER_WRITER; i++) {
+                owned[t][i] = entity("writer-" + t + "-" + i);
+            }
+        }
+        final boolean[][] present = new boolean[THREADS][ENTITIES_PER_WRITER];
+        final AtomicLong operations = new AtomicLong();
+        final AtomicInteger transientDeliveries = new AtomicInteger();
+
+        final List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int writer = t;
+            tasks.add(() -> write(bl, owned[writer], present[writer], failures, operations));
+        }
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> read(bl, permanent, absent, failures, operations));
+        }
+        tasks.add(() -> churnListeners(bl, transientDeliveries, operations));
+
+        // Execute system under test.
+        runConcurrently(tasks, failures);
+
+        // Verify results.
+        assertTrue("Failures: " + failures, failures.isEmpty());
+        assertTrue(operations.get() > 0);
+
+        int expectedSize = PERMANENT_ENTITIES;
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < ENTITIES_PER_WRITER; i++) {
+                final JID jid = owned[t][i];
+                assertEquals("Block list state of " + jid, present[t][i], bl.contains(jid));
+                assertEquals("Delivered changes of " + jid, present[t][i] ? 1 : 0, verifier.getBalance(hash(jid)));
+                if (present[t][i]) {
+                    expectedSize++;
+                }
+            }
+        }
+        for (final JID jid : permanent) {
+            assertTrue(bl.contains(jid));
+        }
+        assertEquals(expectedSize, bl.size());
+        assertEquals(0, bl.getMissingCount());
+    }
+
+    /**
+     * Verifies that listeners that are registered and unregistered while changes are dispatched do not cause the
+     * dispatch (and therefore the change) to fail, and that listeners that remain registered keep receiving changes.
+     */
+    @Test
+    public void testListenerRegistrationDuringDispatch() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final Queue<String> failures = new ConcurrentLinkedQueue<>();
+        final DeliveryVerifier verifier = new DeliveryVerifier(failures);
+        bl.register(verifier);
+        final AtomicLong operations = new AtomicLong();
+        final AtomicInteger transientDeliveries = new AtomicInteger();
+        final JID[] owned = new JID[ENTITIES_PER_WRITER];
+        for (int i = 0; i < ENTITIES_PER_WRITER; i++) {
+            owned[i] = entity("churn-" + i);
+        }
+        final boolean[] present = new boolean[ENTITIES_PER_WRITER];
+
+        final List<Runnable> tasks = new ArrayList<>();
+        tasks.add(() -> write(bl, owned, present, failures, operations));
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> churnListeners(bl, transientDeliveries, operations));
+        }
+
+        // Execute system under test.
+        runConcurrently(tasks, failures);
+
+        // Verify results.
+        assertTrue("Failures: " + failures, failures.isEmpty());
+        for (int i = 0; i < ENTITIES_PER_WRITER; i++) {
+            assertEquals(present[i] ? 1 : 0, verifier.getBalance(hash(owned[i])));
+        }
+        assertTrue(bl.unregister(verifier));
+    }
+
+    /**
+     * Runs all tasks concurrently and repeatedly, until the configured duration has passed. Exceptions thrown by a task
+     * are recorded as failures.
+     */
+    private static void runConcurrently(final List<Runnable> tasks, final Queue<String> failures) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(tasks.size());
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            final Runnable task = tasks.get(i);
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline && failures.isEmpty()) {
+                        task.run();
+                    }
+                } catch (Throwable t) {
+                    failures.add(Thread.currentThread().getName() + ": " + t);
+                } finally {
+                    finished.countDown();
+                }
+            }, "mucrtbl-stress-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        if (!finished.await(DURATION_SECONDS + 30, TimeUnit.SECONDS)) {
+            threads.forEach(Thread::interrupt);
+            failures.add("Tasks did not finish in time (possible deadlock).");
+        }
+    }
+
+    /**
+     * Applies one random change to some of the entities that are owned by the calling thread, and verifies that the
+     * outcome is visible immediately.
+     */
+    private static void write(final BlockList bl, final JID[] owned, final boolean[] present, final Queue<String> failures, final AtomicLong operations)
+    {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Set<Integer> toAdd = new HashSet<>();
+        final Set<Integer> toRemove = new HashSet<>();
+        final int batch = 1 + random.nextInt(8);
+        final int operation = random.nextInt(3);
+        for (int n = 0; n < batch; n++) {
+            final int i = random.nextInt(owned.length);
+            if (operation == 0 || (operation == 2 && !present[i] && !toRemove.contains(i))) {
+                toAdd.add(i);
+            } else if (!toAdd.contains(i)) {
+                toRemove.add(i);
+            }
+        }
+
+        final Map<String, String> additions = new HashMap<>();
+        toAdd.forEach(i -> additions.put(hash(owned[i]), "stress"));
+        final Collection<String> removals = new ArrayList<>();
+        toRemove.forEach(i -> removals.add(hash(owned[i])));
+
+        if (operation == 0) {
+            bl.addAll(additions);
+        } else if (operation == 1) {
+            bl.removeAll(removals);
+        } else {
+            bl.update(additions, removals);
+        }
+        operations.incrementAndGet();
+
+        for (final int i : toAdd) {
+            present[i] = true;
+            if (!bl.contains(owned[i])) {
+                failures.add("Entity was added, but is not on the block list: " + owned[i]);
+            }
+        }
+        for (final int i : toRemove) {
+            present[i] = false;
+            if (bl.contains(owned[i])) {
+                failures.add("Entity was removed, but is on the block list: " + owned[i]);
+            }
+        }
+    }
+
+    /**
+     * Looks up entities that are on the block list for the entire duration of the test, and entities that never are.
+     */
+    private static void read(final BlockList bl, final List<JID> permanent, final List<JID> absent, final Queue<String> failures, final AtomicLong operations)
+    {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final JID blocked = permanent.get(random.nextInt(permanent.size()));
+        final JID clean = absent.get(random.nextInt(absent.size()));
+        switch (random.nextInt(3)) {
+            case 0:
+                if (!bl.contains(blocked)) {
+                    failures.add("Entity is not on the block list, but should be: " + blocked);
+                }
+                if (bl.contains(clean)) {
+                    failures.add("Entity is on the block list, but should not be: " + clean);
+                }
+                break;
+            case 1:
+                final Set<JID> filtered = bl.filterBlocked(permanent.size() > 4 ? permanent.subList(0, 4) : permanent);
+                if (filtered.size() != Math.min(4, permanent.size())) {
+                    failures.add("Not all entities that are on the block list were filtered: " + filtered);
+                }
+                if (!bl.filterBlocked(absent).isEmpty()) {
+                    failures.add("Entities that are not on the block list were filtered.");
+                }
+                break;
+            default:
+                if (!bl.lookup(blocked).isBlocked()) {
+                    failures.add("Lookup did not find entity: " + blocked);
+                }
+                if (bl.size() < permanent.size()) {
+                    failures.add("Size is less than the amount of entities that are on the block list: " + bl.size());
+                }
+                break;
+        }
+        operations.incrementAndGet();
+    }
+
+    /**
+     * Registers a listener, and unregisters it again after a short while.
+     */
+    private static void churnListeners(final BlockList bl, final AtomicInteger deliveries, final AtomicLong operations)
+    {
+        final BlockListEventListener listener = new BlockListEventListener() {
+            @Override
+            public void added(final Set<String> hashes) {
+                deliveries.incrementAndGet();
+            }
+
+            @Override
+            public void removed(final Set<String> hashes) {
+                deliveries.incrementAndGet();
+            }
+        };
+        bl.register(listener);
+        Thread.yield();
+        bl.unregister(listener);
+        operations.incrementAndGet();
+    }
+
+    /**
+     * An event listener that keeps track of the balance of additions and removals of every hash. As a hash cannot be
+     * added when it is already on the block list (or removed when it is not), a balance other than 0 or 1 indicates a
+     * change that was delivered more than once, or out of order.
+     */
+    private static class DeliveryVerifier implements BlockListEventListener
+    {
+        private final Map<String, AtomicInteger> balances = new ConcurrentHashMap<>();
+        private final Queue<String> failures;
+
+        DeliveryVerifier(final Queue<String> failures)
+        {
+            this.failures = failures;
+        }
+
+        @Override
+        public void added(final Set<String> hashes)
+        {
+            for (final String hash : hashes) {
+                final int balance = balances.computeIfAbsent(hash, h -> new AtomicInteger()).incrementAndGet();
+                if (balance != 1) {
+                    failures.add("Addition of " + hash + " resulted in a balance of " + balance);
+                }
+            }
+        }
+
+        @Override
+        public void removed(final Set<String> hashes)
+        {
+            for (final String hash : hashes) {
+                final int balance = balances.computeIfAbsent(hash, h -> new AtomicInteger()).decrementAndGet();
+                if (balance != 0) {
+                    failures.add("Removal of " + hash + " resulted in a balance of " + balance);
+                }
+            }
+        }
+
+        int getBalance(final String hash)
+        {
+            final AtomicInteger balance = balances.get(hash);
+            return balance == null ? 0 : balance.get();
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.igniterealtime.openfire.plugin.mucrtbl;
 
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
 import org.junit.After;
 import org.junit.Before;
@@ -24,6 +26,9 @@ import org.xmpp.packet.JID;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -241,4 +246,305 @@ public class BlockListTest
         assertEquals(expected.size(), result.size());
         assertTrue(result.containsAll(expected));
     }
+
+    /**
+     * Verifies that the digest of a block list is equal to the digest of the hashes that were added to it, regardless
+     * of the order in which they were added, and that it reflects removals.
+     */
+    @Test
+    public void testDigest() throws Exception
+    {
+        // Setup test fixture.
+        final String hashA = "bd42ad42bf32b98a903f3c3eb5206d9bb318df597db9df7167ed6659db4b3f7d"; // unit-test@xmpp.org
+        final String hashB = "bfabc37432958b063360d3ad6461c9c4735ae7f8edd46592a5e0f01452b2e4b5"; // example.org
+        final String hashC = "7d8fb65cd03bbb40033ff79454b2ef8c95d654e8eff8fa5e2770492d9aa31e56"; // unit-test@example.org
+        final BlockList bl = new BlockList();
+
+        // Execute system under test
+        bl.add(hashC, "unit-test");
+        bl.add(hashA, "unit-test");
+        bl.add(hashB, "unit-test");
+        bl.remove(hashC);
+
+        // Verify results
+        assertEquals(BlockList.Digest.of(Arrays.asList(hashA, hashB)), bl.getDigest());
+        assertNotEquals(BlockList.Digest.of(Arrays.asList(hashA, hashC)), bl.getDigest());
+    }
+
+    /**
+     * Verifies that a JID on a subdomain of a domain that is on the block list is not considered to be on the block
+     * list, when matching of parent domains is not enabled.
+     */
+    @Test
+    public void testParentDomainNotMatchedByDefault() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.add(StringUtils.hash("example.org", "SHA-256"), "unit-test");
+        final JID target = new JID("unit-test@chat.spam.example.org/resource");
+
+        // Execute system under test
+        final boolean result = bl.contains(target);
+
+        // Verify results
+        assertFalse(result);
+    }
+
+    /**
+     * Verifies that a JID on a subdomain of a domain that is on the block list is considered to be on the block list,
+     * when matching of parent domains is enabled.
+     */
+    @Test
+    public void testParentDomainMatched() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.setMatchParentDomains(true);
+        bl.add(StringUtils.hash("example.org", "SHA-256"), "unit-test");
+        final JID target = new JID("unit-test@chat.spam.example.org/resource");
+        final JID other = new JID("unit-test@example.com/resource");
+
+        // Execute system under test
+        final boolean result = bl.contains(target);
+        final Set<JID> filtered = bl.filterBlocked(Arrays.asList(target, other));
+
+        // Verify results
+        assertTrue(result);
+        assertEquals(Collections.singleton(target), filtered);
+    }
+
+    /**
+     * Verifies that a top-level domain on the block list does not cause all of its subdomains to be blocked.
+     */
+    @Test
+    public void testTopLevelDomainNotMatched() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.setMatchParentDomains(true);
+        bl.add(StringUtils.hash("org", "SHA-256"), "unit-test");
+        final JID target = new JID("unit-test@example.org/resource");
+
+        // Execute system under test
+        final boolean result = bl.contains(target);
+
+        // Verify results
+        assertFalse(result);
+    }
+
+    /**
+     * Verifies that a JID that is on the block list, but also on the allow-list, is not considered to be blocked.
+     */
+    @Test
+    public void testAllowedJidOverridesBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.add(StringUtils.hash("unit-test@xmpp.org", "SHA-256"), "unit-test");
+        bl.setAllowList(Collections.singleton(new JID("unit-test@xmpp.org/other-resource")));
+        final JID target = new JID("unit-test@xmpp.org/resource");
+
+        // Execute system under test
+        final boolean result = bl.contains(target);
+        final Set<JID> filtered = bl.filterBlocked(Collections.singleton(target));
+
+        // Verify results
+        assertFalse(result);
+        assertTrue(filtered.isEmpty());
+    }
+
+    /**
+     * Verifies that an allowed domain overrides a blocked domain, while other blocked JIDs remain blocked.
+     */
+    @Test
+    public void testAllowedDomainOverridesBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.add(StringUtils.hash("xmpp.org", "SHA-256"), "unit-test");
+        bl.add(StringUtils.hash("spammer@example.org", "SHA-256"), "unit-test");
+        bl.setAllowList(Collections.singleton(new JID("xmpp.org")));
+        final JID allowed = new JID("unit-test@xmpp.org/resource");
+        final JID blocked = new JID("spammer@example.org/resource");
+
+        // Execute system under test
+        final Set<JID> filtered = bl.filterBlocked(Arrays.asList(allowed, blocked));
+
+        // Verify results
+        assertFalse(bl.contains(allowed));
+        assertTrue(bl.contains(blocked));
+        assertEquals(Collections.singleton(blocked), filtered);
+    }
+
+    /**
+     * Verifies that an allowed parent domain overrides the block list when matching of parent domains is enabled.
+     */
+    @Test
+    public void testAllowedParentDomain() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.setMatchParentDomains(true);
+        bl.add(StringUtils.hash("chat.example.org", "SHA-256"), "unit-test");
+        bl.setAllowList(Collections.singleton(new JID("example.org")));
+        final JID target = new JID("unit-test@chat.example.org/resource");
+
+        // Execute system under test
+        final boolean result = bl.contains(target);
+
+        // Verify results
+        assertFalse(result);
+    }
+
+    /**
+     * Creates a block list that is backed by a cache that has the capacity for two (but not three) entries.
+     */
+    private static BlockList createBlockListWithCapacityForTwo()
+    {
+        final Cache<String, String> cache = CacheFactory.createLocalCache("MUC RealTime Block List (capacity test)");
+        cache.clear();
+        final long entrySize = BlockList.estimateEntrySize(StringUtils.hash("user@example.org", "SHA-256"), "");
+        cache.setMaxCacheSize(entrySize * 5 / 2 * 100 / 95 + 100);
+        return new BlockList(cache);
+    }
+
+    /**
+     * Verifies that entries that do not fit in the cache are not added when the overflow strategy is 'refuse'.
+     */
+    @Test
+    public void testOverflowRefuse() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = createBlockListWithCapacityForTwo();
+        bl.setOverflowStrategy(BlockList.OverflowStrategy.REFUSE);
+        final Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            entries.put(StringUtils.hash("user" + i + "@example.org", "SHA-256"), "");
+        }
+
+        // Execute system under test
+        final int added = bl.addAll(entries);
+
+        // Verify results
+        assertEquals(2, added);
+        assertEquals(2, bl.size());
+        assertEquals(3, bl.getRefusedCount());
+        assertTrue(bl.isCapacityWarning());
+        assertEquals(0, bl.getMissingCount());
+    }
+
+    /**
+     * Verifies that entries that do not fit in the cache are still blocked when the overflow strategy is 'spill', and
+     * that they can be removed.
+     */
+    @Test
+    public void testOverflowSpill() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = createBlockListWithCapacityForTwo();
+        bl.setOverflowStrategy(BlockList.OverflowStrategy.SPILL);
+        final Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            entries.put(StringUtils.hash("user" + i + "@example.org", "SHA-256"), "");
+        }
+
+        // Execute system under test
+        final int added = bl.addAll(entries);
+
+        // Verify results
+        assertEquals(5, added);
+        assertEquals(5, bl.size());
+        assertEquals(3, bl.getSpillStore().size());
+        assertEquals(5, bl.getDigest().getCount());
+        assertEquals(entries.keySet(), bl.getAll().keySet());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bl.contains(new JID("user" + i + "@example.org/resource")));
+        }
+        bl.removeAll(entries.keySet());
+        assertEquals(0, bl.size());
+        assertEquals(0, bl.getUsedBytes());
+        assertFalse(bl.contains(new JID("user4@example.org/resource")));
+    }
+
+    /**
+     * Verifies that the memory footprint of entries is accounted for as entries are added and removed.
+     */
+    @Test
+    public void testFootprintAccounting() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final String hash = StringUtils.hash("user@example.org", "SHA-256");
+
+        // Execute system under test
+        bl.add(hash, "spam");
+        final long used = bl.getUsedBytes();
+        bl.remove(hash);
+
+        // Verify results
+        assertEquals(BlockList.estimateEntrySize(hash, "spam"), used);
+        assertEquals(0, bl.getUsedBytes());
+        assertTrue(bl.getHeadroom() > 0);
+    }
+
+    /**
+     * Verifies that a lookup explains that a JID is blocked because of its bare JID, including the reason.
+     */
+    @Test
+    public void testLookupBareJid() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final String hash = StringUtils.hash("spammer@example.org", "SHA-256");
+        bl.add(hash, "spam");
+
+        // Execute system under test
+        final BlockList.Lookup result = bl.lookup(new JID("spammer@example.org/resource"));
+
+        // Verify results
+        assertTrue(result.isBlocked());
+        assertFalse(result.isAllowed());
+        assertEquals("spammer@example.org", result.getMatchedEntity());
+        assertEquals(hash, result.getMatchedHash());
+        assertEquals("spam", result.getReason());
+    }
+
+    /**
+     * Verifies that a lookup explains that a JID is blocked because of a parent domain of its domain.
+     */
+    @Test
+    public void testLookupParentDomain() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.setMatchParentDomains(true);
+        bl.add(StringUtils.hash("example.org", "SHA-256"), "rogue server");
+
+        // Execute system under test
+        final BlockList.Lookup result = bl.lookup(new JID("user@chat.spam.example.org"));
+
+        // Verify results
+        assertTrue(result.isBlocked());
+        assertEquals("example.org", result.getMatchedEntity());
+        assertEquals("rogue server", result.getReason());
+    }
+
+    /**
+     * Verifies that a lookup of a JID that is neither blocked nor allowed does not report a match.
+     */
+    @Test
+    public void testLookupClean() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.add(StringUtils.hash("spammer@example.org", "SHA-256"), "spam");
+
+        // Execute system under test
+        final BlockList.Lookup result = bl.lookup(new JID("user@example.org"));
+
+        // Verify results
+        assertFalse(result.isBlocked());
+        assertFalse(result.isAllowed());
+        assertNull(result.getMatchedEntity());
+    }
 }
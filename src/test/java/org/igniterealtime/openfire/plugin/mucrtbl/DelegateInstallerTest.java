@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.muc.MUCEventDelegate;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.muc.spi.MultiUserChatServiceImpl;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Presence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the implementation of {@link DelegateInstaller}.
+ */
+public class DelegateInstallerTest
+{
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    private static DelegateInstaller createInstaller(final RTBLMUCEventDelegate delegate, final MultiUserChatService service)
+    {
+        return new DelegateInstaller(delegate) {
+            @Override
+            protected MultiUserChatService getMultiUserChatService(final JID address) {
+                return "conference.example.org".equals(address.getDomain()) ? service : null;
+            }
+
+            @Override
+            protected List<MultiUserChatService> getMultiUserChatServices() {
+                return Collections.singletonList(service);
+            }
+        };
+    }
+
+    private static Presence join(final String room)
+    {
+        final Presence presence = new Presence();
+        presence.setFrom(new JID("user@example.org/resource"));
+        presence.setTo(new JID(room));
+        return presence;
+    }
+
+    /**
+     * Verifies that the delegate is installed on a service when the first stanza addressed to it is intercepted, and
+     * that the service is not inspected again for later stanzas.
+     */
+    @Test
+    public void testInstalledOnFirstStanza() throws Exception
+    {
+        // Setup test fixture.
+        final RTBLMUCEventDelegate delegate = new RTBLMUCEventDelegate(new BlockList());
+        final MultiUserChatServiceImpl service = mock(MultiUserChatServiceImpl.class);
+        final DelegateInstaller installer = createInstaller(delegate, service);
+
+        // Execute system under test.
+        installer.interceptPacket(join("lobby@conference.example.org/nick"), null, true, false);
+        installer.interceptPacket(join("other@conference.example.org/nick"), null, true, false);
+
+        // Verify results.
+        verify(service, times(1)).setMUCDelegate(delegate);
+        verify(service, times(1)).getMUCDelegate();
+    }
+
+    /**
+     * Verifies that a delegate that was installed by others is not replaced, and that services that were marked as seen
+     * are not modified.
+     */
+    @Test
+    public void testExistingDelegateKept() throws Exception
+    {
+        // Setup test fixture.
+        final RTBLMUCEventDelegate delegate = new RTBLMUCEventDelegate(new BlockList());
+        final MultiUserChatServiceImpl service = mock(MultiUserChatServiceImpl.class);
+        when(service.getMUCDelegate()).thenReturn(mock(MUCEventDelegate.class));
+        final MultiUserChatServiceImpl known = mock(MultiUserChatServiceImpl.class);
+        final DelegateInstaller installer = createInstaller(delegate, service);
+        final DelegateInstaller knownInstaller = createInstaller(delegate, known);
+        knownInstaller.markSeen(known);
+
+        // Execute system under test.
+        installer.interceptPacket(join("lobby@conference.example.org/nick"), null, true, false);
+        knownInstaller.interceptPacket(join("lobby@conference.example.org/nick"), null, true, false);
+
+        // Verify results.
+        verify(service, never()).setMUCDelegate(any());
+        verifyZeroInteractions(known);
+    }
+
+    /**
+     * Verifies that services that no longer exist are forgotten when a new service is seen.
+     */
+    @Test
+    public void testRemovedServicesForgotten() throws Exception
+    {
+        // Setup test fixture.
+        final RTBLMUCEventDelegate delegate = new RTBLMUCEventDelegate(new BlockList());
+        final List<MultiUserChatService> services = new ArrayList<>();
+        final MultiUserChatService[] current = new MultiUserChatService[1];
+        final DelegateInstaller installer = new DelegateInstaller(delegate) {
+            @Override
+            protected MultiUserChatService getMultiUserChatService(final JID address) {
+                return current[0];
+            }
+
+            @Override
+            protected List<MultiUserChatService> getMultiUserChatServices() {
+                return services;
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            current[0] = mock(MultiUserChatServiceImpl.class);
+            services.add(current[0]);
+            installer.interceptPacket(join("lobby@conference.example.org/nick"), null, true, false);
+            services.remove(current[0]); // The service is removed, and created again (as a new instance).
+        }
+
+        // Execute system under test.
+        current[0] = mock(MultiUserChatServiceImpl.class);
+        services.add(current[0]);
+        installer.interceptPacket(join("lobby@conference.example.org/nick"), null, true, false);
+
+        // Verify results.
+        assertEquals(1, installer.getSeenCount());
+        verify((MultiUserChatServiceImpl) current[0]).setMUCDelegate(delegate);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.StringUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link DomainHashChains}
+ */
+public class DomainHashChainsTest
+{
+    /**
+     * Verifies that the chain of a domain contains the hash of the domain and all of its parent domains, excluding the
+     * top-level domain.
+     */
+    @Test
+    public void testChain() throws Exception
+    {
+        // Execute system under test
+        final String[] result = DomainHashChains.compute("chat.spam.example.net");
+
+        // Verify results
+        assertArrayEquals(new String[] {
+            StringUtils.hash("chat.spam.example.net", "SHA-256"),
+            StringUtils.hash("spam.example.net", "SHA-256"),
+            StringUtils.hash("example.net", "SHA-256")
+        }, result);
+    }
+
+    /**
+     * Verifies that the chain of a single-label domain, and that of an IP address, contain only the hash of that value.
+     */
+    @Test
+    public void testNoParents() throws Exception
+    {
+        // Execute system under test
+        final String[] singleLabel = DomainHashChains.compute("localhost");
+        final String[] ipAddress = DomainHashChains.compute("192.168.0.1");
+
+        // Verify results
+        assertArrayEquals(new String[] { StringUtils.hash("localhost", "SHA-256") }, singleLabel);
+        assertArrayEquals(new String[] { StringUtils.hash("192.168.0.1", "SHA-256") }, ipAddress);
+    }
+
+    /**
+     * Verifies that the chain of a domain is computed once, and that the cache does not exceed its maximum size.
+     */
+    @Test
+    public void testCache() throws Exception
+    {
+        // Setup test fixture.
+        final DomainHashChains chains = new DomainHashChains(10);
+
+        // Execute system under test
+        final String[] first = chains.get("example.org");
+        final String[] second = chains.get("example.org");
+        for (int i = 0; i < 25; i++) {
+            chains.get("host" + i + ".example.org");
+        }
+
+        // Verify results
+        assertSame(first, second);
+        assertEquals(1, chains.getHits());
+        assertTrue(chains.size() <= 10);
+    }
+
+    /**
+     * Verifies that the hashes of parent domains are not computed when they are not asked for, and that they are
+     * computed when they are asked for later.
+     */
+    @Test
+    public void testExactDomainOnly() throws Exception
+    {
+        // Setup test fixture.
+        final DomainHashChains chains = new DomainHashChains();
+
+        // Execute system under test
+        final String[] exact = chains.get("chat.spam.example.net", false);
+        final String[] full = chains.get("chat.spam.example.net", true);
+        final String[] exactAgain = chains.get("chat.spam.example.net", false);
+
+        // Verify results
+        assertArrayEquals(new String[] { StringUtils.hash("chat.spam.example.net", "SHA-256") }, exact);
+        assertEquals(3, full.length);
+        assertSame(full, exactAgain);
+        assertEquals(2, chains.getMisses());
+        assertEquals(1, chains.getHits());
+    }
+
+    /**
+     * Verifies that the cache evicts the least recently used domains, rather than all of them, when it is full.
+     */
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception
+    {
+        // Setup test fixture.
+        final DomainHashChains chains = new DomainHashChains(64);
+        chains.get("frequent.example.org");
+
+        // Execute system under test
+        for (int i = 0; i < 1000; i++) {
+            chains.get("host" + i + ".example.org");
+            chains.get("frequent.example.org");
+        }
+
+        // Verify results
+        assertEquals(1000, chains.getHits());
+        assertTrue(chains.size() <= 64);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link EnforcementPolicy}
+ */
+public class EnforcementPolicyTest
+{
+    /**
+     * Verifies that the default mode applies to services and rooms that are not explicitly configured.
+     */
+    @Test
+    public void testDefaultMode() throws Exception
+    {
+        // Setup test fixture.
+        final EnforcementPolicy policy = EnforcementPolicy.parse(EnforcementPolicy.Mode.MONITOR, "");
+
+        // Execute system under test.
+        final EnforcementPolicy.Mode serviceMode = policy.getMode("conference");
+        final EnforcementPolicy.Mode roomMode = policy.getMode("conference", "lobby");
+
+        // Verify results.
+        assertEquals(EnforcementPolicy.Mode.MONITOR, serviceMode);
+        assertEquals(EnforcementPolicy.Mode.MONITOR, roomMode);
+        assertFalse(policy.isDisabled("conference"));
+    }
+
+    /**
+     * Verifies that a room-specific mode takes precedence over a service-specific mode, which takes precedence over the
+     * default mode.
+     */
+    @Test
+    public void testPrecedence() throws Exception
+    {
+        // Setup test fixture.
+        final EnforcementPolicy policy = EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, "internal=off, lobby@internal=Monitor public=enforce");
+
+        // Execute system under test.
+        final EnforcementPolicy.Mode room = policy.getMode("internal", "lobby");
+        final EnforcementPolicy.Mode otherRoom = policy.getMode("internal", "secret");
+        final EnforcementPolicy.Mode service = policy.getMode("internal", null);
+        final EnforcementPolicy.Mode otherService = policy.getMode("conference", "lobby");
+
+        // Verify results.
+        assertEquals(EnforcementPolicy.Mode.MONITOR, room);
+        assertEquals(EnforcementPolicy.Mode.OFF, otherRoom);
+        assertEquals(EnforcementPolicy.Mode.OFF, service);
+        assertEquals(EnforcementPolicy.Mode.ENFORCE, otherService);
+        assertEquals(EnforcementPolicy.Mode.ENFORCE, policy.getMode("public"));
+    }
+
+    /**
+     * Verifies that a service is only considered to be disabled when none of its rooms has a mode other than 'off'.
+     */
+    @Test
+    public void testDisabledService() throws Exception
+    {
+        // Setup test fixture.
+        final EnforcementPolicy policy = EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, "internal=off,partial=off,lobby@partial=enforce,quiet@conference=off");
+
+        // Execute system under test.
+        final boolean internal = policy.isDisabled("internal");
+        final boolean partial = policy.isDisabled("partial");
+        final boolean conference = policy.isDisabled("conference");
+        final boolean other = policy.isDisabled("other");
+
+        // Verify results.
+        assertTrue(internal);
+        assertFalse(partial);
+        assertFalse(conference);
+        assertFalse(other);
+    }
+
+    /**
+     * Verifies that entries that cannot be parsed are ignored, without affecting valid entries.
+     */
+    @Test
+    public void testInvalidEntriesIgnored() throws Exception
+    {
+        // Setup test fixture.
+        final String definition = "internal=off, =enforce, public, lobby@=off, @conference=off, conference=sometimes, Lobby@Conference=MONITOR";
+
+        // Execute system under test.
+        final EnforcementPolicy policy = EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, definition);
+
+        // Verify results.
+        assertEquals(1, policy.getServiceModes().size());
+        assertEquals(EnforcementPolicy.Mode.OFF, policy.getMode("internal"));
+        assertEquals(EnforcementPolicy.Mode.ENFORCE, policy.getMode("conference"));
+        assertEquals(EnforcementPolicy.Mode.MONITOR, policy.getMode("conference", "lobby"));
+    }
+
+    /**
+     * Verifies that the shadow version of a policy monitors the block list where the original enforces it, and leaves
+     * disabled services and rooms disabled.
+     */
+    @Test
+    public void testShadow() throws Exception
+    {
+        // Setup test fixture.
+        final EnforcementPolicy policy = EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, "internal=off, lobby@internal=enforce, quiet@conference=off");
+
+        // Execute system under test.
+        final EnforcementPolicy result = policy.asShadow();
+
+        // Verify results.
+        assertEquals(EnforcementPolicy.Mode.MONITOR, result.getMode("conference", "lobby"));
+        assertEquals(EnforcementPolicy.Mode.OFF, result.getMode("conference", "quiet"));
+        assertEquals(EnforcementPolicy.Mode.OFF, result.getMode("internal", "other"));
+        assertEquals(EnforcementPolicy.Mode.MONITOR, result.getMode("internal", "lobby"));
+    }
+
+    /**
+     * Verifies that service and room names are matched irrespective of their case.
+     */
+    @Test
+    public void testCaseInsensitiveLookup() throws Exception
+    {
+        // Setup test fixture.
+        final EnforcementPolicy policy = EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, "Internal=off, Lobby@Conference=monitor");
+
+        // Execute system under test.
+        final EnforcementPolicy.Mode service = policy.getMode("INTERNAL");
+        final EnforcementPolicy.Mode room = policy.getMode("conference", "LOBBY");
+        final boolean disabled = policy.isDisabled("InTeRnAl");
+
+        // Verify results.
+        assertEquals(EnforcementPolicy.Mode.OFF, service);
+        assertEquals(EnforcementPolicy.Mode.MONITOR, room);
+        assertTrue(disabled);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link EventIngestQueue}
+ */
+public class EventIngestQueueTest
+{
+    private static final String HASH_A = StringUtils.hash("a@example.org", "SHA-256");
+    private static final String HASH_B = StringUtils.hash("b@example.org", "SHA-256");
+    private static final String HASH_C = StringUtils.hash("c@example.org", "SHA-256");
+
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    /**
+     * Verifies that opposing operations on the same item within one batch cancel each other out, and that the net
+     * result is applied to the block list in one mutation.
+     */
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.add(HASH_C, "");
+        final List<Set<String>> added = new ArrayList<>();
+        final List<Set<String>> removed = new ArrayList<>();
+        bl.register(new BlockListEventListener() {
+            @Override
+            public void added(final Set<String> hashes) {
+                added.add(hashes);
+            }
+
+            @Override
+            public void removed(final Set<String> hashes) {
+                removed.add(hashes);
+            }
+        });
+        final EventIngestQueue queue = new EventIngestQueue(bl, 100, 100);
+
+        // Execute system under test
+        queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_A, "")); // published, then retracted: not added.
+        queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_B, "")); // published, retracted, then published again: added.
+        queue.submit(Arrays.asList(HASH_A, HASH_B), Collections.emptyMap());
+        queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_B, ""));
+        queue.submit(Collections.singleton(HASH_C), Collections.emptyMap());
+        queue.flush();
+
+        // Verify results
+        assertEquals(Collections.singleton(HASH_B), bl.getAll().keySet());
+        assertEquals(1, added.size());
+        assertEquals(Collections.singleton(HASH_B), added.get(0));
+        assertEquals(1, removed.size());
+        assertEquals(Collections.singleton(HASH_C), removed.get(0));
+        assertEquals(1, queue.getBatchesApplied());
+        assertEquals(6, queue.getOperationsSubmitted());
+        assertEquals(3, queue.getOperationsCoalesced());
+    }
+
+    /**
+     * Verifies that events are applied asynchronously, once started.
+     */
+    @Test
+    public void testWorkerAppliesEvents() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final EventIngestQueue queue = new EventIngestQueue(bl, 100, 10);
+
+        // Execute system under test
+        queue.start();
+        try {
+            queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_A, ""));
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (queue.getBatchesApplied() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            queue.stop();
+        }
+
+        // Verify results
+        assertEquals(Collections.singleton(HASH_A), bl.getAll().keySet());
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    /**
+     * Verifies that an event that is applied directly, because the submitting thread was interrupted, is applied after
+     * the events that were queued before it.
+     */
+    @Test
+    public void testInterruptedSubmissionAppliedAfterQueuedEvents() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final EventIngestQueue queue = new EventIngestQueue(bl, 100, 10);
+        queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_A, ""));
+
+        // Execute system under test
+        Thread.currentThread().interrupt();
+        queue.submit(Collections.singleton(HASH_A), Collections.emptyMap());
+        final boolean interrupted = Thread.interrupted();
+
+        // Verify results
+        assertTrue(interrupted);
+        assertEquals(0, queue.getQueueDepth());
+        assertTrue(bl.getAll().isEmpty());
+    }
+
+    /**
+     * Verifies that stopping the queue applies all queued events, and that events submitted afterwards are applied
+     * directly, in order.
+     */
+    @Test
+    public void testSubmitAfterStopAppliedInOrder() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final EventIngestQueue queue = new EventIngestQueue(bl, 100, 10);
+        queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_A, ""));
+
+        // Execute system under test
+        queue.stop();
+        queue.submit(Collections.singleton(HASH_A), Collections.singletonMap(HASH_B, ""));
+
+        // Verify results
+        assertEquals(Collections.singleton(HASH_B), bl.getAll().keySet());
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(2, queue.getBatchesApplied());
+    }
+}
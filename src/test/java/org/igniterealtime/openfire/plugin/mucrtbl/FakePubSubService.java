@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.jivesoftware.openfire.PacketRouter;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.PacketError;
+import org.xmpp.packet.Presence;
+
+import java.util.*;
+
+/**
+ * A local stand-in for a Pub/Sub service (XEP-0060) that hosts a block list node, to be used in unit tests.
+ *
+ * Requests that are routed to this instance are answered, but the answers are queued rather than delivered immediately.
+ * This allows tests to observe how many requests are in flight concurrently. Queued answers are delivered by invoking
+ * {@link #deliverAll(PubSubHandler)}.
+ */
+public class FakePubSubService implements PacketRouter
+{
+    private final String node;
+
+    /**
+     * The items on the node, in order of publication. Keys are item IDs, values are the optional text of a report.
+     */
+    private final LinkedHashMap<String, String> items = new LinkedHashMap<>();
+
+    private final Deque<IQ> pendingResponses = new ArrayDeque<>();
+
+    private int generated = 0;
+
+    private boolean supportsRsm = true;
+
+    private boolean supportsIndex = true;
+
+    private boolean ignoresIndex = false;
+
+    private boolean reportsCount = true;
+
+    private boolean responsive = true;
+
+    private boolean mostRecentFirst = true;
+
+    private int requestCount = 0;
+
+    private int maxRequestsInFlight = 0;
+
+    private int fullRequestCount = 0;
+
+    private int recentItemsRequestCount = 0;
+
+    private int itemIdsRequestCount = 0;
+
+    public FakePubSubService(final String node)
+    {
+        this.node = node;
+    }
+
+    public FakePubSubService withRsmSupport(final boolean supportsRsm)
+    {
+        this.supportsRsm = supportsRsm;
+        return this;
+    }
+
+    public FakePubSubService withIndexSupport(final boolean supportsIndex)
+    {
+        this.supportsIndex = supportsIndex;
+        return this;
+    }
+
+    /**
+     * Configures the service to ignore the index of requests for pages (returning the first page instead), rather than
+     * returning an error.
+     */
+    public FakePubSubService withIndexIgnored(final boolean ignoresIndex)
+    {
+        this.ignoresIndex = ignoresIndex;
+        return this;
+    }
+
+    public FakePubSubService withCountReported(final boolean reportsCount)
+    {
+        this.reportsCount = reportsCount;
+        return this;
+    }
+
+    public FakePubSubService withResponsiveness(final boolean responsive)
+    {
+        this.responsive = responsive;
+        return this;
+    }
+
+    public FakePubSubService withMostRecentFirst(final boolean mostRecentFirst)
+    {
+        this.mostRecentFirst = mostRecentFirst;
+        return this;
+    }
+
+    public void publish(final String itemId, final String text)
+    {
+        items.remove(itemId);
+        items.put(itemId, text);
+    }
+
+    public void retract(final String itemId)
+    {
+        items.remove(itemId);
+    }
+
+    /**
+     * Publishes a number of items, each having an ID that is a valid (but otherwise meaningless) SHA-256 hash.
+     *
+     * @param amount The amount of items to publish.
+     */
+    public void publishGenerated(final int amount)
+    {
+        for (int i = 0; i < amount; i++) {
+            publish(String.format("%064x", ++generated), "generated");
+        }
+    }
+
+    public int getRequestCount()
+    {
+        return requestCount;
+    }
+
+    public int getMaxRequestsInFlight()
+    {
+        return maxRequestsInFlight;
+    }
+
+    /**
+     * @return The amount of requests for all items (or the first page thereof) that were received.
+     */
+    public int getFullRequestCount()
+    {
+        return fullRequestCount;
+    }
+
+    /**
+     * @return The amount of requests for the most recent items (using 'max_items') that were received.
+     */
+    public int getRecentItemsRequestCount()
+    {
+        return recentItemsRequestCount;
+    }
+
+    /**
+     * @return The amount of requests for (a page of) the IDs of all items (using service discovery) that were received.
+     */
+    public int getItemIdsRequestCount()
+    {
+        return itemIdsRequestCount;
+    }
+
+    /**
+     * Delivers all queued responses (including responses to requests that are sent while delivering) to the handler.
+     *
+     * @param handler The handler to which to deliver responses.
+     */
+    public void deliverAll(final PubSubHandler handler)
+    {
+        IQ response;
+        while ((response = pendingResponses.poll()) != null) {
+            handler.processPacket(response);
+        }
+    }
+
+    @Override
+    public void route(final Packet packet)
+    {
+        if (packet instanceof IQ) {
+            route((IQ) packet);
+        }
+    }
+
+    @Override
+    public void route(final IQ packet)
+    {
+        requestCount++;
+        if (!responsive) {
+            return;
+        }
+        pendingResponses.add(answer(packet));
+        maxRequestsInFlight = Math.max(maxRequestsInFlight, pendingResponses.size());
+    }
+
+    @Override
+    public void route(final Message packet)
+    {
+    }
+
+    @Override
+    public void route(final Presence packet)
+    {
+    }
+
+    private IQ answer(final IQ request)
+    {
+        if ("http://jabber.org/protocol/disco#items".equals(request.getChildElement().getNamespaceURI())) {
+            itemIdsRequestCount++;
+            final List<String> ids = new ArrayList<>(items.keySet());
+            final Element requestSetEl = request.getChildElement().element(QName.get("set", PubSubHandler.RSM_NAMESPACE));
+            int from = 0;
+            int to = ids.size();
+            if (supportsRsm && requestSetEl != null) {
+                if (requestSetEl.element("after") != null) {
+                    from = ids.indexOf(requestSetEl.elementTextTrim("after")) + 1;
+                }
+                if (requestSetEl.element("max") != null) {
+                    to = Math.min(ids.size(), from + Integer.parseInt(requestSetEl.elementTextTrim("max")));
+                }
+            }
+            final IQ response = IQ.createResultIQ(request);
+            final Element queryEl = response.setChildElement("query", "http://jabber.org/protocol/disco#items");
+            queryEl.addAttribute("node", node);
+            for (final String id : ids.subList(from, to)) {
+                queryEl.addElement("item").addAttribute("jid", request.getTo().toString()).addAttribute("name", id);
+            }
+            if (supportsRsm && requestSetEl != null) {
+                final Element setEl = queryEl.addElement(QName.get("set", PubSubHandler.RSM_NAMESPACE));
+                if (from < to) {
+                    setEl.addElement("first").addAttribute("index", String.valueOf(from)).setText(ids.get(from));
+                    setEl.addElement("last").setText(ids.get(to - 1));
+                }
+                if (reportsCount) {
+                    setEl.addElement("count").setText(String.valueOf(ids.size()));
+                }
+            }
+            return response;
+        }
+
+        final Element requestItemsEl = request.getChildElement().element("items");
+        if (requestItemsEl == null) {
+            // Subscription requests and the like.
+            return IQ.createResultIQ(request);
+        }
+
+        // Like most implementations, return the most recent items first (unless configured otherwise).
+        final List<String> ids = new ArrayList<>(items.keySet());
+        if (mostRecentFirst) {
+            Collections.reverse(ids);
+        }
+        int from = 0;
+        int max = ids.size();
+        if (requestItemsEl.attributeValue("max_items") != null) {
+            max = Integer.parseInt(requestItemsEl.attributeValue("max_items"));
+            recentItemsRequestCount++;
+        }
+        final Element requestSetEl = request.getChildElement().element(QName.get("set", PubSubHandler.RSM_NAMESPACE));
+        if (requestSetEl != null && requestSetEl.element("after") == null && requestSetEl.element("index") == null) {
+            fullRequestCount++;
+        }
+        if (supportsRsm && requestSetEl != null) {
+            if (requestSetEl.element("max") != null) {
+                max = Integer.parseInt(requestSetEl.elementTextTrim("max"));
+            }
+            if (requestSetEl.element("index") != null) {
+                if (!supportsIndex) {
+                    final IQ error = IQ.createResultIQ(request);
+                    error.setType(IQ.Type.error);
+                    error.setError(PacketError.Condition.feature_not_implemented);
+                    return error;
+                }
+                from = ignoresIndex ? 0 : Integer.parseInt(requestSetEl.elementTextTrim("index"));
+            }
+            if (requestSetEl.element("after") != null) {
+                from = ids.indexOf(requestSetEl.elementTextTrim("after")) + 1;
+            }
+        }
+        final int to = Math.min(ids.size(), from + max);
+
+        final IQ response = IQ.createResultIQ(request);
+        final Element pubsubEl = response.setChildElement("pubsub", "http://jabber.org/protocol/pubsub");
+        final Element itemsEl = pubsubEl.addElement("items").addAttribute("node", node);
+        for (final String id : ids.subList(from, to)) {
+            final Element reportEl = itemsEl.addElement("item").addAttribute("id", id).addElement(QName.get("report", "urn:xmpp:reporting:1"));
+            reportEl.addAttribute("reason", "urn:xmpp:reporting:spam");
+            reportEl.addElement("text").setText(items.get(id));
+        }
+
+        if (supportsRsm && requestSetEl != null) {
+            final Element setEl = pubsubEl.addElement(QName.get("set", PubSubHandler.RSM_NAMESPACE));
+            if (from < to) {
+                setEl.addElement("first").addAttribute("index", String.valueOf(from)).setText(ids.get(from));
+                setEl.addElement("last").setText(ids.get(to - 1));
+            }
+            if (reportsCount) {
+                setEl.addElement("count").setText(String.valueOf(ids.size()));
+            }
+        }
+        return response;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.interceptor.PacketRejectedException;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify the implementation of {@link LegacyAddressInterceptor}.
+ */
+public class LegacyAddressInterceptorTest
+{
+    private static final JID ADDRESS = new JID("example.org/mucrtbl");
+
+    private static final JID SERVICE = new JID("xmppbl.org");
+
+    private static PubSubHandler createHandler()
+    {
+        final PubSubHandler handler = mock(PubSubHandler.class);
+        when(handler.getSelfAddress()).thenReturn(ADDRESS);
+        return handler;
+    }
+
+    /**
+     * Verifies that stanzas that are not addressed to the legacy address are not processed, nor rejected.
+     */
+    @Test
+    public void testUnrelatedStanzaIgnored() throws Exception
+    {
+        // Setup test fixture.
+        final PubSubHandler handler = createHandler();
+        final LegacyAddressInterceptor interceptor = new LegacyAddressInterceptor(handler);
+        final Message message = new Message();
+        message.setFrom(SERVICE);
+        message.setTo(new JID("user@example.org"));
+
+        // Execute system under test.
+        interceptor.interceptPacket(message, null, true, false);
+
+        // Verify results.
+        verify(handler, never()).processPacket(any());
+    }
+
+    /**
+     * Verifies that a response addressed to the legacy address is processed, and that its further processing is
+     * prevented.
+     */
+    @Test
+    public void testResponseProcessedAndRejected() throws Exception
+    {
+        // Setup test fixture.
+        final PubSubHandler handler = createHandler();
+        final LegacyAddressInterceptor interceptor = new LegacyAddressInterceptor(handler);
+        final IQ response = new IQ(IQ.Type.result);
+        response.setFrom(SERVICE);
+        response.setTo(ADDRESS);
+
+        // Execute system under test.
+        try {
+            interceptor.interceptPacket(response, null, true, false);
+            fail("Expected the stanza to be rejected.");
+        } catch (PacketRejectedException e) {
+            // Expected.
+        }
+
+        // Verify results.
+        verify(handler).processPacket(response);
+    }
+
+    /**
+     * Verifies that a request addressed to the legacy address is rejected without being processed.
+     */
+    @Test
+    public void testRequestRejected() throws Exception
+    {
+        // Setup test fixture.
+        final PubSubHandler handler = createHandler();
+        final LegacyAddressInterceptor interceptor = new LegacyAddressInterceptor(handler);
+        final IQ request = new IQ(IQ.Type.get);
+        request.setFrom(SERVICE);
+        request.setTo(ADDRESS);
+
+        // Execute system under test.
+        try {
+            interceptor.interceptPacket(request, null, true, false);
+            fail("Expected the stanza to be rejected.");
+        } catch (PacketRejectedException e) {
+            // Expected.
+        }
+
+        // Verify results.
+        verify(handler, never()).processPacket(any());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link Metrics}
+ */
+public class MetricsTest
+{
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    /**
+     * Verifies that a histogram reports the count, mean and maximum of the recorded values.
+     */
+    @Test
+    public void testHistogramCountMeanMax() throws Exception
+    {
+        // Setup test fixture.
+        final Metrics.Histogram histogram = new Metrics.Histogram();
+
+        // Execute system under test.
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(30);
+
+        // Verify results.
+        assertEquals(3, histogram.getCount());
+        assertEquals(20, histogram.getMean());
+        assertEquals(30, histogram.getMax());
+    }
+
+    /**
+     * Verifies that percentiles are approximated within a factor of two, and never exceed the maximum value.
+     */
+    @Test
+    public void testHistogramPercentiles() throws Exception
+    {
+        // Setup test fixture.
+        final Metrics.Histogram histogram = new Metrics.Histogram();
+
+        // Execute system under test.
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+
+        // Verify results.
+        final long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 100 && p50 < 200);
+        assertEquals(p50, histogram.getPercentile(99));
+        assertEquals(5000, histogram.getPercentile(100));
+    }
+
+    /**
+     * Verifies that an empty histogram reports zero for all values, including after a reset.
+     */
+    @Test
+    public void testHistogramReset() throws Exception
+    {
+        // Setup test fixture.
+        final Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.record(42);
+
+        // Execute system under test.
+        histogram.reset();
+
+        // Verify results.
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    /**
+     * Verifies that lookups on a block list are counted, as are the lookups that find a JID on the block list.
+     */
+    @Test
+    public void testBlockListLookupsAreCounted() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.getMetrics().setTimingSampleRate(1);
+        bl.add("d9ff28a2dc2b1a5b5f5bc7f3fc95a2c3a3b85efdb9c32dd5c1ca7ff4df6fc9e6", "unit-test");
+        final JID clean = new JID("unit-test@xmpp.org/resource");
+
+        // Execute system under test.
+        bl.contains(clean);
+        bl.filterBlocked(Arrays.asList(clean, new JID("other@xmpp.org")));
+
+        // Verify results.
+        final Metrics metrics = bl.getMetrics();
+        assertEquals(3, metrics.getLookups());
+        assertEquals(0, metrics.getHits());
+        assertTrue(metrics.getHashingNanos().getCount() > 0);
+        assertTrue(metrics.getLockHoldNanos().getCount() > 0);
+    }
+
+    /**
+     * Verifies that every lookup is counted, while only a sample of the lookups is timed.
+     */
+    @Test
+    public void testLookupTimingsAreSampled() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        bl.getMetrics().setTimingSampleRate(1000);
+        final JID clean = new JID("unit-test@xmpp.org/resource");
+
+        // Execute system under test.
+        for (int i = 0; i < 1000; i++) {
+            bl.contains(clean);
+        }
+
+        // Verify results.
+        final Metrics metrics = bl.getMetrics();
+        assertEquals(1000, metrics.getLookups());
+        assertTrue(metrics.getHashingNanos().getCount() < 1000);
+        assertTrue(metrics.getLockHoldNanos().getCount() < 1000);
+    }
+
+    /**
+     * Verifies that a reset clears both counters and histograms.
+     */
+    @Test
+    public void testReset() throws Exception
+    {
+        // Setup test fixture.
+        final Metrics metrics = new Metrics();
+        metrics.recordLookup(true);
+        metrics.recordKick();
+        metrics.recordSync(10, 1000);
+
+        // Execute system under test.
+        metrics.reset();
+
+        // Verify results.
+        assertEquals(0, metrics.getLookups());
+        assertEquals(0, metrics.getHits());
+        assertEquals(0, metrics.getKicks());
+        assertEquals(0, metrics.getSyncs());
+        assertEquals(0L, (long) metrics.getHistogramSummaries().get("syncItems.count"));
+    }
+}
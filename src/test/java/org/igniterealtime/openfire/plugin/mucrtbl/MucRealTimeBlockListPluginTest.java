@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.SessionManager;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.container.PluginManager;
+import org.jivesoftware.openfire.interceptor.InterceptorManager;
+import org.jivesoftware.openfire.muc.MultiUserChatManager;
+import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify that changes of the configuration of {@link MucRealTimeBlockListPlugin} restart only the parts
+ * of the plugin that are affected, and that the block list is only replaced when the Pub/Sub service or node changes.
+ */
+public class MucRealTimeBlockListPluginTest
+{
+    private static final int ITEM_COUNT = 25;
+
+    private FakePubSubService fake;
+
+    private MucRealTimeBlockListPlugin plugin;
+
+    /**
+     * Configures an Openfire home directory, which allows system properties to be set without a database.
+     */
+    @BeforeClass
+    public static void setUpOpenfireHome() throws Exception
+    {
+        final Path home = Files.createTempDirectory("mucrtbl-test");
+        Files.createDirectories(home.resolve("conf"));
+        Files.write(home.resolve("conf").resolve("openfire.xml"), Arrays.asList(
+            "<jive>",
+            "    <setup>true</setup>",
+            "    <database><maxRetries>0</maxRetries><retryDelay>0</retryDelay></database>",
+            "</jive>"), StandardCharsets.UTF_8);
+        JiveGlobals.setHomeDirectory(home.toString());
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+        MucRealTimeBlockListPlugin.reinitOnConfigChange = false;
+        JiveGlobals.getPropertyNames().forEach(JiveGlobals::deleteProperty);
+        MucRealTimeBlockListPlugin.AUDIT_FILE_ENABLED.setValue(false);
+
+        fake = new FakePubSubService(MucRealTimeBlockListPlugin.BLOCKLIST_SERVICE_NODE.getValue());
+        fake.publishGenerated(ITEM_COUNT);
+        plugin = new MucRealTimeBlockListPlugin();
+
+        final XMPPServer server = mock(XMPPServer.class);
+        final PluginManager pluginManager = mock(PluginManager.class);
+        doReturn(Optional.of(plugin)).when(pluginManager).getPluginByName("MUC Real-Time Block List");
+        doReturn(pluginManager).when(server).getPluginManager();
+        doReturn(mock(MultiUserChatManager.class)).when(server).getMultiUserChatManager();
+        doReturn(mock(SessionManager.class)).when(server).getSessionManager();
+        doReturn(fake).when(server).getPacketRouter();
+        doReturn(new JID(null, "example.org", "mucrtbl")).when(server).createJID(null, "mucrtbl");
+        XMPPServer.setInstance(server);
+
+        plugin.initializePlugin(null, null);
+        fake.deliverAll(plugin.getPubSubHandler());
+        MucRealTimeBlockListPlugin.reinitOnConfigChange = true;
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        MucRealTimeBlockListPlugin.reinitOnConfigChange = false;
+        plugin.destroyPlugin();
+        JiveGlobals.getPropertyNames().forEach(JiveGlobals::deleteProperty);
+        MucRealTimeBlockListPlugin.reinitOnConfigChange = true;
+        XMPPServer.setInstance(null);
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    /**
+     * Verifies that disabling the stanza blocker removes it, without affecting the block list or its synchronization.
+     */
+    @Test
+    public void testStanzaBlockerChangeRetainsBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_STANZABLOCKER_DISABLED.setValue(true);
+
+        // Verify results
+        assertFalse(InterceptorManager.getInstance().getInterceptors().stream().anyMatch(StanzaBlocker.class::isInstance));
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(ITEM_COUNT, blockList.size());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that a change of the refresh interval does not affect the block list or its synchronization.
+     */
+    @Test
+    public void testRefreshIntervalChangeRetainsBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_REFRESHTASK_INTERVAL.setValue(Duration.ofMinutes(1));
+
+        // Verify results
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(ITEM_COUNT, blockList.size());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that a change of how items are retrieved is applied to the existing handler, without retrieving items.
+     */
+    @Test
+    public void testPubSubHandlerChangeRetainsHandler() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_FETCH_PAGESIZE.setValue(10);
+        MucRealTimeBlockListPlugin.BLOCKLIST_REFRESHTASK_DIGESTCHECK_DISABLED.setValue(true);
+
+        // Verify results
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(ITEM_COUNT, blockList.size());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that a change of how occupants are removed does not affect the block list or its synchronization.
+     */
+    @Test
+    public void testOccupantRemoverChangeRetainsBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_OCCUPANTREMOVER_INDEXED.setValue(false);
+        MucRealTimeBlockListPlugin.BLOCKLIST_OCCUPANTREMOVER_DISABLED.setValue(true);
+
+        // Verify results
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(ITEM_COUNT, blockList.size());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that disabling the queue through which events are applied removes it, without affecting the block list
+     * or its synchronization.
+     */
+    @Test
+    public void testIngestChangeRetainsBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_INGEST_DISABLED.setValue(true);
+
+        // Verify results
+        assertNull(plugin.getEventIngestQueue());
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(ITEM_COUNT, blockList.size());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that a change of the enforcement policy is applied, without affecting the block list or its
+     * synchronization.
+     */
+    @Test
+    public void testEnforcementChangeRetainsBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.ENFORCEMENT_DEFAULT.setValue(EnforcementPolicy.Mode.MONITOR);
+
+        // Verify results
+        assertEquals(EnforcementPolicy.Mode.MONITOR, plugin.getEnforcementPolicy().getMode("conference", "lobby"));
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(ITEM_COUNT, blockList.size());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that a change of the subdomain of the (disabled) component does not change the address that is used to
+     * interact with the Pub/Sub service, and thus does not affect the block list or its synchronization.
+     */
+    @Test
+    public void testSubdomainChangeOfDisabledComponentRetainsHandler() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_COMPONENT_SUBDOMAIN.setValue("rtbl");
+
+        // Verify results
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(new JID(null, "example.org", "mucrtbl"), handler.getSelfAddress());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that setting the Pub/Sub service to the value that is already in use does not replace the block list.
+     */
+    @Test
+    public void testUnchangedServiceRetainsBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final int requests = fake.getRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_SERVICE_JID.setValue(MucRealTimeBlockListPlugin.BLOCKLIST_SERVICE_JID.getValue());
+
+        // Verify results
+        assertSame(blockList, plugin.getBlockList());
+        assertSame(handler, plugin.getPubSubHandler());
+        assertEquals(ITEM_COUNT, blockList.size());
+        assertEquals(requests, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that a change of the Pub/Sub service clears the block list (including entries that were only on the
+     * previous node, but excluding entries that were imported from a file), restarts the synchronization and retrieves
+     * all items of the new node.
+     */
+    @Test
+    public void testServiceChangeReplacesBlockList() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = plugin.getBlockList();
+        final PubSubHandler handler = plugin.getPubSubHandler();
+        final String previous = StringUtils.hash("spammer@example.net", "SHA-256");
+        blockList.add(previous, "only on the previous node");
+        final String imported = StringUtils.hash("spammer@example.com", "SHA-256");
+        blockList.addImported(Collections.singletonMap(imported, "imported"));
+        final int fullRequests = fake.getFullRequestCount();
+
+        // Execute system under test
+        MucRealTimeBlockListPlugin.BLOCKLIST_SERVICE_JID.setValue(new JID("rtbl.example.net"));
+        final int sizeAfterChange = blockList.size();
+        fake.deliverAll(plugin.getPubSubHandler());
+
+        // Verify results
+        assertEquals(1, sizeAfterChange);
+        assertNotSame(handler, plugin.getPubSubHandler());
+        assertSame(blockList, plugin.getBlockList());
+        assertEquals(fullRequests + 1, fake.getFullRequestCount());
+        assertEquals(ITEM_COUNT + 1, blockList.size());
+        assertFalse(blockList.containsHash(previous));
+        assertTrue(blockList.containsHash(imported));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link OccupantIndex}
+ */
+public class OccupantIndexTest
+{
+    private static final JID LOBBY = new JID("lobby@conference.example.org");
+    private static final JID OTHER = new JID("other@conference.example.org");
+
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    /**
+     * Verifies that occupants are found by the hash of their bare JID, and by the hash of their domain, along with all
+     * rooms that they are in.
+     */
+    @Test
+    public void testFindByBareJidAndDomain() throws Exception
+    {
+        // Setup test fixture.
+        final OccupantIndex index = new OccupantIndex(new BlockList());
+        final JID spammer = new JID("spammer@spam.example.net/bot");
+        final JID user = new JID("user@example.org/desktop");
+        index.occupantJoined(LOBBY, spammer, "spammer");
+        index.occupantJoined(OTHER, spammer, "spammer2");
+        index.occupantJoined(LOBBY, user, "user");
+
+        // Execute system under test.
+        final Map<JID, Map<JID, String>> byBareJid = index.find(Collections.singleton(StringUtils.hash("spammer@spam.example.net", "SHA-256")), false);
+        final Map<JID, Map<JID, String>> byDomain = index.find(Collections.singleton(StringUtils.hash("spam.example.net", "SHA-256")), false);
+
+        // Verify results.
+        assertEquals(Collections.singleton(spammer), byBareJid.keySet());
+        assertEquals("spammer", byBareJid.get(spammer).get(LOBBY));
+        assertEquals("spammer2", byBareJid.get(spammer).get(OTHER));
+        assertEquals(Collections.singleton(spammer), byDomain.keySet());
+    }
+
+    /**
+     * Verifies that the index is populated only with the occupants that are connected to the local cluster node.
+     */
+    @Test
+    public void testPopulateIndexesLocalOccupantsOnly() throws Exception
+    {
+        // Setup test fixture.
+        final OccupantIndex index = new OccupantIndex(new BlockList());
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID local = new JID("spammer@example.net/local");
+        final JID remote = new JID("spammer@example.net/remote");
+        muc.join("lobby", local);
+        muc.join("lobby", remote, PropagationLatencyHarness.REMOTE_NODE);
+
+        // Execute system under test.
+        index.populate(Collections.singleton(muc.getService()), PropagationLatencyHarness.LOCAL_NODE);
+
+        // Verify results.
+        assertEquals(1, index.size());
+        assertEquals(Collections.singleton(local), index.find(Collections.singleton(StringUtils.hash("spammer@example.net", "SHA-256")), false).keySet());
+    }
+
+    /**
+     * Verifies that occupants are found by the hash of a parent domain of their domain only when parent domains are
+     * matched.
+     */
+    @Test
+    public void testFindByParentDomain() throws Exception
+    {
+        // Setup test fixture.
+        final OccupantIndex index = new OccupantIndex(new BlockList());
+        final JID spammer = new JID("spammer@chat.spam.example.net/bot");
+        index.occupantJoined(LOBBY, spammer, "spammer");
+        final String parentHash = StringUtils.hash("example.net", "SHA-256");
+
+        // Execute system under test.
+        final Map<JID, Map<JID, String>> withoutParents = index.find(Collections.singleton(parentHash), false);
+        final Map<JID, Map<JID, String>> withParents = index.find(Collections.singleton(parentHash), true);
+
+        // Verify results.
+        assertTrue(withoutParents.isEmpty());
+        assertEquals(Collections.singleton(spammer), withParents.keySet());
+    }
+
+    /**
+     * Verifies that occupants that leave their last room, or whose room is destroyed, are removed from the index.
+     */
+    @Test
+    public void testLeaveAndDestroy() throws Exception
+    {
+        // Setup test fixture.
+        final OccupantIndex index = new OccupantIndex(new BlockList());
+        final JID spammer = new JID("spammer@example.org/bot");
+        final JID user = new JID("user@example.org/desktop");
+        index.occupantJoined(LOBBY, spammer, "spammer");
+        index.occupantJoined(OTHER, spammer, "spammer");
+        index.occupantJoined(OTHER, user, "user");
+        final String domainHash = StringUtils.hash("example.org", "SHA-256");
+
+        // Execute system under test.
+        index.occupantLeft(LOBBY, spammer, "spammer");
+        final Map<JID, Map<JID, String>> afterLeave = index.find(Collections.singleton(domainHash), false);
+        index.roomDestroyed(OTHER);
+
+        // Verify results.
+        assertEquals(Collections.singleton(OTHER), afterLeave.get(spammer).keySet());
+        assertTrue(index.find(Collections.singleton(domainHash), false).isEmpty());
+        assertEquals(0, index.size());
+    }
+}
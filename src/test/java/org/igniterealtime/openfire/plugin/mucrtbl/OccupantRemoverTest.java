@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.muc.spi.OccupantManager;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link OccupantRemover}, using a simulated MUC service.
+ */
+public class OccupantRemoverTest
+{
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    private static OccupantRemover createRemover(final BlockList blockList, final PropagationLatencyHarness.SimulatedMucService muc, final EnforcementPolicy policy, final VerdictRecorder recorder)
+    {
+        return new OccupantRemover(blockList, () -> policy, recorder, AuditLog.NONE) {
+            @Override
+            protected List<MultiUserChatService> getMultiUserChatServices() {
+                return Collections.singletonList(muc.getService());
+            }
+
+            @Override
+            protected boolean removeOccupantFromRoom(final MultiUserChatService service, final OccupantManager.Occupant occupant) {
+                return muc.kick(occupant);
+            }
+        };
+    }
+
+    /**
+     * Verifies that an occupant that is added to the block list is removed from all rooms that it is in, while other
+     * occupants remain.
+     */
+    @Test
+    public void testBlockedOccupantRemoved() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@example.org/resource");
+        final JID user = new JID("user@example.org/resource");
+        muc.join("lobby", spammer);
+        muc.join("other", spammer);
+        muc.join("lobby", user);
+        final BlockList blockList = new BlockList();
+        blockList.register(createRemover(blockList, muc, EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1)));
+
+        // Execute system under test.
+        blockList.add(StringUtils.hash(spammer.toBareJID(), "SHA-256"), "unit-test");
+
+        // Verify results.
+        assertNotNull(muc.getKickTime(spammer));
+        assertNull(muc.getKickTime(user));
+        assertEquals(1, muc.getOccupants().size());
+    }
+
+    /**
+     * Verifies that an occupant that is added to the block list is not removed from a room for which the block list is
+     * only monitored, but that a would-be block is recorded instead.
+     */
+    @Test
+    public void testMonitoredRoom() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@example.org/resource");
+        muc.join("lobby", spammer);
+        final BlockList blockList = new BlockList();
+        final VerdictRecorder recorder = new VerdictRecorder(10, 1);
+        blockList.register(createRemover(blockList, muc, EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, "lobby@conference=monitor"), recorder));
+
+        // Execute system under test.
+        blockList.add(StringUtils.hash(spammer.toBareJID(), "SHA-256"), "unit-test");
+
+        // Verify results.
+        assertNull(muc.getKickTime(spammer));
+        assertEquals(1, muc.getOccupants().size());
+        assertEquals(1L, recorder.getTotal());
+        assertEquals(new JID("lobby@conference.example.org"), recorder.getSamples().get(0).getTarget());
+    }
+
+    /**
+     * Verifies that occupants are not removed from services for which the block list is disabled.
+     */
+    @Test
+    public void testDisabledService() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@example.org/resource");
+        muc.join("lobby", spammer);
+        final BlockList blockList = new BlockList();
+        final VerdictRecorder recorder = new VerdictRecorder(10, 1);
+        blockList.register(createRemover(blockList, muc, EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, "conference=off"), recorder));
+
+        // Execute system under test.
+        blockList.add(StringUtils.hash(spammer.toBareJID(), "SHA-256"), "unit-test");
+
+        // Verify results.
+        assertNull(muc.getKickTime(spammer));
+        assertEquals(0L, recorder.getTotal());
+    }
+
+    /**
+     * Verifies that occupants that could not be removed from a room (eg: as they already left) are not counted as
+     * having been kicked.
+     */
+    @Test
+    public void testKicksCountOnlyRemovedOccupants() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@example.org/resource");
+        muc.join("lobby", spammer);
+        muc.join("other", spammer);
+        final BlockList blockList = new BlockList();
+        blockList.register(new OccupantRemover(blockList, () -> EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), AuditLog.NONE) {
+            @Override
+            protected List<MultiUserChatService> getMultiUserChatServices() {
+                return Collections.singletonList(muc.getService());
+            }
+
+            @Override
+            protected boolean removeOccupantFromRoom(final MultiUserChatService service, final OccupantManager.Occupant occupant) {
+                // The occupant left the second room before it could be kicked.
+                return occupant.getRoomName().equals("lobby") && muc.kick(occupant);
+            }
+        });
+        final PropagationTracer tracer = blockList.getTracer();
+        final PropagationTracer.Trace trace = tracer.begin(System.nanoTime(), 1, 0);
+
+        // Execute system under test.
+        tracer.submitted(trace);
+        tracer.attach(Collections.singletonList(trace));
+        try {
+            blockList.add(StringUtils.hash(spammer.toBareJID(), "SHA-256"), "unit-test");
+        } finally {
+            tracer.complete();
+        }
+
+        // Verify results.
+        assertEquals(1, trace.getKicks());
+    }
+}
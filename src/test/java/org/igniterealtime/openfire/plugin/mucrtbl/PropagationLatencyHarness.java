@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.dom4j.Element;
+import org.jivesoftware.openfire.PacketRouter;
+import org.jivesoftware.openfire.cluster.NodeID;
+import org.jivesoftware.openfire.muc.MUCRoom;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.muc.spi.OccupantManager;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the time it takes from a ban being published on the pub/sub node to the banned occupant being removed from
+ * the rooms that it is in.
+ *
+ * A local stand-in for the pub/sub service publishes bans at a configurable rate, as event notifications that are
+ * processed by a {@link PubSubHandler}. The banned entities are occupants of a simulated MUC service, from which they
+ * are removed by an {@link OccupantRemover}. For every rate, the harness reports percentiles of the publish-to-kick
+ * latency, and the rate at which bans were published and occupants were removed. When the removal rate falls behind the
+ * publication rate, the throughput limit has been reached.
+ *
+ * This is not a unit test. Run it manually, eg:
+ * <code>java -cp ... org.igniterealtime.openfire.plugin.mucrtbl.PropagationLatencyHarness [rates] [seconds] [population] [queue]</code>
+ * where 'rates' is a comma-separated list of bans per second (default: 10,100,1000), 'seconds' is the duration of each
+ * run (default: 10), 'population' is the amount of occupants that are not banned (default: 10000) and 'queue' defines
+ * if events are applied through an {@link EventIngestQueue} (default: true).
+ */
+public class PropagationLatencyHarness
+{
+    private static final JID SERVICE = new JID("pubsub.rtbl.example.net");
+    private static final String NODE = "muc_bans_sha256";
+    private static final String XMPP_DOMAIN = "example.org";
+
+    /**
+     * The ID of the cluster node to which occupants of a {@link SimulatedMucService} are connected, unless specified otherwise.
+     */
+    public static final NodeID LOCAL_NODE = NodeID.getInstance("local".getBytes(StandardCharsets.UTF_8));
+
+    /**
+     * The ID of another cluster node.
+     */
+    public static final NodeID REMOTE_NODE = NodeID.getInstance("remote".getBytes(StandardCharsets.UTF_8));
+    private static final int ROOMS = 100;
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int[] rates = Arrays.stream((args.length > 0 ? args[0] : "10,100,1000").split(",")).mapToInt(Integer::parseInt).toArray();
+        final Duration duration = Duration.ofSeconds(args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        final int population = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        final boolean useQueue = args.length <= 3 || Boolean.parseBoolean(args[3]);
+
+        System.out.println("Population: " + population + " occupants in " + ROOMS + " rooms. Event ingest queue: " + (useQueue ? "enabled" : "disabled") + ".");
+        for (final int rate : rates) {
+            CacheFactory.clearCaches("MUC RealTime Block List");
+            System.out.println(run(rate, duration, population, useQueue));
+        }
+    }
+
+    /**
+     * Publishes bans at a fixed rate for a fixed duration, and measures when the banned occupants are removed.
+     *
+     * @param rate The amount of bans that is published per second.
+     * @param duration The duration during which bans are published.
+     * @param population The amount of occupants that are not banned.
+     * @param useQueue Whether events are applied through an event ingest queue.
+     * @return A report of the run.
+     */
+    public static Report run(final int rate, final Duration duration, final int population, final boolean useQueue) throws InterruptedException
+    {
+        final int bans = (int) (rate * duration.getSeconds());
+        final SimulatedMucService muc = new SimulatedMucService("conference");
+        for (int i = 0; i < population; i++) {
+            muc.join("room" + (i % ROOMS), new JID("user" + i, XMPP_DOMAIN, "resource"));
+        }
+        final JID[] spammers = new JID[bans];
+        for (int i = 0; i < bans; i++) {
+            spammers[i] = new JID("spammer" + i, XMPP_DOMAIN, "resource");
+            muc.join("room" + (i % ROOMS), spammers[i]);
+        }
+
+        final BlockList blockList = new BlockList();
+        final OccupantRemover remover = new OccupantRemover(blockList, () -> EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), AuditLog.NONE) {
+            @Override
+            protected List<MultiUserChatService> getMultiUserChatServices() {
+                return Collections.singletonList(muc.getService());
+            }
+
+            @Override
+            protected boolean removeOccupantFromRoom(final MultiUserChatService service, final OccupantManager.Occupant occupant) {
+                return muc.kick(occupant);
+            }
+        };
+        blockList.register(remover);
+
+        final PacketRouter router = new PacketRouter() {
+            @Override public void route(Packet packet) {}
+            @Override public void route(IQ packet) {}
+            @Override public void route(Message packet) {}
+            @Override public void route(Presence packet) {}
+        };
+        final PubSubHandler handler = new PubSubHandler(blockList, SERVICE, NODE, new JID("mucrtbl." + XMPP_DOMAIN), router, 100, 3, 10, false);
+        final EventIngestQueue queue = useQueue ? new EventIngestQueue(blockList, 10_000, 1_000) : null;
+        if (queue != null) {
+            queue.start();
+            handler.setEventIngestQueue(queue);
+        }
+
+        // Publish at a fixed rate.
+        final long[] published = new long[bans];
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime();
+        for (int i = 0; i < bans; i++) {
+            final long due = start + i * intervalNanos;
+            final long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            published[i] = System.nanoTime();
+            handler.processPacket(createEvent(StringUtils.hash(spammers[i].toBareJID(), "SHA-256")));
+        }
+        final long publishEnd = System.nanoTime();
+
+        // Wait for the last removals, but not forever.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (muc.getKickCount() < bans && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        if (queue != null) {
+            queue.stop();
+        }
+
+        final List<Long> latencies = new ArrayList<>(bans);
+        long lastKick = start;
+        for (int i = 0; i < bans; i++) {
+            final Long kicked = muc.getKickTime(spammers[i]);
+            if (kicked != null) {
+                latencies.add(kicked - published[i]);
+                lastKick = Math.max(lastKick, kicked);
+            }
+        }
+        Collections.sort(latencies);
+        return new Report(rate, bans, latencies, publishEnd - start, lastKick - start);
+    }
+
+    private static Message createEvent(final String hash)
+    {
+        final Message message = new Message();
+        message.setFrom(SERVICE);
+        message.setTo(new JID("mucrtbl." + XMPP_DOMAIN));
+        final Element itemsEl = message.addChildElement("event", "http://jabber.org/protocol/pubsub#event").addElement("items");
+        itemsEl.addAttribute("node", NODE);
+        itemsEl.addElement("item").addAttribute("id", hash);
+        return message;
+    }
+
+    /**
+     * A MUC service of which the occupants are tracked in memory.
+     */
+    public static class SimulatedMucService
+    {
+        private final ConcurrentMap<OccupantManager.Occupant, Set<NodeID>> occupants = new ConcurrentHashMap<>();
+        private final ConcurrentMap<JID, Long> kickTimes = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, MUCRoom> rooms = new ConcurrentHashMap<>();
+        private final MultiUserChatService service;
+
+        public SimulatedMucService(final String serviceName)
+        {
+            final OccupantManager occupantManager = mock(OccupantManager.class);
+            when(occupantManager.getNodesByOccupant()).thenReturn(occupants);
+            service = mock(MultiUserChatService.class);
+            when(service.getServiceName()).thenReturn(serviceName);
+            when(service.getServiceDomain()).thenReturn(serviceName + "." + XMPP_DOMAIN);
+            when(service.getOccupantManager()).thenReturn(occupantManager);
+            when(service.getChatRoom(anyString())).thenAnswer(invocation -> rooms.computeIfAbsent(invocation.getArgument(0), roomName -> {
+                final MUCRoom room = mock(MUCRoom.class);
+                when(room.getJID()).thenReturn(new JID(roomName, serviceName + "." + XMPP_DOMAIN, null));
+                return room;
+            }));
+        }
+
+        public void join(final String roomName, final JID realJID)
+        {
+            join(roomName, realJID, LOCAL_NODE);
+        }
+
+        public void join(final String roomName, final JID realJID, final NodeID node)
+        {
+            occupants.put(new OccupantManager.Occupant(roomName, realJID.getNode(), realJID), Collections.singleton(node));
+        }
+
+        public boolean kick(final OccupantManager.Occupant occupant)
+        {
+            if (occupants.remove(occupant) == null) {
+                return false;
+            }
+            kickTimes.putIfAbsent(occupant.getRealJID(), System.nanoTime());
+            return true;
+        }
+
+        public MultiUserChatService getService()
+        {
+            return service;
+        }
+
+        public Map<OccupantManager.Occupant, Set<NodeID>> getOccupants()
+        {
+            return occupants;
+        }
+
+        public Long getKickTime(final JID realJID)
+        {
+            return kickTimes.get(realJID);
+        }
+
+        public int getKickCount()
+        {
+            return kickTimes.size();
+        }
+    }
+
+    /**
+     * The results of one run.
+     */
+    public static class Report
+    {
+        private final int rate;
+        private final int published;
+        private final List<Long> latencies;
+        private final long publishNanos;
+        private final long kickNanos;
+
+        Report(final int rate, final int published, final List<Long> latencies, final long publishNanos, final long kickNanos)
+        {
+            this.rate = rate;
+            this.published = published;
+            this.latencies = latencies;
+            this.publishNanos = publishNanos;
+            this.kickNanos = kickNanos;
+        }
+
+        public int getKicked()
+        {
+            return latencies.size();
+        }
+
+        /**
+         * Returns a percentile of the publish-to-kick latency.
+         *
+         * @param percentile A value between 0 and 100.
+         * @return The latency, or null if no occupants were kicked.
+         */
+        public Duration getLatency(final double percentile)
+        {
+            if (latencies.isEmpty()) {
+                return null;
+            }
+            final int index = (int) Math.min(latencies.size() - 1, Math.ceil(percentile / 100.0 * latencies.size()) - 1);
+            return Duration.ofNanos(latencies.get(Math.max(0, index)));
+        }
+
+        @Override
+        public String toString()
+        {
+            final double publishRate = published / (publishNanos / 1_000_000_000.0);
+            final double kickRate = getKicked() / (kickNanos / 1_000_000_000.0);
+            return String.format("Target rate %6d/s: published %7d (%9.1f/s), kicked %7d (%9.1f/s). Latency p50 %s, p90 %s, p99 %s, p99.9 %s, max %s%s",
+                rate, published, publishRate, getKicked(), kickRate,
+                getLatency(50), getLatency(90), getLatency(99), getLatency(99.9), getLatency(100),
+                getKicked() < published || kickRate < publishRate * 0.9 ? " (throughput limit reached)" : "");
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link PropagationTracer}
+ */
+public class PropagationTracerTest
+{
+    private static final String HASH_A = StringUtils.hash("a@example.org", "SHA-256");
+    private static final String HASH_B = StringUtils.hash("b@example.org", "SHA-256");
+
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    /**
+     * Registers a listener that marks the sweep stage, like {@link OccupantRemover} does.
+     */
+    private static void registerSweepingListener(final BlockList bl)
+    {
+        bl.register(new BlockListEventListener() {
+            @Override
+            public void added(final Set<String> hashes) {
+                bl.getTracer().sweepStarted();
+                bl.getTracer().sweepFinished(hashes.size());
+            }
+
+            @Override
+            public void removed(final Set<String> hashes) {}
+        });
+    }
+
+    /**
+     * Verifies that a change that is applied directly to the block list passes through all stages, other than being
+     * queued.
+     */
+    @Test
+    public void testDirectChangeIsTraced() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        registerSweepingListener(bl);
+        final PropagationTracer tracer = bl.getTracer();
+
+        // Execute system under test.
+        final PropagationTracer.Trace trace = tracer.begin(System.nanoTime(), 1, 0);
+        tracer.submitted(trace);
+        tracer.attach(Collections.singletonList(trace));
+        try {
+            bl.add(HASH_A, "");
+        } finally {
+            tracer.complete();
+        }
+
+        // Verify results.
+        final Map<PropagationTracer.Stage, Duration> durations = trace.getDurations();
+        assertTrue(durations.containsKey(PropagationTracer.Stage.PARSE));
+        assertTrue(durations.containsKey(PropagationTracer.Stage.MUTATION));
+        assertTrue(durations.containsKey(PropagationTracer.Stage.DISPATCH));
+        assertTrue(durations.containsKey(PropagationTracer.Stage.SWEEP));
+        assertTrue(durations.containsKey(PropagationTracer.Stage.TOTAL));
+        assertEquals(1, trace.getKicks());
+        assertEquals(1, tracer.getHistogram(PropagationTracer.Stage.TOTAL).getCount());
+        assertEquals(Collections.singletonList(trace), tracer.getSlowest(10));
+    }
+
+    /**
+     * Verifies that changes that are applied by an event ingest queue are traced, including the time spent in the queue.
+     */
+    @Test
+    public void testQueuedChangesAreTraced() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        registerSweepingListener(bl);
+        final PropagationTracer tracer = bl.getTracer();
+        final EventIngestQueue queue = new EventIngestQueue(bl, 100, 100);
+        final PropagationTracer.Trace traceA = tracer.begin(System.nanoTime(), 1, 0);
+        final PropagationTracer.Trace traceB = tracer.begin(System.nanoTime(), 1, 0);
+
+        // Execute system under test.
+        tracer.submitted(traceA);
+        queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_A, ""), traceA);
+        tracer.submitted(traceB);
+        queue.submit(Collections.emptySet(), Collections.singletonMap(HASH_B, ""), traceB);
+        queue.flush();
+
+        // Verify results.
+        assertNotNull(traceA.getDuration(PropagationTracer.Stage.QUEUE));
+        assertNotNull(traceB.getDuration(PropagationTracer.Stage.QUEUE));
+        assertNotNull(traceA.getDuration(PropagationTracer.Stage.SWEEP));
+        assertEquals(2, traceA.getKicks()); // Both changes were applied in one mutation.
+        assertEquals(2, tracer.getHistogram(PropagationTracer.Stage.TOTAL).getCount());
+    }
+
+    /**
+     * Verifies that changes of the block list that are not traced do not affect the tracer.
+     */
+    @Test
+    public void testUntracedChangeIsIgnored() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        registerSweepingListener(bl);
+
+        // Execute system under test.
+        bl.add(HASH_A, "");
+
+        // Verify results.
+        assertEquals(0, bl.getTracer().getHistogram(PropagationTracer.Stage.TOTAL).getCount());
+        assertTrue(bl.getTracer().getSlowest(10).isEmpty());
+    }
+
+    /**
+     * Verifies that the ring buffer retains no more than the configured amount of traces, and that traces are returned
+     * slowest first.
+     */
+    @Test
+    public void testSlowestTraces() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationTracer tracer = new PropagationTracer(3);
+
+        // Execute system under test.
+        for (int i = 0; i < 5; i++) {
+            final PropagationTracer.Trace trace = tracer.begin(System.nanoTime() - (i == 3 ? 1_000_000_000L : 0), 1, 0);
+            tracer.attach(Collections.singletonList(trace));
+            tracer.complete();
+        }
+
+        // Verify results.
+        final List<PropagationTracer.Trace> slowest = tracer.getSlowest(10);
+        assertEquals(3, slowest.size());
+        assertTrue(slowest.get(0).getDuration(PropagationTracer.Stage.TOTAL).compareTo(Duration.ofMillis(999)) > 0);
+        assertEquals(1, tracer.getSlowest(1).size());
+    }
+
+    /**
+     * Verifies that no traces are started when tracing is disabled.
+     */
+    @Test
+    public void testDisabled() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationTracer tracer = new PropagationTracer(3);
+
+        // Execute system under test.
+        tracer.setEnabled(false);
+
+        // Verify results.
+        assertNull(tracer.begin(System.nanoTime(), 1, 0));
+    }
+}
@@ -0,0 +1,629 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the retrieval of block list content by {@link PubSubHandler}, using a local stand-in for a
+ * Pub/Sub service.
+ */
+public class PubSubHandlerTest
+{
+    private static final JID SERVICE = new JID("pubsub.example.org");
+    private static final String NODE = "muc_bans_sha256";
+    private static final JID SELF = new JID("mucrtbl@example.com");
+
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    /**
+     * Verifies that all items are retrieved from a service that does not support Result Set Management.
+     */
+    @Test
+    public void testRetrieveWithoutRsm() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE).withRsmSupport(false);
+        fake.publishGenerated(1234);
+        final BlockList bl = new BlockList();
+        final String stale = "bd42ad42bf32b98a903f3c3eb5206d9bb318df597db9df7167ed6659db4b3f7d";
+        bl.add(stale, "no longer on the node");
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(1234, bl.getAll().size());
+        assertFalse(bl.containsHash(stale));
+        assertEquals(1, fake.getRequestCount());
+    }
+
+    /**
+     * Verifies that all items are retrieved in pages from a service that supports Result Set Management, and that
+     * no more than the configured amount of page requests are in flight at the same time.
+     */
+    @Test
+    public void testRetrievePipelinedByIndex() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(1234);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(1234, bl.getAll().size());
+        assertEquals(13, fake.getRequestCount());
+        assertEquals(3, fake.getMaxRequestsInFlight());
+    }
+
+    /**
+     * Verifies that all items are retrieved in pages, one after the other, from a service that does not report the
+     * total amount of items.
+     */
+    @Test
+    public void testRetrieveSequentialWithoutCount() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE).withCountReported(false);
+        fake.publishGenerated(1234);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(1234, bl.getAll().size());
+        assertEquals(1, fake.getMaxRequestsInFlight());
+    }
+
+    /**
+     * Verifies that all items are retrieved from a service that reports the total amount of items, but that fails to
+     * process requests for pages by index.
+     */
+    @Test
+    public void testRetrieveFallbackWhenIndexUnsupported() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE).withIndexSupport(false);
+        fake.publishGenerated(1234);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(1234, bl.getAll().size());
+    }
+
+    /**
+     * Verifies that all items are retrieved from a service that returns a different page than the one that was
+     * requested by index, and that entries that are no longer on the node are removed.
+     */
+    @Test
+    public void testRetrieveFallbackWhenIndexIgnored() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE).withIndexIgnored(true);
+        fake.publishGenerated(1234);
+        final BlockList bl = new BlockList();
+        final String stale = "bd42ad42bf32b98a903f3c3eb5206d9bb318df597db9df7167ed6659db4b3f7d";
+        bl.add(stale, "no longer on the node");
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(1234, bl.size());
+        assertFalse(bl.getAll().containsKey(stale));
+    }
+
+    /**
+     * Verifies that responses to a retrieval that has been superseded by a newer retrieval do not cause additional
+     * pages to be requested.
+     */
+    @Test
+    public void testSupersededRetrievalIsAbandoned() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 1, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(250, bl.getAll().size());
+        assertEquals(4, fake.getRequestCount()); // Two first pages, two follow-up pages for the retrieval that was not superseded.
+    }
+
+    /**
+     * Verifies that a page of a retrieval that has been superseded is not applied, as it could re-add an item that was
+     * retracted after that page was sent (which would then never be reconciled).
+     */
+    @Test
+    public void testSupersededPageDoesNotRestoreRetractedItem() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final String retracted = String.format("%064x", 250); // The most recent item, which is on the first page.
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 1, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE); // The response to this request (still) contains the item.
+        fake.retract(retracted);
+        handler.processPacket(retraction(retracted));
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertFalse(bl.containsHash(retracted));
+        assertEquals(249, bl.size());
+        assertEquals(0, handler.getOutstandingRequestCount());
+    }
+
+    /**
+     * Verifies that a refresh after a completed retrieval only requests the most recent items, and applies these.
+     */
+    @Test
+    public void testIncrementalRefresh() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        handler.refresh();
+        fake.deliverAll(handler);
+        fake.publishGenerated(5);
+
+        // Execute system under test
+        handler.refresh();
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(255, bl.getAll().size());
+        assertEquals(1, fake.getFullRequestCount());
+        assertEquals(1, fake.getRecentItemsRequestCount());
+    }
+
+    /**
+     * Verifies that a refresh falls back to retrieving all items when the most recent items do not include the last
+     * item that was seen.
+     */
+    @Test
+    public void testIncrementalRefreshFallbackOnGap() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        handler.refresh();
+        fake.deliverAll(handler);
+        fake.publishGenerated(15);
+
+        // Execute system under test
+        handler.refresh();
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(265, bl.getAll().size());
+        assertEquals(2, fake.getFullRequestCount());
+        assertEquals(1, fake.getRecentItemsRequestCount());
+    }
+
+    /**
+     * Verifies that an incremental refresh falls back to retrieving all items when items were retracted from the node
+     * without an event having been received.
+     */
+    @Test
+    public void testIncrementalRefreshDetectsMissedRetraction() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        handler.refresh();
+        fake.deliverAll(handler);
+        final String retracted = String.format("%064x", 42);
+        fake.retract(retracted);
+        fake.publishGenerated(2);
+
+        // Execute system under test
+        handler.refresh();
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(251, bl.size());
+        assertFalse(bl.getAll().containsKey(retracted));
+        assertEquals(1, fake.getRecentItemsRequestCount());
+        assertEquals(2, fake.getFullRequestCount());
+    }
+
+    /**
+     * Verifies that an incremental refresh falls back to retrieving all items from a service that does not return the
+     * most recent items first.
+     */
+    @Test
+    public void testIncrementalRefreshValidatesOrder() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE).withMostRecentFirst(false);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        handler.refresh();
+        fake.deliverAll(handler);
+        fake.publishGenerated(5);
+
+        // Execute system under test
+        handler.refresh();
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(255, bl.size());
+        assertEquals(2, fake.getFullRequestCount());
+    }
+
+    /**
+     * Verifies that a retrieval of all items removes entries from the block list that are no longer on the node.
+     */
+    @Test
+    public void testFullRetrievalReconciles() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+        final String retracted = String.format("%064x", 42);
+        fake.retract(retracted);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(249, bl.getAll().size());
+        assertFalse(bl.getAll().containsKey(retracted));
+    }
+
+    /**
+     * Verifies that a retrieval of all items retains entries that were imported from a local file, unless these were
+     * also received from the node (after which these follow the content of the node).
+     */
+    @Test
+    public void testFullRetrievalRetainsImported() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final String imported = "bd42ad42bf32b98a903f3c3eb5206d9bb318df597db9df7167ed6659db4b3f7d";
+        final String importedAndPublished = String.format("%064x", 42);
+        final Map<String, String> importedHashes = new HashMap<>();
+        importedHashes.put(imported, "local");
+        importedHashes.put(importedAndPublished, "local");
+        bl.addImported(importedHashes);
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+        fake.retract(importedAndPublished);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertTrue(bl.getAll().containsKey(imported));
+        assertFalse(bl.getAll().containsKey(importedAndPublished));
+        assertEquals(Collections.singleton(imported), bl.getImportedHashes());
+    }
+
+    /**
+     * Verifies that a refresh is skipped when the item IDs on the node match the content of the block list, and that
+     * it is executed when they do not.
+     */
+    @Test
+    public void testDigestCheckSkipsRefresh() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, true);
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Execute system under test
+        handler.refresh();
+        fake.deliverAll(handler);
+        fake.publishGenerated(1);
+        handler.refresh();
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(251, bl.getAll().size());
+        assertEquals(1, handler.getSkippedRefreshes());
+        assertEquals(1, handler.getExecutedRefreshes());
+    }
+
+    /**
+     * Verifies that the IDs of the items on the node are retrieved in pages, and that entries that were imported from a
+     * local file do not cause a refresh to be executed.
+     */
+    @Test
+    public void testDigestCheckPagedIgnoresImported() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        bl.addImported(Collections.singletonMap("bd42ad42bf32b98a903f3c3eb5206d9bb318df597db9df7167ed6659db4b3f7d", "local"));
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, true);
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Execute system under test
+        handler.refresh();
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(3, fake.getItemIdsRequestCount());
+        assertEquals(1, handler.getSkippedRefreshes());
+        assertEquals(0, handler.getExecutedRefreshes());
+    }
+
+    /**
+     * Verifies that a response that does not correlate to a request that was sent is ignored.
+     */
+    @Test
+    public void testUncorrelatedResponseIgnored() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        final IQ unsolicited = new IQ(IQ.Type.result);
+        unsolicited.setFrom(SERVICE);
+        unsolicited.setTo(SELF);
+        unsolicited.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("items").addAttribute("node", NODE)
+            .addElement("item").addAttribute("id", "bd42ad42bf32b98a903f3c3eb5206d9bb318df597db9df7167ed6659db4b3f7d");
+
+        // Execute system under test
+        handler.processPacket(unsolicited);
+
+        // Verify results
+        assertTrue(bl.getAll().isEmpty());
+    }
+
+    /**
+     * Verifies that requests that are not responded to time out, causing the synchronization to become stale, and
+     * that a full retrieval is performed when the subscription is restored.
+     */
+    @Test
+    public void testTimeoutAndRecovery() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE).withResponsiveness(false);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 3, 10, false);
+        handler.setRetryDelays(Duration.ofHours(1), Duration.ofHours(1));
+        try {
+            handler.attemptSubscribe(SERVICE, NODE);
+            handler.requestAllItems(SERVICE, NODE);
+            fake.deliverAll(handler);
+            assertEquals(2, handler.getOutstandingRequestCount());
+
+            // Execute system under test
+            handler.checkTimeouts(Instant.now().plus(Duration.ofMinutes(5)));
+            final PubSubHandler.SyncState stateAfterTimeout = handler.getSyncState();
+            fake.withResponsiveness(true);
+            handler.attemptSubscribe(SERVICE, NODE);
+            fake.deliverAll(handler);
+
+            // Verify results
+            assertEquals(PubSubHandler.SyncState.STALE, stateAfterTimeout);
+            assertEquals(PubSubHandler.SyncState.SUBSCRIBED, handler.getSyncState());
+            assertEquals(250, bl.getAll().size());
+            assertEquals(0, handler.getOutstandingRequestCount());
+            assertNotNull(handler.getLastStaleDuration());
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    /**
+     * Verifies that the delay between retries doubles with every consecutive failure, up to the configured maximum.
+     */
+    @Test
+    public void testBackoff() throws Exception
+    {
+        // Setup test fixture.
+        final PubSubHandler handler = new PubSubHandler(new BlockList(), SERVICE, NODE, SELF, new FakePubSubService(NODE), 100, 3, 10, false);
+        handler.setRetryDelays(Duration.ofSeconds(10), Duration.ofMinutes(1));
+
+        // Execute system under test
+        final Duration first = handler.backoff(1);
+        final Duration second = handler.backoff(2);
+        final Duration third = handler.backoff(3);
+        final Duration tenth = handler.backoff(10);
+
+        // Verify results
+        assertEquals(Duration.ofSeconds(10), first);
+        assertEquals(Duration.ofSeconds(20), second);
+        assertEquals(Duration.ofSeconds(40), third);
+        assertEquals(Duration.ofMinutes(1), tenth);
+    }
+
+    /**
+     * Verifies that the hashes of a pub/sub response are extracted in document order, that invalid item IDs are ignored
+     * and that valid item IDs are normalized.
+     */
+    @Test
+    public void testExtractHashes() throws Exception
+    {
+        // Setup test fixture.
+        final Element itemsEl = DocumentHelper.createElement("items");
+        for (int i = 0; i < 2500; i++) {
+            itemsEl.addElement("item").addAttribute("id", String.format("%064X", i));
+        }
+        itemsEl.addElement("item").addAttribute("id", "not-a-hash");
+
+        // Execute system under test
+        final Map<String, String> result = PubSubHandler.extractHashesFromPubsubItems(itemsEl);
+
+        // Verify results
+        assertEquals(2500, result.size());
+        assertEquals(String.format("%064x", 2499), new ArrayList<>(result.keySet()).get(2499));
+    }
+
+    /**
+     * Verifies that the event listeners of the block list are invoked once per page of a retrieval of all items, and
+     * that a second retrieval removes entries that are no longer on the node (or that were retracted while the
+     * retrieval was in progress), while retaining all others.
+     */
+    @Test
+    public void testListenersInvokedOncePerPage() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final List<Integer> additions = new ArrayList<>();
+        bl.register(new BlockListEventListener() {
+            @Override
+            public void added(final Set<String> hashes) {
+                additions.add(hashes.size());
+            }
+
+            @Override
+            public void removed(final Set<String> hashes) {
+            }
+        });
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 1, 10, false);
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+        final List<Integer> firstRetrieval = new ArrayList<>(additions);
+        final String removed = String.format("%064x", 7);
+        final String retractedDuringRetrieval = String.format("%064x", 8);
+        fake.retract(removed);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        handler.handleMessage(retraction(retractedDuringRetrieval));
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(Arrays.asList(100, 100, 50), firstRetrieval);
+        assertEquals(248, bl.size());
+        assertFalse(bl.getAll().containsKey(removed));
+        assertFalse(bl.getAll().containsKey(retractedDuringRetrieval));
+    }
+
+    /**
+     * Verifies that the items of a response of a service that does not support Result Set Management, which contains
+     * all items of the node, are added to the block list in chunks of at most the page size.
+     */
+    @Test
+    public void testUnpagedResponseAppliedInChunks() throws Exception
+    {
+        // Setup test fixture.
+        final FakePubSubService fake = new FakePubSubService(NODE).withRsmSupport(false);
+        fake.publishGenerated(250);
+        final BlockList bl = new BlockList();
+        final List<Integer> additions = new ArrayList<>();
+        bl.register(new BlockListEventListener() {
+            @Override
+            public void added(final Set<String> hashes) {
+                additions.add(hashes.size());
+            }
+
+            @Override
+            public void removed(final Set<String> hashes) {
+            }
+        });
+        final PubSubHandler handler = new PubSubHandler(bl, SERVICE, NODE, SELF, fake, 100, 1, 10, false);
+
+        // Execute system under test
+        handler.requestAllItems(SERVICE, NODE);
+        fake.deliverAll(handler);
+
+        // Verify results
+        assertEquals(Arrays.asList(100, 100, 50), additions);
+        assertEquals(250, bl.size());
+        assertEquals(1, fake.getRequestCount());
+    }
+
+    private static Message retraction(final String itemId)
+    {
+        final Message message = new Message();
+        message.setFrom(SERVICE);
+        message.setTo(SELF);
+        message.addChildElement("event", "http://jabber.org/protocol/pubsub#event")
+            .addElement("items").addAttribute("node", NODE)
+            .addElement("retract").addAttribute("id", itemId);
+        return message;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.StreamID;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.muc.spi.OccupantManager;
+import org.jivesoftware.openfire.session.IncomingServerSession;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the implementation of {@link RetroactiveEnforcer}, using a simulated MUC service.
+ */
+public class RetroactiveEnforcerTest
+{
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    private static RetroactiveEnforcer createEnforcer(final BlockList blockList, final PropagationLatencyHarness.SimulatedMucService muc, final EnforcementPolicy policy, final VerdictRecorder recorder, final Set<String> closedDomains)
+    {
+        final RetroactiveEnforcer enforcer = new RetroactiveEnforcer(blockList, () -> policy, recorder, AuditLog.NONE, 2, true) {
+            @Override
+            protected List<MultiUserChatService> getMultiUserChatServices() {
+                return Collections.singletonList(muc.getService());
+            }
+
+            @Override
+            protected boolean removeOccupantFromRoom(final MultiUserChatService service, final OccupantManager.Occupant occupant) {
+                return muc.kick(occupant);
+            }
+
+            @Override
+            protected void closeServerSessions(final String domain) {
+                closedDomains.add(domain);
+            }
+        };
+        enforcer.getOccupantIndex().populate(enforcer.getMultiUserChatServices(), PropagationLatencyHarness.LOCAL_NODE);
+        blockList.register(enforcer);
+        return enforcer;
+    }
+
+    /**
+     * Verifies that an occupant that is added to the block list is removed from all rooms that it is in, while other
+     * occupants remain.
+     */
+    @Test
+    public void testBlockedOccupantRemoved() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@example.org/resource");
+        final JID user = new JID("user@example.org/resource");
+        muc.join("lobby", spammer);
+        muc.join("other", spammer);
+        muc.join("lobby", user);
+        final BlockList blockList = new BlockList();
+        createEnforcer(blockList, muc, EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), ConcurrentHashMap.newKeySet());
+
+        // Execute system under test.
+        blockList.add(StringUtils.hash(spammer.toBareJID(), "SHA-256"), "unit-test");
+
+        // Verify results.
+        assertNotNull(muc.getKickTime(spammer));
+        assertNull(muc.getKickTime(user));
+        assertEquals(1, muc.getOccupants().size());
+    }
+
+    /**
+     * Verifies that an occupant that joins after the index was populated is found, and that an occupant that is on the
+     * allow-list is not removed.
+     */
+    @Test
+    public void testJoinedOccupantRemovedUnlessAllowed() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@spam.example.org/resource");
+        final JID friend = new JID("friend@spam.example.org/resource");
+        final BlockList blockList = new BlockList();
+        blockList.setAllowList(Collections.singleton(new JID("friend@spam.example.org")));
+        final RetroactiveEnforcer enforcer = createEnforcer(blockList, muc, EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), ConcurrentHashMap.newKeySet());
+        muc.join("lobby", spammer);
+        muc.join("lobby", friend);
+        enforcer.getOccupantIndex().occupantJoined(new JID("lobby@conference.example.org"), spammer, spammer.getNode());
+        enforcer.getOccupantIndex().occupantJoined(new JID("lobby@conference.example.org"), friend, friend.getNode());
+
+        // Execute system under test.
+        blockList.add(StringUtils.hash("spam.example.org", "SHA-256"), "unit-test");
+
+        // Verify results.
+        assertNotNull(muc.getKickTime(spammer));
+        assertNull(muc.getKickTime(friend));
+    }
+
+    /**
+     * Verifies that an occupant that is added to the block list is not removed from a room for which the block list is
+     * only monitored, but that a would-be block is recorded instead.
+     */
+    @Test
+    public void testMonitoredRoom() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@example.org/resource");
+        muc.join("lobby", spammer);
+        final BlockList blockList = new BlockList();
+        final VerdictRecorder recorder = new VerdictRecorder(10, 1);
+        createEnforcer(blockList, muc, EnforcementPolicy.parse(EnforcementPolicy.Mode.ENFORCE, "lobby@conference=monitor"), recorder, ConcurrentHashMap.newKeySet());
+
+        // Execute system under test.
+        blockList.add(StringUtils.hash(spammer.toBareJID(), "SHA-256"), "unit-test");
+
+        // Verify results.
+        assertNull(muc.getKickTime(spammer));
+        assertEquals(1L, recorder.getTotal());
+        assertEquals(new JID("lobby@conference.example.org"), recorder.getSamples().get(0).getTarget());
+    }
+
+    /**
+     * Verifies that server-to-server sessions from a domain that is added to the block list are closed, but not those of
+     * other domains.
+     */
+    @Test
+    public void testServerSessionsClosed() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final BlockList blockList = new BlockList();
+        final Set<String> closed = ConcurrentHashMap.newKeySet();
+        final RetroactiveEnforcer enforcer = createEnforcer(blockList, muc, EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), closed);
+        enforcer.addRemoteDomain("spam.example.net");
+        enforcer.addRemoteDomain("example.org");
+
+        // Execute system under test.
+        blockList.add(StringUtils.hash("spam.example.net", "SHA-256"), "unit-test");
+        blockList.add(StringUtils.hash("user@example.org", "SHA-256"), "unit-test");
+
+        // Verify results.
+        assertEquals(Collections.singleton("spam.example.net"), closed);
+    }
+
+    private static IncomingServerSession serverSession(final String streamId, final String domain)
+    {
+        final StreamID id = mock(StreamID.class);
+        when(id.getID()).thenReturn(streamId);
+        final IncomingServerSession session = mock(IncomingServerSession.class);
+        when(session.getStreamID()).thenReturn(id);
+        when(session.getValidatedDomains()).thenReturn(Collections.singleton(domain));
+        return session;
+    }
+
+    /**
+     * Verifies that a remote domain is removed from the index when its last incoming server-to-server session is
+     * destroyed, but not while other sessions for it remain.
+     */
+    @Test
+    public void testRemoteDomainRemovedWithLastSession() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList blockList = new BlockList();
+        final Map<String, Collection<IncomingServerSession>> sessions = new ConcurrentHashMap<>();
+        final RetroactiveEnforcer enforcer = new RetroactiveEnforcer(blockList, () -> EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), AuditLog.NONE, 1, true) {
+            @Override
+            protected Collection<IncomingServerSession> getIncomingServerSessions(final String domain) {
+                return sessions.getOrDefault(domain, Collections.emptySet());
+            }
+        };
+        final IncomingServerSession first = serverSession("first", "example.net");
+        final IncomingServerSession second = serverSession("second", "example.net");
+        sessions.put("example.net", ConcurrentHashMap.newKeySet());
+        sessions.get("example.net").add(first);
+        sessions.get("example.net").add(second);
+        enforcer.addRemoteDomain("example.net");
+
+        // Execute system under test.
+        enforcer.remoteSessionDestroyed(first);
+        final boolean afterFirst = enforcer.hasRemoteDomain("example.net");
+        sessions.get("example.net").remove(first);
+        enforcer.remoteSessionDestroyed(second);
+        final boolean afterSecond = enforcer.hasRemoteDomain("example.net");
+
+        // Verify results.
+        assertTrue(afterFirst);
+        assertFalse(afterSecond);
+    }
+
+    /**
+     * Verifies that occupants that could not be removed from a room (eg: as they already left) are not counted as
+     * having been kicked.
+     */
+    @Test
+    public void testKicksCountOnlyRemovedOccupants() throws Exception
+    {
+        // Setup test fixture.
+        final PropagationLatencyHarness.SimulatedMucService muc = new PropagationLatencyHarness.SimulatedMucService("conference");
+        final JID spammer = new JID("spammer@example.org/resource");
+        muc.join("lobby", spammer);
+        final BlockList blockList = new BlockList();
+        final RetroactiveEnforcer enforcer = createEnforcer(blockList, muc, EnforcementPolicy.ENFORCE_ALL, new VerdictRecorder(0, 1), ConcurrentHashMap.newKeySet());
+        muc.getOccupants().clear(); // The occupant left, but the index has not (yet) processed that.
+        final PropagationTracer tracer = blockList.getTracer();
+        final PropagationTracer.Trace trace = tracer.begin(System.nanoTime(), 1, 0);
+
+        // Execute system under test.
+        tracer.submitted(trace);
+        tracer.attach(Collections.singletonList(trace));
+        try {
+            blockList.add(StringUtils.hash(spammer.toBareJID(), "SHA-256"), "unit-test");
+        } finally {
+            tracer.complete();
+        }
+
+        // Verify results.
+        assertEquals(1, enforcer.getOccupantIndex().size());
+        assertEquals(0, trace.getKicks());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.jivesoftware.openfire.StreamID;
+import org.jivesoftware.openfire.session.IncomingServerSession;
+import org.jivesoftware.openfire.session.Session;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the implementation of {@link SessionDigests}
+ */
+public class SessionDigestsTest
+{
+    @Before
+    @After
+    public void resetCache() throws Exception
+    {
+        CacheFactory.clearCaches("MUC RealTime Block List");
+    }
+
+    private static Session session(final String address)
+    {
+        final Session session = mock(Session.class);
+        when(session.getAddress()).thenReturn(new JID(address));
+        return session;
+    }
+
+    /**
+     * Verifies that the hash of the bare JID of a session is available after the session is created, for any of its
+     * resources.
+     */
+    @Test
+    public void testHashAvailableForSession() throws Exception
+    {
+        // Setup test fixture.
+        final SessionDigests digests = new SessionDigests(new DomainHashChains());
+
+        // Execute system under test.
+        digests.sessionCreated(session("john@example.org/desktop"));
+
+        // Verify results.
+        assertEquals(StringUtils.hash("john@example.org", "SHA-256"), digests.get(new JID("john@example.org/mobile")));
+        assertNull(digests.get(new JID("jane@example.org/desktop")));
+        assertEquals(1, digests.getHits());
+        assertEquals(1, digests.getMisses());
+    }
+
+    /**
+     * Verifies that the hash of a bare JID is retained until the last of its sessions is destroyed.
+     */
+    @Test
+    public void testHashDiscardedAfterLastSession() throws Exception
+    {
+        // Setup test fixture.
+        final SessionDigests digests = new SessionDigests(new DomainHashChains());
+        final Session desktop = session("john@example.org/desktop");
+        final Session mobile = session("john@example.org/mobile");
+        digests.sessionCreated(desktop);
+        digests.sessionCreated(mobile);
+
+        // Execute system under test.
+        digests.sessionDestroyed(desktop);
+        final String afterFirst = digests.get(new JID("john@example.org"));
+        digests.sessionDestroyed(mobile);
+        final String afterSecond = digests.get(new JID("john@example.org"));
+
+        // Verify results.
+        assertNotNull(afterFirst);
+        assertNull(afterSecond);
+        assertEquals(0, digests.size());
+    }
+
+    /**
+     * Verifies that the block list uses the precomputed hash of the bare JID of an entity that has a session.
+     */
+    @Test
+    public void testBlockListUsesPrecomputedHash() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList bl = new BlockList();
+        final SessionDigests digests = new SessionDigests(bl.getDomainHashChains());
+        bl.setSessionDigests(digests);
+        bl.add(StringUtils.hash("spammer@example.org", "SHA-256"), "spam");
+        digests.sessionCreated(session("spammer@example.org/bot"));
+
+        // Execute system under test.
+        final boolean local = bl.contains(new JID("spammer@example.org/bot"));
+        final boolean remote = bl.contains(new JID("user@example.net/desktop"));
+
+        // Verify results.
+        assertTrue(local);
+        assertFalse(remote);
+        assertEquals(1, digests.getHits());
+        assertEquals(1, digests.getMisses());
+    }
+
+    /**
+     * Verifies that the hash of the remote domain of a server-to-server session is retained until that session is
+     * destroyed.
+     */
+    @Test
+    public void testServerSessionDigest() throws Exception
+    {
+        // Setup test fixture.
+        final DomainHashChains chains = new DomainHashChains();
+        final SessionDigests digests = new SessionDigests(chains);
+        final IncomingServerSession session = mock(IncomingServerSession.class);
+        when(session.getValidatedDomains()).thenReturn(Collections.singleton("example.net"));
+
+        // Execute system under test.
+        digests.getServerSessionListener().sessionCreated(session);
+        final String whileConnected = digests.get(new JID("example.net"));
+        digests.getServerSessionListener().sessionDestroyed(session);
+        final String afterwards = digests.get(new JID("example.net"));
+
+        // Verify results.
+        assertEquals(StringUtils.hash("example.net", "SHA-256"), whileConnected);
+        assertNull(afterwards);
+        assertEquals(1, chains.size());
+    }
+
+    /**
+     * Verifies that a session that is recorded more than once (eg: by an event, and when existing sessions are recorded
+     * after the listeners have been registered) is counted once, so that its hash is discarded when it is destroyed.
+     */
+    @Test
+    public void testSessionRecordedOnce() throws Exception
+    {
+        // Setup test fixture.
+        final SessionDigests digests = new SessionDigests(new DomainHashChains());
+        final Session session = session("john@example.org/desktop");
+        when(session.getStreamID()).thenReturn(mock(StreamID.class));
+        final IncomingServerSession serverSession = mock(IncomingServerSession.class);
+        when(serverSession.getStreamID()).thenReturn(mock(StreamID.class));
+        when(serverSession.getValidatedDomains()).thenReturn(Collections.singleton("example.net"));
+
+        // Execute system under test.
+        digests.sessionCreated(session);
+        digests.sessionCreated(session);
+        digests.getServerSessionListener().sessionCreated(serverSession);
+        digests.getServerSessionListener().sessionCreated(serverSession);
+        digests.sessionDestroyed(session);
+        digests.getServerSessionListener().sessionDestroyed(serverSession);
+
+        // Verify results.
+        assertNull(digests.get(new JID("john@example.org")));
+        assertNull(digests.get(new JID("example.net")));
+        assertEquals(0, digests.size());
+    }
+}
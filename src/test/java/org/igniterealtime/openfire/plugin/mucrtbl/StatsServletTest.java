@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link StatsServlet}
+ */
+public class StatsServletTest
+{
+    /**
+     * Verifies that nested maps, collections and primitive values are serialized as JSON.
+     */
+    @Test
+    public void testToJson() throws Exception
+    {
+        // Setup test fixture.
+        final Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("count", 3L);
+        nested.put("enabled", true);
+        final Map<String, Object> value = new LinkedHashMap<>();
+        value.put("name", "test");
+        value.put("nested", nested);
+        value.put("list", Arrays.asList(1, 2));
+        value.put("missing", null);
+
+        // Execute system under test.
+        final String result = StatsServlet.toJson(value);
+
+        // Verify results.
+        assertEquals("{\"name\":\"test\",\"nested\":{\"count\":3,\"enabled\":true},\"list\":[1,2],\"missing\":null}", result);
+    }
+
+    /**
+     * Verifies that strings are escaped, including characters that could be interpreted as markup.
+     */
+    @Test
+    public void testToJsonEscaping() throws Exception
+    {
+        // Execute system under test.
+        final String result = StatsServlet.toJson("a\"b\\c\n<script>");
+
+        // Verify results.
+        assertEquals("\"a\\\"b\\\\c\\n\\u003cscript\\u003e\"", result);
+    }
+
+    /**
+     * Verifies that the outcome of a lookup is described.
+     */
+    @Test
+    public void testDescribeLookup() throws Exception
+    {
+        // Setup test fixture.
+        final BlockList.Lookup lookup = new BlockList.Lookup(new JID("spammer@example.org"), true, false, "example.org", "abc", "spam", false);
+
+        // Execute system under test.
+        final Map<String, Object> result = StatsServlet.describe(lookup);
+
+        // Verify results.
+        assertEquals("spammer@example.org", result.get("jid"));
+        assertEquals(true, result.get("blocked"));
+        assertEquals("example.org", result.get("matchedEntity"));
+        assertEquals("spam", result.get("reason"));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.dom4j.Element;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link SyncDiagnostics}
+ */
+public class SyncDiagnosticsTest
+{
+    /**
+     * Verifies that no more than the configured amount of summaries is retained, the most recent one first.
+     */
+    @Test
+    public void testHistoryIsBounded() throws Exception
+    {
+        // Setup test fixture.
+        final SyncDiagnostics diagnostics = new SyncDiagnostics(3);
+
+        // Execute system under test
+        for (int i = 1; i <= 5; i++) {
+            diagnostics.record(SyncDiagnostics.Kind.PAGE, i, 0, i * 64L, Duration.ofMillis(1), null);
+        }
+
+        // Verify results
+        final List<SyncDiagnostics.Summary> history = diagnostics.getHistory();
+        assertEquals(3, history.size());
+        assertEquals(5, history.get(0).getItems());
+        assertEquals(3, history.get(2).getItems());
+        assertEquals(15, diagnostics.getTotalItems());
+    }
+
+    /**
+     * Verifies that raw XML is not captured by default.
+     */
+    @Test
+    public void testNoCaptureByDefault() throws Exception
+    {
+        // Setup test fixture.
+        final SyncDiagnostics diagnostics = new SyncDiagnostics(3);
+
+        // Execute system under test
+        diagnostics.record(SyncDiagnostics.Kind.PAGE, 1, 0, 64, Duration.ofMillis(1), new IQ(IQ.Type.result));
+
+        // Verify results
+        assertNull(diagnostics.getHistory().get(0).getCapture());
+    }
+
+    /**
+     * Verifies that captured raw XML is truncated to the configured length.
+     */
+    @Test
+    public void testCaptureIsTruncated() throws Exception
+    {
+        // Setup test fixture.
+        final SyncDiagnostics diagnostics = new SyncDiagnostics(3);
+        diagnostics.setCapture(true, 100);
+        final IQ stanza = new IQ(IQ.Type.result);
+        final Element itemsEl = stanza.setChildElement("pubsub", "http://jabber.org/protocol/pubsub").addElement("items");
+        for (int i = 0; i < 1000; i++) {
+            itemsEl.addElement("item").addAttribute("id", String.format("%064x", i));
+        }
+
+        // Execute system under test
+        diagnostics.record(SyncDiagnostics.Kind.PAGE, 1000, 0, 64000, Duration.ofMillis(1), stanza);
+
+        // Verify results
+        final String capture = diagnostics.getHistory().get(0).getCapture();
+        assertNotNull(capture);
+        assertTrue(capture.startsWith("<iq"));
+        assertTrue(capture.length() < 200);
+    }
+}
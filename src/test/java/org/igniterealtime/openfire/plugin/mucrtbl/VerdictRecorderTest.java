@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.igniterealtime.openfire.plugin.mucrtbl;
+
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link VerdictRecorder}
+ */
+public class VerdictRecorderTest
+{
+    /**
+     * Verifies that every verdict is counted, per MUC service.
+     */
+    @Test
+    public void testCountsPerService() throws Exception
+    {
+        // Setup test fixture.
+        final VerdictRecorder recorder = new VerdictRecorder(10, 1000);
+        final JID entity = new JID("spammer@example.org/resource");
+
+        // Execute system under test.
+        for (int i = 0; i < 5; i++) {
+            recorder.record(VerdictRecorder.Source.STANZA, "conference", entity, new JID("room@conference.example.com"));
+        }
+        recorder.record(VerdictRecorder.Source.JOIN, "internal", entity, new JID("room@internal.example.com"));
+
+        // Verify results.
+        final Map<String, Long> counts = recorder.getCounts();
+        assertEquals(2, counts.size());
+        assertEquals(5L, (long) counts.get("conference"));
+        assertEquals(1L, (long) counts.get("internal"));
+        assertEquals(6L, recorder.getTotal());
+    }
+
+    /**
+     * Verifies that the ring buffer retains no more than the configured amount of samples, and that it retains the most
+     * recent ones.
+     */
+    @Test
+    public void testRingBufferRetainsMostRecentSamples() throws Exception
+    {
+        // Setup test fixture.
+        final VerdictRecorder recorder = new VerdictRecorder(3, 1);
+
+        // Execute system under test.
+        for (int i = 0; i < 10; i++) {
+            recorder.record(VerdictRecorder.Source.OCCUPANT, "conference", new JID("user" + i + "@example.org"), new JID("room@conference.example.com"));
+            Thread.sleep(2);
+        }
+
+        // Verify results.
+        final List<VerdictRecorder.Sample> samples = recorder.getSamples();
+        assertEquals(3, samples.size());
+        assertEquals(new JID("user9@example.org"), samples.get(0).getEntity());
+        assertEquals(new JID("user7@example.org"), samples.get(2).getEntity());
+        assertEquals(10L, recorder.getTotal());
+    }
+
+    /**
+     * Verifies that no samples are retained when the sample size is zero, while verdicts are still counted.
+     */
+    @Test
+    public void testZeroSampleSize() throws Exception
+    {
+        // Setup test fixture.
+        final VerdictRecorder recorder = new VerdictRecorder(0, 1);
+
+        // Execute system under test.
+        recorder.record(VerdictRecorder.Source.INVITATION, "conference", new JID("spammer@example.org"), new JID("room@conference.example.com"));
+
+        // Verify results.
+        assertTrue(recorder.getSamples().isEmpty());
+        assertEquals(1L, recorder.getTotal());
+    }
+
+    /**
+     * Verifies that a reset discards counts and samples.
+     */
+    @Test
+    public void testReset() throws Exception
+    {
+        // Setup test fixture.
+        final VerdictRecorder recorder = new VerdictRecorder(5, 1);
+        recorder.record(VerdictRecorder.Source.STANZA, "conference", new JID("spammer@example.org"), new JID("room@conference.example.com"));
+
+        // Execute system under test.
+        recorder.reset();
+
+        // Verify results.
+        assertTrue(recorder.getSamples().isEmpty());
+        assertTrue(recorder.getCounts().isEmpty());
+        assertEquals(0L, recorder.getTotal());
+    }
+}